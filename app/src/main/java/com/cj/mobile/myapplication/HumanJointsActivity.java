@@ -2,27 +2,26 @@ package com.cj.mobile.myapplication;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.app.ActivityManager;
 import android.content.pm.PackageManager;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.YuvImage;
 import android.media.Image;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
-import android.util.Pair;
 import android.util.Size;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageAnalysis;
@@ -33,31 +32,42 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.LifecycleOwner;
 
-import com.cj.mobile.myapplication.model.SimilarityClassifier;
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+import com.cj.mobile.myapplication.util.BitmapPool;
+import com.cj.mobile.myapplication.util.EmbeddingStore;
+import com.cj.mobile.myapplication.util.FaceEmbedder;
+import com.cj.mobile.myapplication.util.FaceQualityGate;
+import com.cj.mobile.myapplication.util.FaceRegistry;
+import com.cj.mobile.myapplication.util.FaceTrackCache;
+import com.cj.mobile.myapplication.util.FaceWarper;
+import com.cj.mobile.myapplication.util.FrameStats;
+import com.cj.mobile.myapplication.util.HnswIndex;
+import com.cj.mobile.myapplication.util.InferenceTuner;
+import com.cj.mobile.myapplication.util.ModelRegistry;
+import com.cj.mobile.myapplication.util.QuantizedEmbeddingStore;
+import com.cj.mobile.myapplication.util.StartupOrchestrator;
+import com.cj.mobile.myapplication.util.YuvFrame;
+import com.cj.mobile.myapplication.util.YuvToRgbConverter;
+import com.cj.mobile.myapplication.view.OverlayView;
 import com.google.android.gms.tasks.Task;
-import com.google.common.util.concurrent.ListenableFuture;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.face.Face;
 import com.google.mlkit.vision.face.FaceDetection;
 import com.google.mlkit.vision.face.FaceDetector;
 import com.google.mlkit.vision.face.FaceDetectorOptions;
+import com.google.mlkit.vision.face.FaceLandmark;
 
-import org.opencv.android.OpenCVLoader;
 import org.tensorflow.lite.Interpreter;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.ReadOnlyBufferException;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @ProjectName: TensorFlowAndroid
@@ -71,31 +81,78 @@ public class HumanJointsActivity extends AppCompatActivity {
     private final String TAG = "HumanJointsActivity";
     private PreviewView previewView;
     // 轮廓标识、片段
-    private ImageView imageOutline, imageFragment;
+    private ImageView imageFragment;
+    // 人脸框叠加层
+    private OverlayView faceOverlay;
     private ProcessCameraProvider cameraProvider;
     // 摄像头默认 反面
     private int mCamFace = CameraSelector.LENS_FACING_BACK;
 
     // 模型
     private final static String MODEL_PATH = "mobile_face_net.tflite";
+    private ModelRegistry.Handle modelHandle;
     private Interpreter tfLite;
     private FaceDetector detector;
 
-    private boolean start = true;
-    private boolean flipX = false;
+    private volatile boolean start = true;
+    // 切换摄像头时在主线程修改，分析线程读取
+    private volatile boolean flipX = false;
 
     private boolean developerMode = false;
     private float distance = 1.0f;
-    // saved Faces
-    private HashMap<String, SimilarityClassifier.Recognition> registered = new HashMap<>();
+
+    // 旋转/裁剪/缩放链路复用的 Bitmap
+    private final BitmapPool bitmapPool = BitmapPool.getInstance();
+    private final Canvas drawCanvas = new Canvas();
+    private final Matrix drawMatrix = new Matrix();
+    private final Paint filterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint backgroundPaint = new Paint();
+    // 当前显示中的人脸片段，替换后才归还到池中
+    private Bitmap fragmentBitmap;
+    private YuvToRgbConverter yuvToRgbConverter;
+    // 人脸链路单帧耗时与 GC 统计
+    private final FrameStats faceStats = new FrameStats("FaceFrameStats", 30);
+    // 人脸分析线程：ML Kit 的回调、采样、批量推理和人脸库检索都在这里执行，不占用主线程；
+    // 轨迹缓存、模型和采样用的缓冲区只在这个线程上访问
+    private final ExecutorService analyzerExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "FaceAnalyzer"));
+    // ML Kit 回调使用的执行器：页面销毁、分析线程关闭后直接在 ML Kit 的线程上执行，
+    // 此时成功回调发现 destroyed 后立即返回，只剩关闭 ImageProxy
+    private final Executor callbackExecutor = command -> {
+        try {
+            analyzerExecutor.execute(command);
+        } catch (RejectedExecutionException e) {
+            command.run();
+        }
+    };
+    // onDestroy 开始时置为 true，后台线程据此停止
+    private volatile boolean destroyed;
+
+    // true：从相机帧一次仿射采样到模型输入；false：旋转/裁剪/镜像/缩放的 Bitmap 链路
+    private boolean fusedWarp = true;
+    private final YuvFrame yuvFrame = new YuvFrame();
+    private FaceWarper faceWarper;
+    private int[] fragmentPixels;
+    // 批量嵌入，同一帧最多一次处理的人脸数
+    private static final int MAX_FACE_BATCH = 4;
+    private FaceEmbedder faceEmbedder;
+    // 质量门限：短边小于 48 像素、偏航超过 35 度、俯仰超过 30 度或拉普拉斯方差小于 30 的人脸不做推理；
+    // 滚转超过 15 度的也不做，按双眼连线转正采样的人脸（融合路径且检测到双眼）放宽到 45 度
+    private static final boolean QUALITY_GATE = true;
+    private final FaceQualityGate qualityGate = new FaceQualityGate(48f, 35f, 30f, 15f, 45f, 30f, 300);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupOrchestrator.getInstance().markScreenStart(TAG);
         setContentView(R.layout.activity_face);
 
+        backgroundPaint.setColor(Color.WHITE);
+        yuvToRgbConverter = new YuvToRgbConverter(this);
+        faceWarper = new FaceWarper(inputSize, IMAGE_MEAN, IMAGE_STD, isModelQuantized);
+        fragmentPixels = new int[inputSize * inputSize];
+
         previewView = findViewById(R.id.view_faceactivity_finder);
-        imageOutline = findViewById(R.id.image_faceactivity_outline);
+        faceOverlay = findViewById(R.id.view_faceactivity_overlay);
         imageFragment = findViewById(R.id.image_faceactivity_fragment);
         findViewById(R.id.btn_faceactivity_reversal).setOnClickListener(v -> {
             // 翻转摄像头
@@ -109,6 +166,7 @@ public class HumanJointsActivity extends AppCompatActivity {
             cameraProvider.unbindAll();
             startCamera();
         });
+        findViewById(R.id.btn_faceactivity_add).setOnClickListener(v -> showAddFaceDialog());
 
         // 请求相机权限
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED
@@ -123,37 +181,92 @@ public class HumanJointsActivity extends AppCompatActivity {
             startCamera();
         }
 
-        // 加载模型
-        try {
-            tfLite = new Interpreter(loadModelFile());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // 等 StartupOrchestrator 预热完成后再取模型（此时直接命中 ModelRegistry 缓存），不阻塞 onCreate
+        StartupOrchestrator.getInstance().getModelReady(MODEL_PATH)
+                .thenRunAsync(this::loadModel, analyzerExecutor);
         // 初始化人脸检测器
         FaceDetectorOptions highAccuracyOpts =
                 new FaceDetectorOptions.Builder()
                         .setPerformanceMode(FaceDetectorOptions.PERFORMANCE_MODE_ACCURATE)
+                        // 双眼位置用于把人脸转正（FaceWarper 按眼线对齐），没有它们时只按人脸框采样
+                        .setLandmarkMode(FaceDetectorOptions.LANDMARK_MODE_ALL)
+                        // trackingId 用于关联人脸轨迹，复用缓存的嵌入
+                        .enableTracking()
                         .build();
         detector = FaceDetection.getClient(highAccuracyOpts);
+
+        // 只映射文件，不读取向量，耗时与注册人数无关；人数较多时在后台加载（或建立）近似最近邻索引或量化存储
+        lowRamDevice = ((ActivityManager) getSystemService(ACTIVITY_SERVICE)).isLowRamDevice();
+        try {
+            faceRegistry = FaceRegistry.open(new File(getFilesDir(), REGISTRY_FILE), OUTPUT_SIZE);
+            FaceRegistry registry = faceRegistry;
+            galleryExecutor.execute(() -> loadGalleryIndex(registry));
+        } catch (IOException e) {
+            Log.e(TAG, "人脸库打开失败", e);
+        }
     }
 
-    private void startCamera() {
-        ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(this);
+    /**
+     * 在分析线程上加载模型（由 ModelRegistry 缓存，重新进入页面不再重复加载）
+     */
+    private void loadModel() {
+        if (destroyed) {
+            return;
+        }
+        try {
+            ModelRegistry.Options options = InferenceTuner.getInstance().getOptions(MODEL_PATH, ModelRegistry.Options.DEFAULT);
+            modelHandle = ModelRegistry.getInstance().acquire(getAssets(), MODEL_PATH, options);
+            tfLite = modelHandle.getInterpreter();
+            faceEmbedder = new FaceEmbedder(tfLite, faceWarper, OUTPUT_SIZE, MAX_FACE_BATCH);
+            imgData = faceEmbedder.getInputBuffer();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        cameraProviderFuture.addListener(() -> {
-            try {
-                cameraProvider = cameraProviderFuture.get();
-                if (!OpenCVLoader.initDebug()) {
-                    Log.e("OpenCV", "无法加载OpenCV库");
-                } else {
-                    Log.d("OpenCV", "OpenCV 加载成功！");
-                    bindPreview(cameraProvider);
-                }
+    @Override
+    protected void onDestroy() {
+        destroyed = true;
+        super.onDestroy();
+        // 排在在途的分析之后释放模型和转换线程
+        analyzerExecutor.execute(() -> {
+            yuvToRgbConverter.release();
+            if (modelHandle != null) {
+                modelHandle.close();
+                modelHandle = null;
+            }
+        });
+        analyzerExecutor.shutdown();
+        imageFragment.setImageBitmap(null);
+        bitmapPool.put(fragmentBitmap);
+        fragmentBitmap = null;
+        FaceRegistry registry = faceRegistry;
+        faceRegistry = null;
+        // 排在已提交的注册、建立和插入之后执行
+        if (registry != null) {
+            galleryExecutor.execute(registry::close);
+        }
+        galleryExecutor.execute(this::saveGalleryIndex);
+        galleryExecutor.shutdown();
+    }
 
-            } catch (ExecutionException | InterruptedException e) {
+    private void startCamera() {
+        // OpenCV 和 ProcessCameraProvider 已由 StartupOrchestrator 在后台准备
+        StartupOrchestrator startup = StartupOrchestrator.getInstance();
+        CompletableFuture<Boolean> openCvReady = startup.getOpenCvReady();
+        CompletableFuture<ProcessCameraProvider> cameraProviderFuture = startup.getCameraProvider();
+
+        CompletableFuture.allOf(openCvReady, cameraProviderFuture).whenCompleteAsync((ignored, error) -> {
+            if (error != null) {
                 // Handle any errors here
-                Log.e("CameraX", "Failed to bind camera", e);
+                Log.e("CameraX", "Failed to bind camera", error);
                 Toast.makeText(this, "无法启动相机，请稍后再试", Toast.LENGTH_SHORT).show();
+            } else if (!openCvReady.join()) {
+                Log.e("OpenCV", "无法加载OpenCV库");
+            } else {
+                Log.d("OpenCV", "OpenCV 加载成功！");
+                cameraProvider = cameraProviderFuture.join();
+                bindPreview(cameraProvider);
             }
         }, ContextCompat.getMainExecutor(this));
     }
@@ -175,7 +288,7 @@ public class HumanJointsActivity extends AppCompatActivity {
                 .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
                 .build();
 
-        imageAnalyzer.setAnalyzer(ContextCompat.getMainExecutor(this), imageProxy -> {
+        imageAnalyzer.setAnalyzer(analyzerExecutor, imageProxy -> {
             // 执行检测逻辑
             Log.d(TAG, "#####  TFLite 执行检测逻辑！");
 
@@ -186,22 +299,56 @@ public class HumanJointsActivity extends AppCompatActivity {
 
             if (mediaImage != null) {
                 image = InputImage.fromMediaImage(mediaImage, imageProxy.getImageInfo().getRotationDegrees());
+                // 人脸框是转正后的图像坐标
+                boolean sideways = imageProxy.getImageInfo().getRotationDegrees() % 180 != 0;
+                faceOverlay.setSourceSize(sideways ? imageProxy.getHeight() : imageProxy.getWidth(),
+                        sideways ? imageProxy.getWidth() : imageProxy.getHeight(), flipX);
             }
 
             // 处理采集的图像以检测人脸
             Task<List<Face>> result = detector.process(image)
-                    .addOnSuccessListener(faces -> {
+                    .addOnSuccessListener(callbackExecutor, faces -> {
+                        if (destroyed) {
+                            return;
+                        }
                         Log.d(TAG, "#####  faces=" + faces.size());
+                        StartupOrchestrator.getInstance().markFirstResult(TAG);
                         if (faces.size() != 0) {
+                            long frameStart = faceStats.begin();
 
                             // 从检测到的人脸中获取第一张人脸
                             Face face = faces.get(0);
 
-                            // 媒体图像到位图
-                            Bitmap mFrameBmp = toBitmap(mediaImage);
+                            if (fusedWarp) {
+                                // 显示人脸轮廓
+                                displayFacialContours(new RectF(face.getBoundingBox()));
+
+                                if (start && faceEmbedder != null) {
+                                    // 所有人脸一次仿射采样到 112*112 的模型输入，按批推理；第一张人脸（包括未通过质量门限的）同时生成预览
+                                    embedFaces(mediaImage, imageProxy.getImageInfo().getRotationDegrees(), faces);
+                                    Bitmap fragment = bitmapPool.get(inputSize, inputSize, Bitmap.Config.ARGB_8888);
+                                    fragment.setPixels(fragmentPixels, 0, inputSize, 0, 0, inputSize, inputSize);
+                                    runOnUiThread(() -> showFragment(fragment));
+                                }
+                                faceStats.end(frameStart);
+                                return;
+                            }
 
                             int rot = imageProxy.getImageInfo().getRotationDegrees();
 
+                            // 低质量的人脸在转换位图之前就丢弃
+                            YuvToRgbConverter.wrap(mediaImage, yuvFrame);
+                            if (start && !passesQualityGate(rot, face)) {
+                                displayFacialContours(new RectF(face.getBoundingBox()));
+                                // 没有生成片段，不再显示之前的人脸
+                                runOnUiThread(() -> showFragment(null));
+                                faceStats.end(frameStart);
+                                return;
+                            }
+
+                            // 媒体图像到位图
+                            Bitmap mFrameBmp = toBitmap(mediaImage);
+
                             // 调整面部方向
                             Bitmap frame_bmp1 = rotateBitmap(mFrameBmp, rot, false, false);
 
@@ -221,19 +368,22 @@ public class HumanJointsActivity extends AppCompatActivity {
                             // 将获取的人脸缩放到112*112，这是模型所需的输入
                             Bitmap scaled = getResizedBitmap(mCroppedFace, 112, 112);
 
-                            if (start)
+                            if (start && faceEmbedder != null)
                                 // 发送缩放位图以创建面部嵌入
                                 recognizeImage(scaled);
+                            else
+                                bitmapPool.put(scaled);
 
+                            faceStats.end(frameStart);
                         } else {
-                            imageOutline.setImageBitmap(null);
+                            faceOverlay.clear();
                         }
                     })
-                    .addOnFailureListener(e -> {
+                    .addOnFailureListener(callbackExecutor, e -> {
                         start = true;
                         Log.e(TAG, "#####  TFLite 检测失败=" + e.getMessage());
                     })
-                    .addOnCompleteListener(task -> {
+                    .addOnCompleteListener(callbackExecutor, task -> {
                         Log.d(TAG, "#####  TFLite 检测完成！");
 
                         // 处理完成后关闭 ImageProxy
@@ -246,199 +396,84 @@ public class HumanJointsActivity extends AppCompatActivity {
     }
 
     /**
-     * 显示面部轮廓
+     * 显示面部轮廓，只更新叠加层中的一个框，坐标映射由 OverlayView 完成
      */
     private void displayFacialContours(RectF boundingBox) {
-        // 创建一个 Bitmap 对象
-        Bitmap bitmap = Bitmap.createBitmap(previewView.getWidth(), previewView.getHeight(), Bitmap.Config.ARGB_8888);
-        // 创建一个 Canvas 对象
-        Canvas canvas = new Canvas(bitmap);
-        // 将原始 Canvas 的内容绘制到新的 Canvas 上
-        canvas.drawBitmap(bitmap, 0, 0, null);
-        imageOutline.setImageBitmap(bitmap);
-        Paint paint = new Paint();
-        paint.setColor(Color.GREEN);
-        paint.setStyle(Paint.Style.STROKE);
-        paint.setStrokeWidth(5);
-        canvas.drawRect(
-                flipX ? (previewView.getWidth() - boundingBox.left) : boundingBox.left,
-                boundingBox.top,
-                flipX ? (previewView.getWidth() - boundingBox.right) : boundingBox.right,
-                boundingBox.bottom,
-                paint);
-        paint.setStrokeWidth(2);
-    }
-
-    private MappedByteBuffer loadModelFile() throws IOException {
-        AssetFileDescriptor fileDescriptor = this.getAssets().openFd(MODEL_PATH);
-        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-        FileChannel fileChannel = inputStream.getChannel();
-        long startOffset = fileDescriptor.getStartOffset();
-        long declaredLength = fileDescriptor.getDeclaredLength();
-        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+        faceOverlay.addBox(boundingBox.left, boundingBox.top, boundingBox.right, boundingBox.bottom, null);
+        faceOverlay.commit();
     }
 
 
     /**
-     * 重要。如果转换未完成，则toBitmap转换在某些设备上不起作用。
-     */
-    private static byte[] YUV_420_888toNV21(Image image) {
-
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int ySize = width * height;
-        int uvSize = width * height / 4;
-
-        byte[] nv21 = new byte[ySize + uvSize * 2];
-
-        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer(); // Y
-        ByteBuffer uBuffer = image.getPlanes()[1].getBuffer(); // U
-        ByteBuffer vBuffer = image.getPlanes()[2].getBuffer(); // V
-
-        int rowStride = image.getPlanes()[0].getRowStride();
-        assert (image.getPlanes()[0].getPixelStride() == 1);
-
-        int pos = 0;
-
-        if (rowStride == width) { // likely
-            yBuffer.get(nv21, 0, ySize);
-            pos += ySize;
-        } else {
-            long yBufferPos = -rowStride; // not an actual position
-            for (; pos < ySize; pos += width) {
-                yBufferPos += rowStride;
-                yBuffer.position((int) yBufferPos);
-                yBuffer.get(nv21, pos, width);
-            }
-        }
-
-        rowStride = image.getPlanes()[2].getRowStride();
-        int pixelStride = image.getPlanes()[2].getPixelStride();
-
-        assert (rowStride == image.getPlanes()[1].getRowStride());
-        assert (pixelStride == image.getPlanes()[1].getPixelStride());
-
-        if (pixelStride == 2 && rowStride == width && uBuffer.get(0) == vBuffer.get(1)) {
-            // maybe V an U planes overlap as per NV21, which means vBuffer[1] is alias of uBuffer[0]
-            byte savePixel = vBuffer.get(1);
-            try {
-                vBuffer.put(1, (byte) ~savePixel);
-                if (uBuffer.get(0) == (byte) ~savePixel) {
-                    vBuffer.put(1, savePixel);
-                    vBuffer.position(0);
-                    uBuffer.position(0);
-                    vBuffer.get(nv21, ySize, 1);
-                    uBuffer.get(nv21, ySize + 1, uBuffer.remaining());
-
-                    return nv21; // shortcut
-                }
-            } catch (ReadOnlyBufferException ex) {
-                // unfortunately, we cannot check if vBuffer and uBuffer overlap
-            }
-
-            // unfortunately, the check failed. We must save U and V pixel by pixel
-            vBuffer.put(1, savePixel);
-        }
-
-        // other optimizations could check if (pixelStride == 1) or (pixelStride == 2),
-        // but performance gain would be less significant
-
-        for (int row = 0; row < height / 2; row++) {
-            for (int col = 0; col < width / 2; col++) {
-                int vuPos = col * pixelStride + row * rowStride;
-                nv21[pos++] = vBuffer.get(vuPos);
-                nv21[pos++] = uBuffer.get(vuPos);
-            }
-        }
-
-        return nv21;
-    }
-
-    /**
-     * 转成Bitmap格式
+     * 转成Bitmap格式，直接转换到池中的 Bitmap，不再经过 NV21/JPEG
      */
     private Bitmap toBitmap(Image image) {
-
-        byte[] nv21 = YUV_420_888toNV21(image);
-
-        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 75, out);
-
-        byte[] imageBytes = out.toByteArray();
-        //System.out.println("bytes"+ Arrays.toString(imageBytes));
-
-        //System.out.println("FORMAT"+image.getFormat());
-
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+        Bitmap bitmap = bitmapPool.get(image.getCropRect().width(), image.getCropRect().height(), Bitmap.Config.ARGB_8888);
+        yuvToRgbConverter.yuvToRgb(image, bitmap);
+        return bitmap;
     }
 
     /**
-     * 旋转位图
+     * 旋转位图，结果绘制到池中的 Bitmap，原图归还到池中
      */
-    private static Bitmap rotateBitmap(Bitmap bitmap, int rotationDegrees, boolean flipX, boolean flipY) {
-        Matrix matrix = new Matrix();
-
-        // Rotate the image back to straight.
-        matrix.postRotate(rotationDegrees);
-
-        // Mirror the image along the X or Y axis.
-        matrix.postScale(flipX ? -1.0f : 1.0f, flipY ? -1.0f : 1.0f);
-        Bitmap rotatedBitmap =
-                Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-
-        // Recycle the old bitmap if it has changed.
-        if (rotatedBitmap != bitmap) {
-            bitmap.recycle();
+    private Bitmap rotateBitmap(Bitmap bitmap, int rotationDegrees, boolean flipX, boolean flipY) {
+        if (rotationDegrees % 360 == 0 && !flipX && !flipY) {
+            return bitmap;
         }
+        boolean swap = rotationDegrees % 180 != 0;
+        int width = swap ? bitmap.getHeight() : bitmap.getWidth();
+        int height = swap ? bitmap.getWidth() : bitmap.getHeight();
+        Bitmap rotatedBitmap = bitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+
+        // Rotate the image back to straight, mirror it along the X or Y axis, keep it centred.
+        drawMatrix.reset();
+        drawMatrix.postTranslate(-bitmap.getWidth() / 2f, -bitmap.getHeight() / 2f);
+        drawMatrix.postRotate(rotationDegrees);
+        drawMatrix.postScale(flipX ? -1.0f : 1.0f, flipY ? -1.0f : 1.0f);
+        drawMatrix.postTranslate(width / 2f, height / 2f);
+
+        drawCanvas.setBitmap(rotatedBitmap);
+        drawCanvas.drawBitmap(bitmap, drawMatrix, filterPaint);
+        drawCanvas.setBitmap(null);
+
+        bitmapPool.put(bitmap);
         return rotatedBitmap;
     }
 
     /**
-     * CPU获取裁剪位图
+     * CPU获取裁剪位图，结果绘制到池中的 Bitmap，原图归还到池中
      */
-    private static Bitmap getCropBitmapByCPU(Bitmap source, RectF cropRectF) {
-        Bitmap resultBitmap = Bitmap.createBitmap((int) cropRectF.width(),
-                (int) cropRectF.height(), Bitmap.Config.ARGB_8888);
-        Canvas cavas = new Canvas(resultBitmap);
+    private Bitmap getCropBitmapByCPU(Bitmap source, RectF cropRectF) {
+        int width = (int) cropRectF.width();
+        int height = (int) cropRectF.height();
+        Bitmap resultBitmap = bitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+        drawCanvas.setBitmap(resultBitmap);
 
         // draw background
-        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
-        paint.setColor(Color.WHITE);
-        cavas.drawRect(
-                new RectF(0, 0, cropRectF.width(), cropRectF.height()),
-                paint);
-
-        Matrix matrix = new Matrix();
-        matrix.postTranslate(-cropRectF.left, -cropRectF.top);
-
-        cavas.drawBitmap(source, matrix, paint);
+        drawCanvas.drawRect(0, 0, width, height, backgroundPaint);
 
-        if (source != null && !source.isRecycled()) {
-            source.recycle();
-        }
+        drawMatrix.reset();
+        drawMatrix.postTranslate(-cropRectF.left, -cropRectF.top);
+        drawCanvas.drawBitmap(source, drawMatrix, filterPaint);
+        drawCanvas.setBitmap(null);
 
+        bitmapPool.put(source);
         return resultBitmap;
     }
 
     /**
-     * 获取调整大小的位图
+     * 获取调整大小的位图，结果绘制到池中的 Bitmap，原图归还到池中
      */
     public Bitmap getResizedBitmap(Bitmap bm, int newWidth, int newHeight) {
-        int width = bm.getWidth();
-        int height = bm.getHeight();
-        float scaleWidth = ((float) newWidth) / width;
-        float scaleHeight = ((float) newHeight) / height;
-        // CREATE A MATRIX FOR THE MANIPULATION
-        Matrix matrix = new Matrix();
-        // RESIZE THE BIT MAP
-        matrix.postScale(scaleWidth, scaleHeight);
-
-        // "RECREATE" THE NEW BITMAP
-        Bitmap resizedBitmap = Bitmap.createBitmap(
-                bm, 0, 0, width, height, matrix, false);
-        bm.recycle();
+        Bitmap resizedBitmap = bitmapPool.get(newWidth, newHeight, Bitmap.Config.ARGB_8888);
+
+        drawMatrix.reset();
+        drawMatrix.postScale(((float) newWidth) / bm.getWidth(), ((float) newHeight) / bm.getHeight());
+        drawCanvas.setBitmap(resizedBitmap);
+        drawCanvas.drawBitmap(bm, drawMatrix, filterPaint);
+        drawCanvas.setBitmap(null);
+
+        bitmapPool.put(bm);
         return resizedBitmap;
     }
 
@@ -452,20 +487,181 @@ public class HumanJointsActivity extends AppCompatActivity {
 
     // Output size of model
     int OUTPUT_SIZE = 192;
+    // 人脸数 x 192 的嵌入矩阵
     float[][] embeedings;
+    // saved Faces：归一化后连续存放的嵌入，注册时写时复制，不阻塞查询
+    private final EmbeddingStore registered = new EmbeddingStore(OUTPUT_SIZE);
+    // 复用的最近邻结果
+    private final EmbeddingMatch nearest = new EmbeddingMatch();
+    // 人脸库达到 2000 人后不再线性扫描映射的文件（约需 1ms，且随人数线性增长），改用近似最近邻索引或量化存储
+    private static final int LARGE_GALLERY_SIZE = 2000;
+    // 索引保存在人脸库旁边，人脸库变化前先删除，下次加载时不会用到过期的索引
+    private static final String INDEX_FILE = "faces.hnsw";
+    // M = 16，efConstruction = 100，efSearch = 32（约 99% 的 recall@1）；由 galleryExecutor 加载或建立，完成前为 null
+    private volatile HnswIndex registeredIndex;
+    // 索引的加载、建立、插入和保存都在这个线程上依次执行
+    private final ExecutorService galleryExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "FaceGallery"));
+    // 索引有未保存的修改，只在 galleryExecutor 上访问
+    private boolean indexDirty;
+    // 低内存设备上大人脸库不建立索引（每人至少 768 字节的向量加邻接表），改用 int8 量化存储：
+    // 量化域选出的 32 人用映射的人脸库中的 float 向量精确重排，堆上只保存编码和行号，每人 204 字节，约为 float 的 1/4；
+    // 由 galleryExecutor 建立，完成前为 null
+    private boolean lowRamDevice;
+    private volatile QuantizedEmbeddingStore registeredQuantized;
+    private static final int QUANTIZED_RERANK_COUNT = 32;
+    // 建立量化存储时每批提交的人数，快照只复制 人数 / 4096 次
+    private static final int QUANTIZED_LOAD_BATCH = 4096;
+    // 持久化的人脸库（应用私有目录下的映射文件），重新进入页面后注册的人脸仍在；打开失败时退回内存中的 registered
+    private static final String REGISTRY_FILE = "faces.reg";
+    private volatile FaceRegistry faceRegistry;
+    // 人脸轨迹的嵌入与身份缓存：质量明显变好或超过 2 秒才重新推理，人脸消失 1 秒后回收
+    private static final long FACE_EMBEDDING_TTL = 2000;
+    private final FaceTrackCache faceTracks = new FaceTrackCache(OUTPUT_SIZE, 16, FACE_EMBEDDING_TTL, 1000);
+    // 等待批量推理的轨迹及其质量（尺寸、姿态、清晰度）
+    private final int[] pendingTracks = new int[MAX_FACE_BATCH];
+    private final float[] pendingQuality = new float[MAX_FACE_BATCH * 3];
+    // 第一张人脸的轨迹，注册时使用它缓存的嵌入；非融合路径为 -1
+    private int primaryTrack = -1;
+
+    // 复用的模型输入（FaceEmbedder 的第 0 个位置）
+    ByteBuffer imgData;
 
-    public void recognizeImage(final Bitmap bitmap) {
+    /**
+     * 对帧中的人脸批量生成嵌入，批大小随需要刷新的人脸数变化，超过上限时分批
+     * <p>
+     * 采样的开销远小于推理：每张人脸先采样到下一个空位置并评估清晰度，轨迹缓存的嵌入仍然可用时该位置留给下一张人脸
+     */
+    private void embedFaces(Image mediaImage, int rotationDegrees, List<Face> faces) {
+        YuvToRgbConverter.wrap(mediaImage, yuvFrame);
+        long now = SystemClock.elapsedRealtime();
+        int batchLimit = faceEmbedder.getMaxBatch();
+        int count = 0;
+        primaryTrack = -1;
+        for (int i = 0; i < faces.size(); i++) {
+            Face face = faces.get(i);
+            Rect box = face.getBoundingBox();
+            Integer trackingId = face.getTrackingId();
+            int track = faceTracks.acquire(trackingId != null ? trackingId : FaceTrackCache.NO_TRACKING_ID,
+                    box.left, box.top, box.right, box.bottom, now);
+            if (i == 0) {
+                primaryTrack = track;
+            }
+            if (track < 0 || !passesQualityGate(rotationDegrees, face)) {
+                // 低质量的人脸不刷新嵌入，轨迹中已缓存的嵌入和身份仍然可用；第一张人脸仍然采样到下一个空位置生成预览，
+                // 该位置随后被覆盖
+                if (i == 0) {
+                    setFaceTransform(rotationDegrees, face);
+                    faceEmbedder.warpInto(count, yuvFrame, fragmentPixels);
+                }
+                continue;
+            }
 
-        // set Face to Preview
-        imageFragment.setImageBitmap(bitmap);
+            setFaceTransform(rotationDegrees, face);
+            faceEmbedder.warpInto(count, yuvFrame, i == 0 ? fragmentPixels : null);
+            float size = Math.min(box.width(), box.height());
+            float pose = Math.abs(face.getHeadEulerAngleX()) + Math.abs(face.getHeadEulerAngleY());
+            float sharpness = faceEmbedder.sharpness(count);
+            if (faceTracks.needsRefresh(track, size, pose, sharpness, now)) {
+                pendingTracks[count] = track;
+                pendingQuality[count * 3] = size;
+                pendingQuality[count * 3 + 1] = pose;
+                pendingQuality[count * 3 + 2] = sharpness;
+                if (++count == batchLimit) {
+                    flushEmbeddings(count, now);
+                    count = 0;
+                }
+            } else if (!faceTracks.hasIdentity(track)) {
+                // 已注册的人脸变化后，用缓存的嵌入重新检索，不需要推理
+                identifyTrack(track, faceTracks.getEmbedding(track));
+            }
+        }
+        if (count > 0) {
+            flushEmbeddings(count, now);
+        }
+        faceTracks.endFrame(now);
+    }
+
+    /**
+     * 对等待中的 count 张人脸做一次批量推理，结果写入各自的轨迹并识别身份
+     */
+    private void flushEmbeddings(int count, long now) {
+        embeedings = faceEmbedder.embed(count);
+        for (int slot = 0; slot < count; slot++) {
+            int track = pendingTracks[slot];
+            float[] embedding = faceTracks.update(track, embeedings[slot], pendingQuality[slot * 3],
+                    pendingQuality[slot * 3 + 1], pendingQuality[slot * 3 + 2], now);
+            identifyTrack(track, embedding);
+        }
+        Log.d(TAG, "##### embedded faces: " + count);
+    }
+
+    /**
+     * 检索最近的已注册人脸，距离小于阈值时作为轨迹的身份
+     */
+    private void identifyTrack(int track, float[] embedding) {
+        findNearest(embedding);
+        if (nearest.size() > 0 && nearest.getDistance(0) < distance) {
+            faceTracks.setIdentity(track, nearest.getName(0), nearest.getDistance(0));
+        } else {
+            faceTracks.setIdentity(track, null, nearest.size() > 0 ? nearest.getDistance(0) : Float.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 在已包装的 yuvFrame 上评估人脸质量（只读亮度，不做 RGB 转换）
+     */
+    private boolean passesQualityGate(int rotationDegrees, Face face) {
+        if (!QUALITY_GATE) {
+            return true;
+        }
+        Rect box = face.getBoundingBox();
+        // 只有融合路径的 setFaceTransform 会按双眼转正，Bitmap 链路不纠正滚转
+        boolean aligned = fusedWarp && face.getLandmark(FaceLandmark.LEFT_EYE) != null
+                && face.getLandmark(FaceLandmark.RIGHT_EYE) != null;
+        return qualityGate.evaluate(yuvFrame, rotationDegrees, box.left, box.top, box.right, box.bottom,
+                face.getHeadEulerAngleX(), face.getHeadEulerAngleY(), face.getHeadEulerAngleZ(), aligned)
+                == FaceQualityGate.PASSED;
+    }
+
+    /**
+     * 用人脸框（以及双眼位置，如果检测器提供）构建一次仿射变换
+     */
+    private void setFaceTransform(int rotationDegrees, Face face) {
+        Rect box = face.getBoundingBox();
+        FaceLandmark leftEye = face.getLandmark(FaceLandmark.LEFT_EYE);
+        FaceLandmark rightEye = face.getLandmark(FaceLandmark.RIGHT_EYE);
+        if (leftEye != null && rightEye != null) {
+            faceWarper.setTransform(yuvFrame.getWidth(), yuvFrame.getHeight(), rotationDegrees,
+                    box.left, box.top, box.right, box.bottom, flipX,
+                    leftEye.getPosition().x, leftEye.getPosition().y,
+                    rightEye.getPosition().x, rightEye.getPosition().y);
+        } else {
+            faceWarper.setTransform(yuvFrame.getWidth(), yuvFrame.getHeight(), rotationDegrees,
+                    box.left, box.top, box.right, box.bottom, flipX);
+        }
+    }
 
-        // 创建ByteBuffer以存储规范化图像
+    /**
+     * set Face to Preview，上一张片段替换后归还到池中；在主线程调用
+     */
+    private void showFragment(Bitmap bitmap) {
+        if (destroyed) {
+            bitmapPool.put(bitmap);
+            return;
+        }
+        imageFragment.setImageBitmap(bitmap);
+        bitmapPool.put(fragmentBitmap);
+        fragmentBitmap = bitmap;
+    }
 
-        ByteBuffer imgData = ByteBuffer.allocateDirect(1 * inputSize * inputSize * 3 * 4);
+    public void recognizeImage(final Bitmap bitmap) {
 
-        imgData.order(ByteOrder.nativeOrder());
+        // 片段只在主线程上显示，这里继续读取它的像素
+        runOnUiThread(() -> showFragment(bitmap));
 
-        intValues = new int[inputSize * inputSize];
+        if (intValues == null) {
+            intValues = new int[inputSize * inputSize];
+        }
 
         // get pixel values from Bitmap to normalize
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
@@ -490,20 +686,16 @@ public class HumanJointsActivity extends AppCompatActivity {
             }
         }
 
-        //img数据被输入到我们的模型中
-        Object[] inputArray = {imgData};
-
-        Map<Integer, Object> outputMap = new HashMap<>();
-
-        // 模型的输出将存储在此变量中
-        embeedings = new float[1][OUTPUT_SIZE];
-
-        outputMap.put(0, embeedings);
-
-        // 运行模型
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        runEmbedding();
+    }
 
-        Log.d(TAG, "##### run: " + outputMap.size());
+    /**
+     * 用 imgData 运行 MobileFaceNet，得到人脸嵌入
+     */
+    private void runEmbedding() {
+        // 单张人脸，batch 为 1；模型的输出将存储在此变量中
+        embeedings = faceEmbedder.embed(1);
+        primaryTrack = -1;
 
 //        float distance_local = Float.MAX_VALUE;
 //        String id = "0";
@@ -513,18 +705,18 @@ public class HumanJointsActivity extends AppCompatActivity {
 //        if (registered.size() > 0) {
 //
 //            // 找到2个最匹配的人脸
-//            final List<Pair<String, Float>> nearest = findNearest(embeedings[0]);
+//            findNearest(embeedings[0]);
 //
-//            if (nearest.get(0) != null) {
+//            if (nearest.size() > 0) {
 //                // 获取最接近匹配人脸的名称和距离
-//                final String name = nearest.get(0).first;
+//                final String name = nearest.getName(0);
 //                // label = name;
-//                distance_local = nearest.get(0).second;
+//                distance_local = nearest.getDistance(0);
 //                if (developerMode) {
 //                    if (distance_local < distance) //If distance between Closest found face is more than 1.000 ,then output UNKNOWN face.
-//                        reco_name.setText("Nearest: " + name + "\nDist: " + String.format("%.3f", distance_local) + "\n2nd Nearest: " + nearest.get(1).first + "\nDist: " + String.format("%.3f", nearest.get(1).second));
+//                        reco_name.setText("Nearest: " + name + "\nDist: " + String.format("%.3f", distance_local) + "\n2nd Nearest: " + nearest.getName(nearest.size() - 1) + "\nDist: " + String.format("%.3f", nearest.getDistance(nearest.size() - 1)));
 //                    else
-//                        reco_name.setText("Unknown " + "\nDist: " + String.format("%.3f", distance_local) + "\nNearest: " + name + "\nDist: " + String.format("%.3f", distance_local) + "\n2nd Nearest: " + nearest.get(1).first + "\nDist: " + String.format("%.3f", nearest.get(1).second));
+//                        reco_name.setText("Unknown " + "\nDist: " + String.format("%.3f", distance_local) + "\nNearest: " + name + "\nDist: " + String.format("%.3f", distance_local) + "\n2nd Nearest: " + nearest.getName(nearest.size() - 1) + "\nDist: " + String.format("%.3f", nearest.getDistance(nearest.size() - 1)));
 //
 ////                    System.out.println("nearest: " + name + " - distance: " + distance_local);
 //                } else {
@@ -540,32 +732,211 @@ public class HumanJointsActivity extends AppCompatActivity {
 //        }
     }
 
-    private List<Pair<String, Float>> findNearest(float[] emb) {
-        List<Pair<String, Float>> neighbour_list = new ArrayList<Pair<String, Float>>();
-        Pair<String, Float> ret = null; //to get closest match
-        Pair<String, Float> prev_ret = null; //to get second closest match
-        for (Map.Entry<String, SimilarityClassifier.Recognition> entry : registered.entrySet()) {
+    /**
+     * 输入名字后用当前画面中的第一张人脸注册
+     */
+    private void showAddFaceDialog() {
+        EditText input = new EditText(this);
+        input.setSingleLine();
+        input.setHint("名字");
+        new AlertDialog.Builder(this)
+                .setTitle("添加人脸")
+                .setView(input)
+                .setPositiveButton("确定", (dialog, which) -> {
+                    String name = input.getText().toString().trim();
+                    if (name.isEmpty()) {
+                        Toast.makeText(this, "请输入名字", Toast.LENGTH_SHORT).show();
+                    } else {
+                        registerFace(name);
+                    }
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
 
-            final String name = entry.getKey();
-            final float[] knownEmb = ((float[][]) entry.getValue().getExtra())[0];
+    /**
+     * 用最近一次的嵌入注册人脸：在分析线程上取出第一张人脸缓存的嵌入，
+     * 写入人脸库文件（两次刷盘，可能还要压缩）在 galleryExecutor 上执行，完成后回到分析线程让缓存的身份失效，并在主线程提示
+     */
+    private void registerFace(String name) {
+        analyzerExecutor.execute(() -> {
+            float[] embedding = primaryTrack >= 0 ? faceTracks.getEmbedding(primaryTrack)
+                    : embeedings != null ? embeedings[0] : null;
+            if (embedding == null) {
+                // 画面中还没有通过质量门限的人脸
+                runOnUiThread(() -> showToast("没有可用的人脸，请正对摄像头后重试"));
+                return;
+            }
+            // 轨迹缓存的嵌入之后会被覆盖
+            float[] copy = embedding.clone();
+            FaceRegistry registry = faceRegistry;
+            galleryExecutor.execute(() -> enrollFace(registry, name, copy));
+        });
+    }
 
-            float distance = 0;
-            for (int i = 0; i < emb.length; i++) {
-                float diff = emb[i] - knownEmb[i];
-                distance += diff * diff;
+    /**
+     * 在 galleryExecutor 上执行：保存到人脸库并加入索引，人脸库不可用时退回内存中的 registered
+     */
+    private void enrollFace(FaceRegistry registry, String name, float[] embedding) {
+        boolean saved = false;
+        if (registry != null) {
+            try {
+                // 保存的索引即将过期，先删除；中途被杀时下次启动重新建立
+                File indexFile = new File(getFilesDir(), INDEX_FILE);
+                if (indexFile.exists() && !indexFile.delete()) {
+                    Log.w(TAG, "索引文件删除失败");
+                }
+                int row = registry.enroll(name, embedding);
+                indexFace(registry, name, embedding, row);
+                saved = true;
+            } catch (IOException e) {
+                Log.e(TAG, "人脸注册失败", e);
             }
-            distance = (float) Math.sqrt(distance);
-            if (ret == null || distance < ret.second) {
-                prev_ret = ret;
-                ret = new Pair<>(name, distance);
+        }
+        if (!saved) {
+            registered.add(name, embedding);
+        }
+        try {
+            // 已缓存的身份不再准确，下一帧用缓存的嵌入重新检索
+            analyzerExecutor.execute(faceTracks::clearIdentities);
+        } catch (RejectedExecutionException e) {
+            // 页面已销毁
+            return;
+        }
+        String message = saved ? "已添加：" + name : "已添加（未保存）：" + name;
+        runOnUiThread(() -> showToast(message));
+    }
+
+    private void showToast(String message) {
+        if (!destroyed) {
+            Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * 在 galleryExecutor 上执行：人数达到 LARGE_GALLERY_SIZE 时加载保存的索引，没有（或人数不一致）时从人脸库建立；
+     * 低内存设备上改为建立量化存储
+     */
+    private void loadGalleryIndex(FaceRegistry registry) {
+        int size = registry.size();
+        if (registeredIndex != null || registeredQuantized != null || size < LARGE_GALLERY_SIZE) {
+            return;
+        }
+        if (lowRamDevice) {
+            loadQuantizedGallery(registry);
+            return;
+        }
+        File file = new File(getFilesDir(), INDEX_FILE);
+        HnswIndex index = null;
+        if (file.exists()) {
+            try {
+                index = HnswIndex.load(file);
+            } catch (IOException e) {
+                Log.w(TAG, "索引加载失败，重新建立", e);
+            }
+            if (index != null && index.size() != size) {
+                index = null;
             }
         }
-        if (prev_ret == null) prev_ret = ret;
-        neighbour_list.add(ret);
-        neighbour_list.add(prev_ret);
+        if (index == null) {
+            long start = SystemClock.elapsedRealtime();
+            HnswIndex built = new HnswIndex(OUTPUT_SIZE, 16, 100, 32);
+            // 页面销毁后不再继续建立
+            if (!registry.forEach((row, name, vector) -> {
+                built.add(name, vector);
+                return !destroyed;
+            })) {
+                return;
+            }
+            Log.i(TAG, "HNSW 索引建立完成：" + built.size() + " 人，" + (SystemClock.elapsedRealtime() - start) + "ms");
+            index = built;
+            indexDirty = true;
+        }
+        registeredIndex = index;
+    }
 
-        return neighbour_list;
+    /**
+     * 在 galleryExecutor 上执行：从人脸库分批建立 int8 量化存储，以行号作为重排的引用。
+     * 人脸库压缩后旧的行号失效，这些人脸退回量化域的分数
+     */
+    private void loadQuantizedGallery(FaceRegistry registry) {
+        long start = SystemClock.elapsedRealtime();
+        QuantizedEmbeddingStore store = new QuantizedEmbeddingStore(OUTPUT_SIZE, QUANTIZED_RERANK_COUNT, registry::similarity);
+        String[] names = new String[QUANTIZED_LOAD_BATCH];
+        float[][] vectors = new float[QUANTIZED_LOAD_BATCH][OUTPUT_SIZE];
+        int[] rows = new int[QUANTIZED_LOAD_BATCH];
+        int[] pending = new int[1];
+        if (!registry.forEach((row, name, vector) -> {
+            names[pending[0]] = name;
+            rows[pending[0]] = row;
+            System.arraycopy(vector, 0, vectors[pending[0]], 0, OUTPUT_SIZE);
+            if (++pending[0] == QUANTIZED_LOAD_BATCH) {
+                store.addAll(names, vectors, rows, pending[0]);
+                pending[0] = 0;
+            }
+            return !destroyed;
+        })) {
+            return;
+        }
+        store.addAll(names, vectors, rows, pending[0]);
+        Log.i(TAG, "量化存储建立完成：" + store.size() + " 人，" + store.getBytesPerEntry() + " 字节/人，"
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+        registeredQuantized = store;
+    }
+
+    /**
+     * 在 galleryExecutor 上执行：新注册的人脸加入索引（或量化存储），都还没有时检查是否达到了建立的人数
+     */
+    private void indexFace(FaceRegistry registry, String name, float[] embedding, int row) {
+        HnswIndex index = registeredIndex;
+        QuantizedEmbeddingStore quantized = registeredQuantized;
+        if (index != null) {
+            index.add(name, embedding);
+            indexDirty = true;
+        } else if (quantized != null) {
+            quantized.add(name, embedding, row);
+        } else {
+            loadGalleryIndex(registry);
+        }
+    }
+
+    /**
+     * 在 galleryExecutor 上执行：有修改时保存索引，先写临时文件再替换
+     */
+    private void saveGalleryIndex() {
+        HnswIndex index = registeredIndex;
+        if (index == null || !indexDirty) {
+            return;
+        }
+        File file = new File(getFilesDir(), INDEX_FILE);
+        File temp = new File(getFilesDir(), INDEX_FILE + ".tmp");
+        try {
+            index.save(temp);
+            if (!temp.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+            indexDirty = false;
+        } catch (IOException e) {
+            Log.e(TAG, "索引保存失败", e);
+        }
+    }
 
+    /**
+     * 找到最相似的 2 个已注册人脸（只有一个时第二个与第一个相同），结果写入 nearest
+     */
+    private void findNearest(float[] emb) {
+        HnswIndex index = registeredIndex;
+        QuantizedEmbeddingStore quantized = registeredQuantized;
+        FaceRegistry registry = faceRegistry;
+        if (index != null && index.size() >= LARGE_GALLERY_SIZE) {
+            index.findNearest(emb, nearest);
+        } else if (quantized != null && quantized.size() >= LARGE_GALLERY_SIZE) {
+            quantized.findNearest(emb, nearest);
+        } else if (registry != null) {
+            registry.findNearest(emb, nearest);
+        } else {
+            registered.findNearest(emb, nearest);
+        }
     }
 
     @Override
@@ -4,9 +4,9 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.media.Image;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -25,18 +25,24 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.cj.mobile.myapplication.adapter.RecognitionAdapter;
 import com.cj.mobile.myapplication.model.Recognition;
+import com.cj.mobile.myapplication.util.BitmapPool;
+import com.cj.mobile.myapplication.util.FrameScheduler;
 import com.cj.mobile.myapplication.util.ImageClassifierHelper;
+import com.cj.mobile.myapplication.util.SceneCache;
+import com.cj.mobile.myapplication.util.StartupOrchestrator;
+import com.cj.mobile.myapplication.util.VisionPipeline;
+import com.cj.mobile.myapplication.util.YuvFrame;
 import com.cj.mobile.myapplication.util.YuvToRgbConverter;
-import com.google.common.util.concurrent.ListenableFuture;
 
-import org.opencv.android.OpenCVLoader;
+import org.tensorflow.lite.support.image.TensorImage;
 import org.tensorflow.lite.support.label.Category;
 import org.tensorflow.lite.task.vision.classifier.Classifications;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 图像分类
@@ -52,26 +58,39 @@ public class ImageClassifierActivity extends AppCompatActivity {
     private RecognitionAdapter viewAdapter;
     // 图像分析器
     private ImageClassifierHelper imageClassifierHelper;
-    private Bitmap bitmapBuffer;
+    private ImageClassifierHelper.ClassifierListener classifierListener;
     private final Object task = new Object();
-    // 上次分析时间
-    private long lastAnalyzeTime = 0;
-    // 分析的间隔时间
-    private long ANALYZE_INTERVAL = 0;
+    // 按端到端耗时调度分析帧：流水线各阶段并行，允许两帧在途，最多占用 1.5 个核，每秒至少 1 帧
+    private final FrameScheduler frameScheduler = new FrameScheduler(1.5f, 1f, 2);
     // Yuv转Rgb转换器
     private YuvToRgbConverter yuvToRgbConverter;
+    // 相机分析线程，只负责把帧交给流水线，不再占用主线程
+    private final ExecutorService analyzerExecutor = Executors.newSingleThreadExecutor();
+    // 转换 -> 预处理 -> 推理 -> 发布，各阶段在各自的线程上运行
+    private VisionPipeline<ClassifyFrame> pipeline;
+    // 画面没有明显变化时复用最近的分类结果（8 个场景，汉明距离 <= 6，结果最多复用 2 秒）
+    private final SceneCache<List<Classifications>> sceneCache = new SceneCache<>(8, 6, 2000);
+    // 计算哈希时包装 ImageProxy，只在转换阶段的线程上使用
+    private final YuvFrame hashFrame = new YuvFrame();
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        analyzerExecutor.shutdown();
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        Log.i(TAG, "SceneCache " + sceneCache);
         synchronized (task) {
             imageClassifierHelper.clearImageClassifier();
         }
+        yuvToRgbConverter.release();
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupOrchestrator.getInstance().markScreenStart(TAG);
         setContentView(R.layout.activity_finger_count);
 
         previewView = findViewById(R.id.view_fingercount_finder);
@@ -97,27 +116,25 @@ public class ImageClassifierActivity extends AppCompatActivity {
         // and out as the list change
         resultRecyclerView.setItemAnimator(null);
 
-        ANALYZE_INTERVAL = TimeUnit.SECONDS.toMillis(5);
         yuvToRgbConverter = new YuvToRgbConverter(this);
     }
 
     private void startCamera() {
-        ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(this);
-
-        cameraProviderFuture.addListener(() -> {
-            try {
-                ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
-                if (!OpenCVLoader.initDebug()) {
-                    Log.e("OpenCV", "无法加载OpenCV库");
-                } else {
-                    Log.d("OpenCV", "OpenCV 加载成功！");
-                    bindPreview(cameraProvider);
-                }
+        // OpenCV 和 ProcessCameraProvider 已由 StartupOrchestrator 在后台准备
+        StartupOrchestrator startup = StartupOrchestrator.getInstance();
+        CompletableFuture<Boolean> openCvReady = startup.getOpenCvReady();
+        CompletableFuture<ProcessCameraProvider> cameraProviderFuture = startup.getCameraProvider();
 
-            } catch (ExecutionException | InterruptedException e) {
+        CompletableFuture.allOf(openCvReady, cameraProviderFuture).whenCompleteAsync((ignored, error) -> {
+            if (error != null) {
                 // Handle any errors here
-                Log.e("CameraX", "Failed to bind camera", e);
+                Log.e("CameraX", "Failed to bind camera", error);
                 Toast.makeText(this, "无法启动相机，请稍后再试", Toast.LENGTH_SHORT).show();
+            } else if (!openCvReady.join()) {
+                Log.e("OpenCV", "无法加载OpenCV库");
+            } else {
+                Log.d("OpenCV", "OpenCV 加载成功！");
+                bindPreview(cameraProviderFuture.join());
             }
         }, ContextCompat.getMainExecutor(this));
     }
@@ -138,7 +155,7 @@ public class ImageClassifierActivity extends AppCompatActivity {
                 .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
                 .build();
 
-        imageClassifierHelper = ImageClassifierHelper.create(this, new ImageClassifierHelper.ClassifierListener() {
+        classifierListener = new ImageClassifierHelper.ClassifierListener() {
             @Override
             public void onError(String error) {
                 runOnUiThread(() -> {
@@ -171,26 +188,27 @@ public class ImageClassifierActivity extends AppCompatActivity {
                     }
                 });
             }
-        });
-
-        imageAnalyzer.setAnalyzer(ContextCompat.getMainExecutor(this), image -> {
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - lastAnalyzeTime >= ANALYZE_INTERVAL) {
-                // 执行检测逻辑
-                Log.d(TAG, "#####  TFLite 执行检测逻辑！");
-                Bitmap mBitmap = toBitmap(image);
-
-                int imageRotation = image.getImageInfo().getRotationDegrees();
-                synchronized (task) {
-                    // Pass Bitmap and rotation to the image classifier helper for
-                    // processing and classification
-                    imageClassifierHelper.classify(mBitmap, imageRotation);
+        };
+        imageClassifierHelper = ImageClassifierHelper.create(this, classifierListener);
+        pipeline = createPipeline();
+
+        imageAnalyzer.setAnalyzer(analyzerExecutor, image -> {
+            long admitted = frameScheduler.tryAdmit();
+            if (admitted != FrameScheduler.REJECTED) {
+                ClassifyFrame frame = pipeline.obtain();
+                if (frame != null) {
+                    // 执行检测逻辑，ImageProxy 由转换阶段关闭
+                    Log.d(TAG, "#####  TFLite 执行检测逻辑！");
+                    frame.image = image;
+                    frame.rotation = image.getImageInfo().getRotationDegrees();
+                    frame.admitted = admitted;
+                    pipeline.submit(frame);
+                    return;
                 }
-
-                lastAnalyzeTime = currentTime; // 更新上一次检测时间
+                frameScheduler.cancel();
             }
 
-            // 处理完成后关闭 ImageProxy
+            // 不分析的帧直接关闭 ImageProxy
             image.close();
         });
 
@@ -198,35 +216,108 @@ public class ImageClassifierActivity extends AppCompatActivity {
         cameraProvider.bindToLifecycle((LifecycleOwner) this, cameraSelector, preview, imageAnalyzer);
     }
 
-    private Bitmap toBitmap(ImageProxy imageProxy) {
-        @SuppressLint("UnsafeOptInUsageError") Image image = imageProxy.getImage();
-        if (image == null) return null;
-
-        Matrix rotationMatrix = null;
-        // Initialise Buffer
-        if (bitmapBuffer == null) {
-            // The image rotation and RGB image buffer are initialized only once
-            Log.d(TAG, "Initalise toBitmap()");
-            rotationMatrix = new Matrix();
-            rotationMatrix.postRotate(imageProxy.getImageInfo().getRotationDegrees());
-            bitmapBuffer = Bitmap.createBitmap(
-                    imageProxy.getWidth(), imageProxy.getHeight(), Bitmap.Config.ARGB_8888
-            );
-        }
+    /**
+     * 创建分类流水线
+     */
+    private VisionPipeline<ClassifyFrame> createPipeline() {
+        VisionPipeline<ClassifyFrame> visionPipeline = new VisionPipeline<>("Classify", ClassifyFrame::new, 30);
+        visionPipeline
+                // YUV 转 RGB 后立即关闭 ImageProxy，相机可以继续出下一帧
+                .addStage("convert", frame -> {
+                    // 先在 Y 平面上算场景哈希，命中时直接带着缓存的结果去发布，跳过后面的转换和推理
+                    frame.sceneHash = SceneCache.hash(YuvToRgbConverter.wrap(frame.image, hashFrame));
+                    long now = SystemClock.elapsedRealtimeNanos();
+                    frame.results = sceneCache.lookup(frame.sceneHash, now);
+                    if (frame.results != null) {
+                        frame.cacheHit = true;
+                        frame.image.close();
+                        frame.image = null;
+                        return true;
+                    }
+                    frame.missStart = now;
+
+                    @SuppressLint("UnsafeOptInUsageError") Image image = frame.image.getImage();
+                    if (image == null) {
+                        return false;
+                    }
+                    frame.bitmap = BitmapPool.getInstance().get(image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
+                    yuvToRgbConverter.yuvToRgb(image, frame.bitmap);
+                    frame.image.close();
+                    frame.image = null;
+                    return true;
+                })
+                .addStage("preprocess", frame -> {
+                    if (frame.cacheHit) {
+                        return true;
+                    }
+                    frame.tensorImage = imageClassifierHelper.preprocess(frame.bitmap, frame.rotation);
+                    return true;
+                })
+                .addStage("infer", frame -> {
+                    if (frame.cacheHit) {
+                        return true;
+                    }
+                    long start = SystemClock.uptimeMillis();
+                    synchronized (task) {
+                        // Pass the preprocessed image to the image classifier helper for classification
+                        frame.results = imageClassifierHelper.classify(frame.tensorImage);
+                    }
+                    frame.inferenceTime = SystemClock.uptimeMillis() - start;
+                    // 第一个分类器还在后台创建时丢弃这一帧
+                    return frame.results != null;
+                })
+                .addStage("publish", frame -> {
+                    if (!frame.cacheHit) {
+                        long now = SystemClock.elapsedRealtimeNanos();
+                        sceneCache.put(frame.sceneHash, frame.results, now, now - frame.missStart);
+                    }
+                    classifierListener.onResults(frame.results, frame.inferenceTime);
+                    StartupOrchestrator.getInstance().markFirstResult(TAG);
+                    // 更新端到端耗时估计
+                    frameScheduler.complete(frame.admitted);
+                    frame.admitted = FrameScheduler.REJECTED;
+                    return true;
+                })
+                .start();
+        return visionPipeline;
+    }
 
-        // Pass image to an image analyser
-        yuvToRgbConverter.yuvToRgb(image, bitmapBuffer);
-
-        // Create the Bitmap in the correct orientation
-        return Bitmap.createBitmap(
-                bitmapBuffer,
-                0,
-                0,
-                bitmapBuffer.getWidth(),
-                bitmapBuffer.getHeight(),
-                rotationMatrix,
-                false
-        );
+    /**
+     * 流水线中循环使用的帧
+     */
+    private class ClassifyFrame implements VisionPipeline.Frame {
+        ImageProxy image;
+        int rotation;
+        long admitted = FrameScheduler.REJECTED;
+        Bitmap bitmap;
+        TensorImage tensorImage;
+        List<Classifications> results;
+        long inferenceTime;
+        // 场景哈希；命中缓存时 results 来自 SceneCache，inferenceTime 为 0
+        long sceneHash;
+        long missStart;
+        boolean cacheHit;
+
+        @Override
+        public void recycle() {
+            if (image != null) {
+                image.close();
+                image = null;
+            }
+            if (bitmap != null) {
+                BitmapPool.getInstance().put(bitmap);
+                bitmap = null;
+            }
+            if (admitted != FrameScheduler.REJECTED) {
+                // 中途被丢弃，释放在途名额
+                frameScheduler.cancel();
+                admitted = FrameScheduler.REJECTED;
+            }
+            tensorImage = null;
+            results = null;
+            inferenceTime = 0;
+            cacheHit = false;
+        }
     }
 
     @Override
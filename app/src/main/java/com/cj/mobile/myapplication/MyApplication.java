@@ -2,6 +2,10 @@ package com.cj.mobile.myapplication;
 
 import android.app.Application;
 
+import com.cj.mobile.myapplication.util.BitmapPool;
+import com.cj.mobile.myapplication.util.InferenceTuner;
+import com.cj.mobile.myapplication.util.ModelRegistry;
+import com.cj.mobile.myapplication.util.StartupOrchestrator;
 import com.wayz.location.MapsInitializer;
 
 /**
@@ -20,5 +24,19 @@ public class MyApplication extends Application {
 
         MapsInitializer.updatePrivacyShow(this, true, false);
         MapsInitializer.updatePrivacyAgree(this, true);
+
+        // 内存紧张时收缩 Bitmap 池和模型缓存
+        registerComponentCallbacks(BitmapPool.getInstance());
+        registerComponentCallbacks(ModelRegistry.getInstance());
+
+        InferenceTuner.init(this);
+
+        // 后台预热 OpenCV、相机和常用模型，完成后测量各模型的最优推理配置（assets 中不存在的模型会被跳过）
+        StartupOrchestrator.getInstance()
+                .prewarmInterpreter("mobile_face_net.tflite", ModelRegistry.Options.DEFAULT)
+                .prewarmBuffer("ssd_mobilenet_v1.tflite")
+                .prewarmBuffer("mobilenet_v1_1.0_224_quantized_1_metadata_1.tflite")
+                .prewarmBuffer("cats_vs_dogs.tflite")
+                .start(this);
     }
 }
@@ -2,18 +2,10 @@ package com.cj.mobile.myapplication;
 
 import android.Manifest;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.ImageFormat;
-import android.graphics.Paint;
-import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.YuvImage;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
-import android.widget.ImageView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -30,22 +22,33 @@ import androidx.lifecycle.LifecycleOwner;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.cj.mobile.myapplication.adapter.RecognitionAdapter;
+import com.cj.mobile.myapplication.model.DetectionResult;
 import com.cj.mobile.myapplication.model.Recognition;
 import com.cj.mobile.myapplication.util.Classifier;
+import com.cj.mobile.myapplication.util.DetectionCascade;
+import com.cj.mobile.myapplication.util.FrameFanOut;
+import com.cj.mobile.myapplication.util.FrameScheduler;
 import com.cj.mobile.myapplication.util.ObjectDetectorHelper;
-import com.google.common.util.concurrent.ListenableFuture;
+import com.cj.mobile.myapplication.util.ObjectTracker;
+import com.cj.mobile.myapplication.util.SceneCache;
+import com.cj.mobile.myapplication.util.SharedFrame;
+import com.cj.mobile.myapplication.util.StartupOrchestrator;
+import com.cj.mobile.myapplication.util.YuvFrame;
+import com.cj.mobile.myapplication.util.YuvToRgbConverter;
+import com.cj.mobile.myapplication.view.OverlayView;
 
-import org.opencv.android.OpenCVLoader;
 import org.tensorflow.lite.support.label.Category;
 import org.tensorflow.lite.task.vision.detector.Detection;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 目标检测
@@ -61,30 +64,81 @@ public class ObjectDetectorActivity extends AppCompatActivity {
     private RecognitionAdapter viewAdapter;
     // 物体探测器助手
     private ObjectDetectorHelper objectDetectorHelper;
-    // 上次分析时间
-    private long lastAnalyzeTime = 0;
-    // 分析的间隔时间
-    private long ANALYZE_INTERVAL = 0;
+    // 按检测耗时调度分析帧：最多占用 60% 的核，每秒至少 1 帧
+    private final FrameScheduler frameScheduler = new FrameScheduler(0.6f, 1f, 1);
     private final Object task = new Object();
-    // 显示轮廓标记
-    private ImageView imageView;
+    // 显示检测框
+    private OverlayView overlayView;
+    // Yuv转Rgb转换器，每帧只转换一次，由各模型共用
+    private YuvToRgbConverter yuvToRgbConverter;
+    // 相机分析线程，只负责转换和分发，不再占用主线程
+    private final ExecutorService analyzerExecutor = Executors.newSingleThreadExecutor();
+    // 把同一帧分发给检测器（以及可选的猫狗分类器），各自在自己的线程上运行
+    private FrameFanOut frameFanOut;
+    // 是否同时在每帧上运行猫狗分类器（结果排在检测结果前面）
+    private static final boolean CLASSIFY_CATS_AND_DOGS = false;
+    // 猫狗分类器最近一次的结果
+    private volatile List<Recognition> catDogItems = new ArrayList<>();
+    // 是否对检测到的框再用猫狗分类器细分类（级联模式）
+    private static final boolean CASCADE_CATS_AND_DOGS = false;
+    // 检测引擎：ENGINE_TASK（Task 库）或 ENGINE_RAW（直接使用 Interpreter），便于对比两者的耗时
+    private static final int DETECTOR_ENGINE = ObjectDetectorHelper.ENGINE_TASK;
+    // 级联使用的分类器，只在检测线程上使用
+    private Classifier cascadeClassifier;
+    private final Object detectTask = new Object();
+    // 每次检测的最大结果数
+    private static final int MAX_RESULTS = 5;
+    // 是否跟踪检测到的目标：检测按调度低频运行，相机的每一帧都绘制跟踪器推算的框
+    private static final boolean TRACK_OBJECTS = true;
+    // 最多 16 个轨迹，IoU 0.3 关联，连续 2 次命中确认，连续 2 次未命中丢失，丢失 2 秒内可重新识别
+    private final ObjectTracker objectTracker = new ObjectTracker(16, MAX_RESULTS, 0.3f, 2, 2, 2000);
+    // 送入跟踪器的检测结果（检测线程）和推算结果（相机分析线程）
+    private final DetectionResult trackerInput = new DetectionResult(MAX_RESULTS);
+    private final DetectionResult trackerOutput = new DetectionResult(16);
+    // 检测标签与跟踪器类别 ID 的对应，只在检测线程上使用
+    private final Map<String, Integer> trackerClassIds = new HashMap<>();
+    // 每个轨迹最近一次的标签（含轨迹 ID），检测时生成一次，每帧绘制时复用
+    private final Map<Integer, String> trackTitles = new ConcurrentHashMap<>();
+    // 当前检测所用帧的时间和转正后的尺寸
+    private long detectTimestamp;
+    private volatile int trackImageWidth;
+    private volatile int trackImageHeight;
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        analyzerExecutor.shutdown();
+        Log.i(TAG, "SceneCache detect " + detectionCache + " classify " + sceneCache);
+        if (frameFanOut != null) {
+            frameFanOut.close();
+        }
         synchronized (task) {
             objectDetectorHelper.clearObjectDetector();
+            if (classifier != null) {
+                classifier.close();
+                classifier = null;
+            }
+        }
+        synchronized (detectTask) {
+            // 等在途的检测结束后再关闭级联分类器
+            objectDetectorHelper.setCascade(null);
+            if (cascadeClassifier != null) {
+                cascadeClassifier.close();
+                cascadeClassifier = null;
+            }
         }
+        yuvToRgbConverter.release();
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupOrchestrator.getInstance().markScreenStart(TAG);
         setContentView(R.layout.activity_finger_count);
 
         previewView = findViewById(R.id.view_fingercount_finder);
         resultRecyclerView = findViewById(R.id.view_fingercount_recognitionResults);
-        imageView = findViewById(R.id.image_fingercount_view);
+        overlayView = findViewById(R.id.view_fingercount_overlay);
 
         // 请求相机权限
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED
@@ -106,26 +160,25 @@ public class ObjectDetectorActivity extends AppCompatActivity {
         // and out as the list change
         resultRecyclerView.setItemAnimator(null);
 
-        ANALYZE_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+        yuvToRgbConverter = new YuvToRgbConverter(this);
     }
 
     private void startCamera() {
-        ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(this);
+        // OpenCV 和 ProcessCameraProvider 已由 StartupOrchestrator 在后台准备
+        StartupOrchestrator startup = StartupOrchestrator.getInstance();
+        CompletableFuture<Boolean> openCvReady = startup.getOpenCvReady();
+        CompletableFuture<ProcessCameraProvider> cameraProviderFuture = startup.getCameraProvider();
 
-        cameraProviderFuture.addListener(() -> {
-            try {
-                ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
-                if (!OpenCVLoader.initDebug()) {
-                    Log.e("OpenCV", "无法加载OpenCV库");
-                } else {
-                    Log.d("OpenCV", "OpenCV 加载成功！");
-                    bindPreview(cameraProvider);
-                }
-
-            } catch (ExecutionException | InterruptedException e) {
+        CompletableFuture.allOf(openCvReady, cameraProviderFuture).whenCompleteAsync((ignored, error) -> {
+            if (error != null) {
                 // Handle any errors here
-                Log.e("CameraX", "Failed to bind camera", e);
+                Log.e("CameraX", "Failed to bind camera", error);
                 Toast.makeText(this, "无法启动相机，请稍后再试", Toast.LENGTH_SHORT).show();
+            } else if (!openCvReady.join()) {
+                Log.e("OpenCV", "无法加载OpenCV库");
+            } else {
+                Log.d("OpenCV", "OpenCV 加载成功！");
+                bindPreview(cameraProviderFuture.join());
             }
         }, ContextCompat.getMainExecutor(this));
     }
@@ -149,7 +202,7 @@ public class ObjectDetectorActivity extends AppCompatActivity {
                 .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
                 .build();
 
-        objectDetectorHelper = new ObjectDetectorHelper(0.5f, 5, 5, 0, 0, this, new ObjectDetectorHelper.DetectorListener() {
+        objectDetectorHelper = new ObjectDetectorHelper(0.5f, 5, MAX_RESULTS, ObjectDetectorHelper.DELEGATE_AUTO, 0, this, new ObjectDetectorHelper.DetectorListener() {
 
             @Override
             public void onError(String error) {
@@ -158,34 +211,25 @@ public class ObjectDetectorActivity extends AppCompatActivity {
 
             @Override
             public void onResults(List<Detection> results, long inferenceTime, int imageHeight, int imageWidth) {
+                StartupOrchestrator.getInstance().markFirstResult(TAG);
+
+                if (TRACK_OBJECTS) {
+                    // 框由相机线程按跟踪器的推算绘制，这里只更新轨迹和列表
+                    trackImageWidth = imageWidth;
+                    trackImageHeight = imageHeight;
+                    List<Recognition> items = updateTracks(results);
+                    runOnUiThread(() -> viewAdapter.submitList(items));
+                    return;
+                }
 
-                List<Recognition> items = new ArrayList<>();
+                List<Recognition> items = new ArrayList<>(catDogItems);
+                overlayView.setSourceSize(imageWidth, imageHeight, false);
                 if (results != null && results.size() > 0) {
-
-                    // 假设你已经有一个 Canvas 对象 canvas
-                    // 创建一个 Bitmap 对象
-                    Bitmap bitmap = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.ARGB_8888);
-
-                    // 创建一个 Canvas 对象
-                    Canvas canvas = new Canvas(bitmap);
-                    // 将原始 Canvas 的内容绘制到新的 Canvas 上
-                    canvas.drawBitmap(bitmap, 0, 0, null);
-                    imageView.setImageBitmap(bitmap);
-
                     for (Detection detection : results) {
 
                         // 获取检测到的物体的位置和标签
                         RectF bBox = detection.getBoundingBox();
 
-                        Paint paint = new Paint();
-                        paint.setColor(Color.GREEN);
-                        paint.setStyle(Paint.Style.STROKE);
-                        paint.setStrokeWidth(5);
-                        canvas.drawRect(bBox.left, bBox.top, bBox.right, bBox.bottom, paint);
-
-                        paint.setStrokeWidth(2);
-                        paint.setTextSize(30);
-
                         StringBuilder title = new StringBuilder();
                         for (Category category : detection.getCategories()) {
                             // 组织文字识别结果
@@ -201,13 +245,12 @@ public class ObjectDetectorActivity extends AppCompatActivity {
                         }
 
                         Log.d(TAG, "###识别结果：" + title);
-                        canvas.drawText(title.toString(), bBox.left, bBox.top - 10, paint);
-
+                        overlayView.addBox(bBox.left, bBox.top, bBox.right, bBox.bottom, title.toString());
                     }
-                } else {
-                    imageView.setImageBitmap(null);
                 }
+                overlayView.commit();
 
+                // 检测在分发线程上完成，界面更新切回主线程
                 runOnUiThread(() -> {
                     // updating the list of recognised objects
                     viewAdapter.submitList(items);
@@ -215,22 +258,60 @@ public class ObjectDetectorActivity extends AppCompatActivity {
             }
         });
 
-        imageAnalyzer.setAnalyzer(ContextCompat.getMainExecutor(this), image -> {
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - lastAnalyzeTime >= ANALYZE_INTERVAL) {
-                // 执行检测逻辑
-                Log.d(TAG, "#####  TFLite 执行检测逻辑！");
+        objectDetectorHelper.setSceneCache(detectionCache);
 
-                int imageRotation = image.getImageInfo().getRotationDegrees();
-                Bitmap mBitmap = imageProxyToBitmap(image);
-                objectDetectorHelper.detect(mBitmap, imageRotation);
+        if (DETECTOR_ENGINE != ObjectDetectorHelper.ENGINE_TASK) {
+            // 之前排队的 Task 库检测器会被这次请求取代，不会真正创建
+            objectDetectorHelper.setCurrentEngine(DETECTOR_ENGINE);
+            objectDetectorHelper.setupObjectDetector();
+        }
 
-                lastAnalyzeTime = currentTime; // 更新上一次检测时间
+        if (CASCADE_CATS_AND_DOGS) {
+            try {
+                // 分数不低于 0.5 的框做猫狗细分类，同一目标 1 秒内不重复分类
+                cascadeClassifier = new Classifier(this.getAssets(), MODEL_PATH, "cats_vs_dogs_label.txt", INPUT_SIZE);
+                objectDetectorHelper.setCascade(new DetectionCascade(cascadeClassifier, 0.5f, 1000));
+            } catch (IOException e) {
+                Log.e(TAG, "级联分类器加载失败", e);
             }
+        }
 
-            // 处理完成后关闭 ImageProxy
-            image.close();
-        });
+        // 每帧只转换一次，检测器和分类器共用转正后的图像；整帧处理完后更新耗时估计
+        frameFanOut = new FrameFanOut(yuvToRgbConverter, 2, frameScheduler)
+                .addConsumer("detect", frame -> {
+                    // 执行检测逻辑
+                    Log.d(TAG, "#####  TFLite 执行检测逻辑！");
+                    synchronized (detectTask) {
+                        detectTimestamp = frame.getTimestamp();
+                        // 场景没有变化时直接复用上一次的检测结果
+                        objectDetectorHelper.detect(frame);
+                    }
+                });
+        if (CLASSIFY_CATS_AND_DOGS) {
+            try {
+                // 分类器的输入由 FrameFanOut 在关闭相机帧之前从 YUV 直接生成，不经过 Bitmap
+                classifier = new Classifier(this.getAssets(), MODEL_PATH, "cats_vs_dogs_label.txt", INPUT_SIZE);
+                frameFanOut.addConsumer(CLASSIFY_CONSUMER, classifier.createYuvPreprocessor(), this::classifyFrame);
+            } catch (IOException e) {
+                Log.e(TAG, "猫狗分类器加载失败", e);
+            }
+        }
+        // ImageProxy 由 FrameFanOut 转换后关闭
+        if (TRACK_OBJECTS) {
+            objectTracker.setListener((event, trackId, classId) -> {
+                if (event == ObjectTracker.EVENT_LOST) {
+                    trackTitles.remove(trackId);
+                }
+                Log.d(TAG, "###轨迹事件：" + event + "，ID：" + trackId + "，类别：" + classId);
+            });
+            imageAnalyzer.setAnalyzer(analyzerExecutor, image -> {
+                long timestamp = image.getImageInfo().getTimestamp();
+                frameFanOut.submit(image);
+                drawTracks(timestamp);
+            });
+        } else {
+            imageAnalyzer.setAnalyzer(analyzerExecutor, frameFanOut::submit);
+        }
 
         // 第一种，设置图像分析器
 //        imageAnalyzer.setAnalyzer(ContextCompat.getMainExecutor(this), image -> {
@@ -254,17 +335,125 @@ public class ObjectDetectorActivity extends AppCompatActivity {
     }
 
 
+    /**
+     * 用检测结果更新跟踪器（检测线程，持有 detectTask），返回列表中显示的识别结果
+     */
+    private List<Recognition> updateTracks(List<Detection> results) {
+        List<Recognition> items = new ArrayList<>(catDogItems);
+        int count = 0;
+        for (Detection detection : results) {
+            if (count == trackerInput.capacity() || detection.getCategories().isEmpty()) {
+                continue;
+            }
+            Category top = detection.getCategories().get(0);
+            Integer classId = trackerClassIds.get(top.getLabel());
+            if (classId == null) {
+                classId = trackerClassIds.size();
+                trackerClassIds.put(top.getLabel(), classId);
+            }
+            RectF box = detection.getBoundingBox();
+            trackerInput.set(count++, box.left, box.top, box.right, box.bottom, top.getScore(), classId);
+        }
+        trackerInput.setSize(count);
+        objectTracker.update(trackerInput, detectTimestamp);
+
+        // 跟踪器保持输入的顺序，第 i 个结果对应第 i 个有类别的检测
+        int index = 0;
+        for (Detection detection : results) {
+            if (index == count || detection.getCategories().isEmpty()) {
+                continue;
+            }
+            StringBuilder title = new StringBuilder();
+            for (Category category : detection.getCategories()) {
+                title.append(category.getLabel());
+                title.append("(").append(category.getScore()).append(")");
+                title.append(";");
+
+                Recognition info = new Recognition();
+                info.setTitle(category.getLabel());
+                info.setConfidence(category.getScore());
+                items.add(info);
+            }
+            int trackId = trackerInput.getTrackId(index++);
+            if (trackId >= 0) {
+                trackTitles.put(trackId, "#" + trackId + " " + title);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 在相机分析线程上按帧时间绘制跟踪器推算的框，检测没有运行的帧也会更新
+     */
+    private void drawTracks(long timestamp) {
+        int width = trackImageWidth;
+        int height = trackImageHeight;
+        if (width == 0 || height == 0) {
+            return;
+        }
+        objectTracker.predict(timestamp, trackerOutput);
+
+        overlayView.setSourceSize(width, height, false);
+        for (int i = 0; i < trackerOutput.size(); i++) {
+            overlayView.addBox(trackerOutput.getLeft(i), trackerOutput.getTop(i),
+                    trackerOutput.getRight(i), trackerOutput.getBottom(i),
+                    trackTitles.get(trackerOutput.getTrackId(i)));
+        }
+        overlayView.commit();
+    }
+
     private static final int INPUT_SIZE = 224;
+    // 猫狗分类器在 FrameFanOut 中的名字，也是它的输入张量的 key
+    private static final String CLASSIFY_CONSUMER = "classify";
     // 识别 【猫】或【狗】 的模型（缺陷，目前只能识别猫和狗，未检测到时只显示狗）
     private static final String MODEL_PATH = "cats_vs_dogs.tflite";
+    // 复用的帧描述
+    private final YuvFrame yuvFrame = new YuvFrame();
+    // 猫狗分类器，模型与标签由 ModelRegistry 缓存
+    private Classifier classifier;
+    // 镜头对着同一场景时复用识别结果：猫狗分类器和检测器各一个
+    private final SceneCache<List<Recognition>> sceneCache = new SceneCache<>(8, 6, 2000);
+    private final SceneCache<List<Detection>> detectionCache = new SceneCache<>(8, 6, 2000);
+
+    /**
+     * 在共享帧上运行猫狗分类器，结果随下一次检测结果一起显示
+     */
+    private void classifyFrame(SharedFrame frame) {
+        synchronized (task) {
+            if (classifier == null) {
+                // 已经 onDestroy
+                return;
+            }
+            long now = SystemClock.elapsedRealtimeNanos();
+            List<Recognition> cached = sceneCache.lookup(frame.getSceneHash(), now);
+            if (cached == null) {
+                cached = classifier.recognizeTensor(true, frame.getTensor(CLASSIFY_CONSUMER));
+                long end = SystemClock.elapsedRealtimeNanos();
+                sceneCache.put(frame.getSceneHash(), cached, end, end - now);
+            }
+            catDogItems = cached;
+        }
+    }
 
     /**
      * 这段代码的主要功能是对输入的 ImageProxy 图像进行一系列的处理操作，包括将图像数据转换为 Mat 矩阵，将其转换为灰度图像，进行高斯模糊和 Canny 边缘检测，查找轮廓，统计轮廓数量，最后将轮廓数量更新到 UI 上的 textView 组件中。
      */
     private void processImage(ImageProxy imageProxy) {
         try {
-            Classifier classifier = new Classifier(this.getAssets(), MODEL_PATH, "cats_vs_dogs_label.txt", INPUT_SIZE);
-            List<Recognition> items = classifier.recognizeImage(true, imageProxyToBitmap(imageProxy));
+            if (classifier == null) {
+                classifier = new Classifier(this.getAssets(), MODEL_PATH, "cats_vs_dogs_label.txt", INPUT_SIZE);
+            }
+            // YUV 直接生成输入张量，不经过 JPEG/Bitmap
+            YuvToRgbConverter.wrap(imageProxy, yuvFrame);
+            long hash = SceneCache.hash(yuvFrame);
+            long now = SystemClock.elapsedRealtimeNanos();
+            List<Recognition> cached = sceneCache.lookup(hash, now);
+            if (cached == null) {
+                cached = classifier.recognizeImage(yuvFrame, imageProxy.getImageInfo().getRotationDegrees());
+                long end = SystemClock.elapsedRealtimeNanos();
+                sceneCache.put(hash, cached, end, end - now);
+            }
+            List<Recognition> items = cached;
 
             if (items != null && items.size() > 0)
                 Log.d(TAG, "###识别结果：" + items.get(0).getTitle());
@@ -285,30 +474,4 @@ public class ObjectDetectorActivity extends AppCompatActivity {
             startCamera();
         }
     }
-
-    /**
-     * 图像代理到位图
-     */
-    private Bitmap imageProxyToBitmap(ImageProxy imageProxy) {
-        // 获取图像的宽度和高度
-        int width = imageProxy.getWidth();
-        int height = imageProxy.getHeight();
-
-        // 创建一个与图像大小匹配的缓冲区
-        ImageProxy.PlaneProxy[] planes = imageProxy.getPlanes();
-        ByteBuffer buffer = planes[0].getBuffer();
-        byte[] bytes = new byte[buffer.remaining()];
-        buffer.get(bytes);
-
-        // 创建 YuvImage 对象
-        YuvImage yuvImage = new YuvImage(bytes, ImageFormat.NV21, width, height, null);
-
-        // 压缩 YuvImage 为 JPEG 格式
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new Rect(0, 0, width, height), 100, out);
-        byte[] jpegArray = out.toByteArray();
-
-        // 将 JPEG 数据解码为 Bitmap
-        return BitmapFactory.decodeByteArray(jpegArray, 0, jpegArray.length);
-    }
 }
@@ -0,0 +1,55 @@
+package com.cj.mobile.myapplication.model;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.model
+ * @ClassName: ClassificationResult
+ * @Description: 调用方持有、可复用的分类结果（按分数从高到低的前 K 个类别下标和分数），写入时不产生任何对象
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 14:00
+ */
+public class ClassificationResult {
+    private final int[] ids;
+    private final float[] scores;
+    private int size;
+
+    public ClassificationResult(int capacity) {
+        this.ids = new int[capacity];
+        this.scores = new float[capacity];
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 供分类器写入，ids/scores 的前 size 个元素有效
+     */
+    public int[] ids() {
+        return ids;
+    }
+
+    public float[] scores() {
+        return scores;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+}
@@ -0,0 +1,93 @@
+package com.cj.mobile.myapplication.model;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.model
+ * @ClassName: DetectionResult
+ * @Description: 调用方持有、可复用的检测结果（结构数组：每个字段一个基本类型数组），写入时不产生任何对象
+ * <p>
+ * 框的坐标为输入图像的像素坐标，按分数从高到低排列。跟踪器输出时另带 track ID（检测器输出时为 -1）。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 19:10
+ */
+public class DetectionResult {
+    private final float[] left;
+    private final float[] top;
+    private final float[] right;
+    private final float[] bottom;
+    private final float[] scores;
+    private final int[] classIds;
+    private final int[] trackIds;
+    private int size;
+
+    public DetectionResult(int capacity) {
+        left = new float[capacity];
+        top = new float[capacity];
+        right = new float[capacity];
+        bottom = new float[capacity];
+        scores = new float[capacity];
+        classIds = new int[capacity];
+        trackIds = new int[capacity];
+    }
+
+    public int capacity() {
+        return scores.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float getLeft(int index) {
+        return left[index];
+    }
+
+    public float getTop(int index) {
+        return top[index];
+    }
+
+    public float getRight(int index) {
+        return right[index];
+    }
+
+    public float getBottom(int index) {
+        return bottom[index];
+    }
+
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    public int getClassId(int index) {
+        return classIds[index];
+    }
+
+    public int getTrackId(int index) {
+        return trackIds[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 供检测器写入第 index 个结果
+     */
+    public void set(int index, float left, float top, float right, float bottom, float score, int classId) {
+        this.left[index] = left;
+        this.top[index] = top;
+        this.right[index] = right;
+        this.bottom[index] = bottom;
+        this.scores[index] = score;
+        this.classIds[index] = classId;
+        this.trackIds[index] = -1;
+    }
+
+    public void setTrackId(int index, int trackId) {
+        this.trackIds[index] = trackId;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+}
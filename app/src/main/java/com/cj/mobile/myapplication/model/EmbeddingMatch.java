@@ -0,0 +1,63 @@
+package com.cj.mobile.myapplication.model;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.model
+ * @ClassName: EmbeddingMatch
+ * @Description: 调用方持有、可复用的最近邻查询结果（最相似的两个已注册人脸），写入时不产生任何对象
+ * <p>
+ * 相似度为余弦相似度；距离为归一化向量之间的欧氏距离 sqrt(2 - 2cos)，与按距离阈值判断的旧代码保持一致。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 19:50
+ */
+public class EmbeddingMatch {
+    private final int[] indices = new int[2];
+    private final String[] names = new String[2];
+    private final float[] similarities = new float[2];
+    private int size;
+
+    /**
+     * 结果数：没有注册的人脸时为 0，只有一个时为 1
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 在存储中的下标，0 为最相似的，1 为第二相似的
+     */
+    public int getIndex(int rank) {
+        return indices[rank];
+    }
+
+    public String getName(int rank) {
+        return names[rank];
+    }
+
+    public float getSimilarity(int rank) {
+        return similarities[rank];
+    }
+
+    public float getDistance(int rank) {
+        return (float) Math.sqrt(Math.max(0f, 2f - 2f * similarities[rank]));
+    }
+
+    public void clear() {
+        size = 0;
+        names[0] = null;
+        names[1] = null;
+    }
+
+    /**
+     * 供存储写入第 rank 个结果
+     */
+    public void set(int rank, int index, String name, float similarity) {
+        indices[rank] = index;
+        names[rank] = name;
+        similarities[rank] = similarity;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+}
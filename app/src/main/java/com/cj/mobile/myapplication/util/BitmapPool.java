@@ -0,0 +1,183 @@
+package com.cj.mobile.myapplication.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: BitmapPool
+ * @Description: 按（宽、高、Config）复用 Bitmap 的对象池
+ * <p>
+ * 1、总字节数有上限，超出时按最近最少使用的尺寸淘汰；
+ * 2、实现 ComponentCallbacks2，由 MyApplication 注册，系统内存紧张时自动收缩；
+ * 3、get 命中时不分配任何对象，取出的 Bitmap 内容未定义，需要调用方自行覆盖或清空。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 10:40
+ */
+public class BitmapPool implements ComponentCallbacks2 {
+    private static final String TAG = "BitmapPool";
+    private static volatile BitmapPool instance;
+
+    // 按访问顺序排列，最久未使用的尺寸在最前面
+    private final LinkedHashMap<Key, ArrayDeque<Bitmap>> pools = new LinkedHashMap<>(16, 0.75f, true);
+    // 查询用的可变 key，避免每次 get 都创建对象
+    private final Key lookup = new Key();
+    private long maxBytes;
+    private long currentBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public static BitmapPool getInstance() {
+        if (instance == null) {
+            synchronized (BitmapPool.class) {
+                if (instance == null) {
+                    // 默认使用 1/16 的堆上限
+                    instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+                }
+            }
+        }
+        return instance;
+    }
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 取出一个可写的 Bitmap，池中没有匹配尺寸时新建
+     */
+    @NonNull
+    public synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        ArrayDeque<Bitmap> pool = pools.get(lookup.set(width, height, config));
+        Bitmap bitmap = pool == null ? null : pool.pollLast();
+        if (bitmap != null) {
+            currentBytes -= bitmap.getAllocationByteCount();
+            hits++;
+            return bitmap;
+        }
+        misses++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * 归还 Bitmap；不可变或已回收的直接忽略，超出容量时淘汰最久未使用的尺寸
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null) {
+            return;
+        }
+        long size = bitmap.getAllocationByteCount();
+        if (size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        lookup.set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> pool = pools.get(lookup);
+        if (pool == null) {
+            pool = new ArrayDeque<>(4);
+            pools.put(new Key().set(lookup.width, lookup.height, lookup.config), pool);
+        }
+        pool.addLast(bitmap);
+        currentBytes += size;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * 淘汰到指定字节数以下
+     */
+    public synchronized void trimToSize(long bytes) {
+        Iterator<Map.Entry<Key, ArrayDeque<Bitmap>>> iterator = pools.entrySet().iterator();
+        while (currentBytes > bytes && iterator.hasNext()) {
+            ArrayDeque<Bitmap> pool = iterator.next().getValue();
+            while (currentBytes > bytes && !pool.isEmpty()) {
+                Bitmap evicted = pool.pollFirst();
+                currentBytes -= evicted.getAllocationByteCount();
+                evicted.recycle();
+                evictions++;
+            }
+            if (pool.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * 命中率等统计，便于对比 GC 与单帧耗时
+     */
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{bytes=" + currentBytes + "/" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(getCurrentBytes() / 2);
+        }
+        Log.d(TAG, "onTrimMemory(" + level + "): " + this);
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    private static final class Key {
+        int width;
+        int height;
+        Bitmap.Config config;
+
+        Key set(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return width == key.width && height == key.height && config == key.config;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + config.ordinal();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.DetectionResult;
+
+import java.util.Arrays;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: BoxNms
+ * @Description: 基本类型数组上的候选框缓冲区与非极大值抑制
+ * <p>
+ * 候选框以结构数组（ymin/xmin/ymax/xmax/score/class 各一个数组，坐标归一化到 0..1）保存。
+ * NMS 时把“分数位 + 下标”打包成 long 原地排序，再按分数顺序把候选框重排到连续的数组中，
+ * 内层循环只顺序访问这些数组；每个框的面积只算一次。全程不产生对象，非线程安全。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 19:10
+ */
+public class BoxNms {
+    private final float[] ymin;
+    private final float[] xmin;
+    private final float[] ymax;
+    private final float[] xmax;
+    private final float[] scores;
+    private final int[] classIds;
+    private int size;
+
+    // 排序键以及按分数排好序的副本
+    private final long[] order;
+    private final float[] sortedYmin;
+    private final float[] sortedXmin;
+    private final float[] sortedYmax;
+    private final float[] sortedXmax;
+    private final float[] sortedArea;
+    private final int[] sortedIndex;
+    private final boolean[] suppressed;
+
+    public BoxNms(int capacity) {
+        ymin = new float[capacity];
+        xmin = new float[capacity];
+        ymax = new float[capacity];
+        xmax = new float[capacity];
+        scores = new float[capacity];
+        classIds = new int[capacity];
+        order = new long[capacity];
+        sortedYmin = new float[capacity];
+        sortedXmin = new float[capacity];
+        sortedYmax = new float[capacity];
+        sortedXmax = new float[capacity];
+        sortedArea = new float[capacity];
+        sortedIndex = new int[capacity];
+        suppressed = new boolean[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 加入一个候选框（分数不能为负），缓冲区已满时返回 false
+     */
+    public boolean add(float ymin, float xmin, float ymax, float xmax, float score, int classId) {
+        if (size == scores.length) {
+            return false;
+        }
+        this.ymin[size] = ymin;
+        this.xmin[size] = xmin;
+        this.ymax[size] = ymax;
+        this.xmax[size] = xmax;
+        this.scores[size] = score;
+        this.classIds[size] = classId;
+        size++;
+        return true;
+    }
+
+    /**
+     * 贪心 NMS，保留的框按分数从高到低写入 out（按 width/height 换算成像素坐标）
+     *
+     * @param iouThreshold IoU 超过该值的低分框被抑制
+     * @param classAware   true 时只在同一类别内抑制
+     * @param width        输出坐标对应的图像宽
+     * @param height       输出坐标对应的图像高
+     */
+    public void select(float iouThreshold, boolean classAware, int width, int height, DetectionResult out) {
+        int count = size;
+        // 非负 float 的位模式与数值同序，打包后升序排序，从末尾开始就是分数最高的
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) Float.floatToIntBits(Math.max(0f, scores[i])) << 32) | i;
+        }
+        Arrays.sort(order, 0, count);
+        for (int s = 0; s < count; s++) {
+            int i = (int) order[count - 1 - s];
+            sortedIndex[s] = i;
+            sortedYmin[s] = ymin[i];
+            sortedXmin[s] = xmin[i];
+            sortedYmax[s] = ymax[i];
+            sortedXmax[s] = xmax[i];
+            sortedArea[s] = Math.max(0f, ymax[i] - ymin[i]) * Math.max(0f, xmax[i] - xmin[i]);
+            suppressed[s] = false;
+        }
+
+        int kept = 0;
+        int capacity = out.capacity();
+        for (int s = 0; s < count && kept < capacity; s++) {
+            if (suppressed[s]) {
+                continue;
+            }
+            int i = sortedIndex[s];
+            out.set(kept++, sortedXmin[s] * width, sortedYmin[s] * height,
+                    sortedXmax[s] * width, sortedYmax[s] * height, scores[i], classIds[i]);
+
+            float top = sortedYmin[s];
+            float left = sortedXmin[s];
+            float bottom = sortedYmax[s];
+            float right = sortedXmax[s];
+            float area = sortedArea[s];
+            int classId = classIds[i];
+            for (int t = s + 1; t < count; t++) {
+                if (suppressed[t] || (classAware && classIds[sortedIndex[t]] != classId)) {
+                    continue;
+                }
+                float h = Math.min(bottom, sortedYmax[t]) - Math.max(top, sortedYmin[t]);
+                float w = Math.min(right, sortedXmax[t]) - Math.max(left, sortedXmin[t]);
+                if (h <= 0 || w <= 0) {
+                    continue;
+                }
+                float intersection = h * w;
+                if (intersection > iouThreshold * (area + sortedArea[t] - intersection)) {
+                    suppressed[t] = true;
+                }
+            }
+        }
+        out.setSize(kept);
+    }
+}
@@ -1,39 +1,46 @@
 package com.cj.mobile.myapplication.util;
 
-import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.util.Log;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
 
+import com.cj.mobile.myapplication.model.ClassificationResult;
 import com.cj.mobile.myapplication.model.Recognition;
 
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
+import org.tensorflow.lite.Tensor;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 
 /**
  * @ProjectName: MyApplication
  * @Package: com.cj.mobile.myapplication.util
  * @ClassName: Classifier
  * @Description: TensorFlow Lite 视觉识别，从【tfbook-master】项目移植过来的
+ * <p>
+ * 输入、输出缓冲区按 Interpreter 的张量类型预先分配并复用：FLOAT32 输入按均值/方差归一化，
+ * UINT8/INT8 量化输入直接写像素；输出整块拷贝到数组后交给 TopKSelector，只对前 K 个结果反量化。
+ * 稳定状态下 recognizeImage(..., ClassificationResult) 不产生任何堆分配。
+ * recognizeCrops 把多个区域直接裁剪缩放进一个批次的输入，一次推理完成（级联检测时使用）。
+ * recognizeTensor 直接使用 YuvTensorPreprocessor 从相机帧生成的输入，不经过 Bitmap。
  * @Author: WLY
  * @CreateDate: 2025/1/9 16:42
  */
 public class Classifier {
-    private Interpreter interpreter;
+    // 没有本机测量结果时的推理配置
+    public static final ModelRegistry.Options DEFAULT_OPTIONS = new ModelRegistry.Options(5, true, false);
+
+    private final ModelRegistry.Handle modelHandle;
+    private final Interpreter interpreter;
     private List<String> labelList;
     private final int INPUT_SIZE;
     private final int PIXEL_SIZE = 3;
@@ -41,181 +48,337 @@ public class Classifier {
     private final float IMAGE_STD = 255.0f;
     private final int MAX_RESULTS = 3;
     private final float THRESHOLD = 0.4f;
+    // YUV 直接预处理（按需创建）
+    private YuvTensorPreprocessor yuvPreprocessor;
+
+    // 输入：张量类型、复用的缓冲区、像素数组、缩放用的 Bitmap
+    private final DataType inputType;
+    private final ByteBuffer inputBuffer;
+    private final int[] intValues;
+    private final float[] normalized = new float[256];
+    private Bitmap scaledBitmap;
+    private final Canvas scaleCanvas = new Canvas();
+    private final Matrix scaleMatrix = new Matrix();
+
+    // 输出：张量类型、类别数、反量化参数、复用的缓冲区及其数组拷贝
+    private final DataType outputType;
+    private final int numClasses;
+    private final float outputScale;
+    private final int outputZeroPoint;
+    private final ByteBuffer outputBuffer;
+    private final FloatBuffer outputFloats;
+    private final float[] outputScores;
+    private final byte[] outputBytes;
+    private final TopKSelector topKSelector = new TopKSelector();
+    // 单张输入/输出的字节数，用于判断 Interpreter 当前的批大小
+    private final int inputBytes;
+    private final int outputBytesPerImage;
+
+    // 批量裁剪识别：最大批大小，以及按需创建的批输入/输出
+    public static final int MAX_BATCH = 8;
+    private ByteBuffer batchInput;
+    private ByteBuffer batchOutput;
+    private final Rect cropRect = new Rect();
+    private final Rect inputRect = new Rect();
+    // List 版本接口复用的结果
+    private final ClassificationResult result;
 
     /**
      * 初始化模型，不包含标签
      */
     public Classifier(AssetManager assetManager, String modelPath, int inputSize) throws IOException {
         this.INPUT_SIZE = inputSize;
-        Interpreter.Options options = new Interpreter.Options();
-        options.setNumThreads(5);
-        options.setUseNNAPI(true);
-        interpreter = new Interpreter(loadModelFile(assetManager, modelPath), options);
+        // 优先使用本机测得的最优线程数和委托
+        ModelRegistry.Options options = InferenceTuner.getInstance().getOptions(modelPath, DEFAULT_OPTIONS);
+        modelHandle = ModelRegistry.getInstance().acquire(assetManager, modelPath, options);
+        interpreter = modelHandle.getInterpreter();
+
+        // Interpreter 由 ModelRegistry 共享，其他持有者（例如 recognizeCrops）可能把 batch 调大了：
+        // 张量信息在锁内读取，每张图的字节数只由类型、INPUT_SIZE 和类别数推出，不读 numBytes()
+        synchronized (interpreter) {
+            inputType = interpreter.getInputTensor(0).dataType();
+            Tensor outputTensor = interpreter.getOutputTensor(0);
+            outputType = outputTensor.dataType();
+            int[] shape = outputTensor.shape();
+            numClasses = shape[shape.length - 1];
+            if (outputType == DataType.FLOAT32) {
+                outputScale = 1f;
+                outputZeroPoint = 0;
+            } else {
+                outputScale = outputTensor.quantizationParams().getScale();
+                outputZeroPoint = outputTensor.quantizationParams().getZeroPoint();
+            }
+        }
+        inputBytes = INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE * inputType.byteSize();
+        inputBuffer = ByteBuffer.allocateDirect(inputBytes);
+        inputBuffer.order(ByteOrder.nativeOrder());
+        intValues = new int[INPUT_SIZE * INPUT_SIZE];
+        for (int i = 0; i < 256; i++) {
+            normalized[i] = (i - IMAGE_MEAN) / IMAGE_STD;
+        }
+
+        outputBytesPerImage = numClasses * outputType.byteSize();
+        outputBuffer = ByteBuffer.allocateDirect(outputBytesPerImage);
+        outputBuffer.order(ByteOrder.nativeOrder());
+        if (outputType == DataType.FLOAT32) {
+            outputFloats = outputBuffer.asFloatBuffer();
+            outputScores = new float[numClasses];
+            outputBytes = null;
+        } else {
+            outputFloats = null;
+            outputScores = null;
+            outputBytes = new byte[numClasses];
+        }
+        result = new ClassificationResult(MAX_RESULTS);
     }
 
     /**
      * 初始化模型，包含标签
      */
     public Classifier(AssetManager assetManager, String modelPath, String labelPath, int inputSize) throws IOException {
-        this.INPUT_SIZE = inputSize;
-        Interpreter.Options options = new Interpreter.Options();
-        options.setNumThreads(5);
-        options.setUseNNAPI(true);
-        interpreter = new Interpreter(loadModelFile(assetManager, modelPath), options);
-        labelList = loadLabelList(assetManager, labelPath);
+        this(assetManager, modelPath, inputSize);
+        labelList = ModelRegistry.getInstance().getLabels(assetManager, labelPath);
     }
 
     /**
-     * 加载模型文件
+     * 释放对模型的引用，之后不能再识别
      */
-    private MappedByteBuffer loadModelFile(AssetManager assetManager, String modelPath) throws IOException {
-        AssetFileDescriptor fileDescriptor = assetManager.openFd(modelPath);
-        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-        FileChannel fileChannel = inputStream.getChannel();
-        long startOffset = fileDescriptor.getStartOffset();
-        long declaredLength = fileDescriptor.getDeclaredLength();
-        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+    public void close() {
+        modelHandle.close();
     }
 
     /**
-     * 加载标签列表
+     * 识别图像
+     *
+     * @param isLabel 是否包含标签（不包含时以类别下标作为标题）
+     * @param bitmap  图像
+     * @return 结果
      */
-    private List<String> loadLabelList(AssetManager assetManager, String labelPath) throws IOException {
-        List<String> labelList = new ArrayList<>();
-        java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.InputStreamReader(assetManager.open(labelPath)));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            labelList.add(line);
-        }
-        reader.close();
-        return labelList;
+    public List<Recognition> recognizeImage(boolean isLabel, Bitmap bitmap) {
+        recognizeImage(bitmap, result);
+        return toRecognitions(isLabel, result);
     }
 
     /**
-     * 识别图像
+     * 识别图像，结果写入调用方持有的 out，不产生堆分配
+     */
+    public void recognizeImage(Bitmap bitmap, ClassificationResult out) {
+        convertBitmapToByteBuffer(bitmap);
+        run(inputBuffer, out);
+    }
+
+    /**
+     * 直接从 YUV 帧识别（带标签模型），旋转、缩放、转 RGB 和归一化一次完成，不生成 Bitmap
      *
-     * @param isLabel 是否包含标签
-     * @param bitmap  图像
+     * @param frame           相机帧
+     * @param rotationDegrees 帧的旋转角度
      * @return 结果
      */
-    public List<Recognition> recognizeImage(boolean isLabel, Bitmap bitmap) {
-        Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, INPUT_SIZE, INPUT_SIZE, false);
-        ByteBuffer byteBuffer = convertBitmapToByteBuffer(isLabel, scaledBitmap);
+    public List<Recognition> recognizeImage(YuvFrame frame, int rotationDegrees) {
+        recognizeImage(frame, rotationDegrees, result);
+        return toRecognitions(labelList != null, result);
+    }
 
-        if (isLabel) {
-            float[][] result = new float[2][labelList.size()];
-            interpreter.run(byteBuffer, result);
-            return getSortedResult(result);
-        } else {
-            // 运行推理
-            // #1
-            Object[] inputArray = {byteBuffer};
-            TensorBuffer outputBuffer = TensorBuffer.createFixedSize(new int[]{1, 1001}, DataType.FLOAT32);  // 假设输出是 1000 个类别概率，根据实际模型调整
-            interpreter.run(inputArray, outputBuffer.getBuffer());
-
-            // 处理输出结果
-            Map<Integer, Float> labeledProbabilities = getLabelProbabilities(outputBuffer);
-            List<Map.Entry<Integer, Float>> sortedLabels = sortLabels(labeledProbabilities);
-
-            // 打印或显示分类结果
-            for (Map.Entry<Integer, Float> entry : sortedLabels) {
-                Log.e("####", entry.getKey() + ": " + entry.getValue());
+    /**
+     * 直接从 YUV 帧识别，结果写入调用方持有的 out，不产生堆分配
+     */
+    public void recognizeImage(YuvFrame frame, int rotationDegrees, ClassificationResult out) {
+        if (yuvPreprocessor == null) {
+            yuvPreprocessor = createYuvPreprocessor();
+        }
+        yuvPreprocessor.process(frame, rotationDegrees, false, inputBuffer, 0);
+        run(inputBuffer, out);
+    }
+
+    /**
+     * 按本模型的输入尺寸、张量类型和归一化参数创建 YUV 预处理器，
+     * 生成的张量可以交给 {@link #recognizeTensor}（例如由 FrameFanOut 在关闭相机帧之前生成）
+     */
+    public YuvTensorPreprocessor createYuvPreprocessor() {
+        int type = inputType == DataType.UINT8 ? YuvTensorPreprocessor.OUTPUT_UINT8
+                : inputType == DataType.INT8 ? YuvTensorPreprocessor.OUTPUT_INT8
+                : YuvTensorPreprocessor.OUTPUT_FLOAT32;
+        return new YuvTensorPreprocessor(INPUT_SIZE, INPUT_SIZE, type, IMAGE_MEAN, IMAGE_STD);
+    }
+
+    /**
+     * 识别已经生成好的输入张量（{@link #createYuvPreprocessor()} 的输出），不再拷贝
+     *
+     * @param isLabel 是否包含标签（不包含时以类别下标作为标题）
+     * @param tensor  单张输入，从 0 开始
+     */
+    public List<Recognition> recognizeTensor(boolean isLabel, ByteBuffer tensor) {
+        recognizeTensor(tensor, result);
+        return toRecognitions(isLabel, result);
+    }
+
+    /**
+     * 识别已经生成好的输入张量，结果写入调用方持有的 out，不产生堆分配
+     */
+    public void recognizeTensor(ByteBuffer tensor, ClassificationResult out) {
+        if (tensor.capacity() < inputBytes) {
+            throw new IllegalArgumentException("Tensor has " + tensor.capacity() + " bytes, expected " + inputBytes);
+        }
+        run(tensor, out);
+    }
+
+    private void run(ByteBuffer input, ClassificationResult out) {
+        input.rewind();
+        outputBuffer.rewind();
+        synchronized (interpreter) {
+            resizeBatch(1);
+            interpreter.run(input, outputBuffer);
+        }
+        selectTopK(out);
+    }
+
+    /**
+     * 批量识别图像中的多个区域：每个区域裁剪并缩放后直接写入批输入的对应位置，一次推理
+     *
+     * @param source 图像
+     * @param rois   区域（source 的坐标），前 count 个有效
+     * @param count  区域数，1..MAX_BATCH
+     * @param out    每个区域的结果，前 count 个有效
+     */
+    public void recognizeCrops(Bitmap source, RectF[] rois, int count, ClassificationResult[] out) {
+        if (count < 1 || count > MAX_BATCH) {
+            throw new IllegalArgumentException("Batch size " + count + " not in [1, " + MAX_BATCH + "]");
+        }
+        if (batchInput == null) {
+            batchInput = ByteBuffer.allocateDirect(inputBytes * MAX_BATCH).order(ByteOrder.nativeOrder());
+            batchOutput = ByteBuffer.allocateDirect(outputBytesPerImage * MAX_BATCH).order(ByteOrder.nativeOrder());
+        }
+        if (scaledBitmap == null) {
+            scaledBitmap = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE, Bitmap.Config.ARGB_8888);
+        }
+        inputRect.set(0, 0, INPUT_SIZE, INPUT_SIZE);
+        for (int i = 0; i < count; i++) {
+            RectF roi = rois[i];
+            cropRect.set(Math.max(0, (int) roi.left), Math.max(0, (int) roi.top),
+                    Math.min(source.getWidth(), (int) Math.ceil(roi.right)),
+                    Math.min(source.getHeight(), (int) Math.ceil(roi.bottom)));
+            if (cropRect.isEmpty()) {
+                cropRect.set(0, 0, source.getWidth(), source.getHeight());
             }
-            return null;
+            scaleCanvas.setBitmap(scaledBitmap);
+            scaleCanvas.drawBitmap(source, cropRect, inputRect, null);
+            scaleCanvas.setBitmap(null);
+            // 直接写入批输入的第 i 个位置
+            convertBitmapToByteBuffer(scaledBitmap, batchInput, i * inputBytes);
+        }
 
+        batchInput.position(0);
+        batchInput.limit(count * inputBytes);
+        batchOutput.position(0);
+        batchOutput.limit(count * outputBytesPerImage);
+        synchronized (interpreter) {
+            // 单张识别时会再调整回来，批大小不变时不重新分配张量
+            resizeBatch(count);
+            interpreter.run(batchInput, batchOutput);
+        }
+        batchInput.clear();
+        batchOutput.clear();
 
-            // #2
-//            // 创建输入和输出张量缓冲区
-//            TensorImage tensorImage = TensorImage.fromBitmap(scaledBitmap);
-//            TensorBuffer inputBuffer = TensorBuffer.createFixedSize(new int[]{1, 224, 224, 3}, DataType.FLOAT32);
-//            inputBuffer.loadBuffer(tensorImage.getBuffer());
-//            float[][] outputArray = new float[1][1001]; // 假设输出是一个 1x10 的矩阵，根据实际模型修改
-//            interpreter.run(inputBuffer.getBuffer(), outputArray);
-//            return getSortedResult(outputArray);
+        for (int i = 0; i < count; i++) {
+            // 第 i 个结果拷贝到单张的输出缓冲区后按原方式选前 K 个
+            batchOutput.position(i * outputBytesPerImage);
+            batchOutput.limit((i + 1) * outputBytesPerImage);
+            outputBuffer.rewind();
+            outputBuffer.put(batchOutput);
+            batchOutput.clear();
+            selectTopK(out[i]);
         }
     }
 
     /**
-     * 获取标签概率
+     * 调整 Interpreter 的批大小（持有 interpreter 锁时调用），批大小不变时不做任何事
      */
-    private Map<Integer, Float> getLabelProbabilities(TensorBuffer outputBuffer) {
-        // 假设输出是 softmax 结果，每个元素代表一个类别的概率
-        float[] scores = outputBuffer.getFloatArray();
-        Map<Integer, Float> labelProbabilities = new HashMap<>();
-        for (int i = 0; i < scores.length; i++) {
-            labelProbabilities.put(i, scores[i]);
+    private void resizeBatch(int batch) {
+        if (interpreter.getInputTensor(0).numBytes() != batch * inputBytes) {
+            interpreter.resizeInput(0, new int[]{batch, INPUT_SIZE, INPUT_SIZE, PIXEL_SIZE});
         }
-        return labelProbabilities;
     }
 
     /**
-     * 排序标签
+     * 类别下标对应的标签，没有标签时返回下标
      */
-    private List<Map.Entry<Integer, Float>> sortLabels(Map<Integer, Float> labelProbabilities) {
-        List<Map.Entry<Integer, Float>> list = new ArrayList<>(labelProbabilities.entrySet());
-        list.sort((entry1, entry2) -> Float.compare(entry2.getValue(), entry1.getValue()));
-        return list;
+    public String getLabel(int id) {
+        if (labelList == null) {
+            return String.valueOf(id);
+        }
+        return labelList.size() > id ? labelList.get(id) : "Unknown";
     }
 
     /**
      * 将bitmap转换成Bytebuffer
-     * 将位图转换为字节缓冲区
-     */
-    private ByteBuffer convertBitmapToByteBuffer(boolean isLabel, Bitmap bitmap) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE);
-        byteBuffer.order(ByteOrder.nativeOrder());
-
-        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-        if (isLabel) {
-            // 有标签
-            int pixel = 0;
-            for (int i = 0; i < INPUT_SIZE; ++i) {
-                for (int j = 0; j < INPUT_SIZE; ++j) {
-                    final int val = intValues[pixel++];
-                    byteBuffer.putFloat((((val >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    byteBuffer.putFloat((((val >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    byteBuffer.putFloat(((val & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
-            }
-        } else {
-            // 无标签
-            for (int value : intValues) {
-                byteBuffer.putFloat(((value >> 16) & IMAGE_MEAN) / IMAGE_STD);
-                byteBuffer.putFloat(((value >> 8) & IMAGE_MEAN) / IMAGE_STD);
-                byteBuffer.putFloat((value & IMAGE_MEAN) / IMAGE_STD);
+     * 将位图转换为字节缓冲区（尺寸不符时先缩放到复用的 Bitmap）
+     */
+    private void convertBitmapToByteBuffer(Bitmap bitmap) {
+        convertBitmapToByteBuffer(bitmap, inputBuffer, 0);
+    }
+
+    /**
+     * 将位图转换后写入 out 中从 offset 开始的位置（绝对位置写入，不改变 out 的 position）
+     */
+    private void convertBitmapToByteBuffer(Bitmap bitmap, ByteBuffer out, int offset) {
+        if (bitmap.getWidth() != INPUT_SIZE || bitmap.getHeight() != INPUT_SIZE) {
+            if (scaledBitmap == null) {
+                scaledBitmap = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE, Bitmap.Config.ARGB_8888);
             }
+            scaleMatrix.setScale((float) INPUT_SIZE / bitmap.getWidth(), (float) INPUT_SIZE / bitmap.getHeight());
+            scaleCanvas.setBitmap(scaledBitmap);
+            scaleCanvas.drawBitmap(bitmap, scaleMatrix, null);
+            scaleCanvas.setBitmap(null);
+            bitmap = scaledBitmap;
         }
+        bitmap.getPixels(intValues, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
 
-        return byteBuffer;
+        int index = offset;
+        for (int val : intValues) {
+            int r = (val >> 16) & 0xFF;
+            int g = (val >> 8) & 0xFF;
+            int b = val & 0xFF;
+            if (inputType == DataType.FLOAT32) {
+                out.putFloat(index, normalized[r]);
+                out.putFloat(index + 4, normalized[g]);
+                out.putFloat(index + 8, normalized[b]);
+                index += 12;
+            } else {
+                int shift = inputType == DataType.INT8 ? 128 : 0;
+                out.put(index, (byte) (r - shift));
+                out.put(index + 1, (byte) (g - shift));
+                out.put(index + 2, (byte) (b - shift));
+                index += 3;
+            }
+        }
     }
 
     /**
-     * 获取排序结果
+     * 读取第一行输出，按阈值保留分数最高的前 K 个写入 out
      */
-    private List<Recognition> getSortedResult(float[][] labelProbArray) {
-        Log.d("Classifier", String.format("List Size:(%d, %d, %d)", labelProbArray.length, labelProbArray[0].length, labelList.size()));
-
-        PriorityQueue<Recognition> pq = new PriorityQueue<>(
-                MAX_RESULTS,
-                (o1, o2) -> Float.compare(o2.getConfidence(), o1.getConfidence())
-        );
-
-        for (int i = 0; i < labelList.size(); ++i) {
-            float confidence = labelProbArray[0][i];
-            if (confidence >= THRESHOLD) {
-                pq.add(new Recognition("" + i, labelList.size() > i ? labelList.get(i) : "Unknown", confidence));
-            }
+    private void selectTopK(ClassificationResult out) {
+        if (outputType == DataType.FLOAT32) {
+            outputFloats.position(0);
+            outputFloats.get(outputScores);
+            topKSelector.select(outputScores, numClasses, false, THRESHOLD, out);
+        } else {
+            outputBuffer.position(0);
+            outputBuffer.get(outputBytes);
+            topKSelector.select(outputBytes, numClasses, outputType == DataType.UINT8,
+                    outputScale, outputZeroPoint, false, THRESHOLD, out);
         }
-        Log.d("Classifier", String.format("pqsize:(%d)", pq.size()));
+    }
 
-        List<Recognition> recognitions = new ArrayList<>();
-        int recognitionsSize = Math.min(pq.size(), MAX_RESULTS);
-        for (int i = 0; i < recognitionsSize; ++i) {
-            recognitions.add(pq.poll());
+    /**
+     * 只为最终的前 K 个结果创建 Recognition
+     */
+    private List<Recognition> toRecognitions(boolean isLabel, ClassificationResult out) {
+        List<Recognition> recognitions = new ArrayList<>(out.size());
+        for (int i = 0; i < out.size(); ++i) {
+            int id = out.getId(i);
+            String title = isLabel ? (labelList.size() > id ? labelList.get(id) : "Unknown") : String.valueOf(id);
+            recognitions.add(new Recognition("" + id, title, out.getScore(i)));
         }
         return recognitions;
     }
 }
-
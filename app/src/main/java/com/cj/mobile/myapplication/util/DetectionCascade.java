@@ -0,0 +1,200 @@
+package com.cj.mobile.myapplication.util;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.os.SystemClock;
+
+import com.cj.mobile.myapplication.model.ClassificationResult;
+
+import org.tensorflow.lite.support.label.Category;
+import org.tensorflow.lite.task.vision.detector.Detection;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: DetectionCascade
+ * @Description: 先检测再分类的两级级联
+ * <p>
+ * 检测器给出的是粗粒度的 COCO 类别，对分数不低于阈值的检测框再用第二个模型（例如猫狗分类器）做细分类：
+ * 各个框从原图中直接裁剪缩放进分类器的批输入，一次推理完成，细分类的结果排在原类别前面合并回检测结果。
+ * 同一个目标（与最近分类过的框同类别且 IoU 足够大）在有效期内不重复分类，直接沿用上次的结果。
+ * 非线程安全，在检测线程上使用。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 18:50
+ */
+public class DetectionCascade {
+    // 视为同一目标的最小 IoU
+    private static final float MATCH_IOU = 0.5f;
+
+    private final Classifier classifier;
+    private final float minScore;
+    private final long reclassifyNanos;
+    // 最近分类过的目标
+    private final List<Identity> identities = new ArrayList<>();
+
+    // 批输入的区域、结果和对应的检测下标
+    private final RectF[] rois = new RectF[Classifier.MAX_BATCH];
+    private final ClassificationResult[] batchResults = new ClassificationResult[Classifier.MAX_BATCH];
+    private final int[] batchIndices = new int[Classifier.MAX_BATCH];
+
+    private long classifiedCount;
+    private long reusedCount;
+
+    /**
+     * @param classifier       第二级分类器，由调用方负责 close
+     * @param minScore         需要细分类的检测框的最低分数
+     * @param reclassifyMillis 同一目标的细分类结果的有效期
+     */
+    public DetectionCascade(Classifier classifier, float minScore, long reclassifyMillis) {
+        this.classifier = classifier;
+        this.minScore = minScore;
+        this.reclassifyNanos = reclassifyMillis * 1_000_000L;
+        for (int i = 0; i < Classifier.MAX_BATCH; i++) {
+            rois[i] = new RectF();
+            batchResults[i] = new ClassificationResult(3);
+        }
+    }
+
+    /**
+     * 对检测结果做细分类
+     *
+     * @param image      检测时使用的图像（检测框的坐标系）
+     * @param detections 检测结果
+     * @return 合并了细分类结果的检测结果（顺序不变）
+     */
+    public List<Detection> refine(Bitmap image, List<Detection> detections) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        expire(now);
+
+        List<Detection> refined = new ArrayList<>(detections);
+        int pending = 0;
+        for (int i = 0; i < detections.size(); i++) {
+            Detection detection = detections.get(i);
+            Category coarse = topCategory(detection);
+            if (coarse == null || coarse.getScore() < minScore) {
+                continue;
+            }
+            Identity identity = match(detection.getBoundingBox(), coarse.getLabel());
+            if (identity != null) {
+                // 最近分类过的同一目标，跟随新的位置，沿用上次的结果
+                identity.box.set(detection.getBoundingBox());
+                refined.set(i, merge(detection, identity.fine));
+                reusedCount++;
+                continue;
+            }
+            rois[pending].set(detection.getBoundingBox());
+            batchIndices[pending] = i;
+            pending++;
+            if (pending == Classifier.MAX_BATCH) {
+                classifyBatch(image, detections, refined, pending, now);
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            classifyBatch(image, detections, refined, pending, now);
+        }
+        return refined;
+    }
+
+    private void classifyBatch(Bitmap image, List<Detection> detections, List<Detection> refined, int count, long now) {
+        classifier.recognizeCrops(image, rois, count, batchResults);
+        for (int b = 0; b < count; b++) {
+            ClassificationResult result = batchResults[b];
+            List<Category> fine = new ArrayList<>(result.size());
+            for (int k = 0; k < result.size(); k++) {
+                fine.add(new Category(classifier.getLabel(result.getId(k)), result.getScore(k)));
+            }
+            Detection detection = detections.get(batchIndices[b]);
+            identities.add(new Identity(new RectF(detection.getBoundingBox()),
+                    topCategory(detection).getLabel(), fine, now));
+            refined.set(batchIndices[b], merge(detection, fine));
+        }
+        classifiedCount += count;
+    }
+
+    private Identity match(RectF box, String label) {
+        Identity best = null;
+        float bestIou = MATCH_IOU;
+        for (Identity identity : identities) {
+            if (!identity.label.equals(label)) {
+                continue;
+            }
+            float iou = iou(identity.box, box);
+            if (iou >= bestIou) {
+                bestIou = iou;
+                best = identity;
+            }
+        }
+        return best;
+    }
+
+    private void expire(long now) {
+        Iterator<Identity> iterator = identities.iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().classifiedAt > reclassifyNanos) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 清空已分类的目标，例如切换检测模型后
+     */
+    public void clear() {
+        identities.clear();
+    }
+
+    public long getClassifiedCount() {
+        return classifiedCount;
+    }
+
+    public long getReusedCount() {
+        return reusedCount;
+    }
+
+    private static Detection merge(Detection detection, List<Category> fine) {
+        if (fine.isEmpty()) {
+            return detection;
+        }
+        List<Category> categories = new ArrayList<>(fine.size() + detection.getCategories().size());
+        categories.addAll(fine);
+        categories.addAll(detection.getCategories());
+        return Detection.create(detection.getBoundingBox(), categories);
+    }
+
+    private static Category topCategory(Detection detection) {
+        List<Category> categories = detection.getCategories();
+        return categories.isEmpty() ? null : categories.get(0);
+    }
+
+    static float iou(RectF a, RectF b) {
+        float left = Math.max(a.left, b.left);
+        float top = Math.max(a.top, b.top);
+        float right = Math.min(a.right, b.right);
+        float bottom = Math.min(a.bottom, b.bottom);
+        if (right <= left || bottom <= top) {
+            return 0f;
+        }
+        float intersection = (right - left) * (bottom - top);
+        float union = a.width() * a.height() + b.width() * b.height() - intersection;
+        return union > 0 ? intersection / union : 0f;
+    }
+
+    private static final class Identity {
+        final RectF box;
+        final String label;
+        final List<Category> fine;
+        final long classifiedAt;
+
+        Identity(RectF box, String label, List<Category> fine, long classifiedAt) {
+            this.box = box;
+            this.label = label;
+            this.fine = fine;
+            this.classifiedAt = classifiedAt;
+        }
+    }
+}
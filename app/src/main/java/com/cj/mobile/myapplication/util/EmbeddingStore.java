@@ -0,0 +1,293 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: EmbeddingStore
+ * @Description: 已注册人脸的嵌入存储与最近邻查询
+ * <p>
+ * 所有向量归一化后连续存放在一个 float[] 中（第 i 个向量从 i * dimension 开始），相似度为点积（即余弦相似度），
+ * 内层循环 4 路展开。每个向量另外保存几个检查点之后剩余部分的范数：查询到检查点时，由柯西不等式得到
+ * 剩余部分点积的上界，已经不可能进入前 2 的向量提前放弃。一次查询只遍历一遍、不产生对象。
+ * 注册和删除写时复制：生成新的快照后整体替换，查询始终读取某个完整的快照，不需要加锁，也不会被注册阻塞。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 19:50
+ */
+public class EmbeddingStore {
+    // 每个向量的检查点数
+    private static final int CHECKPOINTS = 3;
+
+    private final int dimension;
+    // 检查点的维度下标（4 的倍数）
+    private final int[] checkpoints = new int[CHECKPOINTS];
+    private volatile Snapshot snapshot;
+
+    public EmbeddingStore(int dimension) {
+        this.dimension = dimension;
+        for (int c = 0; c < CHECKPOINTS; c++) {
+            checkpoints[c] = (dimension * (c + 1) / (CHECKPOINTS + 1)) & ~3;
+        }
+        this.snapshot = new Snapshot(new String[0], new float[0], new float[0], 0);
+    }
+
+    /**
+     * 不可变的快照，数组只在新建快照时写入
+     */
+    private static final class Snapshot {
+        final String[] names;
+        final float[] vectors;
+        // 每个向量 CHECKPOINTS 个剩余范数
+        final float[] tailNorms;
+        final int count;
+
+        Snapshot(String[] names, float[] vectors, float[] tailNorms, int count) {
+            this.names = names;
+            this.vectors = vectors;
+            this.tailNorms = tailNorms;
+            this.count = count;
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return snapshot.count;
+    }
+
+    /**
+     * 注册（或替换同名的）人脸，向量复制并归一化后保存
+     *
+     * @return 是否替换了已有的同名人脸
+     */
+    public synchronized boolean add(String name, float[] embedding) {
+        if (embedding.length < dimension) {
+            throw new IllegalArgumentException("Embedding has " + embedding.length + " values, expected " + dimension);
+        }
+        Snapshot current = snapshot;
+        int index = indexOf(current, name);
+        boolean replaced = index >= 0;
+        int count = replaced ? current.count : current.count + 1;
+        if (!replaced) {
+            index = current.count;
+        }
+        String[] names = Arrays.copyOf(current.names, count);
+        float[] vectors = Arrays.copyOf(current.vectors, count * dimension);
+        float[] tailNorms = Arrays.copyOf(current.tailNorms, count * CHECKPOINTS);
+        names[index] = name;
+        writeVector(embedding, vectors, index, tailNorms);
+        snapshot = new Snapshot(names, vectors, tailNorms, count);
+        return replaced;
+    }
+
+    /**
+     * 批量注册，只复制一次快照，适合加载整个人脸库
+     */
+    public synchronized void addAll(String[] names, float[][] embeddings, int count) {
+        Snapshot current = snapshot;
+        int capacity = current.count + count;
+        String[] newNames = Arrays.copyOf(current.names, capacity);
+        float[] vectors = Arrays.copyOf(current.vectors, capacity * dimension);
+        float[] tailNorms = Arrays.copyOf(current.tailNorms, capacity * CHECKPOINTS);
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < current.count; i++) {
+            indices.put(current.names[i], i);
+        }
+        int size = current.count;
+        for (int i = 0; i < count; i++) {
+            if (embeddings[i].length < dimension) {
+                throw new IllegalArgumentException("Embedding has " + embeddings[i].length + " values, expected " + dimension);
+            }
+            Integer existing = indices.get(names[i]);
+            int index = existing != null ? existing : size++;
+            indices.put(names[i], index);
+            newNames[index] = names[i];
+            writeVector(embeddings[i], vectors, index, tailNorms);
+        }
+        snapshot = new Snapshot(size < capacity ? Arrays.copyOf(newNames, size) : newNames, vectors, tailNorms, size);
+    }
+
+    /**
+     * 删除指定名字的人脸，最后一个向量移到空出的位置
+     */
+    public synchronized boolean remove(String name) {
+        Snapshot current = snapshot;
+        int index = indexOf(current, name);
+        if (index < 0) {
+            return false;
+        }
+        int count = current.count - 1;
+        String[] names = Arrays.copyOf(current.names, count);
+        float[] vectors = Arrays.copyOf(current.vectors, count * dimension);
+        float[] tailNorms = Arrays.copyOf(current.tailNorms, count * CHECKPOINTS);
+        if (index < count) {
+            names[index] = current.names[count];
+            System.arraycopy(current.vectors, count * dimension, vectors, index * dimension, dimension);
+            System.arraycopy(current.tailNorms, count * CHECKPOINTS, tailNorms, index * CHECKPOINTS, CHECKPOINTS);
+        }
+        snapshot = new Snapshot(names, vectors, tailNorms, count);
+        return true;
+    }
+
+    public synchronized void clear() {
+        snapshot = new Snapshot(new String[0], new float[0], new float[0], 0);
+    }
+
+    public boolean contains(String name) {
+        return indexOf(snapshot, name) >= 0;
+    }
+
+    /**
+     * 复制第 index 个（归一化后的）向量
+     */
+    public void getVector(int index, float[] out) {
+        System.arraycopy(snapshot.vectors, index * dimension, out, 0, dimension);
+    }
+
+    private static int indexOf(Snapshot snapshot, String name) {
+        for (int i = 0; i < snapshot.count; i++) {
+            if (snapshot.names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void writeVector(float[] embedding, float[] vectors, int index, float[] tailNorms) {
+        float norm = 0f;
+        for (int d = 0; d < dimension; d++) {
+            norm += embedding[d] * embedding[d];
+        }
+        float scale = norm > 0f ? (float) (1.0 / Math.sqrt(norm)) : 0f;
+        int offset = index * dimension;
+        for (int d = 0; d < dimension; d++) {
+            vectors[offset + d] = embedding[d] * scale;
+        }
+        for (int c = 0; c < CHECKPOINTS; c++) {
+            tailNorms[index * CHECKPOINTS + c] = tailNorm(vectors, offset, checkpoints[c]);
+        }
+    }
+
+    private float tailNorm(float[] vector, int offset, int from) {
+        float sum = 0f;
+        for (int d = from; d < dimension; d++) {
+            sum += vector[offset + d] * vector[offset + d];
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    /**
+     * 查找与 query 最相似的两个人脸
+     *
+     * @param query 未归一化的嵌入（模型的原始输出即可）
+     * @param out   结果，没有注册的人脸时 size 为 0
+     */
+    public void findNearest(float[] query, EmbeddingMatch out) {
+        Snapshot current = snapshot;
+        out.clear();
+        int count = current.count;
+        if (count == 0) {
+            return;
+        }
+
+        // 查询向量不复制也不归一化：点积除以其范数即为余弦相似度，比较时把界限乘以范数
+        float norm = 0f;
+        float tail0 = 0f;
+        float tail1 = 0f;
+        float tail2 = 0f;
+        int c0 = checkpoints[0];
+        int c1 = checkpoints[1];
+        int c2 = checkpoints[2];
+        for (int d = dimension - 1; d >= 0; d--) {
+            norm += query[d] * query[d];
+            if (d == c2) {
+                tail2 = norm;
+            }
+            if (d == c1) {
+                tail1 = norm;
+            }
+            if (d == c0) {
+                tail0 = norm;
+            }
+        }
+        if (norm == 0f) {
+            return;
+        }
+        float queryNorm = (float) Math.sqrt(norm);
+        float queryTail0 = (float) Math.sqrt(tail0);
+        float queryTail1 = (float) Math.sqrt(tail1);
+        float queryTail2 = (float) Math.sqrt(tail2);
+
+        float[] vectors = current.vectors;
+        float[] tailNorms = current.tailNorms;
+        int bestIndex = -1;
+        int secondIndex = -1;
+        float best = Float.NEGATIVE_INFINITY;
+        float second = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            int offset = i * dimension;
+            int t = i * CHECKPOINTS;
+            float bound = second * queryNorm;
+            float dot = dot(query, vectors, offset, 0, c0);
+            if (dot + queryTail0 * tailNorms[t] < bound) {
+                continue;
+            }
+            dot += dot(query, vectors, offset, c0, c1);
+            if (dot + queryTail1 * tailNorms[t + 1] < bound) {
+                continue;
+            }
+            dot += dot(query, vectors, offset, c1, c2);
+            if (dot + queryTail2 * tailNorms[t + 2] < bound) {
+                continue;
+            }
+            dot += dot(query, vectors, offset, c2, dimension);
+            float similarity = dot / queryNorm;
+            if (similarity > best) {
+                second = best;
+                secondIndex = bestIndex;
+                best = similarity;
+                bestIndex = i;
+            } else if (similarity > second) {
+                second = similarity;
+                secondIndex = i;
+            }
+        }
+
+        out.set(0, bestIndex, current.names[bestIndex], best);
+        if (secondIndex >= 0) {
+            out.set(1, secondIndex, current.names[secondIndex], second);
+            out.setSize(2);
+        } else {
+            out.setSize(1);
+        }
+    }
+
+    /**
+     * query[from, to) 与 vectors 中对应维度的点积，4 路展开（from 为 4 的倍数）
+     */
+    private static float dot(float[] query, float[] vectors, int offset, int from, int to) {
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int d = from;
+        for (int end = to - 3; d < end; d += 4) {
+            int v = offset + d;
+            s0 += query[d] * vectors[v];
+            s1 += query[d + 1] * vectors[v + 1];
+            s2 += query[d + 2] * vectors[v + 2];
+            s3 += query[d + 3] * vectors[v + 3];
+        }
+        for (; d < to; d++) {
+            s0 += query[d] * vectors[offset + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
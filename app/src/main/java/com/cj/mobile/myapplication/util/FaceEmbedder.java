@@ -0,0 +1,123 @@
+package com.cj.mobile.myapplication.util;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FaceEmbedder
+ * @Description: 批量人脸嵌入（MobileFaceNet）
+ * <p>
+ * 多张人脸写入同一块连续的输入缓冲区，把输入的 batch 维调整为人脸数（不超过上限），一次 invoke 得到 N x 192 的嵌入矩阵。
+ * 每种批大小对应的输入切片、形状和输出数组只创建一次，batch 不变时不再 resizeInput。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 14:40
+ */
+public class FaceEmbedder {
+    private final Interpreter interpreter;
+    private final FaceWarper warper;
+    private final int embeddingSize;
+    private final int maxBatch;
+    private final int tensorBytes;
+    // maxBatch 张人脸的输入缓冲区，第 i 张从 i * tensorBytes 开始
+    private final ByteBuffer inputBuffer;
+
+    // 按批大小缓存（下标为 batch）
+    private final ByteBuffer[] batchInputs;
+    private final int[][] batchShapes;
+    private final float[][][] batchOutputs;
+    private final Object[][] batchInputArrays;
+    private final Map<Integer, Object>[] batchOutputMaps;
+    private int currentBatch;
+
+    @SuppressWarnings("unchecked")
+    public FaceEmbedder(Interpreter interpreter, FaceWarper warper, int embeddingSize, int maxBatch) {
+        this.interpreter = interpreter;
+        this.warper = warper;
+        this.embeddingSize = embeddingSize;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.tensorBytes = warper.getTensorBytes();
+        this.inputBuffer = ByteBuffer.allocateDirect(tensorBytes * this.maxBatch);
+        this.inputBuffer.order(ByteOrder.nativeOrder());
+        this.batchInputs = new ByteBuffer[this.maxBatch + 1];
+        this.batchShapes = new int[this.maxBatch + 1][];
+        this.batchOutputs = new float[this.maxBatch + 1][][];
+        this.batchInputArrays = new Object[this.maxBatch + 1][];
+        this.batchOutputMaps = new Map[this.maxBatch + 1];
+        // 注册表中的 Interpreter 可能已被之前的实例调整过 batch，与 embed 一样在锁内读取
+        synchronized (interpreter) {
+            this.currentBatch = interpreter.getInputTensor(0).shape()[0];
+        }
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * 整块输入缓冲区，第 0 张人脸位于起始位置（可用于单张的 Bitmap 路径）
+     */
+    public ByteBuffer getInputBuffer() {
+        return inputBuffer;
+    }
+
+    public FaceWarper getWarper() {
+        return warper;
+    }
+
+    /**
+     * 按 warper 当前的变换把人脸采样到第 slot 个位置
+     *
+     * @param preview 可选，不为 null 时同时写出 ARGB 预览
+     */
+    public void warpInto(int slot, YuvFrame frame, int[] preview) {
+        warper.warp(frame, inputBuffer, slot * tensorBytes, preview);
+    }
+
+    /**
+     * 第 slot 个位置上人脸的清晰度，见 {@link FaceWarper#sharpness}
+     */
+    public float sharpness(int slot) {
+        return warper.sharpness(inputBuffer, slot * tensorBytes);
+    }
+
+    /**
+     * 对前 count 个位置的人脸做一次批量推理
+     *
+     * @param count 人脸数，1..maxBatch
+     * @return count x embeddingSize 的嵌入矩阵，下一次同样批大小的调用会覆盖它
+     */
+    public float[][] embed(int count) {
+        if (count < 1 || count > maxBatch) {
+            throw new IllegalArgumentException("Batch size " + count + " not in [1, " + maxBatch + "]");
+        }
+        if (batchInputs[count] == null) {
+            ByteBuffer slice = inputBuffer.duplicate();
+            slice.position(0);
+            slice.limit(count * tensorBytes);
+            batchInputs[count] = slice.slice().order(ByteOrder.nativeOrder());
+            int size = warper.getOutputSize();
+            batchShapes[count] = new int[]{count, size, size, 3};
+            batchOutputs[count] = new float[count][embeddingSize];
+            batchInputArrays[count] = new Object[]{batchInputs[count]};
+            Map<Integer, Object> outputMap = new HashMap<>();
+            outputMap.put(0, batchOutputs[count]);
+            batchOutputMaps[count] = outputMap;
+        }
+
+        synchronized (interpreter) {
+            if (count != currentBatch) {
+                interpreter.resizeInput(0, batchShapes[count]);
+                currentBatch = count;
+            }
+            batchInputs[count].rewind();
+            interpreter.runForMultipleInputsOutputs(batchInputArrays[count], batchOutputMaps[count]);
+        }
+        return batchOutputs[count];
+    }
+}
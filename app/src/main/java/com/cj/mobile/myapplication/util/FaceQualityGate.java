@@ -0,0 +1,196 @@
+package com.cj.mobile.myapplication.util;
+
+import android.util.Log;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FaceQualityGate
+ * @Description: 人脸质量门限：模糊、过小或角度过大的人脸不送入嵌入模型
+ * <p>
+ * 依次检查（由便宜到贵）：框的短边、ML Kit 的头部欧拉角（没有时跳过）、亮度裁剪区域的拉普拉斯方差。
+ * 滚转角有两个门限：采样时按双眼连线转正的人脸滚转会被纠正，可以放宽；没有双眼位置（或不做对齐）时用较严的门限。
+ * 清晰度直接在传感器帧的 Y 平面上计算，不做 RGB 转换：框换算到传感器坐标后取中间 80%（避开背景边缘），
+ * 采样 SAMPLES x SAMPLES 个点，邻点间距按人脸缩放到约 96 像素计算，与模型输入的分辨率相当，不同大小的人脸可以用同一个阈值。
+ * 每种拒绝原因分别计数，每 reportEvery 次评估输出一次，便于根据实际数据调整阈值。只在一个线程上使用，方法不同步。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 21:30
+ */
+public class FaceQualityGate {
+    public static final int PASSED = 0;
+    public static final int REJECTED_SIZE = 1;
+    public static final int REJECTED_POSE = 2;
+    public static final int REJECTED_BLUR = 3;
+    private static final int RESULTS = 4;
+
+    private static final String TAG = "FaceQualityGate";
+    private static final int SAMPLES = 48;
+    // 清晰度按人脸缩放到约 96 像素计算
+    private static final int REFERENCE_SIZE = 96;
+    // 只取框中间的 80%
+    private static final float INNER = 0.8f;
+
+    private final float minSize;
+    private final float maxYaw;
+    private final float maxPitch;
+    private final float maxRoll;
+    private final float maxAlignedRoll;
+    private final float minSharpness;
+    private final int reportEvery;
+
+    private final int[] counts = new int[RESULTS];
+    private int evaluated;
+    private float sharpnessSum;
+    private int sharpnessSamples;
+    private float lastSharpness;
+
+    /**
+     * @param minSize      框短边的最小像素数
+     * @param maxYaw       偏航角（左右转头）的最大绝对值，单位度
+     * @param maxPitch     俯仰角的最大绝对值
+     * @param maxRoll        滚转角的最大绝对值（采样时不做双眼对齐）
+     * @param maxAlignedRoll 采样时按双眼连线转正时滚转角的最大绝对值
+     * @param minSharpness 拉普拉斯方差的最小值
+     * @param reportEvery  每多少次评估输出一次统计
+     */
+    public FaceQualityGate(float minSize, float maxYaw, float maxPitch, float maxRoll, float maxAlignedRoll,
+                           float minSharpness, int reportEvery) {
+        this.minSize = minSize;
+        this.maxYaw = maxYaw;
+        this.maxPitch = maxPitch;
+        this.maxRoll = maxRoll;
+        this.maxAlignedRoll = maxAlignedRoll;
+        this.minSharpness = minSharpness;
+        this.reportEvery = Math.max(1, reportEvery);
+    }
+
+    /**
+     * 评估一张人脸
+     *
+     * @param frame           包装好的传感器帧
+     * @param rotationDegrees 帧旋转角度，框是旋转后的正向图像坐标（与 ML Kit 一致）
+     * @param pitch           头部欧拉角，单位度；检测器没有提供时传 {@link Float#NaN}
+     * @param aligned         采样时是否按双眼连线把人脸转正（决定滚转角用哪个门限）
+     * @return {@link #PASSED} 或拒绝原因
+     */
+    public int evaluate(YuvFrame frame, int rotationDegrees, float left, float top, float right, float bottom,
+                        float pitch, float yaw, float roll, boolean aligned) {
+        int result = check(frame, rotationDegrees, left, top, right, bottom, pitch, yaw, roll,
+                aligned ? maxAlignedRoll : maxRoll);
+        counts[result]++;
+        if (++evaluated >= reportEvery) {
+            report();
+        }
+        return result;
+    }
+
+    private int check(YuvFrame frame, int rotationDegrees, float left, float top, float right, float bottom,
+                      float pitch, float yaw, float roll, float rollLimit) {
+        lastSharpness = Float.NaN;
+        float size = Math.min(right - left, bottom - top);
+        if (size < minSize) {
+            return REJECTED_SIZE;
+        }
+        // NaN 的比较结果为 false，没有角度时不拒绝
+        if (Math.abs(yaw) > maxYaw || Math.abs(pitch) > maxPitch || Math.abs(roll) > rollLimit) {
+            return REJECTED_POSE;
+        }
+
+        lastSharpness = sharpness(frame, rotationDegrees, left, top, right, bottom);
+        sharpnessSum += lastSharpness;
+        sharpnessSamples++;
+        return lastSharpness < minSharpness ? REJECTED_BLUR : PASSED;
+    }
+
+    /**
+     * 裁剪区域亮度的拉普拉斯方差
+     */
+    private static float sharpness(YuvFrame frame, int rotationDegrees, float left, float top, float right, float bottom) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        // 正向图像的框 -> 传感器坐标的框（旋转 90 度的倍数，仍然是轴对齐的）
+        float x0, y0, x1, y1;
+        switch (((rotationDegrees % 360) + 360) % 360) {
+            case 90:
+                x0 = top;
+                x1 = bottom;
+                y0 = height - right;
+                y1 = height - left;
+                break;
+            case 180:
+                x0 = width - right;
+                x1 = width - left;
+                y0 = height - bottom;
+                y1 = height - top;
+                break;
+            case 270:
+                x0 = width - bottom;
+                x1 = width - top;
+                y0 = left;
+                y1 = right;
+                break;
+            default:
+                x0 = left;
+                x1 = right;
+                y0 = top;
+                y1 = bottom;
+                break;
+        }
+        float marginX = (x1 - x0) * (1f - INNER) / 2f;
+        float marginY = (y1 - y0) * (1f - INNER) / 2f;
+        int offset = Math.max(1, Math.round(Math.min(x1 - x0, y1 - y0) / REFERENCE_SIZE));
+        int fromX = Math.max(offset, (int) (x0 + marginX));
+        int toX = Math.min(width - 1 - offset, (int) (x1 - marginX));
+        int fromY = Math.max(offset, (int) (y0 + marginY));
+        int toY = Math.min(height - 1 - offset, (int) (y1 - marginY));
+        if (toX <= fromX || toY <= fromY) {
+            return 0f;
+        }
+
+        float stepX = Math.max(1f, (toX - fromX) / (float) (SAMPLES - 1));
+        float stepY = Math.max(1f, (toY - fromY) / (float) (SAMPLES - 1));
+        float sum = 0f;
+        float squares = 0f;
+        int samples = 0;
+        for (float fy = fromY; fy <= toY; fy += stepY) {
+            int y = (int) fy;
+            for (float fx = fromX; fx <= toX; fx += stepX) {
+                int x = (int) fx;
+                float laplacian = 4 * frame.luma(x, y)
+                        - frame.luma(x - offset, y) - frame.luma(x + offset, y)
+                        - frame.luma(x, y - offset) - frame.luma(x, y + offset);
+                sum += laplacian;
+                squares += laplacian * laplacian;
+                samples++;
+            }
+        }
+        float mean = sum / samples;
+        return squares / samples - mean * mean;
+    }
+
+    /**
+     * 最近一次评估的拉普拉斯方差，没有计算到这一步时为 NaN
+     */
+    public float getLastSharpness() {
+        return lastSharpness;
+    }
+
+    /**
+     * 自上次输出以来某种结果的次数
+     */
+    public int getCount(int result) {
+        return counts[result];
+    }
+
+    private void report() {
+        Log.i(TAG, String.format("faces=%d passed=%d size=%d pose=%d blur=%d meanSharpness=%.1f",
+                evaluated, counts[PASSED], counts[REJECTED_SIZE], counts[REJECTED_POSE], counts[REJECTED_BLUR],
+                sharpnessSamples > 0 ? sharpnessSum / sharpnessSamples : 0f));
+        evaluated = 0;
+        sharpnessSum = 0f;
+        sharpnessSamples = 0;
+        for (int i = 0; i < RESULTS; i++) {
+            counts[i] = 0;
+        }
+    }
+}
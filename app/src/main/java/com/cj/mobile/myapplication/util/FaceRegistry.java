@@ -0,0 +1,465 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FaceRegistry
+ * @Description: 持久化的已注册人脸库，通过 FileChannel.map 打开，启动耗时与人数无关
+ * <p>
+ * 文件布局（小端）：64 字节的定长文件头；capacity x dimension 的归一化嵌入矩阵；capacity 个 12 字节的行记录
+ * （名字在字符串表中的偏移、长度、状态）；最后是 UTF-8 名字的字符串表。各区域按容量预留，整个文件只映射一次。
+ * 注册只追加：先写向量、名字和行记录并刷到磁盘，再更新文件头中的行数并再次刷盘，中途中断不会留下半条记录；
+ * 替换同名的人脸时，新行持久化之后才把旧行标记为已删除，中断时旧的记录仍然有效（最坏情况下两行同时有效，下次注册或删除该名字时一并清除）。
+ * 删除只把行标记为已删除；已删除的行超过一半、或预留空间用完时压缩：把有效的行写入临时文件后原子替换并重新映射，
+ * 正在进行的查询继续使用旧的映射。查询直接读取映射的缓冲区，向量不复制到堆上，只为前 2 个结果解码名字。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 20:50
+ */
+public class FaceRegistry implements Closeable {
+    // 文件头 "FREG"
+    private static final int MAGIC = 0x46524547;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ROW_SIZE = 12;
+    private static final int ROW_LIVE = 1;
+    private static final int ROW_DELETED = 0;
+    // 每个名字预留的平均字节数
+    private static final int NAME_BYTES = 32;
+    private static final int MIN_CAPACITY = 64;
+
+    // 文件头字段的偏移
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_DIMENSION = 8;
+    private static final int OFFSET_CAPACITY = 12;
+    private static final int OFFSET_COUNT = 16;
+    private static final int OFFSET_DELETED = 20;
+    private static final int OFFSET_STRING_CAPACITY = 24;
+    private static final int OFFSET_STRING_SIZE = 28;
+
+    private final File file;
+    private final int dimension;
+    private volatile Mapping mapping;
+
+    /**
+     * 一次映射及其中的区域，压缩后整体替换
+     */
+    private static final class Mapping {
+        final MappedByteBuffer buffer;
+        final FloatBuffer vectors;
+        final int capacity;
+        final int stringCapacity;
+        final int rowsOffset;
+        final int stringsOffset;
+        // 已使用的行数（含已删除的），写入行记录之后再增加
+        volatile int count;
+        int deleted;
+        int stringSize;
+
+        Mapping(MappedByteBuffer buffer, int dimension) {
+            this.buffer = buffer;
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            this.capacity = buffer.getInt(OFFSET_CAPACITY);
+            this.stringCapacity = buffer.getInt(OFFSET_STRING_CAPACITY);
+            this.rowsOffset = HEADER_SIZE + capacity * dimension * 4;
+            this.stringsOffset = rowsOffset + capacity * ROW_SIZE;
+            this.count = buffer.getInt(OFFSET_COUNT);
+            this.deleted = buffer.getInt(OFFSET_DELETED);
+            this.stringSize = buffer.getInt(OFFSET_STRING_SIZE);
+            buffer.position(HEADER_SIZE);
+            this.vectors = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            buffer.position(0);
+        }
+    }
+
+    private FaceRegistry(File file, int dimension, Mapping mapping) {
+        this.file = file;
+        this.dimension = dimension;
+        this.mapping = mapping;
+    }
+
+    /**
+     * 打开（不存在时创建）人脸库文件
+     *
+     * @param dimension 嵌入维度，与已有文件不一致时抛出 IOException
+     */
+    public static FaceRegistry open(File file, int dimension) throws IOException {
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            create(file, dimension, MIN_CAPACITY, MIN_CAPACITY * NAME_BYTES);
+        }
+        Mapping mapping = map(file);
+        if (mapping.buffer.getInt(OFFSET_MAGIC) != MAGIC || mapping.buffer.getInt(OFFSET_VERSION) != VERSION) {
+            throw new IOException("Not a face registry: " + file);
+        }
+        if (mapping.buffer.getInt(OFFSET_DIMENSION) != dimension) {
+            throw new IOException("Face registry has dimension " + mapping.buffer.getInt(OFFSET_DIMENSION)
+                    + ", expected " + dimension);
+        }
+        return new FaceRegistry(file, dimension, mapping);
+    }
+
+    private static void create(File file, int dimension, int capacity, int stringCapacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * (dimension * 4 + ROW_SIZE) + stringCapacity;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(OFFSET_MAGIC, MAGIC);
+            buffer.putInt(OFFSET_VERSION, VERSION);
+            buffer.putInt(OFFSET_DIMENSION, dimension);
+            buffer.putInt(OFFSET_CAPACITY, capacity);
+            buffer.putInt(OFFSET_COUNT, 0);
+            buffer.putInt(OFFSET_DELETED, 0);
+            buffer.putInt(OFFSET_STRING_CAPACITY, stringCapacity);
+            buffer.putInt(OFFSET_STRING_SIZE, 0);
+            buffer.force();
+        }
+    }
+
+    private static Mapping map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // 映射在通道关闭后仍然有效
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int dimension = buffer.getInt(OFFSET_DIMENSION);
+            return new Mapping(buffer, dimension);
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * 有效的人脸数
+     */
+    public synchronized int size() {
+        return mapping.count - mapping.deleted;
+    }
+
+    /**
+     * 注册（或替换同名的）人脸，写入后立即刷到磁盘
+     *
+     * @return 新人脸的行号（压缩之后的）
+     */
+    public synchronized int enroll(String name, float[] embedding) throws IOException {
+        if (embedding.length < dimension) {
+            throw new IllegalArgumentException("Embedding has " + embedding.length + " values, expected " + dimension);
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        Mapping m = mapping;
+        if (m.count == m.capacity || m.stringSize + nameBytes.length > m.stringCapacity) {
+            int live = m.count - m.deleted;
+            rebuild(Math.max(MIN_CAPACITY, (live + 1) * 2), Math.max(MIN_CAPACITY * NAME_BYTES,
+                    (m.stringSize + nameBytes.length) * 2));
+            m = mapping;
+        }
+
+        int row = m.count;
+        float norm = 0f;
+        for (int d = 0; d < dimension; d++) {
+            norm += embedding[d] * embedding[d];
+        }
+        float scale = norm > 0f ? (float) (1.0 / Math.sqrt(norm)) : 0f;
+        int base = row * dimension;
+        for (int d = 0; d < dimension; d++) {
+            m.vectors.put(base + d, embedding[d] * scale);
+        }
+        for (int i = 0; i < nameBytes.length; i++) {
+            m.buffer.put(m.stringsOffset + m.stringSize + i, nameBytes[i]);
+        }
+        int rowOffset = m.rowsOffset + row * ROW_SIZE;
+        m.buffer.putInt(rowOffset, m.stringSize);
+        m.buffer.putInt(rowOffset + 4, nameBytes.length);
+        m.buffer.putInt(rowOffset + 8, ROW_LIVE);
+        // 行的内容先落盘，文件头中的行数之后才指向它
+        m.buffer.force();
+
+        m.stringSize += nameBytes.length;
+        m.buffer.putInt(OFFSET_STRING_SIZE, m.stringSize);
+        m.buffer.putInt(OFFSET_COUNT, row + 1);
+        m.buffer.force();
+        // 行数最后更新，之前写入的内容才对读取方可见
+        m.count = row + 1;
+
+        // 新行已经持久化，再删除旧的同名行
+        if (tombstone(m, nameBytes, row) > 0) {
+            compactIfSparse(m);
+        }
+        // 压缩保持有效行的顺序，新行仍是最后一行
+        return mapping.count - 1;
+    }
+
+    /**
+     * 把指定名字的人脸标记为已删除，已删除的过多时压缩
+     */
+    public synchronized boolean remove(String name) throws IOException {
+        Mapping m = mapping;
+        if (tombstone(m, name.getBytes(StandardCharsets.UTF_8), m.count) == 0) {
+            return false;
+        }
+        compactIfSparse(m);
+        return true;
+    }
+
+    /**
+     * 把 [0, end) 中所有与名字相同的有效行标记为已删除并刷盘
+     *
+     * @return 标记的行数
+     */
+    private int tombstone(Mapping m, byte[] nameBytes, int end) {
+        int removed = 0;
+        for (int row = find(m, nameBytes, 0, end); row >= 0; row = find(m, nameBytes, row + 1, end)) {
+            m.buffer.putInt(m.rowsOffset + row * ROW_SIZE + 8, ROW_DELETED);
+            removed++;
+        }
+        if (removed > 0) {
+            m.deleted += removed;
+            m.buffer.putInt(OFFSET_DELETED, m.deleted);
+            m.buffer.force();
+        }
+        return removed;
+    }
+
+    private void compactIfSparse(Mapping m) throws IOException {
+        if (m.deleted * 2 > m.count && m.count >= MIN_CAPACITY) {
+            compact();
+        }
+    }
+
+    /**
+     * 去掉已删除的行并收紧字符串表
+     */
+    public synchronized void compact() throws IOException {
+        Mapping m = mapping;
+        int live = m.count - m.deleted;
+        rebuild(Math.max(MIN_CAPACITY, live * 2), Math.max(MIN_CAPACITY * NAME_BYTES, m.stringSize * 2));
+    }
+
+    /**
+     * [from, end) 中第一个与名字相同的有效行，没有时为 -1
+     */
+    private int find(Mapping m, byte[] nameBytes, int from, int end) {
+        for (int row = from; row < end; row++) {
+            int rowOffset = m.rowsOffset + row * ROW_SIZE;
+            if (m.buffer.getInt(rowOffset + 8) != ROW_LIVE || m.buffer.getInt(rowOffset + 4) != nameBytes.length) {
+                continue;
+            }
+            int nameOffset = m.stringsOffset + m.buffer.getInt(rowOffset);
+            boolean equal = true;
+            for (int i = 0; i < nameBytes.length && equal; i++) {
+                equal = m.buffer.get(nameOffset + i) == nameBytes[i];
+            }
+            if (equal) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 把有效的行写入新容量的临时文件，原子替换后重新映射
+     */
+    private void rebuild(int capacity, int stringCapacity) throws IOException {
+        Mapping old = mapping;
+        File temp = new File(file.getPath() + ".tmp");
+        create(temp, dimension, capacity, stringCapacity);
+        Mapping m = map(temp);
+        int count = 0;
+        int stringSize = 0;
+        for (int row = 0; row < old.count; row++) {
+            int rowOffset = old.rowsOffset + row * ROW_SIZE;
+            if (old.buffer.getInt(rowOffset + 8) != ROW_LIVE) {
+                continue;
+            }
+            int source = row * dimension;
+            int target = count * dimension;
+            for (int d = 0; d < dimension; d++) {
+                m.vectors.put(target + d, old.vectors.get(source + d));
+            }
+            int nameOffset = old.stringsOffset + old.buffer.getInt(rowOffset);
+            int nameLength = old.buffer.getInt(rowOffset + 4);
+            for (int i = 0; i < nameLength; i++) {
+                m.buffer.put(m.stringsOffset + stringSize + i, old.buffer.get(nameOffset + i));
+            }
+            int newRowOffset = m.rowsOffset + count * ROW_SIZE;
+            m.buffer.putInt(newRowOffset, stringSize);
+            m.buffer.putInt(newRowOffset + 4, nameLength);
+            m.buffer.putInt(newRowOffset + 8, ROW_LIVE);
+            stringSize += nameLength;
+            count++;
+        }
+        m.buffer.putInt(OFFSET_STRING_SIZE, stringSize);
+        m.buffer.putInt(OFFSET_COUNT, count);
+        m.stringSize = stringSize;
+        m.count = count;
+        m.buffer.force();
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+        // 旧的映射仍指向被替换的文件，在途的查询不受影响
+        mapping = m;
+    }
+
+    /**
+     * 查找与 query 最相似的两个人脸，向量直接从映射的缓冲区读取
+     *
+     * @param query 未归一化的嵌入
+     * @param out   结果，没有人脸时 size 为 0
+     */
+    public void findNearest(float[] query, EmbeddingMatch out) {
+        Mapping m = mapping;
+        int count = m.count;
+        out.clear();
+        float norm = 0f;
+        for (int d = 0; d < dimension; d++) {
+            norm += query[d] * query[d];
+        }
+        if (count == 0 || norm == 0f) {
+            return;
+        }
+        float inverseNorm = (float) (1.0 / Math.sqrt(norm));
+
+        FloatBuffer vectors = m.vectors;
+        int best = -1;
+        int second = -1;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        float secondScore = Float.NEGATIVE_INFINITY;
+        for (int row = 0; row < count; row++) {
+            if (m.buffer.getInt(m.rowsOffset + row * ROW_SIZE + 8) != ROW_LIVE) {
+                continue;
+            }
+            int base = row * dimension;
+            float s0 = 0f;
+            float s1 = 0f;
+            float s2 = 0f;
+            float s3 = 0f;
+            int d = 0;
+            for (int end = dimension - 3; d < end; d += 4) {
+                s0 += query[d] * vectors.get(base + d);
+                s1 += query[d + 1] * vectors.get(base + d + 1);
+                s2 += query[d + 2] * vectors.get(base + d + 2);
+                s3 += query[d + 3] * vectors.get(base + d + 3);
+            }
+            for (; d < dimension; d++) {
+                s0 += query[d] * vectors.get(base + d);
+            }
+            float score = ((s0 + s1) + (s2 + s3)) * inverseNorm;
+            if (score > bestScore) {
+                second = best;
+                secondScore = bestScore;
+                best = row;
+                bestScore = score;
+            } else if (score > secondScore) {
+                second = row;
+                secondScore = score;
+            }
+        }
+        if (best < 0) {
+            return;
+        }
+        out.set(0, best, readName(m, best), bestScore);
+        if (second >= 0) {
+            out.set(1, second, readName(m, second), secondScore);
+            out.setSize(2);
+        } else {
+            out.setSize(1);
+        }
+    }
+
+    /**
+     * 行 row 中名为 name 的人脸与归一化的 query 的点积，向量直接从映射的缓冲区读取，
+     * 可作为 {@link QuantizedEmbeddingStore} 的重排来源（行号作为引用）
+     *
+     * @return 行号越界、已删除或已不是这个人（压缩使行号改变）时为 NaN
+     */
+    public float similarity(int row, String name, float[] normalizedQuery) {
+        Mapping m = mapping;
+        if (row < 0 || row >= m.count || find(m, name.getBytes(StandardCharsets.UTF_8), row, row + 1) != row) {
+            return Float.NaN;
+        }
+        FloatBuffer vectors = m.vectors;
+        int base = row * dimension;
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int d = 0;
+        for (int end = dimension - 3; d < end; d += 4) {
+            s0 += normalizedQuery[d] * vectors.get(base + d);
+            s1 += normalizedQuery[d + 1] * vectors.get(base + d + 1);
+            s2 += normalizedQuery[d + 2] * vectors.get(base + d + 2);
+            s3 += normalizedQuery[d + 3] * vectors.get(base + d + 3);
+        }
+        for (; d < dimension; d++) {
+            s0 += normalizedQuery[d] * vectors.get(base + d);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 访问人脸库中的人脸，用于在内存中建立索引
+     */
+    public interface EntryVisitor {
+        /**
+         * @param row    行号，下次压缩之前有效
+         * @param vector 归一化的向量，调用之间复用，需要保留时复制
+         * @return false 时停止访问
+         */
+        boolean visit(int row, String name, float[] vector);
+    }
+
+    /**
+     * 按行号顺序访问所有有效的人脸。与 findNearest 一样读取调用时的映射，不持有锁，不阻塞注册
+     *
+     * @return 是否访问完了所有的行（visitor 没有中途停止）
+     */
+    public boolean forEach(EntryVisitor visitor) {
+        Mapping m = mapping;
+        int count = m.count;
+        float[] vector = new float[dimension];
+        for (int row = 0; row < count; row++) {
+            if (m.buffer.getInt(m.rowsOffset + row * ROW_SIZE + 8) != ROW_LIVE) {
+                continue;
+            }
+            int base = row * dimension;
+            for (int d = 0; d < dimension; d++) {
+                vector[d] = m.vectors.get(base + d);
+            }
+            if (!visitor.visit(row, readName(m, row), vector)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readName(Mapping m, int row) {
+        int rowOffset = m.rowsOffset + row * ROW_SIZE;
+        int nameOffset = m.stringsOffset + m.buffer.getInt(rowOffset);
+        byte[] bytes = new byte[m.buffer.getInt(rowOffset + 4)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = m.buffer.get(nameOffset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 刷新到磁盘。映射由 GC 释放，关闭后不要再使用
+     */
+    @Override
+    public synchronized void close() {
+        mapping.buffer.force();
+    }
+}
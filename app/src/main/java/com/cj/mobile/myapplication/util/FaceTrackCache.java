@@ -0,0 +1,308 @@
+package com.cj.mobile.myapplication.util;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FaceTrackCache
+ * @Description: 人脸轨迹与嵌入缓存：同一张人脸在连续帧中不必每帧都跑 MobileFaceNet
+ * <p>
+ * 每张检测到的人脸先关联到一个轨迹：优先按 ML Kit 的 trackingId，没有 trackingId（或 ML Kit 重新分配了 ID）时
+ * 按与上一次位置的 IoU 关联，关联不上则新建轨迹并分配稳定的 ID。每个轨迹缓存最近一次的嵌入、识别出的身份以及
+ * 计算嵌入时的人脸质量（尺寸、姿态、清晰度）。只有质量明显变好（更大、更正、更清晰）或超过 ttlMillis 时才需要重新推理，
+ * 其余帧直接使用缓存的嵌入和身份。retainMillis 内没有再出现的轨迹被回收。
+ * 每秒输出一次推理次数和跳过次数。只在一个线程上使用（ML Kit 的回调线程），方法不同步。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 21:10
+ */
+public class FaceTrackCache {
+    public static final int NO_TRACKING_ID = -1;
+
+    private static final String TAG = "FaceTrackCache";
+    // 质量明显变好的阈值：尺寸大 20%、姿态（俯仰 + 偏航的绝对值）小 10 度、清晰度高 25%
+    private static final float SIZE_GAIN = 1.2f;
+    private static final float POSE_GAIN_DEGREES = 10f;
+    private static final float SHARPNESS_GAIN = 1.25f;
+    // 没有 trackingId 时按框关联的最小 IoU
+    private static final float IOU_THRESHOLD = 0.4f;
+    private static final long REPORT_MILLIS = 1000;
+
+    private final int embeddingSize;
+    private final long ttlMillis;
+    private final long retainMillis;
+
+    // 轨迹，每个数组按轨迹下标访问
+    private final boolean[] active;
+    private final boolean[] seen;
+    private final int[] ids;
+    private final int[] trackingIds;
+    private final float[] boxes;
+    private final long[] lastSeen;
+    // 缓存的嵌入及计算它时的质量，embeddedAt < 0 表示还没有嵌入
+    private final float[][] embeddings;
+    private final long[] embeddedAt;
+    private final float[] sizes;
+    private final float[] poses;
+    private final float[] sharpness;
+    // 身份：identified 为 false 时需要用缓存的嵌入重新检索
+    private final boolean[] identified;
+    private final String[] names;
+    private final float[] distances;
+
+    private int nextId = 1;
+    private int computed;
+    private int skipped;
+    private long windowStart = -1;
+    private float computedPerSecond;
+    private float skippedPerSecond;
+
+    /**
+     * @param embeddingSize 嵌入维度
+     * @param capacity      最大轨迹数，需不小于一帧中的人脸数
+     * @param ttlMillis     嵌入的有效期，超过后即使质量没有变好也重新推理
+     * @param retainMillis  人脸消失多久后回收轨迹
+     */
+    public FaceTrackCache(int embeddingSize, int capacity, long ttlMillis, long retainMillis) {
+        this.embeddingSize = embeddingSize;
+        this.ttlMillis = ttlMillis;
+        this.retainMillis = retainMillis;
+        active = new boolean[capacity];
+        seen = new boolean[capacity];
+        ids = new int[capacity];
+        trackingIds = new int[capacity];
+        boxes = new float[capacity * 4];
+        lastSeen = new long[capacity];
+        embeddings = new float[capacity][embeddingSize];
+        embeddedAt = new long[capacity];
+        sizes = new float[capacity];
+        poses = new float[capacity];
+        sharpness = new float[capacity];
+        identified = new boolean[capacity];
+        names = new String[capacity];
+        distances = new float[capacity];
+    }
+
+    /**
+     * 把一张人脸关联到轨迹
+     *
+     * @param trackingId ML Kit 的 trackingId，没有时为 {@link #NO_TRACKING_ID}
+     * @return 轨迹下标；本帧的人脸数超过容量时为 -1
+     */
+    public int acquire(int trackingId, float left, float top, float right, float bottom, long nowMillis) {
+        int track = -1;
+        if (trackingId != NO_TRACKING_ID) {
+            for (int t = 0; t < active.length; t++) {
+                if (active[t] && !seen[t] && trackingIds[t] == trackingId) {
+                    track = t;
+                    break;
+                }
+            }
+        }
+        if (track < 0) {
+            float best = IOU_THRESHOLD;
+            for (int t = 0; t < active.length; t++) {
+                if (active[t] && !seen[t]) {
+                    float overlap = iou(t, left, top, right, bottom);
+                    if (overlap >= best) {
+                        best = overlap;
+                        track = t;
+                    }
+                }
+            }
+        }
+        if (track < 0) {
+            track = allocate();
+            if (track < 0) {
+                return -1;
+            }
+        }
+
+        trackingIds[track] = trackingId;
+        boxes[track * 4] = left;
+        boxes[track * 4 + 1] = top;
+        boxes[track * 4 + 2] = right;
+        boxes[track * 4 + 3] = bottom;
+        lastSeen[track] = nowMillis;
+        seen[track] = true;
+        return track;
+    }
+
+    /**
+     * 空闲的位置，没有时回收最久未出现的轨迹（本帧已出现的不回收）
+     */
+    private int allocate() {
+        int track = -1;
+        for (int t = 0; t < active.length; t++) {
+            if (!active[t]) {
+                track = t;
+                break;
+            }
+            if (!seen[t] && (track < 0 || lastSeen[t] < lastSeen[track])) {
+                track = t;
+            }
+        }
+        if (track >= 0) {
+            active[track] = true;
+            ids[track] = nextId++;
+            embeddedAt[track] = -1;
+            identified[track] = false;
+            names[track] = null;
+        }
+        return track;
+    }
+
+    private float iou(int track, float left, float top, float right, float bottom) {
+        int base = track * 4;
+        float width = Math.min(right, boxes[base + 2]) - Math.max(left, boxes[base]);
+        float height = Math.min(bottom, boxes[base + 3]) - Math.max(top, boxes[base + 1]);
+        if (width <= 0f || height <= 0f) {
+            return 0f;
+        }
+        float intersection = width * height;
+        float union = (right - left) * (bottom - top)
+                + (boxes[base + 2] - boxes[base]) * (boxes[base + 3] - boxes[base + 1]) - intersection;
+        return union > 0f ? intersection / union : 0f;
+    }
+
+    /**
+     * 是否需要重新计算嵌入；返回 false 时计为一次跳过
+     *
+     * @param size      人脸尺寸（框的短边）
+     * @param pose      偏离正脸的角度，越小越正
+     * @param sharpness 清晰度，越大越清晰（只在同一个轨迹内比较）
+     */
+    public boolean needsRefresh(int track, float size, float pose, float sharpness, long nowMillis) {
+        long embedded = embeddedAt[track];
+        if (embedded < 0 || nowMillis - embedded >= ttlMillis
+                || size >= sizes[track] * SIZE_GAIN
+                || pose <= poses[track] - POSE_GAIN_DEGREES
+                || sharpness >= this.sharpness[track] * SHARPNESS_GAIN) {
+            return true;
+        }
+        skipped++;
+        return false;
+    }
+
+    /**
+     * 保存新计算的嵌入及其质量，之前的身份失效
+     *
+     * @return 缓存中的嵌入（轨迹回收前一直有效）
+     */
+    public float[] update(int track, float[] embedding, float size, float pose, float sharpness, long nowMillis) {
+        System.arraycopy(embedding, 0, embeddings[track], 0, embeddingSize);
+        embeddedAt[track] = nowMillis;
+        sizes[track] = size;
+        poses[track] = pose;
+        this.sharpness[track] = sharpness;
+        identified[track] = false;
+        names[track] = null;
+        computed++;
+        return embeddings[track];
+    }
+
+    /**
+     * 缓存的嵌入，还没有计算过时为 null
+     */
+    public float[] getEmbedding(int track) {
+        return embeddedAt[track] < 0 ? null : embeddings[track];
+    }
+
+    public boolean hasIdentity(int track) {
+        return identified[track];
+    }
+
+    /**
+     * @param name     识别出的名字，未匹配到时为 null
+     * @param distance 与最近的已注册人脸的距离
+     */
+    public void setIdentity(int track, String name, float distance) {
+        identified[track] = true;
+        names[track] = name;
+        distances[track] = distance;
+    }
+
+    public String getName(int track) {
+        return names[track];
+    }
+
+    public float getDistance(int track) {
+        return distances[track];
+    }
+
+    /**
+     * 稳定的轨迹 ID，不随 ML Kit 的 trackingId 重新分配而变化
+     */
+    public int getTrackId(int track) {
+        return ids[track];
+    }
+
+    /**
+     * 已注册的人脸变化后调用：所有缓存的身份失效，嵌入仍然有效
+     */
+    public void clearIdentities() {
+        Arrays.fill(identified, false);
+        Arrays.fill(names, null);
+    }
+
+    /**
+     * 一帧的人脸都处理完后调用：回收消失太久的轨迹，并按秒统计推理和跳过的次数
+     */
+    public void endFrame(long nowMillis) {
+        for (int t = 0; t < active.length; t++) {
+            if (active[t] && !seen[t] && nowMillis - lastSeen[t] > retainMillis) {
+                active[t] = false;
+                names[t] = null;
+            }
+            seen[t] = false;
+        }
+
+        if (windowStart < 0) {
+            windowStart = nowMillis;
+            return;
+        }
+        long elapsed = nowMillis - windowStart;
+        if (elapsed < REPORT_MILLIS) {
+            return;
+        }
+        computedPerSecond = computed * 1000f / elapsed;
+        skippedPerSecond = skipped * 1000f / elapsed;
+        Log.i(TAG, String.format("embedded=%.1f/s skipped=%.1f/s tracks=%d",
+                computedPerSecond, skippedPerSecond, size()));
+        computed = 0;
+        skipped = 0;
+        windowStart = nowMillis;
+    }
+
+    public float getComputedPerSecond() {
+        return computedPerSecond;
+    }
+
+    public float getSkippedPerSecond() {
+        return skippedPerSecond;
+    }
+
+    /**
+     * 当前的轨迹数
+     */
+    public int size() {
+        int count = 0;
+        for (boolean a : active) {
+            if (a) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void clear() {
+        Arrays.fill(active, false);
+        Arrays.fill(seen, false);
+        Arrays.fill(names, null);
+        windowStart = -1;
+        computed = 0;
+        skipped = 0;
+    }
+}
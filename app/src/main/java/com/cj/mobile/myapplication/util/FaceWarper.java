@@ -0,0 +1,236 @@
+package com.cj.mobile.myapplication.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FaceWarper
+ * @Description: 从相机帧直接仿射采样出人脸模型输入（MobileFaceNet 112x112）
+ * <p>
+ * 把“整帧旋转 -> 裁剪边界框 -> 镜像 -> 缩放”合并成一个仿射变换：输出像素 -> 正向图像坐标 -> 传感器坐标，
+ * 只采样输出需要的源像素，耗时与输出尺寸成正比，与帧大小无关。可选用双眼位置把人脸转正。
+ * 亮度双线性插值，色度取最近点，归一化为 (c - mean) / std 或直接写 0..255。非线程安全。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 11:30
+ */
+public class FaceWarper {
+    private final int outputSize;
+    private final boolean quantized;
+    private final float[] normalized = new float[256];
+
+    // 输出 (u, v) -> 传感器 (x, y) 的仿射矩阵：x = m00*u + m01*v + m02，y = m10*u + m11*v + m12
+    private float m00, m01, m02, m10, m11, m12;
+
+    public FaceWarper(int outputSize, float mean, float std, boolean quantized) {
+        this.outputSize = outputSize;
+        this.quantized = quantized;
+        for (int i = 0; i < 256; i++) {
+            normalized[i] = (i - mean) / std;
+        }
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * 单张人脸张量的字节数
+     */
+    public int getTensorBytes() {
+        return outputSize * outputSize * 3 * (quantized ? 1 : 4);
+    }
+
+    /**
+     * 根据边界框构建变换
+     *
+     * @param sourceWidth     传感器帧宽
+     * @param sourceHeight    传感器帧高
+     * @param rotationDegrees 帧旋转角度，边界框坐标是旋转后的正向图像坐标（与 ML Kit 一致）
+     * @param mirror          是否水平镜像（前置摄像头）
+     */
+    public FaceWarper setTransform(int sourceWidth, int sourceHeight, int rotationDegrees,
+                                   float left, float top, float right, float bottom, boolean mirror) {
+        return setTransform(sourceWidth, sourceHeight, rotationDegrees, left, top, right, bottom, mirror, 0f);
+    }
+
+    /**
+     * 根据边界框和双眼位置构建变换，双眼连线会被转成水平
+     *
+     * @param leftEyeX  左眼（正向图像坐标）
+     * @param rightEyeX 右眼（正向图像坐标）
+     */
+    public FaceWarper setTransform(int sourceWidth, int sourceHeight, int rotationDegrees,
+                                   float left, float top, float right, float bottom, boolean mirror,
+                                   float leftEyeX, float leftEyeY, float rightEyeX, float rightEyeY) {
+        float angle = (float) Math.atan2(rightEyeY - leftEyeY, rightEyeX - leftEyeX);
+        // 左右眼在图像中的先后取决于朝向，只取锐角部分
+        if (angle > Math.PI / 2) {
+            angle -= (float) Math.PI;
+        } else if (angle < -Math.PI / 2) {
+            angle += (float) Math.PI;
+        }
+        return setTransform(sourceWidth, sourceHeight, rotationDegrees, left, top, right, bottom, mirror, angle);
+    }
+
+    private FaceWarper setTransform(int sourceWidth, int sourceHeight, int rotationDegrees,
+                                    float left, float top, float right, float bottom, boolean mirror,
+                                    float angle) {
+        int rotation = ((rotationDegrees % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Unsupported rotation: " + rotationDegrees);
+        }
+
+        // 输出 -> 正向图像：以框中心为原点缩放、镜像、旋转（像素中心对齐）
+        float scaleX = (right - left) / outputSize * (mirror ? -1f : 1f);
+        float scaleY = (bottom - top) / outputSize;
+        float cos = (float) Math.cos(angle);
+        float sin = (float) Math.sin(angle);
+        float a00 = cos * scaleX;
+        float a01 = -sin * scaleY;
+        float a10 = sin * scaleX;
+        float a11 = cos * scaleY;
+        float half = outputSize / 2f - 0.5f;
+        float a02 = (left + right) / 2f - a00 * half - a01 * half;
+        float a12 = (top + bottom) / 2f - a10 * half - a11 * half;
+
+        // 正向图像 -> 传感器（连续坐标），再减 0.5 换成像素下标
+        switch (rotation) {
+            case 90:
+                // x = y', y = H - x'
+                set(a10, a11, a12 - 0.5f, -a00, -a01, sourceHeight - a02 - 0.5f);
+                break;
+            case 180:
+                // x = W - x', y = H - y'
+                set(-a00, -a01, sourceWidth - a02 - 0.5f, -a10, -a11, sourceHeight - a12 - 0.5f);
+                break;
+            case 270:
+                // x = W - y', y = x'
+                set(-a10, -a11, sourceWidth - a12 - 0.5f, a00, a01, a02 - 0.5f);
+                break;
+            default:
+                set(a00, a01, a02 - 0.5f, a10, a11, a12 - 0.5f);
+                break;
+        }
+        return this;
+    }
+
+    private void set(float m00, float m01, float m02, float m10, float m11, float m12) {
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m02 = m02;
+        this.m10 = m10;
+        this.m11 = m11;
+        this.m12 = m12;
+    }
+
+    /**
+     * 按当前变换采样
+     *
+     * @param out        输入张量缓冲区（绝对位置写入，不改变 position）
+     * @param byteOffset 写入起点，批量推理时为 index * getTensorBytes()
+     * @param preview    可选，不为 null 时同时写出 ARGB 预览（长度 outputSize * outputSize）
+     */
+    public void warp(YuvFrame frame, ByteBuffer out, int byteOffset, int[] preview) {
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final ByteBuffer uBuf = frame.getUBuffer();
+        final ByteBuffer vBuf = frame.getVBuffer();
+        final int yRow = frame.getYRowStride();
+        final int yPix = frame.getYPixelStride();
+        final int uRow = frame.getURowStride();
+        final int uPix = frame.getUPixelStride();
+        final int vRow = frame.getVRowStride();
+        final int vPix = frame.getVPixelStride();
+        final int left = frame.getCropLeft();
+        final int top = frame.getCropTop();
+        final int maxX = frame.getWidth() - 1;
+        final int maxY = frame.getHeight() - 1;
+
+        int index = byteOffset;
+        int pixel = 0;
+        for (int v = 0; v < outputSize; v++) {
+            float x = m01 * v + m02;
+            float y = m11 * v + m12;
+            for (int u = 0; u < outputSize; u++, x += m00, y += m10) {
+                int argb;
+                if (x < -0.5f || y < -0.5f || x > maxX + 0.5f || y > maxY + 0.5f) {
+                    // 框超出画面的部分填白色，与原来裁剪时的白色背景一致
+                    argb = 0xFFFFFFFF;
+                } else {
+                    float cx = Math.max(0f, Math.min(maxX, x));
+                    float cy = Math.max(0f, Math.min(maxY, y));
+                    int x0 = (int) cx;
+                    int y0 = (int) cy;
+                    int x1 = x0 < maxX ? x0 + 1 : x0;
+                    int y1 = y0 < maxY ? y0 + 1 : y0;
+                    float fx = cx - x0;
+                    float fy = cy - y0;
+
+                    int row0 = (top + y0) * yRow;
+                    int row1 = (top + y1) * yRow;
+                    int col0 = (left + x0) * yPix;
+                    int col1 = (left + x1) * yPix;
+                    float upper = (yBuf.get(row0 + col0) & 0xFF) * (1f - fx) + (yBuf.get(row0 + col1) & 0xFF) * fx;
+                    float lower = (yBuf.get(row1 + col0) & 0xFF) * (1f - fx) + (yBuf.get(row1 + col1) & 0xFF) * fx;
+                    int luma = (int) (upper + (lower - upper) * fy + 0.5f);
+
+                    int chromaX = (left + (fx < 0.5f ? x0 : x1)) >> 1;
+                    int chromaY = (top + (fy < 0.5f ? y0 : y1)) >> 1;
+                    argb = YuvToArgbEngine.yuvToArgb(luma,
+                            uBuf.get(chromaY * uRow + chromaX * uPix) & 0xFF,
+                            vBuf.get(chromaY * vRow + chromaX * vPix) & 0xFF);
+                }
+
+                if (preview != null) {
+                    preview[pixel++] = argb;
+                }
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
+                if (quantized) {
+                    out.put(index, (byte) r);
+                    out.put(index + 1, (byte) g);
+                    out.put(index + 2, (byte) b);
+                    index += 3;
+                } else {
+                    out.putFloat(index, normalized[r]);
+                    out.putFloat(index + 4, normalized[g]);
+                    out.putFloat(index + 8, normalized[b]);
+                    index += 12;
+                }
+            }
+        }
+    }
+
+    /**
+     * 张量中一张人脸的清晰度：绿色通道拉普拉斯响应绝对值的均值（隔一个像素采样）
+     * <p>
+     * 采样后的人脸尺寸固定，同一张人脸前后两次的值可以直接比较；浮点模型的值带有归一化的缩放，只用于相对比较
+     *
+     * @param tensor     {@link #warp} 写入的输入张量缓冲区
+     * @param byteOffset 这张人脸的起点
+     */
+    public float sharpness(ByteBuffer tensor, int byteOffset) {
+        final int pixelBytes = quantized ? 3 : 12;
+        final int rowBytes = outputSize * pixelBytes;
+        final int green = byteOffset + (quantized ? 1 : 4);
+        float sum = 0f;
+        int samples = 0;
+        for (int v = 1; v < outputSize - 1; v += 2) {
+            int row = green + v * rowBytes;
+            for (int u = 1; u < outputSize - 1; u += 2) {
+                int center = row + u * pixelBytes;
+                float laplacian = 4f * channel(tensor, center)
+                        - channel(tensor, center - pixelBytes) - channel(tensor, center + pixelBytes)
+                        - channel(tensor, center - rowBytes) - channel(tensor, center + rowBytes);
+                sum += Math.abs(laplacian);
+                samples++;
+            }
+        }
+        return samples > 0 ? sum / samples : 0f;
+    }
+
+    private float channel(ByteBuffer tensor, int index) {
+        return quantized ? tensor.get(index) & 0xFF : tensor.getFloat(index);
+    }
+}
@@ -0,0 +1,264 @@
+package com.cj.mobile.myapplication.util;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FrameFanOut
+ * @Description: 一帧转换一次，分发给多个模型并发处理
+ * <p>
+ * submit 把相机帧转换成池中某个 {@link SharedFrame} 的 ARGB 图像后立即关闭 ImageProxy，
+ * 转换前顺便从 Y 平面算出场景哈希（{@link SharedFrame#getSceneHash()}），使用者可以用它查询 {@link SceneCache}。
+ * 带 {@link YuvTensorPreprocessor} 的使用者在关闭 ImageProxy 之前由 YUV 平面直接生成模型输入
+ * （{@link SharedFrame#getTensor}），不再从 ARGB 图像旋转、缩放和归一化。
+ * 再把这一帧交给所有空闲的使用者；每个使用者有自己的线程（各自的 Interpreter/检测器），互不等待。
+ * 使用者还在处理上一帧时跳过这一帧（只处理最新的帧），没有空闲的使用者时不转换。最后一个使用者处理完后帧回到池中，
+ * 并以整帧的耗时更新 FrameScheduler（如果有）。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 18:30
+ */
+public class FrameFanOut {
+    private static final String TAG = "FrameFanOut";
+
+    /**
+     * 使用者，在自己的线程上处理共享帧，不需要也不能 release 传入的帧
+     */
+    public interface Consumer {
+        void accept(SharedFrame frame);
+    }
+
+    private final YuvToRgbConverter converter;
+    private final FrameScheduler scheduler;
+    private final List<ConsumerSlot> consumers = new ArrayList<>();
+    private final ArrayDeque<SharedFrame> freeFrames = new ArrayDeque<>();
+    private final AtomicLong converted = new AtomicLong();
+    // 计算场景哈希时包装相机帧，只在 submit 的线程上使用
+    private final YuvFrame hashFrame = new YuvFrame();
+    // submit 中本帧占用的使用者
+    private ConsumerSlot[] claimedSlots = new ConsumerSlot[0];
+    private volatile boolean closed;
+
+    /**
+     * @param poolSize  池中帧的数量，使用者较多或较慢时适当加大
+     * @param scheduler 按整帧耗时限制分析频率，为 null 时每帧都分发
+     */
+    public FrameFanOut(YuvToRgbConverter converter, int poolSize, FrameScheduler scheduler) {
+        this.converter = converter;
+        this.scheduler = scheduler;
+        for (int i = 0; i < poolSize; i++) {
+            freeFrames.add(new SharedFrame(this));
+        }
+    }
+
+    /**
+     * 添加一个使用者，在第一次 submit 之前调用
+     */
+    public synchronized FrameFanOut addConsumer(String name, Consumer consumer) {
+        return addConsumer(name, null, consumer);
+    }
+
+    /**
+     * 添加一个直接使用模型输入张量的使用者，在第一次 submit 之前调用
+     *
+     * @param preprocessor 只在 submit 的线程上使用；为 null 时与 {@link #addConsumer(String, Consumer)} 相同
+     */
+    public synchronized FrameFanOut addConsumer(String name, YuvTensorPreprocessor preprocessor, Consumer consumer) {
+        consumers.add(new ConsumerSlot(name, preprocessor, consumer));
+        claimedSlots = new ConsumerSlot[consumers.size()];
+        return this;
+    }
+
+    /**
+     * 转换并分发一帧，ImageProxy 总是在返回前关闭
+     * <p>
+     * 先占用空闲的使用者再转换：所有使用者都在忙时不转换，并取消 FrameScheduler 的这次准入，
+     * 避免只含转换耗时的"整帧耗时"拉低调度器的估计
+     *
+     * @return 是否有使用者接收了这一帧
+     */
+    public boolean submit(ImageProxy image) {
+        long admitted = scheduler != null ? scheduler.tryAdmit() : FrameScheduler.REJECTED;
+        if (closed || (scheduler != null && admitted == FrameScheduler.REJECTED)) {
+            image.close();
+            return false;
+        }
+
+        int claimed = 0;
+        for (ConsumerSlot slot : consumers) {
+            if (slot.busy.compareAndSet(false, true)) {
+                claimedSlots[claimed++] = slot;
+            } else {
+                slot.skipped.incrementAndGet();
+            }
+        }
+        SharedFrame frame = null;
+        if (claimed > 0) {
+            synchronized (this) {
+                frame = freeFrames.poll();
+            }
+        }
+        if (frame == null) {
+            // 没有空闲的使用者，或所有帧都还在使用中
+            abandon(claimed, admitted);
+            image.close();
+            return false;
+        }
+
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            if (frame.bitmap == null || frame.bitmap.getWidth() != width || frame.bitmap.getHeight() != height) {
+                if (frame.bitmap != null) {
+                    BitmapPool.getInstance().put(frame.bitmap);
+                }
+                frame.bitmap = BitmapPool.getInstance().get(width, height, Bitmap.Config.ARGB_8888);
+            }
+            frame.sceneHash = SceneCache.hash(YuvToRgbConverter.wrap(image, hashFrame));
+            converter.yuvToRgb(image, frame.bitmap);
+            frame.rotation = image.getImageInfo().getRotationDegrees();
+            frame.timestamp = image.getImageInfo().getTimestamp();
+            // 只为接收这一帧的使用者生成输入张量，hashFrame 仍然包装着相机帧
+            for (int i = 0; i < claimed; i++) {
+                YuvTensorPreprocessor preprocessor = claimedSlots[i].preprocessor;
+                if (preprocessor != null) {
+                    ByteBuffer tensor = frame.tensor(claimedSlots[i].name, preprocessor.getTensorBytes());
+                    preprocessor.process(hashFrame, frame.rotation, false, tensor, 0);
+                }
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                freeFrames.add(frame);
+            }
+            abandon(claimed, admitted);
+            throw e;
+        } finally {
+            image.close();
+        }
+        converted.incrementAndGet();
+        frame.admitted = admitted;
+
+        // 分发期间自己持有一个引用，避免第一个使用者太快完成时提前回收
+        frame.reset(1);
+        int accepted = 0;
+        for (int i = 0; i < claimed; i++) {
+            ConsumerSlot slot = claimedSlots[i];
+            claimedSlots[i] = null;
+            frame.retain();
+            accepted++;
+            try {
+                SharedFrame shared = frame;
+                slot.executor.execute(() -> {
+                    try {
+                        slot.consumer.accept(shared);
+                        slot.processed.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, slot.name + " failed", e);
+                    } finally {
+                        slot.busy.set(false);
+                        shared.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 已经 close
+                slot.busy.set(false);
+                frame.release();
+                accepted--;
+            }
+        }
+        frame.release();
+        return accepted > 0;
+    }
+
+    /**
+     * 这一帧不分发：归还占用的使用者，取消调度器的准入
+     */
+    private void abandon(int claimed, long admitted) {
+        for (int i = 0; i < claimed; i++) {
+            claimedSlots[i].busy.set(false);
+            claimedSlots[i] = null;
+        }
+        if (scheduler != null && admitted != FrameScheduler.REJECTED) {
+            scheduler.cancel();
+        }
+    }
+
+    /**
+     * 最后一个使用者释放后由 SharedFrame 调用
+     */
+    void recycle(SharedFrame frame) {
+        if (frame.admitted != FrameScheduler.REJECTED) {
+            scheduler.complete(frame.admitted);
+            frame.admitted = FrameScheduler.REJECTED;
+        }
+        synchronized (this) {
+            if (closed) {
+                BitmapPool.getInstance().put(frame.bitmap);
+                frame.bitmap = null;
+                return;
+            }
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * 停止分发，在途的帧处理完后释放
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (SharedFrame frame : freeFrames) {
+                if (frame.bitmap != null) {
+                    BitmapPool.getInstance().put(frame.bitmap);
+                    frame.bitmap = null;
+                }
+            }
+            freeFrames.clear();
+        }
+        for (ConsumerSlot slot : consumers) {
+            slot.executor.shutdown();
+        }
+        Log.i(TAG, toString());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("converted=").append(converted.get());
+        for (ConsumerSlot slot : consumers) {
+            builder.append(' ').append(slot.name)
+                    .append("[processed=").append(slot.processed.get())
+                    .append(" skipped=").append(slot.skipped.get()).append(']');
+        }
+        return builder.toString();
+    }
+
+    private static final class ConsumerSlot {
+        final String name;
+        final YuvTensorPreprocessor preprocessor;
+        final Consumer consumer;
+        final ExecutorService executor;
+        final AtomicBoolean busy = new AtomicBoolean();
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+
+        ConsumerSlot(String name, YuvTensorPreprocessor preprocessor, Consumer consumer) {
+            this.name = name;
+            this.preprocessor = preprocessor;
+            this.consumer = consumer;
+            this.executor = Executors.newSingleThreadExecutor(r -> new Thread(r, TAG + "-" + name));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.cj.mobile.myapplication.util;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FrameScheduler
+ * @Description: 按推理耗时自适应的帧调度，替代固定的分析间隔
+ * <p>
+ * 每个模型一个实例，对端到端耗时（从放行到完成）做指数滑动平均，并据此计算放行间隔：
+ * 1、在途帧数达到 maxInFlight 时不放行，流水线不会排队；
+ * 2、间隔不小于 耗时 / 占空比，占空比以核数计（0.6 表示最多占用一个核的 60%）；
+ * 3、间隔不大于 1 / 最低帧率，模型再慢也保证最低的分析频率。
+ * 没有耗时样本时第一帧立即放行。线程安全。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 15:50
+ */
+public class FrameScheduler {
+    // tryAdmit 未放行时的返回值
+    public static final long REJECTED = -1;
+
+    // 滑动平均的权重，越大越快跟上耗时的变化
+    private static final float SMOOTHING = 0.2f;
+
+    private final float dutyCycle;
+    private final long maxIntervalNanos;
+    private final int maxInFlight;
+
+    private long latencyNanos = -1;
+    private long lastAdmitNanos;
+    private int inFlight;
+
+    /**
+     * @param dutyCycle   允许占用的核数，例如 0.6
+     * @param minFps      最低分析帧率，0 表示不限制
+     * @param maxInFlight 最多同时在途的帧数，同步处理时为 1，流水线可以更大
+     */
+    public FrameScheduler(float dutyCycle, float minFps, int maxInFlight) {
+        if (dutyCycle <= 0) {
+            throw new IllegalArgumentException("Duty cycle must be positive: " + dutyCycle);
+        }
+        this.dutyCycle = dutyCycle;
+        this.maxIntervalNanos = minFps > 0 ? (long) (1e9 / minFps) : Long.MAX_VALUE;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * 判断当前帧是否放行
+     *
+     * @return 放行时间，处理完成后传给 complete；不放行时返回 {@link #REJECTED}
+     */
+    public synchronized long tryAdmit() {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (inFlight >= maxInFlight) {
+            return REJECTED;
+        }
+        if (latencyNanos >= 0 && now - lastAdmitNanos < getIntervalNanos()) {
+            return REJECTED;
+        }
+        inFlight++;
+        lastAdmitNanos = now;
+        return now;
+    }
+
+    /**
+     * 放行的帧处理完成，记录端到端耗时
+     */
+    public synchronized void complete(long admitNanos) {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - admitNanos;
+        latencyNanos = latencyNanos < 0 ? elapsed : (long) (latencyNanos + SMOOTHING * (elapsed - latencyNanos));
+        if (inFlight > 0) {
+            inFlight--;
+        }
+    }
+
+    /**
+     * 放行的帧被中途丢弃，不计入耗时
+     */
+    public synchronized void cancel() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+    }
+
+    /**
+     * 当前的放行间隔
+     */
+    public synchronized long getIntervalNanos() {
+        if (latencyNanos < 0) {
+            return 0;
+        }
+        return Math.min((long) (latencyNanos / dutyCycle), maxIntervalNanos);
+    }
+
+    /**
+     * 端到端耗时的滑动平均，还没有样本时为 -1
+     */
+    public synchronized long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return String.format("latency=%.1fms interval=%.1fms inFlight=%d",
+                latencyNanos / 1e6, getIntervalNanos() / 1e6, inFlight);
+    }
+}
@@ -0,0 +1,73 @@
+package com.cj.mobile.myapplication.util;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FrameStats
+ * @Description: 单帧耗时与 GC 统计，每 N 帧输出一次平均/最大耗时以及期间的 GC 次数和耗时
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 10:55
+ */
+public class FrameStats {
+    private final String tag;
+    private final int reportEvery;
+
+    private int frames;
+    private long totalNanos;
+    private long maxNanos;
+    private long gcCountAtStart = -1;
+    private long gcTimeAtStart;
+
+    public FrameStats(String tag, int reportEvery) {
+        this.tag = tag;
+        this.reportEvery = Math.max(1, reportEvery);
+    }
+
+    /**
+     * 开始计时，返回值传给 end
+     */
+    public long begin() {
+        if (gcCountAtStart < 0) {
+            gcCountAtStart = readGcStat("art.gc.gc-count");
+            gcTimeAtStart = readGcStat("art.gc.gc-time");
+        }
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    public synchronized void end(long startNanos) {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - startNanos;
+        totalNanos += elapsed;
+        maxNanos = Math.max(maxNanos, elapsed);
+        if (++frames < reportEvery) {
+            return;
+        }
+
+        long gcCount = readGcStat("art.gc.gc-count");
+        long gcTime = readGcStat("art.gc.gc-time");
+        Log.i(tag, String.format("frames=%d avg=%.2fms max=%.2fms gc=%d gcTime=%dms",
+                frames, totalNanos / 1e6 / frames, maxNanos / 1e6,
+                gcCount - gcCountAtStart, gcTime - gcTimeAtStart));
+
+        frames = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        gcCountAtStart = gcCount;
+        gcTimeAtStart = gcTime;
+    }
+
+    private static long readGcStat(String name) {
+        String value = Debug.getRuntimeStat(name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: HnswIndex
+ * @Description: 大规模人脸库的近似最近邻索引（HNSW，分层可导航小世界图）
+ * <p>
+ * 与 {@link EmbeddingStore} 一样，向量归一化后连续存放，相似度为点积。每个节点随机分到若干层，
+ * 上层稀疏、下层稠密：查询从最高层的入口贪心地逐层下降，在第 0 层做宽度为 efSearch 的束搜索。
+ * efSearch 越大召回率越高、查询越慢，可以随时调整；efConstruction 决定建图质量。
+ * 邻居用启发式选择（保留彼此方向不同的邻居），第 0 层每个节点最多 2M 个邻居，其余各层最多 M 个。
+ * 删除只做标记：被删除的节点仍参与图的遍历，但不会出现在结果中，删除较多时调用 {@link #compact()} 重建。
+ * 邻接表、访问标记和搜索用的堆都是基本类型数组，查询不产生对象。方法已同步，非并发结构。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 20:10
+ */
+public class HnswIndex {
+    // 文件头 "HNSW"
+    private static final int MAGIC = 0x484E5357;
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+    private int efSearch;
+
+    // 节点数据，按节点下标访问
+    private float[] vectors;
+    private String[] names;
+    private int[] levels;
+    private boolean[] deleted;
+    // 第 0 层邻接表：每个节点 maxM0 + 1 个 int，第一个是邻居数
+    private int[] links0;
+    // 第 1 层及以上的邻接表：每个节点每层 m + 1 个 int，只有一层的节点为 null
+    private int[][] upperLinks;
+    private int count;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private final Map<String, Integer> nodeIds = new HashMap<>();
+
+    // 搜索用的缓冲区
+    private int[] visited;
+    private int visitTag;
+    private final float[] query;
+    private final Heap candidates = new Heap();
+    private final Heap results = new Heap();
+    private int[] selectedIds;
+    private float[] selectedSimilarities;
+    private int[] orderedIds;
+    private float[] orderedSimilarities;
+
+    /**
+     * @param dimension      向量维度
+     * @param m              每层的邻居数（常用 12 ~ 32）
+     * @param efConstruction 建图时的束宽
+     * @param efSearch       查询时的束宽，可以用 {@link #setEfSearch(int)} 调整
+     */
+    public HnswIndex(int dimension, int m, int efConstruction, int efSearch) {
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new Random(42);
+        this.query = new float[dimension];
+        allocate(INITIAL_CAPACITY);
+        int scratch = Math.max(this.efConstruction, maxM0) + 1;
+        selectedIds = new int[scratch];
+        selectedSimilarities = new float[scratch];
+        orderedIds = new int[scratch];
+        orderedSimilarities = new float[scratch];
+    }
+
+    private void allocate(int capacity) {
+        vectors = vectors == null ? new float[capacity * dimension] : Arrays.copyOf(vectors, capacity * dimension);
+        names = names == null ? new String[capacity] : Arrays.copyOf(names, capacity);
+        levels = levels == null ? new int[capacity] : Arrays.copyOf(levels, capacity);
+        deleted = deleted == null ? new boolean[capacity] : Arrays.copyOf(deleted, capacity);
+        links0 = links0 == null ? new int[capacity * (maxM0 + 1)] : Arrays.copyOf(links0, capacity * (maxM0 + 1));
+        upperLinks = upperLinks == null ? new int[capacity][] : Arrays.copyOf(upperLinks, capacity);
+        visited = visited == null ? new int[capacity] : Arrays.copyOf(visited, capacity);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * 未删除的节点数
+     */
+    public synchronized int size() {
+        return count - deletedCount;
+    }
+
+    public synchronized int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * 调整查询时的束宽：越大召回率越高、查询越慢
+     */
+    public synchronized void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    public synchronized boolean contains(String name) {
+        return nodeIds.containsKey(name);
+    }
+
+    /**
+     * 加入（或替换同名的）人脸
+     */
+    public synchronized void add(String name, float[] embedding) {
+        if (embedding.length < dimension) {
+            throw new IllegalArgumentException("Embedding has " + embedding.length + " values, expected " + dimension);
+        }
+        remove(name);
+        if (count == names.length) {
+            allocate(count * 2);
+        }
+        int node = count++;
+        names[node] = name;
+        deleted[node] = false;
+        normalize(embedding, vectors, node * dimension);
+        nodeIds.put(name, node);
+        insert(node);
+    }
+
+    /**
+     * 标记删除，节点仍留在图中参与遍历
+     */
+    public synchronized boolean remove(String name) {
+        Integer node = nodeIds.remove(name);
+        if (node == null) {
+            return false;
+        }
+        deleted[node] = true;
+        deletedCount++;
+        return true;
+    }
+
+    /**
+     * 去掉已删除的节点并重建索引
+     */
+    public synchronized void compact() {
+        if (deletedCount == 0) {
+            return;
+        }
+        float[] oldVectors = vectors;
+        String[] oldNames = names;
+        boolean[] oldDeleted = deleted;
+        int oldCount = count;
+        vectors = null;
+        names = null;
+        levels = null;
+        deleted = null;
+        links0 = null;
+        upperLinks = null;
+        visited = null;
+        allocate(Math.max(INITIAL_CAPACITY, oldCount - deletedCount));
+        count = 0;
+        deletedCount = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+        nodeIds.clear();
+        for (int i = 0; i < oldCount; i++) {
+            if (oldDeleted[i]) {
+                continue;
+            }
+            int node = count++;
+            names[node] = oldNames[i];
+            System.arraycopy(oldVectors, i * dimension, vectors, node * dimension, dimension);
+            nodeIds.put(oldNames[i], node);
+            insert(node);
+        }
+    }
+
+    /**
+     * 近似查找与 query 最相似的两个人脸
+     *
+     * @param query 未归一化的嵌入
+     * @param out   结果，没有人脸时 size 为 0
+     */
+    public synchronized void findNearest(float[] query, EmbeddingMatch out) {
+        out.clear();
+        if (entryPoint < 0 || size() == 0) {
+            return;
+        }
+        normalize(query, this.query, 0);
+        int current = entryPoint;
+        for (int level = maxLevel; level > 0; level--) {
+            current = greedySearch(this.query, 0, current, level);
+        }
+        searchLayer(this.query, 0, current, Math.max(efSearch, 2), 0, true);
+
+        int best = -1;
+        int second = -1;
+        for (int i = 0; i < results.size; i++) {
+            if (best < 0 || results.keys[i] > results.keys[best]) {
+                second = best;
+                best = i;
+            } else if (second < 0 || results.keys[i] > results.keys[second]) {
+                second = i;
+            }
+        }
+        if (best < 0) {
+            return;
+        }
+        out.set(0, results.ids[best], names[results.ids[best]], results.keys[best]);
+        if (second >= 0) {
+            out.set(1, results.ids[second], names[results.ids[second]], results.keys[second]);
+            out.setSize(2);
+        } else {
+            out.setSize(1);
+        }
+    }
+
+    private void insert(int node) {
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        levels[node] = level;
+        links0[node * (maxM0 + 1)] = 0;
+        upperLinks[node] = level > 0 ? new int[level * (m + 1)] : null;
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int offset = node * dimension;
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedySearch(vectors, offset, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            // 建图时已删除的节点仍可作为邻居，保持图的连通
+            searchLayer(vectors, offset, current, efConstruction, l, false);
+            // 结果按相似度从高到低排序，最相似的作为下一层的入口
+            int found = results.size;
+            for (int i = 0; i < found; i++) {
+                orderedIds[i] = results.ids[i];
+                orderedSimilarities[i] = results.keys[i];
+            }
+            sortDescending(orderedIds, orderedSimilarities, found);
+            current = orderedIds[0];
+
+            int limit = l == 0 ? maxM0 : m;
+            int selected = selectNeighbors(orderedIds, orderedSimilarities, found, m);
+            int[] links = linksOf(node, l);
+            int base = linkBase(node, l);
+            links[base] = selected;
+            System.arraycopy(selectedIds, 0, links, base + 1, selected);
+            for (int i = 0; i < selected; i++) {
+                connect(links[base + 1 + i], node, l, limit);
+            }
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 把 node 加入 neighbor 在 level 层的邻居，超过上限时用启发式重新选择
+     */
+    private void connect(int neighbor, int node, int level, int limit) {
+        int[] links = linksOf(neighbor, level);
+        int base = linkBase(neighbor, level);
+        int size = links[base];
+        if (size < limit) {
+            links[base + 1 + size] = node;
+            links[base] = size + 1;
+            return;
+        }
+        int neighborOffset = neighbor * dimension;
+        for (int i = 0; i < size; i++) {
+            int other = links[base + 1 + i];
+            orderedIds[i] = other;
+            orderedSimilarities[i] = dot(vectors, neighborOffset, vectors, other * dimension, dimension);
+        }
+        orderedIds[size] = node;
+        orderedSimilarities[size] = dot(vectors, neighborOffset, vectors, node * dimension, dimension);
+        sortDescending(orderedIds, orderedSimilarities, size + 1);
+        int selected = selectNeighbors(orderedIds, orderedSimilarities, size + 1, limit);
+        links[base] = selected;
+        System.arraycopy(selectedIds, 0, links, base + 1, selected);
+    }
+
+    /**
+     * 启发式选择邻居：候选按相似度从高到低，只保留比已选邻居更接近基准点的候选，不足时用剩下的补齐
+     *
+     * @return 选中的个数，写入 selectedIds
+     */
+    private int selectNeighbors(int[] ids, float[] similarities, int count, int limit) {
+        int selected = 0;
+        int skipped = 0;
+        for (int i = 0; i < count && selected < limit; i++) {
+            int candidate = ids[i];
+            int offset = candidate * dimension;
+            boolean diverse = true;
+            for (int j = 0; j < selected; j++) {
+                if (dot(vectors, offset, vectors, selectedIds[j] * dimension, dimension) > similarities[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selectedIds[selected++] = candidate;
+            } else {
+                // 暂存到已处理过的位置，稍后补齐
+                ids[skipped] = candidate;
+                similarities[skipped] = similarities[i];
+                skipped++;
+            }
+        }
+        for (int i = 0; i < skipped && selected < limit; i++) {
+            selectedIds[selected++] = ids[i];
+        }
+        return selected;
+    }
+
+    /**
+     * 在 level 层从 entry 开始贪心地移动到最相似的节点
+     */
+    private int greedySearch(float[] q, int qOffset, int entry, int level) {
+        int current = entry;
+        float best = dot(q, qOffset, vectors, current * dimension, dimension);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] links = linksOf(current, level);
+            int base = linkBase(current, level);
+            int size = links[base];
+            for (int i = 0; i < size; i++) {
+                int neighbor = links[base + 1 + i];
+                float similarity = dot(q, qOffset, vectors, neighbor * dimension, dimension);
+                if (similarity > best) {
+                    best = similarity;
+                    current = neighbor;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在 level 层做宽度为 ef 的束搜索，结果留在 results 中
+     *
+     * @param skipDeleted 结果中是否排除已删除的节点（它们仍参与遍历）
+     */
+    private void searchLayer(float[] q, int qOffset, int entry, int ef, int level, boolean skipDeleted) {
+        if (++visitTag == 0) {
+            Arrays.fill(visited, 0);
+            visitTag = 1;
+        }
+        candidates.clear();
+        results.clear();
+        float similarity = dot(q, qOffset, vectors, entry * dimension, dimension);
+        visited[entry] = visitTag;
+        // candidates 按相似度取反作为键，堆顶是最相似的；results 的堆顶是最不相似的
+        candidates.push(entry, -similarity);
+        if (!skipDeleted || !deleted[entry]) {
+            results.push(entry, similarity);
+        }
+        while (candidates.size > 0) {
+            float nearest = -candidates.keys[0];
+            if (results.size >= ef && nearest < results.keys[0]) {
+                break;
+            }
+            int current = candidates.ids[0];
+            candidates.pop();
+            int[] links = linksOf(current, level);
+            int base = linkBase(current, level);
+            int size = links[base];
+            for (int i = 0; i < size; i++) {
+                int neighbor = links[base + 1 + i];
+                if (visited[neighbor] == visitTag) {
+                    continue;
+                }
+                visited[neighbor] = visitTag;
+                similarity = dot(q, qOffset, vectors, neighbor * dimension, dimension);
+                if (results.size < ef || similarity > results.keys[0]) {
+                    candidates.push(neighbor, -similarity);
+                    if (!skipDeleted || !deleted[neighbor]) {
+                        results.push(neighbor, similarity);
+                        if (results.size > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private int[] linksOf(int node, int level) {
+        return level == 0 ? links0 : upperLinks[node];
+    }
+
+    private int linkBase(int node, int level) {
+        return level == 0 ? node * (maxM0 + 1) : (level - 1) * (m + 1);
+    }
+
+    private void normalize(float[] source, float[] target, int offset) {
+        float norm = 0f;
+        for (int d = 0; d < dimension; d++) {
+            norm += source[d] * source[d];
+        }
+        float scale = norm > 0f ? (float) (1.0 / Math.sqrt(norm)) : 0f;
+        for (int d = 0; d < dimension; d++) {
+            target[offset + d] = source[d] * scale;
+        }
+    }
+
+    private static void sortDescending(int[] ids, float[] similarities, int count) {
+        // 候选不超过 efConstruction 个，插入排序即可
+        for (int i = 1; i < count; i++) {
+            int id = ids[i];
+            float similarity = similarities[i];
+            int j = i - 1;
+            while (j >= 0 && similarities[j] < similarity) {
+                ids[j + 1] = ids[j];
+                similarities[j + 1] = similarities[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            similarities[j + 1] = similarity;
+        }
+    }
+
+    /**
+     * a[aOffset, aOffset + length) 与 b[bOffset, bOffset + length) 的点积，4 路展开
+     */
+    private static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int d = 0;
+        for (int end = length - 3; d < end; d += 4) {
+            s0 += a[aOffset + d] * b[bOffset + d];
+            s1 += a[aOffset + d + 1] * b[bOffset + d + 1];
+            s2 += a[aOffset + d + 2] * b[bOffset + d + 2];
+            s3 += a[aOffset + d + 3] * b[bOffset + d + 3];
+        }
+        for (; d < length; d++) {
+            s0 += a[aOffset + d] * b[bOffset + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 保存索引（含删除标记）：文件头之后依次是每个节点的状态、名字、向量和各层邻居
+     */
+    public synchronized void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimension);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(efSearch);
+            out.writeInt(count);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < count; node++) {
+                out.writeBoolean(deleted[node]);
+                out.writeByte(levels[node]);
+                out.writeUTF(names[node]);
+                int offset = node * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    out.writeFloat(vectors[offset + d]);
+                }
+                for (int l = 0; l <= levels[node]; l++) {
+                    int[] links = linksOf(node, l);
+                    int base = linkBase(node, l);
+                    out.writeByte(links[base]);
+                    for (int i = 0; i < links[base]; i++) {
+                        out.writeInt(links[base + 1 + i]);
+                    }
+                }
+            }
+        }
+    }
+
+    public static HnswIndex load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an HNSW index: " + file);
+            }
+            int dimension = in.readInt();
+            int m = in.readInt();
+            int efConstruction = in.readInt();
+            int efSearch = in.readInt();
+            HnswIndex index = new HnswIndex(dimension, m, efConstruction, efSearch);
+            int count = in.readInt();
+            index.allocate(Math.max(INITIAL_CAPACITY, count));
+            index.count = count;
+            index.entryPoint = in.readInt();
+            index.maxLevel = in.readInt();
+            for (int node = 0; node < count; node++) {
+                index.deleted[node] = in.readBoolean();
+                int level = in.readUnsignedByte();
+                index.levels[node] = level;
+                index.names[node] = in.readUTF();
+                int offset = node * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    index.vectors[offset + d] = in.readFloat();
+                }
+                index.upperLinks[node] = level > 0 ? new int[level * (m + 1)] : null;
+                for (int l = 0; l <= level; l++) {
+                    int[] links = index.linksOf(node, l);
+                    int base = index.linkBase(node, l);
+                    int size = in.readUnsignedByte();
+                    links[base] = size;
+                    for (int i = 0; i < size; i++) {
+                        links[base + 1 + i] = in.readInt();
+                    }
+                }
+                if (index.deleted[node]) {
+                    index.deletedCount++;
+                } else {
+                    index.nodeIds.put(index.names[node], node);
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 基本类型数组上的二叉最小堆（按 key）
+     */
+    private static final class Heap {
+        int[] ids = new int[64];
+        float[] keys = new float[64];
+        int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void push(int id, float key) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            keys[i] = key;
+        }
+
+        void pop() {
+            size--;
+            if (size == 0) {
+                return;
+            }
+            int id = ids[size];
+            float key = keys[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                ids[i] = ids[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            ids[i] = id;
+            keys[i] = key;
+        }
+    }
+}
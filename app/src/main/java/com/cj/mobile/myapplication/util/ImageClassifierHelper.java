@@ -29,7 +29,6 @@ import org.tensorflow.lite.task.core.BaseOptions;
 import org.tensorflow.lite.task.vision.classifier.Classifications;
 import org.tensorflow.lite.task.vision.classifier.ImageClassifier;
 
-import java.io.IOException;
 import java.util.List;
 
 /**
@@ -40,10 +39,14 @@ public class ImageClassifierHelper {
     public static final int DELEGATE_CPU = 0;
     public static final int DELEGATE_GPU = 1;
     public static final int DELEGATE_NNAPI = 2;
+    // 使用 InferenceTuner 在本机测得的线程数和委托，没有结果时按 numThreads 使用 CPU
+    public static final int DELEGATE_AUTO = 3;
     public static final int MODEL_MOBILENETV1 = 0;
     public static final int MODEL_EFFICIENTNETV0 = 1;
     public static final int MODEL_EFFICIENTNETV1 = 2;
     public static final int MODEL_EFFICIENTNETV2 = 3;
+    // 预热时使用的空白图像尺寸
+    private static final int WARM_UP_SIZE = 224;
 
     private float threshold;
     private int numThreads;
@@ -52,7 +55,8 @@ public class ImageClassifierHelper {
     private int currentModel;
     private final Context context;
     private final ClassifierListener imageClassifierListener;
-    private ImageClassifier imageClassifier;
+    // 当前使用的分类器：切换时在后台创建并预热新实例，在途的分类结束后再关闭旧实例
+    private final ModelSwapper<ImageClassifier> classifierSwapper = new ModelSwapper<>("ImageClassifier");
 
     /**
      * Helper class for wrapping Image Classification actions
@@ -82,7 +86,7 @@ public class ImageClassifierHelper {
                 0.5f,
                 2,
                 3,
-                0,
+                DELEGATE_AUTO,
                 0,
                 context,
                 listener
@@ -113,20 +117,30 @@ public class ImageClassifierHelper {
         this.maxResults = maxResults;
     }
 
+    /**
+     * 修改后调用 setupImageClassifier 生效
+     */
     public void setCurrentDelegate(int currentDelegate) {
         this.currentDelegate = currentDelegate;
     }
 
+    /**
+     * 修改后调用 setupImageClassifier 生效
+     */
     public void setCurrentModel(int currentModel) {
         this.currentModel = currentModel;
     }
 
-    private void setupImageClassifier() {
+    /**
+     * 按当前设置在后台创建分类器，预热后替换正在使用的分类器；创建期间继续使用旧的分类器，不阻塞分类
+     */
+    public void setupImageClassifier() {
         ImageClassifier.ImageClassifierOptions.Builder optionsBuilder =
                 ImageClassifier.ImageClassifierOptions.builder()
                         .setScoreThreshold(threshold)
                         .setMaxResults(maxResults);
 
+        String modelName = getModelName();
         BaseOptions.Builder baseOptionsBuilder =
                 BaseOptions.builder().setNumThreads(numThreads);
 
@@ -144,8 +158,35 @@ public class ImageClassifierHelper {
                 break;
             case DELEGATE_NNAPI:
                 baseOptionsBuilder.useNnapi();
+                break;
+            case DELEGATE_AUTO:
+                InferenceTuner.getInstance().applyTo(baseOptionsBuilder, modelName);
+                break;
         }
 
+        // 线程数和委托只有设置到 BaseOptions 才会生效
+        optionsBuilder.setBaseOptions(baseOptionsBuilder.build());
+        ImageClassifier.ImageClassifierOptions options = optionsBuilder.build();
+
+        classifierSwapper.swapAsync(() -> {
+            ImageClassifier classifier =
+                    ImageClassifier.createFromBufferAndOptions(
+                            ModelRegistry.getInstance().getModelBuffer(context.getAssets(), modelName),
+                            options);
+            // 空跑一次，完成张量分配和委托初始化后再投入使用
+            classifier.classify(TensorImage.fromBitmap(
+                    Bitmap.createBitmap(WARM_UP_SIZE, WARM_UP_SIZE, Bitmap.Config.ARGB_8888)));
+            return classifier;
+        }).exceptionally(e -> {
+            imageClassifierListener.onError("Image classifier failed to "
+                    + "initialize. See error logs for details");
+            Log.e(TAG, "TFLite failed to load model with error: "
+                    + e.getMessage());
+            return null;
+        });
+    }
+
+    private String getModelName() {
         String modelName;
         switch (currentModel) {
             case MODEL_MOBILENETV1:
@@ -163,29 +204,27 @@ public class ImageClassifierHelper {
             default:
                 modelName = "mobilenet_v1_1.0_224_quantized_1_metadata_1.tflite";
         }
-        try {
-            imageClassifier =
-                    ImageClassifier.createFromFileAndOptions(
-                            context,
-                            modelName,
-                            optionsBuilder.build());
-        } catch (IOException e) {
-            imageClassifierListener.onError("Image classifier failed to "
-                    + "initialize. See error logs for details");
-            Log.e(TAG, "TFLite failed to load model with error: "
-                    + e.getMessage());
-        }
+        return modelName;
     }
 
     public void classify(Bitmap image, int imageRotation) {
-        if (imageClassifier == null) {
-            setupImageClassifier();
-        }
-
         // Inference time is the difference between the system time at the start
         // and finish of the process
         long inferenceTime = SystemClock.uptimeMillis();
 
+        List<Classifications> result = classify(preprocess(image, imageRotation));
+        if (result == null) {
+            return;
+        }
+
+        inferenceTime = SystemClock.uptimeMillis() - inferenceTime;
+        imageClassifierListener.onResults(result, inferenceTime);
+    }
+
+    /**
+     * 预处理（旋转到正向），与推理拆开后可以放在流水线的不同阶段
+     */
+    public TensorImage preprocess(Bitmap image, int imageRotation) {
         // Create preprocessor for the image.
         // See https://www.tensorflow.org/lite/inference_with_metadata/
         //            lite_support#imageprocessor_architecture
@@ -193,20 +232,29 @@ public class ImageClassifierHelper {
                 new ImageProcessor.Builder().add(new Rot90Op(-imageRotation / 90)).build();
 
         // Preprocess the image and convert it into a TensorImage for classification.
-        TensorImage tensorImage =
-                imageProcessor.process(TensorImage.fromBitmap(image));
-
-        // Classify the input image
-        imageClassifier.classify(tensorImage);
-
-        List<Classifications> result = imageClassifier.classify(tensorImage);
+        return imageProcessor.process(TensorImage.fromBitmap(image));
+    }
 
-        inferenceTime = SystemClock.uptimeMillis() - inferenceTime;
-        imageClassifierListener.onResults(result, inferenceTime);
+    /**
+     * 对预处理后的图像做一次推理
+     *
+     * @return 第一个分类器还在后台创建时返回 null
+     */
+    public List<Classifications> classify(TensorImage tensorImage) {
+        try (ModelSwapper.Lease<ImageClassifier> lease = classifierSwapper.acquire()) {
+            if (lease == null) {
+                return null;
+            }
+            // Classify the input image
+            return lease.get().classify(tensorImage);
+        }
     }
 
+    /**
+     * 清理分类器（在途的分类结束后关闭）
+     */
     public void clearImageClassifier() {
-        imageClassifier = null;
+        classifierSwapper.clear();
     }
 
     /**
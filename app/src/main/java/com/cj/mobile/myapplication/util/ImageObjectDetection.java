@@ -29,7 +29,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @ProjectName: MyApplication
@@ -53,10 +52,8 @@ public class ImageObjectDetection implements ImageAnalysis.Analyzer {
 
     // 显示的最大结果数
     private static final int MAX_RESULT_DISPLAY = 3;
-    // 上次分析时间
-    private long lastAnalyzeTime = 0;
-    // 分析的间隔时间
-    private long ANALYZE_INTERVAL = 0;
+    // 按检测耗时调度分析帧：最多占用 60% 的核，每秒至少 1 帧
+    private final FrameScheduler frameScheduler = new FrameScheduler(0.6f, 1f, 1);
 
     // 物体探测器对象
     private ObjectDetector objectDetector;
@@ -67,13 +64,11 @@ public class ImageObjectDetection implements ImageAnalysis.Analyzer {
         this.ctx = ctx;
         this.listener = listener;
 
-        // 间隔30秒
-        this.ANALYZE_INTERVAL = TimeUnit.SECONDS.toMillis(5);
-
         try {
             // Initialization
             ObjectDetector.ObjectDetectorOptions options = ObjectDetector.ObjectDetectorOptions.builder().setMaxResults(MAX_RESULT_DISPLAY).build();
-            objectDetector = ObjectDetector.createFromFileAndOptions(ctx, MODEL_PATH, options);
+            objectDetector = ObjectDetector.createFromBufferAndOptions(
+                    ModelRegistry.getInstance().getModelBuffer(ctx.getAssets(), MODEL_PATH), options);
         } catch (IOException e) {
             Log.e(TAG, "TFLite failed to load model with error: " + e.getMessage());
         }
@@ -81,12 +76,12 @@ public class ImageObjectDetection implements ImageAnalysis.Analyzer {
 
     @Override
     public void analyze(@NonNull ImageProxy imageProxy) {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastAnalyzeTime >= ANALYZE_INTERVAL) {
+        long admitted = frameScheduler.tryAdmit();
+        if (admitted != FrameScheduler.REJECTED) {
             // 执行检测逻辑
             Log.d(TAG, "#####  TFLite 执行检测逻辑！");
             performAnalysis(imageProxy);
-            lastAnalyzeTime = currentTime; // 更新上一次检测时间
+            frameScheduler.complete(admitted); // 更新耗时估计
         }
 
         // 关闭图像，此操作会告诉CameraX将下一张图像提供给分析仪
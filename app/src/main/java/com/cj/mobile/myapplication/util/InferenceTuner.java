@@ -0,0 +1,308 @@
+package com.cj.mobile.myapplication.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.task.core.BaseOptions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: InferenceTuner
+ * @Description: 按设备自动选择推理线程数和委托（CPU/XNNPACK/NNAPI）
+ * <p>
+ * 对每个模型遍历候选配置（线程数 1/2/4/核数 x 委托），每个配置先预热几次再计时若干次，取 p90 最低的配置，
+ * 以“模型路径 + 模型内容 CRC32”为 key 保存到 SharedPreferences。设备指纹（Build.FINGERPRINT）变化时清空已保存的结果，
+ * 系统升级后重新测量。首次启动时在后台线程测量尚无结果的模型，也可以随时调用 tune 重新测量。
+ * 使用前需要在 Application 中调用 {@link #init(Context)}。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 16:20
+ */
+public class InferenceTuner {
+    private static final String TAG = "InferenceTuner";
+    private static final String PREFS_NAME = "inference_tuner";
+    private static final String KEY_FINGERPRINT = "device_fingerprint";
+    // 预热与计时的调用次数
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 10;
+    private static volatile InferenceTuner instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    // 单线程执行测量，避免多个测量互相干扰
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, TAG));
+    // 模型路径 -> 内容 CRC32，进程内只计算一次
+    private final Map<String, String> modelHashes = new HashMap<>();
+
+    public static void init(Context context) {
+        if (instance == null) {
+            synchronized (InferenceTuner.class) {
+                if (instance == null) {
+                    instance = new InferenceTuner(context.getApplicationContext());
+                }
+            }
+        }
+    }
+
+    public static InferenceTuner getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("InferenceTuner.init() has not been called");
+        }
+        return instance;
+    }
+
+    private InferenceTuner(Context context) {
+        this.context = context;
+        this.preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+            // 新设备或系统升级，之前的测量结果不再可信
+            preferences.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+        }
+    }
+
+    /**
+     * 获取已保存的最优配置
+     *
+     * @param fallback 还没有测量结果（或读取模型失败）时返回的配置
+     */
+    public ModelRegistry.Options getOptions(String modelPath, ModelRegistry.Options fallback) {
+        try {
+            String value = preferences.getString(key(modelPath), null);
+            if (value != null) {
+                return decode(value);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "No tuned options for " + modelPath + ": " + e.getMessage());
+        }
+        return fallback;
+    }
+
+    /**
+     * 把已保存的最优配置应用到 Task 库的 BaseOptions，没有结果时不做修改。
+     * Task 库没有单独的 XNNPACK 开关，XNNPACK 的结果按同线程数的 CPU 处理。
+     *
+     * @return 是否应用了测量结果
+     */
+    public boolean applyTo(BaseOptions.Builder builder, String modelPath) {
+        ModelRegistry.Options options = getOptions(modelPath, null);
+        if (options == null) {
+            return false;
+        }
+        if (options.getNumThreads() > 0) {
+            builder.setNumThreads(options.getNumThreads());
+        }
+        if (options.isUseNnapi()) {
+            builder.useNnapi();
+        }
+        return true;
+    }
+
+    public boolean isTuned(String modelPath) {
+        try {
+            return preferences.contains(key(modelPath));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 在后台线程测量还没有结果的模型，assets 中不存在的模型会被跳过
+     */
+    public void tuneMissingAsync(String... modelPaths) {
+        executor.execute(() -> {
+            for (String modelPath : modelPaths) {
+                if (!isTuned(modelPath)) {
+                    tune(modelPath);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在后台线程重新测量指定模型
+     */
+    public void tuneAsync(String... modelPaths) {
+        executor.execute(() -> {
+            for (String modelPath : modelPaths) {
+                tune(modelPath);
+            }
+        });
+    }
+
+    /**
+     * 测量并保存模型的最优配置（阻塞，耗时数秒），失败时返回 null
+     */
+    public ModelRegistry.Options tune(String modelPath) {
+        MappedByteBuffer model;
+        String key;
+        try {
+            model = ModelRegistry.getInstance().getModelBuffer(context.getAssets(), modelPath);
+            key = key(modelPath);
+        } catch (IOException e) {
+            Log.w(TAG, "Skip tuning " + modelPath + ": " + e.getMessage());
+            return null;
+        }
+
+        ModelRegistry.Options best = null;
+        long bestP90 = Long.MAX_VALUE;
+        for (ModelRegistry.Options options : candidates()) {
+            long p90 = benchmark(model, options);
+            Log.d(TAG, modelPath + " [" + options + "] p90=" + p90 / 1000 + "us");
+            if (p90 < bestP90) {
+                bestP90 = p90;
+                best = options;
+            }
+        }
+        if (best == null) {
+            Log.w(TAG, "No usable configuration for " + modelPath);
+            return null;
+        }
+
+        preferences.edit().putString(key, encode(best)).apply();
+        Log.i(TAG, modelPath + " -> " + best + " (p90=" + bestP90 / 1000 + "us)");
+        return best;
+    }
+
+    /**
+     * 清空所有保存的结果
+     */
+    public void clear() {
+        preferences.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+    }
+
+    /**
+     * 候选配置：线程数 1/2/4/核数（不超过核数）与 CPU、XNNPACK、NNAPI 的组合
+     */
+    private static List<ModelRegistry.Options> candidates() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads : new int[]{1, 2, 4, cores}) {
+            if (threads <= cores && !threadCounts.contains(threads)) {
+                threadCounts.add(threads);
+            }
+        }
+        List<ModelRegistry.Options> candidates = new ArrayList<>();
+        for (int threads : threadCounts) {
+            candidates.add(new ModelRegistry.Options(threads, false, false));
+            candidates.add(new ModelRegistry.Options(threads, false, true));
+            candidates.add(new ModelRegistry.Options(threads, true, false));
+        }
+        return candidates;
+    }
+
+    /**
+     * 用全零输入测量一个配置，返回计时调用的 p90（纳秒），配置不可用时返回 Long.MAX_VALUE
+     */
+    private static long benchmark(ByteBuffer model, ModelRegistry.Options options) {
+        Interpreter interpreter = null;
+        try {
+            interpreter = new Interpreter(model, options.toInterpreterOptions());
+            Object[] inputs = allocateInputs(interpreter);
+            Map<Integer, Object> outputs = allocateOutputs(interpreter);
+
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                run(interpreter, inputs, outputs);
+            }
+            long[] times = new long[TIMED_RUNS];
+            for (int i = 0; i < TIMED_RUNS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                run(interpreter, inputs, outputs);
+                times[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+            Arrays.sort(times);
+            return times[(int) Math.ceil(TIMED_RUNS * 0.9) - 1];
+        } catch (RuntimeException e) {
+            // 例如设备不支持 NNAPI 或模型中有委托不支持的算子
+            Log.w(TAG, "Configuration [" + options + "] failed: " + e.getMessage());
+            return Long.MAX_VALUE;
+        } finally {
+            if (interpreter != null) {
+                interpreter.close();
+            }
+        }
+    }
+
+    /**
+     * 用全零输入调用一次，让 Interpreter 提前完成张量分配和委托初始化
+     */
+    static void warmUp(Interpreter interpreter) {
+        synchronized (interpreter) {
+            run(interpreter, allocateInputs(interpreter), allocateOutputs(interpreter));
+        }
+    }
+
+    private static Object[] allocateInputs(Interpreter interpreter) {
+        Object[] inputs = new Object[interpreter.getInputTensorCount()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = allocate(interpreter.getInputTensor(i));
+        }
+        return inputs;
+    }
+
+    private static Map<Integer, Object> allocateOutputs(Interpreter interpreter) {
+        Map<Integer, Object> outputs = new HashMap<>();
+        for (int i = 0; i < interpreter.getOutputTensorCount(); i++) {
+            outputs.put(i, allocate(interpreter.getOutputTensor(i)));
+        }
+        return outputs;
+    }
+
+    private static void run(Interpreter interpreter, Object[] inputs, Map<Integer, Object> outputs) {
+        for (Object input : inputs) {
+            ((ByteBuffer) input).rewind();
+        }
+        for (Object output : outputs.values()) {
+            ((ByteBuffer) output).rewind();
+        }
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+    }
+
+    private static ByteBuffer allocate(Tensor tensor) {
+        return ByteBuffer.allocateDirect(tensor.numBytes()).order(ByteOrder.nativeOrder());
+    }
+
+    private synchronized String key(String modelPath) throws IOException {
+        String hash = modelHashes.get(modelPath);
+        if (hash == null) {
+            ByteBuffer model = ModelRegistry.getInstance().getModelBuffer(context.getAssets(), modelPath).duplicate();
+            model.rewind();
+            byte[] chunk = new byte[64 * 1024];
+            CRC32 crc = new CRC32();
+            while (model.hasRemaining()) {
+                int length = Math.min(chunk.length, model.remaining());
+                model.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+            hash = Long.toHexString(crc.getValue());
+            modelHashes.put(modelPath, hash);
+        }
+        return modelPath + "@" + hash;
+    }
+
+    private static String encode(ModelRegistry.Options options) {
+        return options.getNumThreads() + "," + (options.isUseNnapi() ? 1 : 0) + "," + (options.isUseXnnpack() ? 1 : 0);
+    }
+
+    private static ModelRegistry.Options decode(String value) {
+        String[] parts = value.split(",");
+        return new ModelRegistry.Options(Integer.parseInt(parts[0]), "1".equals(parts[1]), "1".equals(parts[2]));
+    }
+}
@@ -0,0 +1,369 @@
+package com.cj.mobile.myapplication.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: ModelRegistry
+ * @Description: 进程级模型注册表，缓存映射后的模型文件、标签和 Interpreter
+ * <p>
+ * 1、同一个 assets 模型文件只 map 一次，Task 库的 ImageClassifier/ObjectDetector 也从这里取 buffer；
+ * 2、Interpreter 按（模型路径 + Options）缓存，acquire 得到引用计数的 Handle，用完 close；
+ * 3、没有引用的 Interpreter 按最近最少使用淘汰，总量受内存预算限制，并响应 onTrimMemory。
+ * 同一个 Handle 背后的 Interpreter 可能被多处共享，并发调用时需要以 Interpreter 为锁同步。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 13:10
+ */
+public class ModelRegistry implements ComponentCallbacks2 {
+    private static final String TAG = "ModelRegistry";
+    private static volatile ModelRegistry instance;
+
+    private final Map<String, MappedByteBuffer> buffers = new HashMap<>();
+    private final Map<String, List<String>> labels = new HashMap<>();
+    // 按访问顺序排列，最久未使用的在最前面
+    private final LinkedHashMap<Key, Entry> interpreters = new LinkedHashMap<>(8, 0.75f, true);
+    private long memoryBudget;
+    private long interpreterBytes;
+
+    public static ModelRegistry getInstance() {
+        if (instance == null) {
+            synchronized (ModelRegistry.class) {
+                if (instance == null) {
+                    instance = new ModelRegistry(64L * 1024 * 1024);
+                }
+            }
+        }
+        return instance;
+    }
+
+    public ModelRegistry(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * 获取映射后的模型文件，同一路径只 map 一次
+     */
+    public synchronized MappedByteBuffer getModelBuffer(AssetManager assetManager, String assetPath) throws IOException {
+        MappedByteBuffer buffer = buffers.get(assetPath);
+        if (buffer == null) {
+            try (AssetFileDescriptor fileDescriptor = assetManager.openFd(assetPath);
+                 FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor())) {
+                FileChannel fileChannel = inputStream.getChannel();
+                buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY,
+                        fileDescriptor.getStartOffset(), fileDescriptor.getDeclaredLength());
+            }
+            buffers.put(assetPath, buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * 获取标签列表，同一路径只读一次
+     */
+    public synchronized List<String> getLabels(AssetManager assetManager, String labelPath) throws IOException {
+        List<String> labelList = labels.get(labelPath);
+        if (labelList == null) {
+            labelList = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(assetManager.open(labelPath)))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    labelList.add(line);
+                }
+            }
+            labelList = Collections.unmodifiableList(labelList);
+            labels.put(labelPath, labelList);
+        }
+        return labelList;
+    }
+
+    /**
+     * 获取模型元数据中内嵌的标签（TFLite 元数据以 zip 形式附加在模型文件末尾，取第一个 .txt 文件），同一模型只读一次
+     */
+    public synchronized List<String> getEmbeddedLabels(AssetManager assetManager, String modelPath) throws IOException {
+        String key = modelPath + "#embedded";
+        List<String> labelList = labels.get(key);
+        if (labelList == null) {
+            ByteBuffer model = getModelBuffer(assetManager, modelPath).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            String text = findEmbeddedText(model);
+            if (text == null) {
+                throw new IOException("No embedded label file in " + modelPath);
+            }
+            labelList = new ArrayList<>();
+            for (String line : text.split("\n")) {
+                if (!line.trim().isEmpty()) {
+                    labelList.add(line.trim());
+                }
+            }
+            labelList = Collections.unmodifiableList(labelList);
+            labels.put(key, labelList);
+        }
+        return labelList;
+    }
+
+    /**
+     * 从后往前查找 zip 本地文件头（PK\3\4），返回第一个未压缩的 .txt 文件的内容
+     */
+    private static String findEmbeddedText(ByteBuffer model) {
+        for (int offset = model.limit() - 30; offset >= 0; offset--) {
+            if (model.getInt(offset) != 0x04034b50) {
+                continue;
+            }
+            int method = model.getShort(offset + 8) & 0xFFFF;
+            int size = model.getInt(offset + 18);
+            int nameLength = model.getShort(offset + 26) & 0xFFFF;
+            int extraLength = model.getShort(offset + 28) & 0xFFFF;
+            int dataStart = offset + 30 + nameLength + extraLength;
+            if (method != 0 || size <= 0 || dataStart + size > model.limit()) {
+                continue;
+            }
+            byte[] name = new byte[nameLength];
+            for (int i = 0; i < nameLength; i++) {
+                name[i] = model.get(offset + 30 + i);
+            }
+            if (!new String(name, StandardCharsets.UTF_8).endsWith(".txt")) {
+                continue;
+            }
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = model.get(dataStart + i);
+            }
+            return new String(data, StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    /**
+     * 获取 Interpreter 的引用，已缓存时直接复用
+     */
+    public synchronized Handle acquire(AssetManager assetManager, String assetPath, Options options) throws IOException {
+        Key key = new Key(assetPath, options);
+        Entry entry = interpreters.get(key);
+        if (entry == null) {
+            MappedByteBuffer buffer = getModelBuffer(assetManager, assetPath);
+            entry = new Entry(key, new Interpreter(buffer, options.toInterpreterOptions()), buffer.capacity());
+            interpreters.put(key, entry);
+            interpreterBytes += entry.bytes;
+            Log.d(TAG, "Created interpreter for " + key);
+        }
+        entry.refCount++;
+        trimToSize(memoryBudget);
+        return new Handle(entry);
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.refCount--;
+        trimToSize(memoryBudget);
+    }
+
+    /**
+     * 关闭没有引用的 Interpreter，直到总量不超过 bytes
+     */
+    public synchronized void trimToSize(long bytes) {
+        Iterator<Entry> iterator = interpreters.values().iterator();
+        while (interpreterBytes > bytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.refCount > 0) {
+                continue;
+            }
+            iterator.remove();
+            entry.interpreter.close();
+            interpreterBytes -= entry.bytes;
+            Log.d(TAG, "Evicted interpreter for " + entry.key);
+        }
+        if (bytes == 0) {
+            // 完全收缩时也释放不再被 Interpreter 使用的映射和标签，持有者自己的引用不受影响
+            buffers.keySet().retainAll(activePaths());
+            labels.clear();
+        }
+    }
+
+    private List<String> activePaths() {
+        List<String> paths = new ArrayList<>();
+        for (Key key : interpreters.keySet()) {
+            paths.add(key.assetPath);
+        }
+        return paths;
+    }
+
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        trimToSize(memoryBudget);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(memoryBudget / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    /**
+     * Interpreter 配置，作为缓存 key 的一部分
+     */
+    public static final class Options {
+        // TFLite 默认线程数，不使用 NNAPI/XNNPACK
+        public static final Options DEFAULT = new Options(-1, false, false);
+
+        private final int numThreads;
+        private final boolean useNnapi;
+        private final boolean useXnnpack;
+
+        /**
+         * @param numThreads -1 表示使用 TFLite 默认线程数
+         */
+        public Options(int numThreads, boolean useNnapi, boolean useXnnpack) {
+            this.numThreads = numThreads;
+            this.useNnapi = useNnapi;
+            this.useXnnpack = useXnnpack;
+        }
+
+        public int getNumThreads() {
+            return numThreads;
+        }
+
+        public boolean isUseNnapi() {
+            return useNnapi;
+        }
+
+        public boolean isUseXnnpack() {
+            return useXnnpack;
+        }
+
+        Interpreter.Options toInterpreterOptions() {
+            Interpreter.Options options = new Interpreter.Options();
+            options.setNumThreads(numThreads);
+            options.setUseNNAPI(useNnapi);
+            options.setUseXNNPACK(useXnnpack);
+            return options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Options)) return false;
+            Options options = (Options) o;
+            return numThreads == options.numThreads && useNnapi == options.useNnapi && useXnnpack == options.useXnnpack;
+        }
+
+        @Override
+        public int hashCode() {
+            return (numThreads * 31 + (useNnapi ? 1 : 0)) * 31 + (useXnnpack ? 1 : 0);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "threads=" + numThreads + (useNnapi ? ",nnapi" : "") + (useXnnpack ? ",xnnpack" : "");
+        }
+    }
+
+    /**
+     * Interpreter 的引用，close 后不能再使用
+     */
+    public final class Handle implements Closeable {
+        private Entry entry;
+
+        private Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        public Interpreter getInterpreter() {
+            if (entry == null) {
+                throw new IllegalStateException("Handle already closed");
+            }
+            return entry.interpreter;
+        }
+
+        @Override
+        public void close() {
+            Entry released;
+            synchronized (this) {
+                released = entry;
+                entry = null;
+            }
+            if (released != null) {
+                release(released);
+            }
+        }
+    }
+
+    private static final class Key {
+        final String assetPath;
+        final Options options;
+
+        Key(String assetPath, Options options) {
+            this.assetPath = assetPath;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return assetPath.equals(key.assetPath) && options.equals(key.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return assetPath.hashCode() * 31 + options.hashCode();
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return assetPath + "(" + options + ")";
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final Interpreter interpreter;
+        final long bytes;
+        int refCount;
+
+        Entry(Key key, Interpreter interpreter, long bytes) {
+            this.key = key;
+            this.interpreter = interpreter;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.cj.mobile.myapplication.util;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: ModelSwapper
+ * @Description: 模型的双缓冲热切换
+ * <p>
+ * 新模型在后台线程创建并预热，完成后原子地替换当前模型；推理时通过 acquire 得到引用计数的 Lease，
+ * 旧模型在替换后等所有在途的 Lease 释放才 close，因此切换过程中分析线程不会等待模型加载，也不会丢帧。
+ * 连续多次切换时只发布最后一次请求的模型，被取代的请求不再创建或创建后直接关闭。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 17:20
+ */
+public class ModelSwapper<T extends Closeable> {
+    private static final String TAG = "ModelSwapper";
+    // 所有模型共用一个创建线程，避免同时加载多个模型抢占内存和 CPU
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(r -> new Thread(r, TAG));
+
+    private final String name;
+    private final AtomicReference<Lease<T>> current = new AtomicReference<>();
+    // 最近一次请求的编号，用于丢弃被取代的请求
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public ModelSwapper(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 在后台创建新模型并在完成后替换当前模型
+     *
+     * @param factory 创建并预热模型，在后台线程执行
+     * @return 新模型发布后完成；被后续请求取代时以 null 完成；创建失败时异常完成
+     */
+    public CompletableFuture<T> swapAsync(Callable<T> factory) {
+        int requested = generation.incrementAndGet();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        BUILDER.execute(() -> {
+            if (requested != generation.get()) {
+                future.complete(null);
+                return;
+            }
+            T model;
+            try {
+                long start = System.currentTimeMillis();
+                model = factory.call();
+                Log.i(TAG, name + " built in " + (System.currentTimeMillis() - start) + "ms");
+            } catch (Exception e) {
+                Log.e(TAG, name + " build failed", e);
+                future.completeExceptionally(e);
+                return;
+            }
+            synchronized (this) {
+                if (requested != generation.get()) {
+                    closeQuietly(model);
+                    future.complete(null);
+                    return;
+                }
+                publish(model);
+            }
+            future.complete(model);
+        });
+        return future;
+    }
+
+    private void publish(T model) {
+        Lease<T> previous = current.getAndSet(new Lease<>(model));
+        if (previous != null) {
+            // 释放“当前模型”这一引用，在途的 Lease 全部释放后才真正关闭
+            previous.close();
+        }
+    }
+
+    /**
+     * 获取当前模型的引用，用完 close；还没有模型时返回 null
+     */
+    public Lease<T> acquire() {
+        while (true) {
+            Lease<T> lease = current.get();
+            if (lease == null) {
+                return null;
+            }
+            if (lease.retain()) {
+                return lease;
+            }
+            // 刚好被替换并关闭，重新读取
+        }
+    }
+
+    /**
+     * 取消进行中的切换，并在在途推理结束后关闭当前模型
+     */
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        Lease<T> previous = current.getAndSet(null);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Close failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 对某个模型实例的引用。同一个实例的所有引用共用一个 Lease 对象，acquire 不产生分配。
+     */
+    public static final class Lease<T extends Closeable> implements AutoCloseable {
+        private final T model;
+        // 1 表示“当前模型”本身的引用，每个在途推理再加 1
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private Lease(T model) {
+            this.model = model;
+        }
+
+        public T get() {
+            return model;
+        }
+
+        private boolean retain() {
+            int count;
+            do {
+                count = refCount.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!refCount.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (refCount.decrementAndGet() == 0) {
+                closeQuietly(model);
+            }
+        }
+    }
+}
@@ -2,18 +2,23 @@ package com.cj.mobile.myapplication.util;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.RectF;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.cj.mobile.myapplication.model.DetectionResult;
+
 import org.tensorflow.lite.gpu.CompatibilityList;
 import org.tensorflow.lite.support.image.ImageProcessor;
 import org.tensorflow.lite.support.image.TensorImage;
 import org.tensorflow.lite.support.image.ops.Rot90Op;
+import org.tensorflow.lite.support.label.Category;
 import org.tensorflow.lite.task.core.BaseOptions;
 import org.tensorflow.lite.task.vision.detector.Detection;
 import org.tensorflow.lite.task.vision.detector.ObjectDetector;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -23,10 +28,19 @@ public class ObjectDetectorHelper {
     public static final int DELEGATE_CPU = 0;
     public static final int DELEGATE_GPU = 1;
     public static final int DELEGATE_NNAPI = 2;
+    // 使用 InferenceTuner 在本机测得的线程数和委托，没有结果时按 numThreads 使用 CPU
+    public static final int DELEGATE_AUTO = 3;
     public static final int MODEL_MOBILENETV1 = 0;
     public static final int MODEL_EFFICIENTDETV0 = 1;
     public static final int MODEL_EFFICIENTDETV1 = 2;
     public static final int MODEL_EFFICIENTDETV2 = 3;
+    // 推理引擎：Task 库的 ObjectDetector，或直接使用 Interpreter 的 RawObjectDetector
+    public static final int ENGINE_TASK = 0;
+    public static final int ENGINE_RAW = 1;
+    // RawObjectDetector 的 NMS 阈值
+    private static final float NMS_IOU_THRESHOLD = 0.5f;
+    // 预热时使用的空白图像尺寸
+    private static final int WARM_UP_SIZE = 320;
 
     // 分数阈值
     private float threshold = 0.5f;
@@ -34,13 +48,23 @@ public class ObjectDetectorHelper {
     private int numThreads = 2;
     // 最大结果
     private int maxResults = 3;
-    // 类型：0代表委派CPU；1代表委派GPU；2代表Delegate NNAPI
+    // 类型：0代表委派CPU；1代表委派GPU；2代表Delegate NNAPI；3代表按本机测量结果自动选择
     private int currentDelegate = 0;
     // 目标检测模型：0代表MobileNetV1；1代表EfficientDetV0；2代表EfficientDetV1；3代表EfficientDetV2
     private int currentModel = 0;
+    // 推理引擎：0代表Task库；1代表直接使用Interpreter
+    private int currentEngine = ENGINE_TASK;
     private final Context context;
     private final DetectorListener objectDetectorListener;
-    private ObjectDetector objectDetector;
+    // 当前使用的检测器：切换时在后台创建并预热新实例，在途的检测结束后再关闭旧实例
+    private final ModelSwapper<ObjectDetector> detectorSwapper = new ModelSwapper<>("ObjectDetector");
+    private final ModelSwapper<RawObjectDetector> rawDetectorSwapper = new ModelSwapper<>("RawObjectDetector");
+    // RawObjectDetector 复用的结果
+    private final DetectionResult rawResult;
+    // 级联模式：检测结果再交给第二个模型细分类，为 null 时不级联
+    private volatile DetectionCascade cascade;
+    // 场景缓存：镜头对着同一场景时复用检测结果，为 null 时每帧都检测
+    private volatile SceneCache<List<Detection>> sceneCache;
 
     public ObjectDetectorHelper(float threshold, int numThreads, int maxResults, int currentDelegate, int currentModel, Context context, DetectorListener objectDetectorListener) {
         this.threshold = threshold;
@@ -50,25 +74,80 @@ public class ObjectDetectorHelper {
         this.currentModel = currentModel;
         this.context = context;
         this.objectDetectorListener = objectDetectorListener;
+        this.rawResult = new DetectionResult(maxResults);
         setupObjectDetector();
     }
 
     /**
-     * 清理物体探测器
+     * 修改后调用 setupObjectDetector 生效
+     */
+    public void setCurrentDelegate(int currentDelegate) {
+        this.currentDelegate = currentDelegate;
+    }
+
+    /**
+     * 修改后调用 setupObjectDetector 生效
+     */
+    public void setCurrentModel(int currentModel) {
+        this.currentModel = currentModel;
+    }
+
+    /**
+     * 修改后调用 setupObjectDetector 生效
+     */
+    public void setCurrentEngine(int currentEngine) {
+        this.currentEngine = currentEngine;
+    }
+
+    /**
+     * 开启（或以 null 关闭）级联细分类，检测框的细分类结果排在原类别前面
+     */
+    public void setCascade(DetectionCascade cascade) {
+        this.cascade = cascade;
+        clearSceneCache();
+    }
+
+    /**
+     * 开启（或以 null 关闭）场景缓存，只对 {@link #detect(SharedFrame)} 生效；命中次数等统计由缓存对象提供
+     */
+    public void setSceneCache(SceneCache<List<Detection>> sceneCache) {
+        this.sceneCache = sceneCache;
+    }
+
+    /**
+     * 模型或级联变化后，缓存的结果不再有效
+     */
+    private void clearSceneCache() {
+        SceneCache<List<Detection>> cache = sceneCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * 清理物体探测器（在途的检测结束后关闭）
      */
     public void clearObjectDetector() {
-        objectDetector = null;
+        detectorSwapper.clear();
+        rawDetectorSwapper.clear();
     }
 
     /**
-     * 设置对象检测器
+     * 按当前设置在后台创建对象检测器，预热后替换正在使用的检测器；创建期间继续使用旧的检测器，不阻塞检测
      */
     public void setupObjectDetector() {
+        clearSceneCache();
+        if (currentEngine == ENGINE_RAW) {
+            setupRawObjectDetector();
+            return;
+        }
+
         ObjectDetector.ObjectDetectorOptions.Builder optionsBuilder =
                 ObjectDetector.ObjectDetectorOptions.builder()
                         .setScoreThreshold(threshold)
                         .setMaxResults(maxResults);
 
+        String modelName = getModelName();
         BaseOptions.Builder baseOptionsBuilder = BaseOptions.builder().setNumThreads(numThreads);
 
         switch (currentDelegate) {
@@ -85,10 +164,64 @@ public class ObjectDetectorHelper {
             case DELEGATE_NNAPI:
                 baseOptionsBuilder.useNnapi();
                 break;
+            case DELEGATE_AUTO:
+                InferenceTuner.getInstance().applyTo(baseOptionsBuilder, modelName);
+                break;
         }
 
         optionsBuilder.setBaseOptions(baseOptionsBuilder.build());
+        ObjectDetector.ObjectDetectorOptions options = optionsBuilder.build();
+
+        detectorSwapper.swapAsync(() -> {
+            ObjectDetector detector = ObjectDetector.createFromBufferAndOptions(
+                    ModelRegistry.getInstance().getModelBuffer(context.getAssets(), modelName), options);
+            // 空跑一次，完成张量分配和委托初始化后再投入使用
+            detector.detect(TensorImage.fromBitmap(
+                    Bitmap.createBitmap(WARM_UP_SIZE, WARM_UP_SIZE, Bitmap.Config.ARGB_8888)));
+            return detector;
+        }).thenAccept(detector -> {
+            if (detector != null) {
+                // 新引擎可用后再关闭另一个引擎，切换期间不丢帧
+                rawDetectorSwapper.clear();
+            }
+        }).exceptionally(e -> {
+            objectDetectorListener.onError("Object detector failed to initialize. See error logs for details");
+            Log.e("Test", "TFLite failed to load model with error: " + e.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * 在后台创建 RawObjectDetector。它没有 GPU 委托，选择 GPU 时按 CPU 处理
+     */
+    private void setupRawObjectDetector() {
+        String modelName = getModelName();
+        ModelRegistry.Options fallback = new ModelRegistry.Options(numThreads, currentDelegate == DELEGATE_NNAPI, false);
+        ModelRegistry.Options options = currentDelegate == DELEGATE_AUTO
+                ? InferenceTuner.getInstance().getOptions(modelName, fallback) : fallback;
+        if (currentDelegate == DELEGATE_GPU) {
+            objectDetectorListener.onError("GPU is not supported by the raw detector, using CPU");
+        }
 
+        rawDetectorSwapper.swapAsync(() -> {
+            RawObjectDetector detector = new RawObjectDetector(context.getAssets(), modelName, options,
+                    threshold, NMS_IOU_THRESHOLD, true);
+            // 空跑一次，完成张量分配和委托初始化后再投入使用
+            detector.detect(Bitmap.createBitmap(WARM_UP_SIZE, WARM_UP_SIZE, Bitmap.Config.ARGB_8888),
+                    new DetectionResult(maxResults));
+            return detector;
+        }).thenAccept(detector -> {
+            if (detector != null) {
+                detectorSwapper.clear();
+            }
+        }).exceptionally(e -> {
+            objectDetectorListener.onError("Raw object detector failed to initialize. See error logs for details");
+            Log.e("Test", "TFLite failed to load model with error: " + e.getMessage());
+            return null;
+        });
+    }
+
+    private String getModelName() {
         String modelName;
         switch (currentModel) {
             case MODEL_MOBILENETV1:
@@ -117,34 +250,103 @@ public class ObjectDetectorHelper {
                 modelName = "ssd_mobilenet_v1.tflite";
                 break;
         }
-
-        try {
-            objectDetector = ObjectDetector.createFromFileAndOptions(context, modelName, optionsBuilder.build());
-        } catch (IllegalStateException | IOException e) {
-            objectDetectorListener.onError("Object detector failed to initialize. See error logs for details");
-            Log.e("Test", "TFLite failed to load model with error: " + e.getMessage());
-        }
+        return modelName;
     }
 
     public void detect(Bitmap image, int imageRotation) {
-        if (objectDetector == null) {
-            setupObjectDetector();
-        }
-
-        long inferenceTime = SystemClock.uptimeMillis();
-
         ImageProcessor imageProcessor =
                 new ImageProcessor.Builder()
                         .add(new Rot90Op(-imageRotation / 90))
                         .build();
 
-        TensorImage tensorImage = imageProcessor.process(TensorImage.fromBitmap(image));
+        detect(imageProcessor.process(TensorImage.fromBitmap(image)));
+    }
 
-        List<Detection> results = objectDetector.detect(tensorImage);
+    /**
+     * 检测已经转正的图像（例如 SharedFrame 中与其他模型共用的视图）
+     */
+    public void detect(TensorImage tensorImage) {
+        long inferenceTime = SystemClock.uptimeMillis();
+        List<Detection> results = runDetection(tensorImage);
+        if (results == null) {
+            // 第一个检测器还在后台创建
+            return;
+        }
         inferenceTime = SystemClock.uptimeMillis() - inferenceTime;
         objectDetectorListener.onResults(results, inferenceTime, tensorImage.getHeight(), tensorImage.getWidth());
     }
 
+    /**
+     * 检测共享帧：先按帧的场景哈希查询场景缓存，命中时直接回调缓存的结果（推理耗时为 0），
+     * 不生成转正的图像也不运行检测器
+     */
+    public void detect(SharedFrame frame) {
+        SceneCache<List<Detection>> cache = sceneCache;
+        if (cache == null) {
+            detect(frame.getUprightImage());
+            return;
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        List<Detection> results = cache.lookup(frame.getSceneHash(), start);
+        if (results != null) {
+            boolean swap = frame.getRotation() % 180 != 0;
+            Bitmap bitmap = frame.getBitmap();
+            objectDetectorListener.onResults(results, 0,
+                    swap ? bitmap.getWidth() : bitmap.getHeight(), swap ? bitmap.getHeight() : bitmap.getWidth());
+            return;
+        }
+        TensorImage tensorImage = frame.getUprightImage();
+        results = runDetection(tensorImage);
+        if (results == null) {
+            return;
+        }
+        long end = SystemClock.elapsedRealtimeNanos();
+        cache.put(frame.getSceneHash(), results, end, end - start);
+        objectDetectorListener.onResults(results, (end - start) / 1_000_000L, tensorImage.getHeight(), tensorImage.getWidth());
+    }
+
+    /**
+     * 运行当前的检测器（以及级联），还没有可用的检测器时返回 null
+     */
+    private List<Detection> runDetection(TensorImage tensorImage) {
+        List<Detection> results = null;
+        try (ModelSwapper.Lease<RawObjectDetector> lease = rawDetectorSwapper.acquire()) {
+            if (lease != null) {
+                synchronized (rawResult) {
+                    lease.get().detect(tensorImage.getBitmap(), rawResult);
+                    results = toDetections(lease.get(), rawResult);
+                }
+            }
+        }
+        if (results == null) {
+            try (ModelSwapper.Lease<ObjectDetector> lease = detectorSwapper.acquire()) {
+                if (lease == null) {
+                    return null;
+                }
+                results = lease.get().detect(tensorImage);
+            }
+        }
+        DetectionCascade detectionCascade = cascade;
+        if (detectionCascade != null && !results.isEmpty()) {
+            results = detectionCascade.refine(tensorImage.getBitmap(), results);
+        }
+        return results;
+    }
+
+    /**
+     * 只为最终结果创建 Detection，与 Task 库的结果格式一致，便于对比
+     */
+    private static List<Detection> toDetections(RawObjectDetector detector, DetectionResult result) {
+        List<Detection> detections = new ArrayList<>(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            RectF box = new RectF(result.getLeft(i), result.getTop(i), result.getRight(i), result.getBottom(i));
+            Category category = new Category(detector.getLabel(result.getClassId(i)), result.getScore(i));
+            detections.add(Detection.create(box, Collections.singletonList(category)));
+        }
+        return detections;
+    }
+
     public interface DetectorListener {
         void onError(String error);
 
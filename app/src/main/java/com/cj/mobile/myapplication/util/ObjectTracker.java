@@ -0,0 +1,422 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.DetectionResult;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: ObjectTracker
+ * @Description: 轻量多目标跟踪器：在两次检测之间推算检测框的位置
+ * <p>
+ * 每个轨迹的状态为框的中心、宽高及其速度，用匀速模型的卡尔曼滤波估计。过程噪声与测量噪声都是对角的，
+ * 四个坐标互不耦合，因此滤波按坐标拆成 4 个 2x2 的小滤波器（协方差只存 3 个数），与完整的 8 维滤波等价。
+ * 检测结果按同类别、IoU 贪心地与预测框关联：关联上的更新滤波；连续命中 minHits 次的轨迹才确认并分配 ID；
+ * 连续 maxMissed 次检测都没有关联上的轨迹丢失，丢失后 reidentifyMillis 内再出现的同类目标沿用原来的 ID。
+ * 检测器可以低频运行，相机的每一帧都用 {@link #predict(long, DetectionResult)} 得到推算的框来绘制。
+ * 所有状态保存在基本类型数组中，更新和推算都不产生对象；方法已同步，可以在检测线程和相机线程上同时使用。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 19:30
+ */
+public class ObjectTracker {
+    public static final int EVENT_BORN = 0;
+    public static final int EVENT_LOST = 1;
+    public static final int EVENT_REIDENTIFIED = 2;
+
+    // 轨迹状态
+    private static final int STATE_FREE = 0;
+    private static final int STATE_TENTATIVE = 1;
+    private static final int STATE_CONFIRMED = 2;
+    private static final int STATE_LOST = 3;
+
+    // 噪声与框的尺寸成比例：位置的标准差为尺寸的 1/20，速度为每帧尺寸的 1/160
+    private static final float STD_POSITION = 1f / 20f;
+    private static final float STD_VELOCITY = 1f / 160f;
+    // 过程噪声按 30fps 的帧间隔换算
+    private static final float FRAME_SECONDS = 1f / 30f;
+    // 重新识别时的 IoU 阈值比例：丢失的轨迹停在最后的位置，阈值比关联时低
+    private static final float REIDENTIFY_IOU_SCALE = 0.5f;
+
+    private final float iouThreshold;
+    private final int minHits;
+    private final int maxMissed;
+    private final long reidentifyNanos;
+
+    // 轨迹，每个数组按轨迹下标访问
+    private final int[] states;
+    private final int[] ids;
+    private final int[] classIds;
+    private final float[] scores;
+    private final int[] hits;
+    private final int[] missed;
+    private final long[] lostAt;
+    // 每个轨迹 4 个坐标（cx, cy, w, h），每个坐标的位置和速度
+    private final float[] position;
+    private final float[] velocity;
+    // 每个坐标 2x2 协方差的 p00、p01、p11
+    private final float[] covariance;
+
+    // 关联用的缓冲区
+    private final float[] predictedBoxes;
+    private final float[] iouMatrix;
+    private final int[] trackMatch;
+    private final int[] detectionMatch;
+    private final int maxDetections;
+
+    private long lastNanos = -1;
+    private int nextId = 1;
+    private TrackListener listener;
+
+    /**
+     * @param maxTracks        同时跟踪的最大目标数（含丢失后等待重新识别的）
+     * @param maxDetections    每次更新的最大检测数
+     * @param iouThreshold     关联的最小 IoU
+     * @param minHits          确认轨迹需要的连续命中次数
+     * @param maxMissed        连续多少次检测未关联上后判为丢失
+     * @param reidentifyMillis 丢失后仍可重新识别的时长
+     */
+    public ObjectTracker(int maxTracks, int maxDetections, float iouThreshold, int minHits, int maxMissed, long reidentifyMillis) {
+        this.iouThreshold = iouThreshold;
+        this.minHits = minHits;
+        this.maxMissed = maxMissed;
+        this.reidentifyNanos = reidentifyMillis * 1_000_000L;
+        this.maxDetections = maxDetections;
+        states = new int[maxTracks];
+        ids = new int[maxTracks];
+        classIds = new int[maxTracks];
+        scores = new float[maxTracks];
+        hits = new int[maxTracks];
+        missed = new int[maxTracks];
+        lostAt = new long[maxTracks];
+        position = new float[maxTracks * 4];
+        velocity = new float[maxTracks * 4];
+        covariance = new float[maxTracks * 4 * 3];
+        predictedBoxes = new float[maxTracks * 4];
+        iouMatrix = new float[maxTracks * maxDetections];
+        trackMatch = new int[maxTracks];
+        detectionMatch = new int[maxDetections];
+    }
+
+    /**
+     * 轨迹的出生、丢失和重新识别事件，在调用 update 的线程上、持有跟踪器的锁时回调，不要在回调中做耗时操作
+     */
+    public synchronized void setListener(TrackListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 用一次检测结果更新轨迹
+     *
+     * @param detections  检测结果（像素坐标），关联上已确认轨迹的结果会写入 track ID，其余为 -1
+     * @param timestampNs 检测所用帧的时间
+     */
+    public synchronized void update(DetectionResult detections, long timestampNs) {
+        int trackCount = states.length;
+        int count = Math.min(detections.size(), maxDetections);
+        float dt = lastNanos < 0 ? 0f : Math.max(0f, (timestampNs - lastNanos) / 1e9f);
+        lastNanos = timestampNs;
+
+        for (int t = 0; t < trackCount; t++) {
+            trackMatch[t] = -1;
+            if (states[t] == STATE_TENTATIVE || states[t] == STATE_CONFIRMED) {
+                predictFilter(t, dt);
+            }
+            writeBox(t, 0f, predictedBoxes, t * 4);
+        }
+        for (int d = 0; d < count; d++) {
+            detectionMatch[d] = -1;
+            detections.setTrackId(d, -1);
+        }
+
+        associate(detections, count, false);
+
+        for (int t = 0; t < trackCount; t++) {
+            int d = trackMatch[t];
+            if (d >= 0) {
+                correct(t, detections, d);
+                hits[t]++;
+                missed[t] = 0;
+                if (states[t] == STATE_TENTATIVE && hits[t] >= minHits) {
+                    states[t] = STATE_CONFIRMED;
+                    ids[t] = nextId++;
+                    dispatch(EVENT_BORN, t);
+                }
+                if (states[t] == STATE_CONFIRMED) {
+                    detections.setTrackId(d, ids[t]);
+                }
+            } else if (states[t] == STATE_TENTATIVE) {
+                // 未确认的轨迹一次未命中就放弃，避免误检产生轨迹
+                states[t] = STATE_FREE;
+            } else if (states[t] == STATE_CONFIRMED && ++missed[t] > maxMissed) {
+                states[t] = STATE_LOST;
+                lostAt[t] = timestampNs;
+                dispatch(EVENT_LOST, t);
+            } else if (states[t] == STATE_LOST && timestampNs - lostAt[t] > reidentifyNanos) {
+                states[t] = STATE_FREE;
+            }
+        }
+
+        // 剩下的检测先尝试与丢失的轨迹重新关联，仍未关联上的创建新轨迹
+        associate(detections, count, true);
+        for (int d = 0; d < count; d++) {
+            int t = detectionMatch[d];
+            if (t >= 0 && states[t] == STATE_LOST) {
+                // 丢失期间的速度不可靠，从新的位置重新开始
+                initFilter(t, detections, d);
+                states[t] = STATE_CONFIRMED;
+                hits[t] = minHits;
+                missed[t] = 0;
+                detections.setTrackId(d, ids[t]);
+                dispatch(EVENT_REIDENTIFIED, t);
+            } else if (t < 0) {
+                t = allocate();
+                if (t < 0) {
+                    break;
+                }
+                initFilter(t, detections, d);
+                states[t] = STATE_TENTATIVE;
+                classIds[t] = detections.getClassId(d);
+                hits[t] = 1;
+                missed[t] = 0;
+                if (minHits <= 1) {
+                    states[t] = STATE_CONFIRMED;
+                    ids[t] = nextId++;
+                    detections.setTrackId(d, ids[t]);
+                    dispatch(EVENT_BORN, t);
+                }
+            }
+        }
+    }
+
+    /**
+     * 推算已确认的轨迹在 timestampNs 时的框，不改变跟踪器的状态
+     *
+     * @param out 推算结果（像素坐标、检测分数、类别和 track ID），按轨迹下标排列
+     */
+    public synchronized void predict(long timestampNs, DetectionResult out) {
+        float dt = lastNanos < 0 ? 0f : Math.max(0f, (timestampNs - lastNanos) / 1e9f);
+        int size = 0;
+        int capacity = out.capacity();
+        for (int t = 0; t < states.length && size < capacity; t++) {
+            if (states[t] != STATE_CONFIRMED) {
+                continue;
+            }
+            writeBox(t, dt, predictedBoxes, t * 4);
+            int o = t * 4;
+            out.set(size, predictedBoxes[o], predictedBoxes[o + 1], predictedBoxes[o + 2], predictedBoxes[o + 3],
+                    scores[t], classIds[t]);
+            out.setTrackId(size, ids[t]);
+            size++;
+        }
+        out.setSize(size);
+    }
+
+    /**
+     * 清空所有轨迹，例如切换模型或画面跳变后；不回调丢失事件
+     */
+    public synchronized void clear() {
+        for (int t = 0; t < states.length; t++) {
+            states[t] = STATE_FREE;
+        }
+        lastNanos = -1;
+    }
+
+    /**
+     * 贪心关联：每次取 IoU 最大的一对
+     *
+     * @param lost false 时关联正在跟踪的轨迹，true 时关联丢失的轨迹与还没有关联上的检测
+     */
+    private void associate(DetectionResult detections, int count, boolean lost) {
+        int trackCount = states.length;
+        float threshold = lost ? iouThreshold * REIDENTIFY_IOU_SCALE : iouThreshold;
+        for (int t = 0; t < trackCount; t++) {
+            boolean candidate = lost ? states[t] == STATE_LOST
+                    : states[t] == STATE_TENTATIVE || states[t] == STATE_CONFIRMED;
+            int row = t * maxDetections;
+            for (int d = 0; d < count; d++) {
+                iouMatrix[row + d] = candidate && detectionMatch[d] < 0 && classIds[t] == detections.getClassId(d)
+                        ? iou(predictedBoxes, t * 4, detections, d) : 0f;
+            }
+        }
+        while (true) {
+            float best = threshold;
+            int bestTrack = -1;
+            int bestDetection = -1;
+            for (int t = 0; t < trackCount; t++) {
+                int row = t * maxDetections;
+                for (int d = 0; d < count; d++) {
+                    if (iouMatrix[row + d] >= best) {
+                        best = iouMatrix[row + d];
+                        bestTrack = t;
+                        bestDetection = d;
+                    }
+                }
+            }
+            if (bestTrack < 0) {
+                return;
+            }
+            trackMatch[bestTrack] = bestDetection;
+            detectionMatch[bestDetection] = bestTrack;
+            for (int d = 0; d < count; d++) {
+                iouMatrix[bestTrack * maxDetections + d] = 0f;
+            }
+            for (int t = 0; t < trackCount; t++) {
+                iouMatrix[t * maxDetections + bestDetection] = 0f;
+            }
+        }
+    }
+
+    private int allocate() {
+        for (int t = 0; t < states.length; t++) {
+            if (states[t] == STATE_FREE) {
+                return t;
+            }
+        }
+        // 没有空位时顶替最早丢失的轨迹
+        int oldest = -1;
+        for (int t = 0; t < states.length; t++) {
+            if (states[t] == STATE_LOST && (oldest < 0 || lostAt[t] < lostAt[oldest])) {
+                oldest = t;
+            }
+        }
+        return oldest;
+    }
+
+    private void initFilter(int t, DetectionResult detections, int d) {
+        float w = detections.getRight(d) - detections.getLeft(d);
+        float h = detections.getBottom(d) - detections.getTop(d);
+        int o = t * 4;
+        position[o] = detections.getLeft(d) + w / 2;
+        position[o + 1] = detections.getTop(d) + h / 2;
+        position[o + 2] = w;
+        position[o + 3] = h;
+        float size = Math.max(w, h);
+        float stdPosition = 2 * STD_POSITION * size;
+        // 速度未知，初始方差取每秒一个框的尺寸
+        float stdVelocity = 10 * STD_VELOCITY * size / FRAME_SECONDS;
+        for (int k = 0; k < 4; k++) {
+            velocity[o + k] = 0f;
+            int c = (o + k) * 3;
+            covariance[c] = stdPosition * stdPosition;
+            covariance[c + 1] = 0f;
+            covariance[c + 2] = stdVelocity * stdVelocity;
+        }
+        scores[t] = detections.getScore(d);
+    }
+
+    /**
+     * 匀速模型的预测：x += v * dt，P = F P F' + Q
+     */
+    private void predictFilter(int t, float dt) {
+        if (dt <= 0f) {
+            return;
+        }
+        int o = t * 4;
+        float size = Math.max(position[o + 2], position[o + 3]);
+        float frames = dt / FRAME_SECONDS;
+        float qPosition = STD_POSITION * size;
+        float qVelocity = STD_VELOCITY * size / FRAME_SECONDS;
+        qPosition = qPosition * qPosition * frames;
+        qVelocity = qVelocity * qVelocity * frames;
+        for (int k = 0; k < 4; k++) {
+            position[o + k] += velocity[o + k] * dt;
+            int c = (o + k) * 3;
+            float p00 = covariance[c];
+            float p01 = covariance[c + 1];
+            float p11 = covariance[c + 2];
+            covariance[c] = p00 + 2 * dt * p01 + dt * dt * p11 + qPosition;
+            covariance[c + 1] = p01 + dt * p11;
+            covariance[c + 2] = p11 + qVelocity;
+        }
+        // 宽高不能为负
+        position[o + 2] = Math.max(1f, position[o + 2]);
+        position[o + 3] = Math.max(1f, position[o + 3]);
+    }
+
+    /**
+     * 测量更新，测量值为检测框的中心和宽高
+     */
+    private void correct(int t, DetectionResult detections, int d) {
+        float w = detections.getRight(d) - detections.getLeft(d);
+        float h = detections.getBottom(d) - detections.getTop(d);
+        int o = t * 4;
+        float size = Math.max(position[o + 2], position[o + 3]);
+        float r = STD_POSITION * size;
+        r = r * r;
+        for (int k = 0; k < 4; k++) {
+            float z;
+            switch (k) {
+                case 0:
+                    z = detections.getLeft(d) + w / 2;
+                    break;
+                case 1:
+                    z = detections.getTop(d) + h / 2;
+                    break;
+                case 2:
+                    z = w;
+                    break;
+                default:
+                    z = h;
+                    break;
+            }
+            int c = (o + k) * 3;
+            float p00 = covariance[c];
+            float p01 = covariance[c + 1];
+            float p11 = covariance[c + 2];
+            float s = p00 + r;
+            float k0 = p00 / s;
+            float k1 = p01 / s;
+            float innovation = z - position[o + k];
+            position[o + k] += k0 * innovation;
+            velocity[o + k] += k1 * innovation;
+            covariance[c] = (1 - k0) * p00;
+            covariance[c + 1] = (1 - k0) * p01;
+            covariance[c + 2] = p11 - k1 * p01;
+        }
+        scores[t] = detections.getScore(d);
+    }
+
+    /**
+     * 把轨迹在 dt 秒后的状态写成 left、top、right、bottom
+     */
+    private void writeBox(int t, float dt, float[] out, int offset) {
+        int o = t * 4;
+        float cx = position[o] + velocity[o] * dt;
+        float cy = position[o + 1] + velocity[o + 1] * dt;
+        float w = Math.max(1f, position[o + 2] + velocity[o + 2] * dt);
+        float h = Math.max(1f, position[o + 3] + velocity[o + 3] * dt);
+        out[offset] = cx - w / 2;
+        out[offset + 1] = cy - h / 2;
+        out[offset + 2] = cx + w / 2;
+        out[offset + 3] = cy + h / 2;
+    }
+
+    private static float iou(float[] boxes, int offset, DetectionResult detections, int d) {
+        float left = Math.max(boxes[offset], detections.getLeft(d));
+        float top = Math.max(boxes[offset + 1], detections.getTop(d));
+        float right = Math.min(boxes[offset + 2], detections.getRight(d));
+        float bottom = Math.min(boxes[offset + 3], detections.getBottom(d));
+        if (right <= left || bottom <= top) {
+            return 0f;
+        }
+        float intersection = (right - left) * (bottom - top);
+        float union = (boxes[offset + 2] - boxes[offset]) * (boxes[offset + 3] - boxes[offset + 1])
+                + (detections.getRight(d) - detections.getLeft(d)) * (detections.getBottom(d) - detections.getTop(d))
+                - intersection;
+        return union > 0 ? intersection / union : 0f;
+    }
+
+    private void dispatch(int event, int t) {
+        if (listener != null) {
+            listener.onTrackEvent(event, ids[t], classIds[t]);
+        }
+    }
+
+    public interface TrackListener {
+        /**
+         * @param event   EVENT_BORN、EVENT_LOST 或 EVENT_REIDENTIFIED
+         * @param trackId 轨迹 ID
+         * @param classId 轨迹的类别
+         */
+        void onTrackEvent(int event, int trackId, int classId);
+    }
+}
@@ -0,0 +1,167 @@
+package com.cj.mobile.myapplication.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: ProductQuantizer
+ * @Description: 嵌入向量的乘积量化（PQ）
+ * <p>
+ * 把向量切成 subspaces 段，每段用 k-means 训练 256 个中心，一个向量编码成每段一个字节的中心下标。
+ * 查询时先算出查询向量每一段与该段全部中心的点积（非对称距离表，subspaces x 256 个 float），
+ * 之后每个编码的相似度只需 subspaces 次查表相加。训练后不可变，可以在多个线程上共用。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 20:30
+ */
+public class ProductQuantizer {
+    public static final int CENTROIDS = 256;
+
+    private final int dimension;
+    private final int subspaces;
+    private final int subDimension;
+    // 第 s 段第 c 个中心从 (s * CENTROIDS + c) * subDimension 开始
+    private final float[] codebooks;
+
+    private ProductQuantizer(int dimension, int subspaces, float[] codebooks) {
+        this.dimension = dimension;
+        this.subspaces = subspaces;
+        this.subDimension = dimension / subspaces;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * 用样本训练码本
+     *
+     * @param vectors    连续存放的样本（通常是已经归一化的已注册嵌入）
+     * @param count      样本数，少于 256 时部分中心重复
+     * @param dimension  向量维度，必须能被 subspaces 整除
+     * @param subspaces  段数，即每个编码的字节数
+     * @param iterations k-means 的迭代次数
+     */
+    public static ProductQuantizer train(float[] vectors, int count, int dimension, int subspaces, int iterations, long seed) {
+        if (dimension % subspaces != 0) {
+            throw new IllegalArgumentException("Dimension " + dimension + " is not divisible by " + subspaces);
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("No training samples");
+        }
+        int subDimension = dimension / subspaces;
+        float[] codebooks = new float[subspaces * CENTROIDS * subDimension];
+        Random random = new Random(seed);
+        int[] sizes = new int[CENTROIDS];
+        float[] sums = new float[CENTROIDS * subDimension];
+
+        for (int s = 0; s < subspaces; s++) {
+            int base = s * CENTROIDS * subDimension;
+            int from = s * subDimension;
+            // 随机样本作为初始中心
+            for (int c = 0; c < CENTROIDS; c++) {
+                System.arraycopy(vectors, random.nextInt(count) * dimension + from, codebooks, base + c * subDimension, subDimension);
+            }
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                Arrays.fill(sizes, 0);
+                Arrays.fill(sums, 0f);
+                for (int i = 0; i < count; i++) {
+                    int c = nearest(vectors, i * dimension + from, codebooks, base, subDimension);
+                    sizes[c]++;
+                    int offset = i * dimension + from;
+                    for (int d = 0; d < subDimension; d++) {
+                        sums[c * subDimension + d] += vectors[offset + d];
+                    }
+                }
+                for (int c = 0; c < CENTROIDS; c++) {
+                    int target = base + c * subDimension;
+                    if (sizes[c] == 0) {
+                        // 空簇重新取一个随机样本
+                        System.arraycopy(vectors, random.nextInt(count) * dimension + from, codebooks, target, subDimension);
+                        continue;
+                    }
+                    float inverse = 1f / sizes[c];
+                    for (int d = 0; d < subDimension; d++) {
+                        codebooks[target + d] = sums[c * subDimension + d] * inverse;
+                    }
+                }
+            }
+        }
+        return new ProductQuantizer(dimension, subspaces, codebooks);
+    }
+
+    /**
+     * 欧氏距离最近的中心
+     */
+    private static int nearest(float[] vectors, int offset, float[] codebooks, int base, int subDimension) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < CENTROIDS; c++) {
+            int centroid = base + c * subDimension;
+            float distance = 0f;
+            for (int d = 0; d < subDimension; d++) {
+                float diff = vectors[offset + d] - codebooks[centroid + d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * 每个编码的字节数
+     */
+    public int getSubspaces() {
+        return subspaces;
+    }
+
+    /**
+     * 编码 vectors[offset, offset + dimension) 写入 codes[codeOffset, codeOffset + subspaces)
+     */
+    public void encode(float[] vectors, int offset, byte[] codes, int codeOffset) {
+        for (int s = 0; s < subspaces; s++) {
+            codes[codeOffset + s] = (byte) nearest(vectors, offset + s * subDimension,
+                    codebooks, s * CENTROIDS * subDimension, subDimension);
+        }
+    }
+
+    /**
+     * 计算查询向量的非对称距离表：table[s * 256 + c] 为第 s 段与第 c 个中心的点积
+     */
+    public void computeTable(float[] query, float[] table) {
+        for (int s = 0; s < subspaces; s++) {
+            int from = s * subDimension;
+            int base = s * CENTROIDS * subDimension;
+            for (int c = 0; c < CENTROIDS; c++) {
+                int centroid = base + c * subDimension;
+                float dot = 0f;
+                for (int d = 0; d < subDimension; d++) {
+                    dot += query[from + d] * codebooks[centroid + d];
+                }
+                table[s * CENTROIDS + c] = dot;
+            }
+        }
+    }
+
+    /**
+     * 用距离表估计查询与 codes[codeOffset, codeOffset + subspaces) 的点积
+     */
+    public float score(float[] table, byte[] codes, int codeOffset) {
+        float s0 = 0f;
+        float s1 = 0f;
+        int s = 0;
+        for (int end = subspaces - 1; s < end; s += 2) {
+            s0 += table[s * CENTROIDS + (codes[codeOffset + s] & 0xFF)];
+            s1 += table[(s + 1) * CENTROIDS + (codes[codeOffset + s + 1] & 0xFF)];
+        }
+        if (s < subspaces) {
+            s0 += table[s * CENTROIDS + (codes[codeOffset + s] & 0xFF)];
+        }
+        return s0 + s1;
+    }
+}
@@ -0,0 +1,482 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: QuantizedEmbeddingStore
+ * @Description: 量化存储的已注册人脸嵌入，不重排时占用约为 float 存储的 1/4（int8）到 1/16 以下（PQ）
+ * <p>
+ * MODE_INT8：归一化向量按各自的最大绝对值缩放到 -127..127，每个向量 dimension 字节加缩放系数和剩余部分范数两个 float；
+ * 查询也量化为 int8，整数点积乘以两个缩放系数即为相似度。算完前 3/4 后用剩余部分的范数估计上界，
+ * 短名单已满且不可能进入时提前放弃（与 {@link EmbeddingStore} 的检查点相同）。
+ * MODE_PQ：用 {@link ProductQuantizer} 编码，每个向量 subspaces 字节，相似度通过非对称距离表查表得到。
+ * 量化域的扫描选出 rerankCount 个候选，再用原始 float 向量精确计算相似度排出前 2；
+ * 重排需要另外保存 float 向量（每人 dimension * 4 字节，int8 时总占用反而超过 float 存储）；rerankCount 为 0 时不保存，直接返回量化域的前 2。
+ * 指定 {@link VectorSource} 时不保存 float 向量，每人只多 4 字节的引用（例如 {@link FaceRegistry} 的行号），
+ * 重排时从来源（映射的人脸库文件）读取原始向量；来源取不到时该候选保留量化域的分数。
+ * 与 {@link EmbeddingStore} 一样，注册和删除写时复制，不阻塞查询；查询之间共用缓冲区，彼此串行。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 20:30
+ */
+public class QuantizedEmbeddingStore {
+    public static final int MODE_INT8 = 0;
+    public static final int MODE_PQ = 1;
+
+    private final int mode;
+    private final int dimension;
+    private final int codeSize;
+    // MODE_INT8 提前放弃的检查点（4 的倍数）
+    private final int checkpoint;
+    private final int rerankCount;
+    private final ProductQuantizer quantizer;
+    private final VectorSource source;
+    private volatile Snapshot snapshot;
+
+    // 查询用的缓冲区，由 scratchLock 保护
+    private final Object scratchLock = new Object();
+    private final float[] query;
+    private final byte[] queryCodes;
+    // 预先展开成 int 的查询编码，内层循环只需展开存储的编码
+    private final int[] queryInts;
+    private final float[] table;
+    private final int[] shortIds;
+    private final float[] shortScores;
+
+    /**
+     * int8 存储
+     *
+     * @param rerankCount 精确重排的候选数，0 表示不重排（也不保存 float 向量）
+     */
+    public QuantizedEmbeddingStore(int dimension, int rerankCount) {
+        this(MODE_INT8, dimension, dimension, rerankCount, null, null);
+    }
+
+    /**
+     * int8 存储，重排用的原始向量从 source 读取，不在堆上保存
+     *
+     * @param rerankCount 精确重排的候选数
+     */
+    public QuantizedEmbeddingStore(int dimension, int rerankCount, VectorSource source) {
+        this(MODE_INT8, dimension, dimension, rerankCount, null, source);
+    }
+
+    /**
+     * PQ 存储
+     *
+     * @param quantizer   训练好的码本
+     * @param rerankCount 精确重排的候选数，0 表示不重排（也不保存 float 向量）
+     */
+    public QuantizedEmbeddingStore(ProductQuantizer quantizer, int rerankCount) {
+        this(MODE_PQ, quantizer.getDimension(), quantizer.getSubspaces(), rerankCount, quantizer, null);
+    }
+
+    private QuantizedEmbeddingStore(int mode, int dimension, int codeSize, int rerankCount, ProductQuantizer quantizer,
+                                    VectorSource source) {
+        this.mode = mode;
+        this.dimension = dimension;
+        this.codeSize = codeSize;
+        this.checkpoint = (dimension * 3 / 4) & ~3;
+        this.rerankCount = rerankCount;
+        this.quantizer = quantizer;
+        this.source = source;
+        this.query = new float[dimension];
+        this.queryCodes = new byte[dimension];
+        this.queryInts = new int[dimension];
+        this.table = mode == MODE_PQ ? new float[codeSize * ProductQuantizer.CENTROIDS] : null;
+        int shortList = Math.max(rerankCount, 2);
+        this.shortIds = new int[shortList];
+        this.shortScores = new float[shortList];
+        this.snapshot = emptySnapshot();
+    }
+
+    /**
+     * 重排时读取原始向量的来源
+     */
+    public interface VectorSource {
+        /**
+         * @param ref             注册时传入的引用
+         * @param name            人脸的名字，用于确认引用仍然指向这个人
+         * @param normalizedQuery 归一化的查询
+         * @return 与该人脸归一化向量的点积，引用已失效时为 NaN
+         */
+        float similarity(int ref, String name, float[] normalizedQuery);
+    }
+
+    /**
+     * 不可变的快照，数组只在新建快照时写入
+     */
+    private static final class Snapshot {
+        final String[] names;
+        final byte[] codes;
+        // MODE_INT8 的缩放系数和检查点之后（还原后）的范数
+        final float[] scales;
+        final float[] tailNorms;
+        // 重排用的归一化 float 向量，不重排或使用 VectorSource 时为 null
+        final float[] vectors;
+        // VectorSource 的引用，没有 VectorSource 时为 null
+        final int[] refs;
+        final int count;
+
+        Snapshot(String[] names, byte[] codes, float[] scales, float[] tailNorms, float[] vectors, int[] refs, int count) {
+            this.names = names;
+            this.codes = codes;
+            this.scales = scales;
+            this.tailNorms = tailNorms;
+            this.vectors = vectors;
+            this.refs = refs;
+            this.count = count;
+        }
+    }
+
+    private Snapshot emptySnapshot() {
+        return new Snapshot(new String[0], new byte[0], new float[0], new float[0],
+                rerankCount > 0 && source == null ? new float[0] : null, source != null ? new int[0] : null, 0);
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int size() {
+        return snapshot.count;
+    }
+
+    /**
+     * 每个人脸的向量占用（字节），不含名字
+     */
+    public int getBytesPerEntry() {
+        int bytes = codeSize;
+        if (mode == MODE_INT8) {
+            bytes += 8;
+        }
+        if (source != null) {
+            bytes += 4;
+        } else if (rerankCount > 0) {
+            bytes += dimension * 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * 注册（或替换同名的）人脸
+     */
+    public synchronized void add(String name, float[] embedding) {
+        add(name, embedding, -1);
+    }
+
+    /**
+     * 注册（或替换同名的）人脸
+     *
+     * @param ref 重排时传给 VectorSource 的引用
+     */
+    public synchronized void add(String name, float[] embedding, int ref) {
+        addAll(new String[]{name}, new float[][]{embedding}, new int[]{ref}, 1);
+    }
+
+    /**
+     * 批量注册，只复制一次快照，适合加载整个人脸库
+     */
+    public synchronized void addAll(String[] names, float[][] embeddings, int count) {
+        addAll(names, embeddings, null, count);
+    }
+
+    /**
+     * 批量注册，只复制一次快照，适合加载整个人脸库
+     *
+     * @param refs 重排时传给 VectorSource 的引用，为 null 时都是 -1
+     */
+    public synchronized void addAll(String[] names, float[][] embeddings, int[] refs, int count) {
+        Snapshot current = snapshot;
+        int capacity = current.count + count;
+        String[] newNames = Arrays.copyOf(current.names, capacity);
+        byte[] codes = Arrays.copyOf(current.codes, capacity * codeSize);
+        float[] scales = Arrays.copyOf(current.scales, capacity);
+        float[] tailNorms = Arrays.copyOf(current.tailNorms, capacity);
+        float[] vectors = current.vectors != null ? Arrays.copyOf(current.vectors, capacity * dimension) : null;
+        int[] newRefs = current.refs != null ? Arrays.copyOf(current.refs, capacity) : null;
+        float[] normalized = new float[dimension];
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < current.count; i++) {
+            indices.put(current.names[i], i);
+        }
+        int size = current.count;
+        for (int i = 0; i < count; i++) {
+            if (embeddings[i].length < dimension) {
+                throw new IllegalArgumentException("Embedding has " + embeddings[i].length + " values, expected " + dimension);
+            }
+            Integer existing = indices.get(names[i]);
+            int index = existing != null ? existing : size++;
+            indices.put(names[i], index);
+            newNames[index] = names[i];
+            normalize(embeddings[i], normalized);
+            if (mode == MODE_INT8) {
+                scales[index] = quantize(normalized, codes, index * codeSize);
+                tailNorms[index] = tailNorm(codes, index * codeSize) * scales[index];
+            } else {
+                quantizer.encode(normalized, 0, codes, index * codeSize);
+            }
+            if (vectors != null) {
+                System.arraycopy(normalized, 0, vectors, index * dimension, dimension);
+            }
+            if (newRefs != null) {
+                newRefs[index] = refs != null ? refs[i] : -1;
+            }
+        }
+        snapshot = new Snapshot(size < capacity ? Arrays.copyOf(newNames, size) : newNames,
+                codes, scales, tailNorms, vectors, newRefs, size);
+    }
+
+    /**
+     * 删除指定名字的人脸，最后一个人脸移到空出的位置
+     */
+    public synchronized boolean remove(String name) {
+        Snapshot current = snapshot;
+        int index = indexOf(current.names, current.count, name);
+        if (index < 0) {
+            return false;
+        }
+        int count = current.count - 1;
+        String[] names = Arrays.copyOf(current.names, count);
+        byte[] codes = Arrays.copyOf(current.codes, count * codeSize);
+        float[] scales = Arrays.copyOf(current.scales, count);
+        float[] tailNorms = Arrays.copyOf(current.tailNorms, count);
+        float[] vectors = current.vectors != null ? Arrays.copyOf(current.vectors, count * dimension) : null;
+        int[] refs = current.refs != null ? Arrays.copyOf(current.refs, count) : null;
+        if (index < count) {
+            names[index] = current.names[count];
+            System.arraycopy(current.codes, count * codeSize, codes, index * codeSize, codeSize);
+            scales[index] = current.scales[count];
+            tailNorms[index] = current.tailNorms[count];
+            if (vectors != null) {
+                System.arraycopy(current.vectors, count * dimension, vectors, index * dimension, dimension);
+            }
+            if (refs != null) {
+                refs[index] = current.refs[count];
+            }
+        }
+        snapshot = new Snapshot(names, codes, scales, tailNorms, vectors, refs, count);
+        return true;
+    }
+
+    public synchronized void clear() {
+        snapshot = emptySnapshot();
+    }
+
+    private static int indexOf(String[] names, int count, String name) {
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void normalize(float[] source, float[] target) {
+        float norm = 0f;
+        for (int d = 0; d < dimension; d++) {
+            norm += source[d] * source[d];
+        }
+        float scale = norm > 0f ? (float) (1.0 / Math.sqrt(norm)) : 0f;
+        for (int d = 0; d < dimension; d++) {
+            target[d] = source[d] * scale;
+        }
+    }
+
+    private float tailNorm(byte[] codes, int offset) {
+        int sum = 0;
+        for (int d = checkpoint; d < dimension; d++) {
+            sum += codes[offset + d] * codes[offset + d];
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    /**
+     * 按最大绝对值对称量化到 -127..127
+     *
+     * @return 缩放系数（code * scale 还原为原值）
+     */
+    private float quantize(float[] vector, byte[] codes, int offset) {
+        float max = 0f;
+        for (int d = 0; d < dimension; d++) {
+            max = Math.max(max, Math.abs(vector[d]));
+        }
+        if (max == 0f) {
+            Arrays.fill(codes, offset, offset + dimension, (byte) 0);
+            return 0f;
+        }
+        float inverse = 127f / max;
+        for (int d = 0; d < dimension; d++) {
+            codes[offset + d] = (byte) Math.round(vector[d] * inverse);
+        }
+        return max / 127f;
+    }
+
+    /**
+     * 查找与 query 最相似的两个人脸
+     *
+     * @param query 未归一化的嵌入
+     * @param out   结果，没有注册的人脸时 size 为 0
+     */
+    public void findNearest(float[] query, EmbeddingMatch out) {
+        Snapshot current = snapshot;
+        out.clear();
+        if (current.count == 0) {
+            return;
+        }
+        synchronized (scratchLock) {
+            normalize(query, this.query);
+            float queryScale = 0f;
+            float queryTail = 0f;
+            if (mode == MODE_INT8) {
+                queryScale = quantize(this.query, queryCodes, 0);
+                for (int d = 0; d < dimension; d++) {
+                    queryInts[d] = queryCodes[d];
+                }
+                queryTail = tailNorm(queryCodes, 0) * queryScale;
+            } else {
+                quantizer.computeTable(this.query, table);
+            }
+
+            // 量化域扫描，shortIds/shortScores 为按分数的最小堆
+            int limit = rerankCount > 0 ? Math.min(rerankCount, shortIds.length) : 2;
+            int size = 0;
+            byte[] codes = current.codes;
+            for (int i = 0; i < current.count; i++) {
+                float score;
+                if (mode == MODE_INT8) {
+                    int offset = i * codeSize;
+                    float scale = queryScale * current.scales[i];
+                    int dot = dot(queryInts, codes, offset, 0, checkpoint);
+                    if (size == limit && dot * scale + queryTail * current.tailNorms[i] < shortScores[0]) {
+                        continue;
+                    }
+                    score = (dot + dot(queryInts, codes, offset, checkpoint, codeSize)) * scale;
+                } else {
+                    score = quantizer.score(table, codes, i * codeSize);
+                }
+                if (size < limit) {
+                    push(size++, i, score);
+                } else if (score > shortScores[0]) {
+                    replaceTop(size, i, score);
+                }
+            }
+
+            // 精确重排（或直接使用量化域的分数）
+            int best = -1;
+            int second = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            float secondScore = Float.NEGATIVE_INFINITY;
+            for (int k = 0; k < size; k++) {
+                int i = shortIds[k];
+                float score = shortScores[k];
+                if (current.vectors != null) {
+                    score = dot(this.query, current.vectors, i * dimension, dimension);
+                } else if (current.refs != null) {
+                    float exact = source.similarity(current.refs[i], current.names[i], this.query);
+                    if (!Float.isNaN(exact)) {
+                        score = exact;
+                    }
+                }
+                if (score > bestScore) {
+                    second = best;
+                    secondScore = bestScore;
+                    best = i;
+                    bestScore = score;
+                } else if (score > secondScore) {
+                    second = i;
+                    secondScore = score;
+                }
+            }
+            out.set(0, best, current.names[best], bestScore);
+            if (second >= 0) {
+                out.set(1, second, current.names[second], secondScore);
+                out.setSize(2);
+            } else {
+                out.setSize(1);
+            }
+        }
+    }
+
+    private void push(int size, int id, float score) {
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (shortScores[parent] <= score) {
+                break;
+            }
+            shortIds[i] = shortIds[parent];
+            shortScores[i] = shortScores[parent];
+            i = parent;
+        }
+        shortIds[i] = id;
+        shortScores[i] = score;
+    }
+
+    private void replaceTop(int size, int id, float score) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && shortScores[child + 1] < shortScores[child]) {
+                child++;
+            }
+            if (shortScores[child] >= score) {
+                break;
+            }
+            shortIds[i] = shortIds[child];
+            shortScores[i] = shortScores[child];
+            i = child;
+        }
+        shortIds[i] = id;
+        shortScores[i] = score;
+    }
+
+    /**
+     * query[from, to) 与 int8 编码的点积，整数累加，4 路展开
+     */
+    private static int dot(int[] query, byte[] codes, int offset, int from, int to) {
+        int s0 = 0;
+        int s1 = 0;
+        int s2 = 0;
+        int s3 = 0;
+        int d = from;
+        for (int end = to - 3; d < end; d += 4) {
+            int c = offset + d;
+            s0 += query[d] * codes[c];
+            s1 += query[d + 1] * codes[c + 1];
+            s2 += query[d + 2] * codes[c + 2];
+            s3 += query[d + 3] * codes[c + 3];
+        }
+        for (; d < to; d++) {
+            s0 += query[d] * codes[offset + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static float dot(float[] query, float[] vectors, int offset, int length) {
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int d = 0;
+        for (int end = length - 3; d < end; d += 4) {
+            int v = offset + d;
+            s0 += query[d] * vectors[v];
+            s1 += query[d + 1] * vectors[v + 1];
+            s2 += query[d + 2] * vectors[v + 2];
+            s3 += query[d + 3] * vectors[v + 3];
+        }
+        for (; d < length; d++) {
+            s0 += query[d] * vectors[offset + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,398 @@
+package com.cj.mobile.myapplication.util;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import com.cj.mobile.myapplication.model.DetectionResult;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: RawObjectDetector
+ * @Description: 直接使用 Interpreter 的 SSD/EfficientDet 检测器，与 Task 库的 ObjectDetector 并列可选
+ * <p>
+ * 输入、输出缓冲区按张量类型预先分配并复用，检测结果写入调用方持有的 {@link DetectionResult}，稳定状态下不产生对象。
+ * 支持两种模型：
+ * 1、带 TFLite_Detection_PostProcess 的模型（ssd_mobilenet_v1、EfficientDet-Lite）：四个输出（框、类别、分数、数量），
+ * 按阈值筛选后仍做一次 NMS（可选跨类别抑制）；
+ * 2、不带后处理的 SSD 模型：两个输出（框编码 [1, A, 4]、类别分数 [1, A, C]），按 SSD 锚框解码后做 NMS。
+ * 候选框和 NMS 都在 {@link BoxNms} 的基本类型数组上完成。标签从模型内嵌的 labelmap 读取。
+ * 带后处理的模型中类别与分数两个输出形状相同，第一次推理时按数值（类别为整数）区分。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 19:10
+ */
+public class RawObjectDetector implements Closeable {
+    // NMS 前最多保留的候选框数
+    private static final int MAX_CANDIDATES = 2000;
+    // SSD 框编码的缩放系数（y, x, h, w）
+    private static final float Y_SCALE = 10f;
+    private static final float X_SCALE = 10f;
+    private static final float H_SCALE = 5f;
+    private static final float W_SCALE = 5f;
+
+    private final ModelRegistry.Handle modelHandle;
+    private final Interpreter interpreter;
+    private final List<String> labels;
+    private final float scoreThreshold;
+    private final float iouThreshold;
+    private final boolean classAware;
+
+    // 输入
+    private final int inputWidth;
+    private final int inputHeight;
+    private final DataType inputType;
+    private final ByteBuffer inputBuffer;
+    private final Object[] inputs;
+    private final int[] pixels;
+    private Bitmap scaledBitmap;
+    private final Canvas scaleCanvas = new Canvas();
+    private final Matrix scaleMatrix = new Matrix();
+    // 双线性过滤，与 Bitmap.createScaledBitmap(..., true) 的缩放质量一致
+    private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // 输出（float 数组，量化输出在读取时反量化）
+    private final boolean postProcessed;
+    private final ByteBuffer[] outputBuffers;
+    private final FloatBuffer[] outputFloats;
+    private final DataType[] outputTypes;
+    private final float[] outputScales;
+    private final int[] outputZeroPoints;
+    private final Map<Integer, Object> outputs = new HashMap<>();
+    private final float[][] outputValues;
+    private boolean outputsResolved;
+    private int boxesOutput;
+    private int classesOutput = -1;
+    private int scoresOutput = -1;
+    private int countOutput;
+    private float[] anchors;
+
+    private final BoxNms nms = new BoxNms(MAX_CANDIDATES);
+
+    /**
+     * @param scoreThreshold 最低分数
+     * @param iouThreshold   NMS 的 IoU 阈值
+     * @param classAware     true 时只在同一类别内抑制
+     */
+    public RawObjectDetector(AssetManager assetManager, String modelPath, ModelRegistry.Options options,
+                             float scoreThreshold, float iouThreshold, boolean classAware) throws IOException {
+        this.scoreThreshold = scoreThreshold;
+        this.iouThreshold = iouThreshold;
+        this.classAware = classAware;
+        labels = ModelRegistry.getInstance().getEmbeddedLabels(assetManager, modelPath);
+        modelHandle = ModelRegistry.getInstance().acquire(assetManager, modelPath, options);
+        interpreter = modelHandle.getInterpreter();
+
+        Tensor inputTensor = interpreter.getInputTensor(0);
+        int[] inputShape = inputTensor.shape();
+        inputHeight = inputShape[1];
+        inputWidth = inputShape[2];
+        inputType = inputTensor.dataType();
+        inputBuffer = ByteBuffer.allocateDirect(inputTensor.numBytes()).order(ByteOrder.nativeOrder());
+        inputs = new Object[]{inputBuffer};
+        pixels = new int[inputWidth * inputHeight];
+
+        int outputCount = interpreter.getOutputTensorCount();
+        postProcessed = outputCount == 4;
+        if (!postProcessed && outputCount != 2) {
+            throw new IllegalArgumentException("Unsupported detection model with " + outputCount + " outputs: " + modelPath);
+        }
+        outputBuffers = new ByteBuffer[outputCount];
+        outputFloats = new FloatBuffer[outputCount];
+        outputTypes = new DataType[outputCount];
+        outputScales = new float[outputCount];
+        outputZeroPoints = new int[outputCount];
+        outputValues = new float[outputCount][];
+        for (int i = 0; i < outputCount; i++) {
+            Tensor tensor = interpreter.getOutputTensor(i);
+            outputBuffers[i] = ByteBuffer.allocateDirect(tensor.numBytes()).order(ByteOrder.nativeOrder());
+            outputTypes[i] = tensor.dataType();
+            if (outputTypes[i] == DataType.FLOAT32) {
+                outputFloats[i] = outputBuffers[i].asFloatBuffer();
+            } else {
+                outputScales[i] = tensor.quantizationParams().getScale();
+                outputZeroPoints[i] = tensor.quantizationParams().getZeroPoint();
+            }
+            outputValues[i] = new float[tensor.numElements()];
+            outputs.put(i, outputBuffers[i]);
+            int[] shape = tensor.shape();
+            if (shape.length == 3 && shape[2] == 4) {
+                boxesOutput = i;
+            } else if (shape.length == 1) {
+                countOutput = i;
+            } else if (postProcessed) {
+                // 类别和分数：先按输出顺序，第一次推理后再按数值确认
+                if (classesOutput < 0) {
+                    classesOutput = i;
+                } else {
+                    scoresOutput = i;
+                }
+            } else {
+                scoresOutput = i;
+            }
+        }
+        if (!postProcessed) {
+            int anchorCount = interpreter.getOutputTensor(boxesOutput).shape()[1];
+            anchors = generateSsdAnchors(inputWidth, inputHeight);
+            if (anchors.length / 4 != anchorCount) {
+                throw new IllegalArgumentException("Model has " + anchorCount + " anchors, generated " + anchors.length / 4);
+            }
+        }
+    }
+
+    /**
+     * 检测（图像为正向），结果为 image 的像素坐标
+     */
+    public void detect(Bitmap image, DetectionResult out) {
+        if (scaledBitmap == null) {
+            scaledBitmap = Bitmap.createBitmap(inputWidth, inputHeight, Bitmap.Config.ARGB_8888);
+        }
+        scaleMatrix.setScale((float) inputWidth / image.getWidth(), (float) inputHeight / image.getHeight());
+        scaleCanvas.setBitmap(scaledBitmap);
+        scaleCanvas.drawBitmap(image, scaleMatrix, scalePaint);
+        scaleCanvas.setBitmap(null);
+        scaledBitmap.getPixels(pixels, 0, inputWidth, 0, 0, inputWidth, inputHeight);
+        writeInput();
+
+        run();
+        decode(image.getWidth(), image.getHeight(), out);
+    }
+
+    /**
+     * 类别下标对应的标签
+     */
+    public String getLabel(int classId) {
+        return classId >= 0 && classId < labels.size() ? labels.get(classId) : "Unknown";
+    }
+
+    private void writeInput() {
+        int index = 0;
+        for (int pixel : pixels) {
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            if (inputType == DataType.FLOAT32) {
+                // 归一化到 -1..1
+                inputBuffer.putFloat(index, (r - 127.5f) / 127.5f);
+                inputBuffer.putFloat(index + 4, (g - 127.5f) / 127.5f);
+                inputBuffer.putFloat(index + 8, (b - 127.5f) / 127.5f);
+                index += 12;
+            } else {
+                int shift = inputType == DataType.INT8 ? 128 : 0;
+                inputBuffer.put(index, (byte) (r - shift));
+                inputBuffer.put(index + 1, (byte) (g - shift));
+                inputBuffer.put(index + 2, (byte) (b - shift));
+                index += 3;
+            }
+        }
+    }
+
+    private void run() {
+        inputBuffer.rewind();
+        for (ByteBuffer buffer : outputBuffers) {
+            buffer.rewind();
+        }
+        synchronized (interpreter) {
+            interpreter.runForMultipleInputsOutputs(inputs, outputs);
+        }
+        for (int i = 0; i < outputBuffers.length; i++) {
+            readOutput(i);
+        }
+    }
+
+    /**
+     * 输出整块读入 float 数组，量化输出同时反量化
+     */
+    private void readOutput(int index) {
+        float[] values = outputValues[index];
+        if (outputTypes[index] == DataType.FLOAT32) {
+            outputFloats[index].position(0);
+            outputFloats[index].get(values);
+            return;
+        }
+        ByteBuffer buffer = outputBuffers[index];
+        boolean unsigned = outputTypes[index] == DataType.UINT8;
+        float scale = outputScales[index];
+        int zeroPoint = outputZeroPoints[index];
+        for (int i = 0; i < values.length; i++) {
+            int q = unsigned ? buffer.get(i) & 0xFF : buffer.get(i);
+            values[i] = (q - zeroPoint) * scale;
+        }
+    }
+
+    private void decode(int width, int height, DetectionResult out) {
+        nms.clear();
+        if (postProcessed) {
+            if (!outputsResolved) {
+                resolveClassAndScoreOutputs();
+            }
+            float[] boxes = outputValues[boxesOutput];
+            float[] classes = outputValues[classesOutput];
+            float[] scores = outputValues[scoresOutput];
+            int count = Math.min((int) outputValues[countOutput][0], scores.length);
+            for (int i = 0; i < count; i++) {
+                if (scores[i] >= scoreThreshold) {
+                    nms.add(boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3],
+                            scores[i], (int) classes[i]);
+                }
+            }
+        } else {
+            decodeAnchors();
+        }
+        nms.select(iouThreshold, classAware, width, height, out);
+    }
+
+    /**
+     * 不带后处理的 SSD：每个锚框取最高分的类别（跳过背景类 0），按锚框解码中心和宽高
+     */
+    private void decodeAnchors() {
+        float[] encodings = outputValues[boxesOutput];
+        float[] logits = outputValues[scoresOutput];
+        int anchorCount = anchors.length / 4;
+        int classCount = logits.length / anchorCount;
+        for (int a = 0; a < anchorCount; a++) {
+            int bestClass = -1;
+            float bestLogit = Float.NEGATIVE_INFINITY;
+            int base = a * classCount;
+            for (int c = 1; c < classCount; c++) {
+                if (logits[base + c] > bestLogit) {
+                    bestLogit = logits[base + c];
+                    bestClass = c;
+                }
+            }
+            float score = sigmoid(bestLogit);
+            if (bestClass < 0 || score < scoreThreshold) {
+                continue;
+            }
+            float anchorY = anchors[a * 4];
+            float anchorX = anchors[a * 4 + 1];
+            float anchorH = anchors[a * 4 + 2];
+            float anchorW = anchors[a * 4 + 3];
+            float centerY = encodings[a * 4] / Y_SCALE * anchorH + anchorY;
+            float centerX = encodings[a * 4 + 1] / X_SCALE * anchorW + anchorX;
+            float h = (float) Math.exp(encodings[a * 4 + 2] / H_SCALE) * anchorH;
+            float w = (float) Math.exp(encodings[a * 4 + 3] / W_SCALE) * anchorW;
+            // 标签文件不含背景类
+            if (!nms.add(centerY - h / 2, centerX - w / 2, centerY + h / 2, centerX + w / 2, score, bestClass - 1)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 带后处理的模型中类别与分数形状相同：类别输出的有效值都是整数，且通常有大于 1 的值
+     */
+    private void resolveClassAndScoreOutputs() {
+        int count = Math.min((int) outputValues[countOutput][0], outputValues[scoresOutput].length);
+        if (count == 0) {
+            // 没有检测结果时无法判断，下一帧再试
+            return;
+        }
+        outputsResolved = true;
+        if (looksLikeClasses(outputValues[scoresOutput], count) && !looksLikeClasses(outputValues[classesOutput], count)) {
+            int swap = classesOutput;
+            classesOutput = scoresOutput;
+            scoresOutput = swap;
+        }
+    }
+
+    private static boolean looksLikeClasses(float[] values, int count) {
+        boolean aboveOne = false;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != (float) Math.floor(values[i])) {
+                return false;
+            }
+            aboveOne |= values[i] > 1;
+        }
+        return aboveOne;
+    }
+
+    private static float sigmoid(float x) {
+        return (float) (1 / (1 + Math.exp(-x)));
+    }
+
+    /**
+     * 按 MobileNet-SSD 的默认配置生成锚框（中心 y、x，高、宽，归一化）：
+     * 6 个特征层，步长 16..512，尺度 0.2..0.95，宽高比 1/2/0.5/3/0.33，最低层只用 3 个锚框
+     */
+    static float[] generateSsdAnchors(int inputWidth, int inputHeight) {
+        final int layers = 6;
+        final float minScale = 0.2f;
+        final float maxScale = 0.95f;
+        final int[] strides = {16, 32, 64, 128, 256, 512};
+        final float[] aspectRatios = {1f, 2f, 0.5f, 3f, 1f / 3f};
+
+        int total = 0;
+        for (int layer = 0; layer < layers; layer++) {
+            int rows = (int) Math.ceil((float) inputHeight / strides[layer]);
+            int columns = (int) Math.ceil((float) inputWidth / strides[layer]);
+            total += rows * columns * (layer == 0 ? 3 : aspectRatios.length + 1);
+        }
+
+        float[] anchors = new float[total * 4];
+        float[] heights = new float[aspectRatios.length + 1];
+        float[] widths = new float[aspectRatios.length + 1];
+        int index = 0;
+        for (int layer = 0; layer < layers; layer++) {
+            float scale = minScale + (maxScale - minScale) * layer / (layers - 1);
+            float nextScale = layer == layers - 1 ? 1f : minScale + (maxScale - minScale) * (layer + 1) / (layers - 1);
+            int perCell;
+            if (layer == 0) {
+                // 最低层：(0.1, 1), (scale, 2), (scale, 0.5)
+                perCell = 3;
+                setAnchorShape(heights, widths, 0, 0.1f, 1f);
+                setAnchorShape(heights, widths, 1, scale, 2f);
+                setAnchorShape(heights, widths, 2, scale, 0.5f);
+            } else {
+                perCell = aspectRatios.length + 1;
+                for (int r = 0; r < aspectRatios.length; r++) {
+                    setAnchorShape(heights, widths, r, scale, aspectRatios[r]);
+                }
+                // 插值尺度 sqrt(scale * nextScale)，宽高比 1
+                setAnchorShape(heights, widths, aspectRatios.length, (float) Math.sqrt(scale * nextScale), 1f);
+            }
+            int rows = (int) Math.ceil((float) inputHeight / strides[layer]);
+            int columns = (int) Math.ceil((float) inputWidth / strides[layer]);
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < columns; x++) {
+                    for (int k = 0; k < perCell; k++) {
+                        anchors[index++] = (y + 0.5f) / rows;
+                        anchors[index++] = (x + 0.5f) / columns;
+                        anchors[index++] = heights[k];
+                        anchors[index++] = widths[k];
+                    }
+                }
+            }
+        }
+        return anchors;
+    }
+
+    private static void setAnchorShape(float[] heights, float[] widths, int index, float scale, float aspectRatio) {
+        float ratio = (float) Math.sqrt(aspectRatio);
+        heights[index] = scale / ratio;
+        widths[index] = scale * ratio;
+    }
+
+    /**
+     * 释放对模型的引用
+     */
+    @Override
+    public void close() {
+        modelHandle.close();
+    }
+}
@@ -0,0 +1,195 @@
+package com.cj.mobile.myapplication.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: SceneCache
+ * @Description: 基于感知哈希的识别结果缓存，画面没有变化时跳过推理
+ * <p>
+ * 直接在 Y 平面上计算 64 位 dHash：把画面分成 9x8 个格子，每格稀疏采样 4x4 个亮度求平均，
+ * 比较每行相邻格子的明暗得到 64 个比特，不需要转 RGB，耗时在微秒级。
+ * 最近的若干个哈希及其结果保存在一个固定大小的 LRU 中，查找时线性比较汉明距离，小于阈值即命中，
+ * 所以镜头移开再回到同一个场景也能命中。条目超过最大存活时间后失效，避免场景细微变化后一直返回旧结果。
+ * 统计命中率和节省的推理时间（命中次数 x 未命中时的平均耗时）。线程安全，查找和写入不产生分配。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 17:50
+ */
+public class SceneCache<R> {
+    // dHash 的格子数：9 列 8 行，每行 8 个比较
+    private static final int GRID_COLUMNS = 9;
+    private static final int GRID_ROWS = 8;
+    // 每个格子内的采样点数（每个方向）
+    private static final int SAMPLES = 4;
+    // 平均耗时的滑动平均权重
+    private static final float SMOOTHING = 0.2f;
+
+    private final int maxDistance;
+    private final long maxAgeNanos;
+    private final long[] hashes;
+    private final long[] createdAt;
+    private final long[] lastUsed;
+    private final Object[] results;
+    private int size;
+    private long useClock;
+
+    private long hits;
+    private long misses;
+    private long savedNanos;
+    private long averageCostNanos = -1;
+
+    /**
+     * @param capacity    缓存的场景数
+     * @param maxDistance 汉明距离不超过该值视为同一场景（64 位中，通常 4~8）
+     * @param maxAgeMillis 条目的最大存活时间，0 表示不过期
+     */
+    public SceneCache(int capacity, int maxDistance, long maxAgeMillis) {
+        this.maxDistance = maxDistance;
+        this.maxAgeNanos = maxAgeMillis > 0 ? maxAgeMillis * 1_000_000L : Long.MAX_VALUE;
+        this.hashes = new long[capacity];
+        this.createdAt = new long[capacity];
+        this.lastUsed = new long[capacity];
+        this.results = new Object[capacity];
+    }
+
+    /**
+     * 计算帧的 dHash（传感器方向，与旋转无关，同一路相机的帧之间可以比较）
+     */
+    public static long hash(YuvFrame frame) {
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final int yRow = frame.getYRowStride();
+        final int yPix = frame.getYPixelStride();
+        final int left = frame.getCropLeft();
+        final int top = frame.getCropTop();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+
+        long hash = 0;
+        for (int row = 0; row < GRID_ROWS; row++) {
+            int previous = 0;
+            for (int column = 0; column < GRID_COLUMNS; column++) {
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    // 采样点取格子内均匀分布的位置
+                    int y = top + ((row * SAMPLES + sy) * 2 + 1) * height / (GRID_ROWS * SAMPLES * 2);
+                    int rowOffset = y * yRow;
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        int x = left + ((column * SAMPLES + sx) * 2 + 1) * width / (GRID_COLUMNS * SAMPLES * 2);
+                        sum += yBuf.get(rowOffset + x * yPix) & 0xFF;
+                    }
+                }
+                if (column > 0) {
+                    hash = (hash << 1) | (previous < sum ? 1 : 0);
+                }
+                previous = sum;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 查找相似场景的结果，未命中时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized R lookup(long hash, long nowNanos) {
+        int best = -1;
+        int bestDistance = maxDistance + 1;
+        for (int i = 0; i < size; i++) {
+            if (nowNanos - createdAt[i] > maxAgeNanos) {
+                continue;
+            }
+            int distance = Long.bitCount(hashes[i] ^ hash);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        if (best < 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (averageCostNanos > 0) {
+            savedNanos += averageCostNanos;
+        }
+        lastUsed[best] = ++useClock;
+        return (R) results[best];
+    }
+
+    /**
+     * 保存一次未命中后推理得到的结果
+     *
+     * @param costNanos 这次推理（被缓存跳过的那部分工作）的耗时，用于估计节省的时间
+     */
+    public synchronized void put(long hash, R result, long nowNanos, long costNanos) {
+        averageCostNanos = averageCostNanos < 0 ? costNanos
+                : (long) (averageCostNanos + SMOOTHING * (costNanos - averageCostNanos));
+
+        int slot = -1;
+        for (int i = 0; i < size; i++) {
+            // 同一场景（例如流水线中同时在途的两帧）只保留一条，用新结果覆盖
+            if (Long.bitCount(hashes[i] ^ hash) <= maxDistance) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot >= 0) {
+            // 覆盖已有条目
+        } else if (size < hashes.length) {
+            slot = size++;
+        } else {
+            // 优先替换过期的条目，否则替换最久未使用的
+            slot = 0;
+            for (int i = 0; i < size; i++) {
+                if (nowNanos - createdAt[i] > maxAgeNanos) {
+                    slot = i;
+                    break;
+                }
+                if (lastUsed[i] < lastUsed[slot]) {
+                    slot = i;
+                }
+            }
+        }
+        hashes[slot] = hash;
+        results[slot] = result;
+        createdAt[slot] = nowNanos;
+        lastUsed[slot] = ++useClock;
+    }
+
+    /**
+     * 模型或参数变化后清空，旧结果不再有效
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) {
+            results[i] = null;
+        }
+        size = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized float getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0f : (float) hits / total;
+    }
+
+    /**
+     * 命中所节省的推理时间（毫秒）
+     */
+    public synchronized long getSavedMillis() {
+        return savedNanos / 1_000_000L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("hits=%d misses=%d hitRate=%.1f%% saved=%dms",
+                hits, misses, getHitRate() * 100, getSavedMillis());
+    }
+}
@@ -0,0 +1,211 @@
+package com.cj.mobile.myapplication.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+import org.tensorflow.lite.support.image.ImageProcessor;
+import org.tensorflow.lite.support.image.TensorImage;
+import org.tensorflow.lite.support.image.ops.Rot90Op;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: SharedFrame
+ * @Description: 多个模型共用的一帧，引用计数，最后一个使用者释放后回到 FrameFanOut 的池中
+ * <p>
+ * 相机帧只转换一次成 ARGB（传感器方向），各模型需要的输入（转正的 TensorImage、缩放到模型尺寸的 Bitmap 等）
+ * 通过 {@link #getView} 按 key（输入几何）懒加载并缓存：同一帧上第一个需要的使用者负责生成，其余使用者直接复用。
+ * 不同 key 的视图可以由不同线程同时生成。视图为 Bitmap 时释放后还给 BitmapPool，为 AutoCloseable 时 close。
+ * 带预处理器的使用者的输入张量在分发前由 FrameFanOut 写好（{@link #getTensor}），缓冲区随帧复用。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 18:30
+ */
+public final class SharedFrame {
+    private static final String TAG = "SharedFrame";
+
+    private final FrameFanOut owner;
+    private final AtomicInteger refCount = new AtomicInteger();
+    // 视图 key -> 视图
+    private final Map<String, ViewSlot> views = new HashMap<>();
+    // 使用者名 -> 输入张量，只由 FrameFanOut.submit 写入，分发后只读
+    private final Map<String, ByteBuffer> tensors = new HashMap<>();
+    private final Canvas canvas = new Canvas();
+    private final Matrix matrix = new Matrix();
+    // 缩放时双线性过滤，null Paint 为最近邻采样，缩小时锯齿明显
+    private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    Bitmap bitmap;
+    int rotation;
+    long timestamp;
+    long sceneHash;
+    long admitted = FrameScheduler.REJECTED;
+
+    SharedFrame(FrameFanOut owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * 生成某种输入视图，在第一个请求该视图的使用者线程上执行
+     */
+    public interface ViewFactory<V> {
+        V create(SharedFrame frame);
+    }
+
+    /**
+     * 传感器方向的 ARGB 图像，使用者只读
+     */
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * 相机给出的帧时间（纳秒）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 转换前从 Y 平面算出的场景哈希，用于 {@link SceneCache}
+     */
+    public long getSceneHash() {
+        return sceneHash;
+    }
+
+    /**
+     * FrameFanOut 为这个使用者生成的输入张量（已 rewind），没有为它注册预处理器时为 null
+     */
+    public ByteBuffer getTensor(String consumerName) {
+        ByteBuffer tensor = tensors.get(consumerName);
+        if (tensor != null) {
+            tensor.rewind();
+        }
+        return tensor;
+    }
+
+    /**
+     * 这个使用者的输入张量缓冲区，第一次使用时分配
+     */
+    ByteBuffer tensor(String consumerName, int bytes) {
+        ByteBuffer tensor = tensors.get(consumerName);
+        if (tensor == null || tensor.capacity() != bytes) {
+            tensor = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+            tensors.put(consumerName, tensor);
+        }
+        return tensor;
+    }
+
+    /**
+     * 获取（必要时生成）指定 key 的视图
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V getView(String key, ViewFactory<V> factory) {
+        ViewSlot slot;
+        synchronized (views) {
+            slot = views.get(key);
+            if (slot == null) {
+                slot = new ViewSlot();
+                views.put(key, slot);
+            }
+        }
+        synchronized (slot) {
+            if (slot.value == null) {
+                slot.value = factory.create(this);
+            }
+            return (V) slot.value;
+        }
+    }
+
+    /**
+     * 转正后的 TensorImage，Task 库的分类器和检测器共用（各自再缩放到模型尺寸）
+     */
+    public TensorImage getUprightImage() {
+        return getView("upright", frame -> new ImageProcessor.Builder()
+                .add(new Rot90Op(-frame.rotation / 90))
+                .build()
+                .process(TensorImage.fromBitmap(frame.bitmap)));
+    }
+
+    /**
+     * 转正并缩放到指定尺寸的 Bitmap（来自 BitmapPool），适用于直接使用 Interpreter 的模型
+     */
+    public Bitmap getScaledBitmap(int width, int height) {
+        return getView("scaled:" + width + "x" + height, frame -> {
+            Bitmap scaled = BitmapPool.getInstance().get(width, height, Bitmap.Config.ARGB_8888);
+            boolean swap = frame.rotation % 180 != 0;
+            float sourceWidth = swap ? frame.bitmap.getHeight() : frame.bitmap.getWidth();
+            float sourceHeight = swap ? frame.bitmap.getWidth() : frame.bitmap.getHeight();
+            synchronized (canvas) {
+                // 绕中心旋转后缩放到目标尺寸
+                matrix.setTranslate(-frame.bitmap.getWidth() / 2f, -frame.bitmap.getHeight() / 2f);
+                matrix.postRotate(frame.rotation);
+                matrix.postScale(width / sourceWidth, height / sourceHeight);
+                matrix.postTranslate(width / 2f, height / 2f);
+                canvas.setBitmap(scaled);
+                canvas.drawBitmap(frame.bitmap, matrix, scalePaint);
+                canvas.setBitmap(null);
+            }
+            return scaled;
+        });
+    }
+
+    /**
+     * 增加一个使用者
+     */
+    public void retain() {
+        refCount.incrementAndGet();
+    }
+
+    /**
+     * 使用者用完后调用，最后一个释放时清理视图并把帧还给池
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count > 0) {
+            return;
+        }
+        if (count < 0) {
+            throw new IllegalStateException("SharedFrame released too many times");
+        }
+        synchronized (views) {
+            for (ViewSlot slot : views.values()) {
+                recycleView(slot.value);
+            }
+            views.clear();
+        }
+        owner.recycle(this);
+    }
+
+    private static void recycleView(Object view) {
+        if (view instanceof Bitmap) {
+            BitmapPool.getInstance().put((Bitmap) view);
+        } else if (view instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) view).close();
+            } catch (Exception e) {
+                Log.w(TAG, "Close view failed: " + e.getMessage());
+            }
+        }
+    }
+
+    void reset(int count) {
+        refCount.set(count);
+    }
+
+    private static final class ViewSlot {
+        Object value;
+    }
+}
@@ -0,0 +1,197 @@
+package com.cj.mobile.myapplication.util;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.camera.lifecycle.ProcessCameraProvider;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.opencv.android.OpenCVLoader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: StartupOrchestrator
+ * @Description: 应用启动编排，在后台预热 OpenCV、模型和相机
+ * <p>
+ * Application 启动后在后台线程依次完成：
+ * 1、加载 OpenCV 的 native 库（只加载一次，页面不再各自调用 initDebug）；
+ * 2、提前获取 ProcessCameraProvider；
+ * 3、映射常用模型，对需要 Interpreter 的模型按 InferenceTuner 的配置创建并空跑一次，放入 ModelRegistry 缓存；
+ * 4、最后再让 InferenceTuner 测量尚无结果的模型，避免和预热抢占 CPU。
+ * 各项准备都以 CompletableFuture 的形式暴露，页面等待对应的 future 即可。
+ * 同时记录各页面从 onCreate 到第一个结果的耗时（冷启动时另记从进程启动算起的耗时）。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 16:50
+ */
+public class StartupOrchestrator {
+    private static final String TAG = "StartupOrchestrator";
+    private static volatile StartupOrchestrator instance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, TAG));
+    private final CompletableFuture<Boolean> openCvReady = new CompletableFuture<>();
+    private final CompletableFuture<ProcessCameraProvider> cameraProvider = new CompletableFuture<>();
+    // 模型路径 -> 预热完成
+    private final Map<String, CompletableFuture<Void>> modelReady = new HashMap<>();
+    // 预热时使用的默认配置，为 null 时只映射文件（Task 库的模型）
+    private final Map<String, ModelRegistry.Options> prewarmModels = new HashMap<>();
+    private final List<String> prewarmOrder = new ArrayList<>();
+    private boolean started;
+
+    // 页面 -> onCreate 时间
+    private final Map<String, Long> screenStarts = new HashMap<>();
+    // 进程启动后是否已经有页面给出过结果
+    private boolean firstResultReported;
+
+    public static StartupOrchestrator getInstance() {
+        if (instance == null) {
+            synchronized (StartupOrchestrator.class) {
+                if (instance == null) {
+                    instance = new StartupOrchestrator();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 预热一个直接使用 Interpreter 的模型，start 之前调用
+     *
+     * @param fallback 与使用方一致的默认配置（InferenceTuner 没有结果时使用），保证命中同一个缓存
+     */
+    public synchronized StartupOrchestrator prewarmInterpreter(String modelPath, ModelRegistry.Options fallback) {
+        addPrewarm(modelPath, fallback);
+        return this;
+    }
+
+    /**
+     * 只预先映射模型文件（Task 库自己创建 Interpreter），start 之前调用
+     */
+    public synchronized StartupOrchestrator prewarmBuffer(String modelPath) {
+        addPrewarm(modelPath, null);
+        return this;
+    }
+
+    private void addPrewarm(String modelPath, ModelRegistry.Options fallback) {
+        if (started) {
+            throw new IllegalStateException("Startup already running");
+        }
+        if (!prewarmOrder.contains(modelPath)) {
+            prewarmOrder.add(modelPath);
+        }
+        prewarmModels.put(modelPath, fallback);
+        modelReady.put(modelPath, new CompletableFuture<>());
+    }
+
+    /**
+     * 开始后台预热，只有第一次调用生效
+     */
+    public synchronized void start(Context context) {
+        if (started) {
+            return;
+        }
+        started = true;
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> loadOpenCv());
+        executor.execute(() -> requestCameraProvider(appContext));
+        for (String modelPath : prewarmOrder) {
+            executor.execute(() -> prewarm(appContext, modelPath, prewarmModels.get(modelPath)));
+        }
+        executor.execute(() -> InferenceTuner.getInstance().tuneMissingAsync(prewarmOrder.toArray(new String[0])));
+    }
+
+    /**
+     * OpenCV 加载结果，true 表示加载成功
+     */
+    public CompletableFuture<Boolean> getOpenCvReady() {
+        return openCvReady;
+    }
+
+    public CompletableFuture<ProcessCameraProvider> getCameraProvider() {
+        return cameraProvider;
+    }
+
+    /**
+     * 模型预热完成（失败也算完成，使用方会自行加载），没有登记预热的模型直接返回已完成的 future
+     */
+    public synchronized CompletableFuture<Void> getModelReady(String modelPath) {
+        CompletableFuture<Void> future = modelReady.get(modelPath);
+        return future != null ? future : CompletableFuture.completedFuture(null);
+    }
+
+    private void loadOpenCv() {
+        long start = SystemClock.elapsedRealtime();
+        boolean loaded = OpenCVLoader.initDebug();
+        Log.i(TAG, "OpenCV loaded=" + loaded + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        openCvReady.complete(loaded);
+    }
+
+    private void requestCameraProvider(Context context) {
+        long start = SystemClock.elapsedRealtime();
+        ListenableFuture<ProcessCameraProvider> future = ProcessCameraProvider.getInstance(context);
+        future.addListener(() -> {
+            try {
+                cameraProvider.complete(future.get());
+                Log.i(TAG, "Camera provider ready in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            } catch (Exception e) {
+                cameraProvider.completeExceptionally(e);
+            }
+        }, Runnable::run);
+    }
+
+    private void prewarm(Context context, String modelPath, ModelRegistry.Options fallback) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            if (fallback == null) {
+                ModelRegistry.getInstance().getModelBuffer(context.getAssets(), modelPath);
+            } else {
+                ModelRegistry.Options options = InferenceTuner.getInstance().getOptions(modelPath, fallback);
+                // 引用在预热后立即释放，Interpreter 留在 ModelRegistry 中等待页面 acquire
+                try (ModelRegistry.Handle handle = ModelRegistry.getInstance().acquire(context.getAssets(), modelPath, options)) {
+                    InferenceTuner.warmUp(handle.getInterpreter());
+                }
+            }
+            Log.i(TAG, "Prewarmed " + modelPath + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Prewarm " + modelPath + " failed: " + e.getMessage());
+        }
+        getModelReady(modelPath).complete(null);
+    }
+
+    /**
+     * 页面开始（onCreate）
+     */
+    public synchronized void markScreenStart(String screen) {
+        screenStarts.put(screen, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * 页面给出第一个结果，每次 markScreenStart 之后只记录一次
+     */
+    public synchronized void markFirstResult(String screen) {
+        Long start = screenStarts.remove(screen);
+        if (start == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (!firstResultReported) {
+            firstResultReported = true;
+            Log.i(TAG, "TTFR " + screen + " cold: " + (now - start) + "ms since onCreate, "
+                    + (now - Process.getStartElapsedRealtime()) + "ms since process start");
+        } else {
+            Log.i(TAG, "TTFR " + screen + " warm: " + (now - start) + "ms since onCreate");
+        }
+    }
+}
@@ -7,12 +7,10 @@ import android.graphics.Color;
 
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.support.common.FileUtil;
 import org.tensorflow.lite.support.image.TensorImage;
 import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
 
 /**
  * @ProjectName: TensorFlowAndroid
@@ -25,14 +23,23 @@ import java.nio.MappedByteBuffer;
 
 public class TfLiteModel {
 
+    private final ModelRegistry.Handle modelHandle;
     private Interpreter tflite;
     private int inputSize;
 
     public TfLiteModel(Context context, String modelPath, int inputSize) throws IOException {
         this.inputSize = inputSize;
-        // Load the TensorFlow Lite model.
-        MappedByteBuffer tfliteModel = FileUtil.loadMappedFile(context, modelPath);
-        this.tflite = new Interpreter(tfliteModel);
+        // Load the TensorFlow Lite model (shared through ModelRegistry).
+        ModelRegistry.Options options = InferenceTuner.getInstance().getOptions(modelPath, ModelRegistry.Options.DEFAULT);
+        this.modelHandle = ModelRegistry.getInstance().acquire(context.getAssets(), modelPath, options);
+        this.tflite = modelHandle.getInterpreter();
+    }
+
+    /**
+     * 释放对模型的引用
+     */
+    public void close() {
+        modelHandle.close();
     }
 
     // Preprocess the image to be of the shape expected by the model.
@@ -67,8 +74,10 @@ public class TfLiteModel {
         // Create an output buffer
         TensorBuffer outputBuffer = TensorBuffer.createFixedSize(new int[]{1, getLabelCount()}, DataType.FLOAT32);
 
-        // Run inference
-        tflite.run(tensorImage.getBuffer(), outputBuffer.getBuffer());
+        // Run inference（Interpreter 由 ModelRegistry 共享，以它为锁串行调用）
+        synchronized (tflite) {
+            tflite.run(tensorImage.getBuffer(), outputBuffer.getBuffer());
+        }
 
         // Get the results
         float[][] results = new float[1][getLabelCount()];
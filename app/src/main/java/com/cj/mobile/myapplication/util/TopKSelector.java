@@ -0,0 +1,222 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.ClassificationResult;
+
+import java.util.Arrays;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: TopKSelector
+ * @Description: 分类输出的后处理：反量化 + 可选 softmax + 阈值 + 前 K 个选择，一次遍历完成
+ * <p>
+ * 直接在 float[] 或量化的 byte[] 输出上工作，不装箱、不对全部类别排序：
+ * 遍历时用容量为 K 的小顶堆（下标和分数就存放在 ClassificationResult 的数组里）保留分数最高的 K 个，
+ * 最后对这 K 个做堆排序得到从高到低的顺序。
+ * 量化输出在原始整数上比较（反量化是单调的），只对选中的 K 个反量化；
+ * softmax 用在线算法在同一次遍历中求最大值和分母（量化输出则统计 256 个取值的直方图），
+ * 同样只对选中的 K 个计算概率。阈值作用于最终分数（开启 softmax 时为概率）。
+ * 实例持有直方图等临时数组，非线程安全，每个分类器持有一个；稳定状态下不产生堆分配。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 18:10
+ */
+public class TopKSelector {
+    // 量化值的直方图（按无符号下标），用于计算 softmax 的分母
+    private final int[] histogram = new int[256];
+
+    /**
+     * float 输出
+     *
+     * @param values    分数（softmax 为 true 时是 logits）
+     * @param count     类别数（values 中前 count 个有效）
+     * @param softmax   是否先做 softmax
+     * @param threshold 最终分数的下限
+     * @param out       结果，最多保留 out.capacity() 个
+     */
+    public void select(float[] values, int count, boolean softmax, float threshold, ClassificationResult out) {
+        int[] ids = out.ids();
+        float[] scores = out.scores();
+        int capacity = out.capacity();
+        // 不做 softmax 时阈值直接用于过滤
+        float floor = softmax ? Float.NEGATIVE_INFINITY : threshold;
+        float max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            float value = values[i];
+            if (softmax) {
+                // 在线 softmax：最大值变化时按比例缩小已有的分母
+                if (value > max) {
+                    sum = sum * Math.exp(max - value) + 1;
+                    max = value;
+                } else {
+                    sum += Math.exp(value - max);
+                }
+            }
+            if (value < floor) {
+                continue;
+            }
+            size = offer(ids, scores, capacity, size, i, value);
+        }
+        sortDescending(ids, scores, size);
+
+        if (softmax) {
+            for (int i = 0; i < size; i++) {
+                float probability = (float) (Math.exp(scores[i] - max) / sum);
+                if (probability < threshold) {
+                    // 已按从高到低排列，后面的都低于阈值
+                    size = i;
+                    break;
+                }
+                scores[i] = probability;
+            }
+        }
+        out.setSize(size);
+    }
+
+    /**
+     * 量化输出（UINT8 或 INT8），分数 = (q - zeroPoint) * scale
+     *
+     * @param values    量化后的分数（softmax 为 true 时是 logits）
+     * @param count     类别数（values 中前 count 个有效）
+     * @param unsigned  true 为 UINT8，false 为 INT8
+     * @param scale     量化比例，必须大于 0
+     * @param zeroPoint 量化零点
+     * @param softmax   是否先做 softmax
+     * @param threshold 最终分数的下限
+     * @param out       结果，最多保留 out.capacity() 个
+     */
+    public void select(byte[] values, int count, boolean unsigned, float scale, int zeroPoint,
+                       boolean softmax, float threshold, ClassificationResult out) {
+        int[] ids = out.ids();
+        float[] scores = out.scores();
+        int capacity = out.capacity();
+        int offset = unsigned ? 0 : 128;
+        // 不做 softmax 时把阈值换算成量化值，在整数上过滤
+        int floor = softmax ? Integer.MIN_VALUE : quantizedFloor(threshold, scale, zeroPoint, -offset, 255 - offset);
+        if (softmax) {
+            Arrays.fill(histogram, 0);
+        }
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int q = unsigned ? values[i] & 0xFF : values[i];
+            if (softmax) {
+                histogram[q + offset]++;
+            }
+            if (q < floor) {
+                continue;
+            }
+            size = offer(ids, scores, capacity, size, i, q);
+        }
+        sortDescending(ids, scores, size);
+
+        if (softmax) {
+            // 分母 = sum(count[q] * exp((q - max) * scale))，只需 256 次 exp
+            int top = histogram.length - 1;
+            while (top > 0 && histogram[top] == 0) {
+                top--;
+            }
+            double sum = 0;
+            for (int v = 0; v <= top; v++) {
+                if (histogram[v] != 0) {
+                    sum += histogram[v] * Math.exp((v - top) * (double) scale);
+                }
+            }
+            int max = top - offset;
+            for (int i = 0; i < size; i++) {
+                float probability = (float) (Math.exp((scores[i] - max) * (double) scale) / sum);
+                if (probability < threshold) {
+                    size = i;
+                    break;
+                }
+                scores[i] = probability;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                scores[i] = (scores[i] - zeroPoint) * scale;
+            }
+        }
+        out.setSize(size);
+    }
+
+    /**
+     * 反量化后不低于 threshold 的最小量化值（都不满足时为 max + 1）
+     * <p>
+     * threshold / scale 的舍入可能让 ceil 多进一位，把正好等于阈值的分数过滤掉，
+     * 因此在估计值附近用与输出相同的反量化表达式 (q - zeroPoint) * scale 校正
+     */
+    private static int quantizedFloor(float threshold, float scale, int zeroPoint, int min, int max) {
+        int q = (int) Math.max(min, Math.min(max + 1, Math.ceil(threshold / scale + zeroPoint)));
+        while (q > min && (q - 1 - zeroPoint) * scale >= threshold) {
+            q--;
+        }
+        while (q <= max && (q - zeroPoint) * scale < threshold) {
+            q++;
+        }
+        return q;
+    }
+
+    /**
+     * 向容量为 capacity 的小顶堆加入一个候选，返回新的堆大小
+     */
+    private static int offer(int[] ids, float[] scores, int capacity, int size, int id, float score) {
+        if (size < capacity) {
+            // 上浮
+            int pos = size;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                ids[pos] = ids[parent];
+                scores[pos] = scores[parent];
+                pos = parent;
+            }
+            ids[pos] = id;
+            scores[pos] = score;
+            return size + 1;
+        }
+        if (capacity == 0 || score <= scores[0]) {
+            return size;
+        }
+        siftDown(ids, scores, size, id, score);
+        return size;
+    }
+
+    /**
+     * 用新元素替换堆顶并下沉
+     */
+    private static void siftDown(int[] ids, float[] scores, int size, int id, float score) {
+        int pos = 0;
+        while (true) {
+            int child = pos * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && scores[child + 1] < scores[child]) {
+                child++;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            ids[pos] = ids[child];
+            scores[pos] = scores[child];
+            pos = child;
+        }
+        ids[pos] = id;
+        scores[pos] = score;
+    }
+
+    /**
+     * 小顶堆原地排序：依次把堆顶（最小值）换到末尾，结果从高到低
+     */
+    private static void sortDescending(int[] ids, float[] scores, int size) {
+        for (int end = size - 1; end > 0; end--) {
+            int minId = ids[0];
+            float minScore = scores[0];
+            siftDown(ids, scores, end, ids[end], scores[end]);
+            ids[end] = minId;
+            scores[end] = minScore;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.cj.mobile.myapplication.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: VisionPipeline
+ * @Description: 分阶段的视觉流水线（采集 -> 转换 -> 预处理 -> 推理 -> 后处理 -> 发布）
+ * <p>
+ * 采集在调用方线程（相机分析线程）完成：obtain 取一个空闲帧，填好后 submit。其余每个阶段运行在各自的线程上，
+ * 相邻阶段之间是容量为 1 的单生产者/单消费者槽位，下游忙时新帧覆盖旧帧（丢弃最旧的），因此第 N+1 帧可以在
+ * 第 N 帧推理的同时完成转换，也不会堆积延迟。帧对象在 start 时一次性创建（阶段数 * 2 + 1 个）并循环使用，
+ * 帧被丢弃或发布完成后调用 {@link Frame#recycle()} 释放外部资源（例如关闭 ImageProxy）。
+ * <p>
+ * 每个阶段统计处理帧数、忙碌时间和在其输入槽位被覆盖的帧数，每发布 reportEvery 帧输出一次各阶段的占用率，
+ * 占用率接近 100% 或丢帧最多的阶段就是瓶颈。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 15:20
+ */
+public class VisionPipeline<F extends VisionPipeline.Frame> implements Closeable {
+    private static final String TAG = "VisionPipeline";
+
+    /**
+     * 在流水线中循环使用的帧
+     */
+    public interface Frame {
+        /**
+         * 帧被丢弃或处理完成后调用，释放本帧持有的外部资源，之后会重新进入空闲队列
+         */
+        void recycle();
+    }
+
+    /**
+     * 流水线的一个阶段，只会在该阶段自己的线程上被调用
+     */
+    public interface Stage<F> {
+        /**
+         * @return false 表示丢弃该帧，不再交给后续阶段
+         */
+        boolean process(F frame) throws Exception;
+    }
+
+    private final String name;
+    private final Supplier<F> frameFactory;
+    private final int reportEvery;
+    private final List<StageRunner> stages = new ArrayList<>();
+    private final StageStats acquireStats = new StageStats("acquire");
+    private ArrayBlockingQueue<F> freeFrames;
+    private volatile boolean running;
+
+    // 采集阶段的计时（只在调用方线程访问）
+    private long acquireStart;
+    // 占用率统计窗口（只在最后一个阶段的线程访问）
+    private int published;
+    private long windowStart;
+
+    /**
+     * @param name         线程名和日志前缀
+     * @param frameFactory 创建帧对象，只在 start 时调用
+     * @param reportEvery  每发布多少帧输出一次占用率，0 表示不输出
+     */
+    public VisionPipeline(String name, Supplier<F> frameFactory, int reportEvery) {
+        this.name = name;
+        this.frameFactory = frameFactory;
+        this.reportEvery = reportEvery;
+    }
+
+    /**
+     * 追加一个阶段，必须在 start 之前调用
+     */
+    public VisionPipeline<F> addStage(String stageName, Stage<F> stage) {
+        if (freeFrames != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        stages.add(new StageRunner(stageName, stage));
+        return this;
+    }
+
+    public synchronized void start() {
+        if (freeFrames != null) {
+            return;
+        }
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline has no stages");
+        }
+        // 每个阶段最多处理中 1 帧、输入槽位 1 帧，另加调用方正在填充的 1 帧
+        int frameCount = stages.size() * 2 + 1;
+        freeFrames = new ArrayBlockingQueue<>(frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            freeFrames.add(frameFactory.get());
+        }
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+        }
+        running = true;
+        windowStart = SystemClock.elapsedRealtimeNanos();
+        for (StageRunner stage : stages) {
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * 取一个空闲帧，所有帧都在流水线中时返回 null（调用方应直接丢弃当前图像）
+     */
+    public F obtain() {
+        F frame = running ? freeFrames.poll() : null;
+        if (frame == null) {
+            acquireStats.drops++;
+        } else {
+            acquireStart = SystemClock.elapsedRealtimeNanos();
+        }
+        return frame;
+    }
+
+    /**
+     * 把填好的帧交给第一个阶段
+     */
+    public void submit(F frame) {
+        acquireStats.busyNanos += SystemClock.elapsedRealtimeNanos() - acquireStart;
+        acquireStats.frames++;
+        if (!running) {
+            release(frame);
+            return;
+        }
+        stages.get(0).input.put(frame);
+    }
+
+    /**
+     * 放弃一个已 obtain 但不打算提交的帧
+     */
+    public void discard(F frame) {
+        release(frame);
+    }
+
+    private void release(F frame) {
+        try {
+            frame.recycle();
+        } finally {
+            freeFrames.offer(frame);
+        }
+    }
+
+    /**
+     * 输出上次报告以来各阶段的占用率和丢帧数，并开始新的统计窗口
+     */
+    public String report() {
+        long now = SystemClock.elapsedRealtimeNanos();
+        long window = Math.max(1, now - windowStart);
+        StringBuilder builder = new StringBuilder(name);
+        builder.append(String.format(" fps=%.1f", published * 1e9 / window));
+        acquireStats.appendTo(builder, window);
+        for (StageRunner stage : stages) {
+            stage.stats.appendTo(builder, window);
+        }
+        published = 0;
+        windowStart = now;
+        return builder.toString();
+    }
+
+    private void onPublished() {
+        if (reportEvery > 0 && ++published >= reportEvery) {
+            Log.i(TAG, report());
+        }
+    }
+
+    /**
+     * 停止所有阶段线程，等待正在处理的帧完成，并回收槽位中剩余的帧
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        for (StageRunner stage : stages) {
+            LockSupport.unpark(stage.thread);
+        }
+        for (StageRunner stage : stages) {
+            try {
+                stage.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (StageRunner stage : stages) {
+            F frame = stage.input.frame.getAndSet(null);
+            if (frame != null) {
+                release(frame);
+            }
+        }
+    }
+
+    /**
+     * 单生产者/单消费者槽位，容量为 1，满时新帧覆盖旧帧
+     */
+    private final class Slot {
+        final AtomicReference<F> frame = new AtomicReference<>();
+        final StageStats stats;
+        Thread consumer;
+
+        Slot(StageStats stats) {
+            this.stats = stats;
+        }
+
+        void put(F newFrame) {
+            F old = frame.getAndSet(newFrame);
+            if (old != null) {
+                // 下游还没取走上一帧，丢弃最旧的
+                stats.drops++;
+                release(old);
+            }
+            LockSupport.unpark(consumer);
+        }
+
+        F take() {
+            F taken;
+            while ((taken = frame.getAndSet(null)) == null) {
+                if (!running) {
+                    return null;
+                }
+                LockSupport.park(this);
+            }
+            return taken;
+        }
+    }
+
+    private final class StageRunner implements Runnable {
+        final Stage<F> stage;
+        final StageStats stats;
+        final Slot input;
+        final Thread thread;
+        StageRunner next;
+
+        StageRunner(String stageName, Stage<F> stage) {
+            this.stage = stage;
+            this.stats = new StageStats(stageName);
+            this.input = new Slot(stats);
+            this.thread = new Thread(this, name + "-" + stageName);
+            this.input.consumer = thread;
+        }
+
+        @Override
+        public void run() {
+            F frame;
+            while ((frame = input.take()) != null) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                boolean keep;
+                try {
+                    keep = stage.process(frame);
+                } catch (Exception e) {
+                    Log.e(TAG, name + "-" + stats.name + " failed", e);
+                    keep = false;
+                }
+                stats.busyNanos += SystemClock.elapsedRealtimeNanos() - start;
+                stats.frames++;
+
+                if (keep && next != null) {
+                    next.input.put(frame);
+                } else {
+                    release(frame);
+                    if (keep) {
+                        onPublished();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 单个阶段的累计统计，每个字段只有一个线程写
+     */
+    private static final class StageStats {
+        final String name;
+        volatile long frames;
+        volatile long busyNanos;
+        volatile long drops;
+        // 上次报告时的值
+        long lastFrames;
+        long lastBusyNanos;
+        long lastDrops;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void appendTo(StringBuilder builder, long windowNanos) {
+            long frames = this.frames;
+            long busyNanos = this.busyNanos;
+            long drops = this.drops;
+            long count = frames - lastFrames;
+            long busy = busyNanos - lastBusyNanos;
+            builder.append(String.format(" | %s %d%% %.1fms drop=%d", name,
+                    busy * 100 / windowNanos,
+                    count > 0 ? busy / 1e6 / count : 0.0,
+                    drops - lastDrops));
+            lastFrames = frames;
+            lastBusyNanos = busyNanos;
+            lastDrops = drops;
+        }
+    }
+}
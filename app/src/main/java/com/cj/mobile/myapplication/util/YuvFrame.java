@@ -0,0 +1,137 @@
+package com.cj.mobile.myapplication.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: YuvFrame
+ * @Description: YUV_420_888 帧描述（三个平面 + 行跨度/像素跨度），不依赖 Android 类，可在普通 JVM 上用合成数据构造
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 9:10
+ */
+public final class YuvFrame {
+    // 有效区域宽高（对应 Image.getCropRect()）
+    private int width;
+    private int height;
+    // 有效区域在平面中的起点（Y 平面坐标，U/V 平面按 1/2 计算）
+    private int cropLeft;
+    private int cropTop;
+
+    private ByteBuffer yBuffer;
+    private int yRowStride;
+    private int yPixelStride;
+
+    private ByteBuffer uBuffer;
+    private int uRowStride;
+    private int uPixelStride;
+
+    private ByteBuffer vBuffer;
+    private int vRowStride;
+    private int vPixelStride;
+
+    /**
+     * 复用同一个对象描述每一帧，只替换引用，不做任何拷贝
+     */
+    public YuvFrame set(int width, int height,
+                        ByteBuffer yBuffer, int yRowStride, int yPixelStride,
+                        ByteBuffer uBuffer, int uRowStride, int uPixelStride,
+                        ByteBuffer vBuffer, int vRowStride, int vPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.cropLeft = 0;
+        this.cropTop = 0;
+        this.yBuffer = yBuffer;
+        this.yRowStride = yRowStride;
+        this.yPixelStride = yPixelStride;
+        this.uBuffer = uBuffer;
+        this.uRowStride = uRowStride;
+        this.uPixelStride = uPixelStride;
+        this.vBuffer = vBuffer;
+        this.vRowStride = vRowStride;
+        this.vPixelStride = vPixelStride;
+        return this;
+    }
+
+    /**
+     * 设置裁剪区域，宽高即输出尺寸
+     */
+    public YuvFrame setCrop(int left, int top, int width, int height) {
+        this.cropLeft = left;
+        this.cropTop = top;
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCropLeft() {
+        return cropLeft;
+    }
+
+    public int getCropTop() {
+        return cropTop;
+    }
+
+    public ByteBuffer getYBuffer() {
+        return yBuffer;
+    }
+
+    public int getYRowStride() {
+        return yRowStride;
+    }
+
+    public int getYPixelStride() {
+        return yPixelStride;
+    }
+
+    public ByteBuffer getUBuffer() {
+        return uBuffer;
+    }
+
+    public int getURowStride() {
+        return uRowStride;
+    }
+
+    public int getUPixelStride() {
+        return uPixelStride;
+    }
+
+    public ByteBuffer getVBuffer() {
+        return vBuffer;
+    }
+
+    public int getVRowStride() {
+        return vRowStride;
+    }
+
+    public int getVPixelStride() {
+        return vPixelStride;
+    }
+
+    /**
+     * 读取有效区域内 (x, y) 处的亮度值
+     */
+    public int luma(int x, int y) {
+        return yBuffer.get((cropTop + y) * yRowStride + (cropLeft + x) * yPixelStride) & 0xFF;
+    }
+
+    /**
+     * 按 ARGB 读取有效区域内 (x, y) 处的像素
+     */
+    public int argb(int x, int y) {
+        int cx = (cropLeft + x) >> 1;
+        int cy = (cropTop + y) >> 1;
+        return YuvToArgbEngine.yuvToArgb(
+                luma(x, y),
+                uBuffer.get(cy * uRowStride + cx * uPixelStride) & 0xFF,
+                vBuffer.get(cy * vRowStride + cx * vPixelStride) & 0xFF);
+    }
+}
@@ -0,0 +1,233 @@
+package com.cj.mobile.myapplication.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: YuvTensorPreprocessor
+ * @Description: YUV 直接生成模型输入张量，不经过 Bitmap
+ * <p>
+ * 一次遍历完成：旋转（0/90/180/270）、可选镜像、双线性缩放到模型尺寸、YUV 转 RGB、
+ * 均值/方差归一化（FLOAT32）或直接写 0..255（UINT8）/ -128..127（INT8），结果写入复用的 direct ByteBuffer，
+ * 可直接交给 Interpreter.run。亮度做双线性插值，色度取最近的采样点。
+ * <p>
+ * 坐标查找表只在源尺寸、旋转或镜像变化时重建，稳定状态下每帧不分配内存。非线程安全。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 10:05
+ */
+public class YuvTensorPreprocessor {
+    public static final int OUTPUT_FLOAT32 = 0;
+    public static final int OUTPUT_UINT8 = 1;
+    public static final int OUTPUT_INT8 = 2;
+
+    // 定点插值权重的精度（8 位）
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    private final int outputWidth;
+    private final int outputHeight;
+    private final int outputType;
+    // 归一化查找表：normalized[c] = (c - mean) / std
+    private final float[] normalized = new float[256];
+    private final ByteBuffer inputBuffer;
+
+    // 当前查找表对应的几何参数
+    private int lutSourceWidth = -1;
+    private int lutSourceHeight = -1;
+    private int lutRotation = -1;
+    private boolean lutMirror;
+    private boolean swapAxes;
+    // 输出列/行对应的源坐标（整数部分）和插值权重（0..256）
+    private int[] colIndex;
+    private int[] colWeight;
+    private int[] rowIndex;
+    private int[] rowWeight;
+
+    public YuvTensorPreprocessor(int outputWidth, int outputHeight, int outputType, float mean, float std) {
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.outputType = outputType;
+        for (int i = 0; i < 256; i++) {
+            normalized[i] = (i - mean) / std;
+        }
+        int bytesPerChannel = outputType == OUTPUT_FLOAT32 ? 4 : 1;
+        inputBuffer = ByteBuffer.allocateDirect(outputWidth * outputHeight * 3 * bytesPerChannel);
+        inputBuffer.order(ByteOrder.nativeOrder());
+    }
+
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    public int getOutputType() {
+        return outputType;
+    }
+
+    /**
+     * 单张输入张量的字节数
+     */
+    public int getTensorBytes() {
+        return inputBuffer.capacity();
+    }
+
+    /**
+     * 处理一帧并写入内部复用的缓冲区
+     *
+     * @param rotationDegrees 需要把帧顺时针旋转多少度才是正向（ImageInfo.getRotationDegrees()）
+     * @param mirror          正向图像是否水平镜像（前置摄像头）
+     * @return 已 rewind 的输入缓冲区
+     */
+    public ByteBuffer process(YuvFrame frame, int rotationDegrees, boolean mirror) {
+        process(frame, rotationDegrees, mirror, inputBuffer, 0);
+        inputBuffer.rewind();
+        return inputBuffer;
+    }
+
+    /**
+     * 处理一帧并从 byteOffset 开始写入调用方的缓冲区（使用绝对位置写入，不改变 position）
+     */
+    public void process(YuvFrame frame, int rotationDegrees, boolean mirror, ByteBuffer out, int byteOffset) {
+        ensureLookupTables(frame.getWidth(), frame.getHeight(), rotationDegrees, mirror);
+
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final ByteBuffer uBuf = frame.getUBuffer();
+        final ByteBuffer vBuf = frame.getVBuffer();
+        final int yRow = frame.getYRowStride();
+        final int yPix = frame.getYPixelStride();
+        final int uRow = frame.getURowStride();
+        final int uPix = frame.getUPixelStride();
+        final int vRow = frame.getVRowStride();
+        final int vPix = frame.getVPixelStride();
+        final int left = frame.getCropLeft();
+        final int top = frame.getCropTop();
+        final int maxX = frame.getWidth() - 1;
+        final int maxY = frame.getHeight() - 1;
+        final boolean quantized = outputType != OUTPUT_FLOAT32;
+        final int zeroShift = outputType == OUTPUT_INT8 ? 128 : 0;
+
+        int index = byteOffset;
+        for (int oy = 0; oy < outputHeight; oy++) {
+            for (int ox = 0; ox < outputWidth; ox++) {
+                int sx, wx, sy, wy;
+                if (swapAxes) {
+                    sx = rowIndex[oy];
+                    wx = rowWeight[oy];
+                    sy = colIndex[ox];
+                    wy = colWeight[ox];
+                } else {
+                    sx = colIndex[ox];
+                    wx = colWeight[ox];
+                    sy = rowIndex[oy];
+                    wy = rowWeight[oy];
+                }
+                int sx1 = sx < maxX ? sx + 1 : sx;
+                int sy1 = sy < maxY ? sy + 1 : sy;
+
+                int row0 = (top + sy) * yRow;
+                int row1 = (top + sy1) * yRow;
+                int col0 = (left + sx) * yPix;
+                int col1 = (left + sx1) * yPix;
+                int top0 = (yBuf.get(row0 + col0) & 0xFF) * (WEIGHT_ONE - wx) + (yBuf.get(row0 + col1) & 0xFF) * wx;
+                int bottom0 = (yBuf.get(row1 + col0) & 0xFF) * (WEIGHT_ONE - wx) + (yBuf.get(row1 + col1) & 0xFF) * wx;
+                int luma = (top0 * (WEIGHT_ONE - wy) + bottom0 * wy + (1 << (2 * WEIGHT_BITS - 1))) >> (2 * WEIGHT_BITS);
+
+                int cx = (left + (wx < WEIGHT_ONE / 2 ? sx : sx1)) >> 1;
+                int cy = (top + (wy < WEIGHT_ONE / 2 ? sy : sy1)) >> 1;
+                int u = uBuf.get(cy * uRow + cx * uPix) & 0xFF;
+                int v = vBuf.get(cy * vRow + cx * vPix) & 0xFF;
+                int argb = YuvToArgbEngine.yuvToArgb(luma, u, v);
+
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
+                if (quantized) {
+                    out.put(index, (byte) (r - zeroShift));
+                    out.put(index + 1, (byte) (g - zeroShift));
+                    out.put(index + 2, (byte) (b - zeroShift));
+                    index += 3;
+                } else {
+                    out.putFloat(index, normalized[r]);
+                    out.putFloat(index + 4, normalized[g]);
+                    out.putFloat(index + 8, normalized[b]);
+                    index += 12;
+                }
+            }
+        }
+    }
+
+    /**
+     * 构建输出坐标到源坐标的映射。
+     * 正向图像坐标 (ux, uy) 到传感器坐标 (sx, sy)：
+     * 0°：(ux, uy)；90°：(uy, H-1-ux)；180°：(W-1-ux, H-1-uy)；270°：(W-1-uy, ux)
+     */
+    private void ensureLookupTables(int sourceWidth, int sourceHeight, int rotationDegrees, boolean mirror) {
+        int rotation = ((rotationDegrees % 360) + 360) % 360;
+        if (sourceWidth == lutSourceWidth && sourceHeight == lutSourceHeight
+                && rotation == lutRotation && mirror == lutMirror) {
+            return;
+        }
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Unsupported rotation: " + rotationDegrees);
+        }
+        swapAxes = rotation == 90 || rotation == 270;
+        int uprightWidth = swapAxes ? sourceHeight : sourceWidth;
+        int uprightHeight = swapAxes ? sourceWidth : sourceHeight;
+
+        // 输出列 -> 正向 x；输出行 -> 正向 y
+        boolean flipCol = mirror;
+        boolean flipRow = false;
+        // 再把正向坐标映射到传感器坐标，记录每条轴是否需要反向
+        switch (rotation) {
+            case 90:
+                // sx = uy, sy = H-1-ux
+                flipCol = !flipCol;
+                break;
+            case 180:
+                flipCol = !flipCol;
+                flipRow = true;
+                break;
+            case 270:
+                // sx = W-1-uy, sy = ux
+                flipRow = true;
+                break;
+            default:
+                break;
+        }
+
+        colIndex = new int[outputWidth];
+        colWeight = new int[outputWidth];
+        rowIndex = new int[outputHeight];
+        rowWeight = new int[outputHeight];
+        fillAxis(colIndex, colWeight, uprightWidth, flipCol);
+        fillAxis(rowIndex, rowWeight, uprightHeight, flipRow);
+
+        lutSourceWidth = sourceWidth;
+        lutSourceHeight = sourceHeight;
+        lutRotation = rotation;
+        lutMirror = mirror;
+    }
+
+    /**
+     * 按像素中心对齐计算一条轴的源坐标与插值权重
+     */
+    private static void fillAxis(int[] index, int[] weight, int sourceLength, boolean flip) {
+        int outputLength = index.length;
+        float scale = (float) sourceLength / outputLength;
+        for (int i = 0; i < outputLength; i++) {
+            float position = (i + 0.5f) * scale - 0.5f;
+            if (flip) {
+                position = sourceLength - 1 - position;
+            }
+            position = Math.max(0f, Math.min(sourceLength - 1, position));
+            int base = (int) position;
+            index[i] = base;
+            weight[i] = Math.round((position - base) * WEIGHT_ONE);
+        }
+    }
+}
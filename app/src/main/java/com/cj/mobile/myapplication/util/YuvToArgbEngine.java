@@ -0,0 +1,264 @@
+package com.cj.mobile.myapplication.util;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.Semaphore;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: YuvToArgbEngine
+ * @Description: 纯 Java 的 YUV_420_888 转 ARGB 引擎，用于替换 RenderScript
+ * <p>
+ * 1、直接读取三个平面（支持任意 rowStride/pixelStride），不再先拼 NV21；
+ * 2、输出写入调用方持有并复用的 int[] / IntBuffer；
+ * 3、按行分条交给固定数量的工作线程，调用线程自己处理第一条；
+ * 4、稳定状态下每帧不产生堆分配（线程间只用信号量交接）。
+ * <p>
+ * 颜色转换与 ScriptIntrinsicYuvToRGB 一致，使用 BT.601 视频范围的定点运算。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 9:20
+ */
+public class YuvToArgbEngine implements Closeable {
+    private final int stripeCount;
+    private final Worker[] workers;
+    private final Semaphore finished = new Semaphore(0);
+
+    // 当前帧，由信号量保证对工作线程可见
+    private YuvFrame frame;
+    private int[] outArray;
+    private int outOffset;
+    private IntBuffer outBuffer;
+    // 工作线程转换时抛出的第一个异常，convert 等到所有条带结束后重新抛出
+    private Throwable workerError;
+    private volatile boolean closed;
+
+    /**
+     * @param threadCount 参与转换的线程总数（包含调用线程），小于 1 时按 1 处理
+     */
+    public YuvToArgbEngine(int threadCount) {
+        this.stripeCount = Math.max(1, threadCount);
+        this.workers = new Worker[stripeCount - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i + 1);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 按 CPU 核数选择默认线程数：一半核心，最多 4 个
+     */
+    public static int defaultThreadCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * 转换到 int[]，像素按行紧密排列（stride = frame.getWidth()）
+     */
+    public synchronized void convert(YuvFrame frame, int[] out) {
+        convert(frame, out, 0, null);
+    }
+
+    /**
+     * 转换到 IntBuffer，从 buffer 的 position 开始写入，不改变 position
+     */
+    public synchronized void convert(YuvFrame frame, IntBuffer out) {
+        if (out.hasArray()) {
+            convert(frame, out.array(), out.arrayOffset() + out.position(), null);
+        } else {
+            convert(frame, null, out.position(), out);
+        }
+    }
+
+    private void convert(YuvFrame frame, int[] array, int offset, IntBuffer buffer) {
+        if (closed) {
+            throw new IllegalStateException("YuvToArgbEngine is closed");
+        }
+        int required = frame.getWidth() * frame.getHeight();
+        int capacity = array != null ? array.length - offset : buffer.limit() - offset;
+        if (capacity < required) {
+            throw new IllegalArgumentException("Output too small: " + capacity + " < " + required);
+        }
+
+        this.frame = frame;
+        this.outArray = array;
+        this.outOffset = offset;
+        this.outBuffer = buffer;
+
+        for (Worker worker : workers) {
+            worker.go.release();
+        }
+        Throwable error;
+        try {
+            convertStripe(0);
+        } finally {
+            finished.acquireUninterruptibly(workers.length);
+            this.frame = null;
+            this.outArray = null;
+            this.outBuffer = null;
+            // 信号量保证工作线程写入的异常可见；调用线程自己也失败时以它的异常为准
+            error = workerError;
+            workerError = null;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private void convertStripe(int stripe) {
+        int height = frame.getHeight();
+        // 行按偶数对齐，保证同一对色度行落在同一条带内
+        int rowsPerStripe = ((height + stripeCount - 1) / stripeCount + 1) & ~1;
+        int rowStart = Math.min(height, stripe * rowsPerStripe);
+        int rowEnd = Math.min(height, rowStart + rowsPerStripe);
+        if (rowStart < rowEnd) {
+            convertRows(frame, outArray, outBuffer, outOffset, rowStart, rowEnd);
+        }
+    }
+
+    /**
+     * 转换 [rowStart, rowEnd) 行，单线程、无分配，也可直接用于基准测试
+     */
+    static void convertRows(YuvFrame f, int[] outArray, IntBuffer outBuffer, int outOffset,
+                            int rowStart, int rowEnd) {
+        final int width = f.getWidth();
+        final int left = f.getCropLeft();
+        final int top = f.getCropTop();
+        final ByteBuffer yBuf = f.getYBuffer();
+        final ByteBuffer uBuf = f.getUBuffer();
+        final ByteBuffer vBuf = f.getVBuffer();
+        final int yRow = f.getYRowStride();
+        final int yPix = f.getYPixelStride();
+        final int uRow = f.getURowStride();
+        final int uPix = f.getUPixelStride();
+        final int vRow = f.getVRowStride();
+        final int vPix = f.getVPixelStride();
+
+        for (int row = rowStart; row < rowEnd; row++) {
+            int yIndex = (top + row) * yRow + left * yPix;
+            int chromaRow = (top + row) >> 1;
+            int uBase = chromaRow * uRow;
+            int vBase = chromaRow * vRow;
+            int out = outOffset + row * width;
+
+            int col = 0;
+            // 左边界为奇数时，第一个像素单独处理，之后两个像素共用一组 U/V
+            if ((left & 1) != 0 && width > 0) {
+                int cx = left >> 1;
+                int u = uBuf.get(uBase + cx * uPix) & 0xFF;
+                int v = vBuf.get(vBase + cx * vPix) & 0xFF;
+                put(outArray, outBuffer, out++, yuvToArgb(yBuf.get(yIndex) & 0xFF, u, v));
+                yIndex += yPix;
+                col = 1;
+            }
+            for (; col + 1 < width; col += 2) {
+                int cx = (left + col) >> 1;
+                int u = (uBuf.get(uBase + cx * uPix) & 0xFF) - 128;
+                int v = (vBuf.get(vBase + cx * vPix) & 0xFF) - 128;
+                int rTerm = 409 * v + 128;
+                int gTerm = -100 * u - 208 * v + 128;
+                int bTerm = 516 * u + 128;
+
+                int y0 = 298 * Math.max(0, (yBuf.get(yIndex) & 0xFF) - 16);
+                int y1 = 298 * Math.max(0, (yBuf.get(yIndex + yPix) & 0xFF) - 16);
+                yIndex += yPix << 1;
+
+                put(outArray, outBuffer, out++, pack(y0 + rTerm, y0 + gTerm, y0 + bTerm));
+                put(outArray, outBuffer, out++, pack(y1 + rTerm, y1 + gTerm, y1 + bTerm));
+            }
+            if (col < width) {
+                int cx = (left + col) >> 1;
+                int u = uBuf.get(uBase + cx * uPix) & 0xFF;
+                int v = vBuf.get(vBase + cx * vPix) & 0xFF;
+                put(outArray, outBuffer, out, yuvToArgb(yBuf.get(yIndex) & 0xFF, u, v));
+            }
+        }
+    }
+
+    private static void put(int[] array, IntBuffer buffer, int index, int value) {
+        if (array != null) {
+            array[index] = value;
+        } else {
+            buffer.put(index, value);
+        }
+    }
+
+    /**
+     * 单像素 YUV（0..255）转 ARGB，BT.601 视频范围
+     */
+    public static int yuvToArgb(int y, int u, int v) {
+        int c = 298 * Math.max(0, y - 16);
+        int d = u - 128;
+        int e = v - 128;
+        return pack(c + 409 * e + 128, c - 100 * d - 208 * e + 128, c + 516 * d + 128);
+    }
+
+    /**
+     * 将放大 256 倍的 R/G/B 截断到 0..255 后打包成不透明 ARGB
+     */
+    private static int pack(int r, int g, int b) {
+        r = clamp(r >> 8);
+        g = clamp(g >> 8);
+        b = clamp(b >> 8);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    /**
+     * 停止工作线程，之后不能再调用 convert
+     * <p>
+     * 与 convert 持有同一个锁：进行中的转换先完成（工作线程都已交还信号量）再中断，
+     * 否则被中断的工作线程不再 release，convert 会一直等在 finished 上
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final int stripe;
+        private final Semaphore go = new Semaphore(0);
+
+        Worker(int stripe) {
+            super("YuvToArgb-" + stripe);
+            this.stripe = stripe;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    go.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    convertStripe(stripe);
+                } catch (Throwable t) {
+                    // 记录后继续等待下一帧：线程退出后 convert 会一直等在 finished 上
+                    synchronized (finished) {
+                        if (workerError == null) {
+                            workerError = t;
+                        }
+                    }
+                } finally {
+                    finished.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.cj.mobile.myapplication.view;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.view
+ * @ClassName: OverlayView
+ * @Description: 在相机预览上方绘制检测框和标签的叠加层，替代每次结果都生成整屏 Bitmap 的做法
+ * <p>
+ * 框的坐标和标签存放在两组预先分配的数组中：写入线程填充后台的一组，{@link #commit()} 时与前台交换并请求重绘，
+ * onDraw 只读取前台的一组，不分配对象。框使用模型（转正后图像）的坐标，由一个矩阵映射到视图坐标，
+ * 缩放方式与 PreviewView 默认的 FILL_CENTER 一致，前置摄像头可以水平镜像。标签的宽度在写入时测量，
+ * 同一个位置的标签没有变化（同一个 String 对象）时沿用上次的结果，绘制时用它把标签限制在视图内。
+ * 同一时间只能有一个写入线程。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 21:50
+ */
+public class OverlayView extends View {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float STROKE_WIDTH = 5f;
+    private static final float TEXT_SIZE = 30f;
+    // 标签与框上边的距离
+    private static final float TEXT_OFFSET = 10f;
+
+    private final Object lock = new Object();
+    // front 只在持有 lock 时由界面线程读取，back 只由写入线程填充
+    private Frame front = new Frame();
+    private Frame back = new Frame();
+
+    private final Paint boxPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // 写入线程测量标签用，与 textPaint 的字号相同
+    private final Paint measurePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Matrix matrix = new Matrix();
+    private final RectF mapped = new RectF();
+
+    private int sourceWidth;
+    private int sourceHeight;
+    private boolean mirror;
+    private boolean matrixDirty = true;
+
+    public OverlayView(Context context) {
+        this(context, null);
+    }
+
+    public OverlayView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        boxPaint.setColor(Color.GREEN);
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth(STROKE_WIDTH);
+        textPaint.setColor(Color.GREEN);
+        textPaint.setTextSize(TEXT_SIZE);
+        measurePaint.setTextSize(TEXT_SIZE);
+    }
+
+    /**
+     * 设置框所在的坐标系，尺寸不变时不重新计算矩阵
+     *
+     * @param width  模型坐标的宽（转正后的图像宽）
+     * @param height 模型坐标的高
+     * @param mirror 是否水平镜像（前置摄像头）
+     */
+    public void setSourceSize(int width, int height, boolean mirror) {
+        synchronized (lock) {
+            if (width == sourceWidth && height == sourceHeight && mirror == this.mirror) {
+                return;
+            }
+            sourceWidth = width;
+            sourceHeight = height;
+            this.mirror = mirror;
+            matrixDirty = true;
+        }
+        postInvalidate();
+    }
+
+    /**
+     * 向后台的一组追加一个框，{@link #commit()} 后显示
+     *
+     * @param label 可为 null，同一个标签尽量传同一个 String 对象以复用测量结果
+     */
+    public void addBox(float left, float top, float right, float bottom, @Nullable String label) {
+        Frame frame = back;
+        int index = frame.count;
+        if (index == frame.labels.length) {
+            frame.grow();
+        }
+        int base = index * 4;
+        frame.boxes[base] = left;
+        frame.boxes[base + 1] = top;
+        frame.boxes[base + 2] = right;
+        frame.boxes[base + 3] = bottom;
+        if (label != frame.labels[index]) {
+            frame.labels[index] = label;
+            frame.labelWidths[index] = label != null ? measurePaint.measureText(label) : 0f;
+        }
+        frame.count = index + 1;
+    }
+
+    /**
+     * 交换前后台并请求重绘，可以在任意线程上调用
+     */
+    public void commit() {
+        synchronized (lock) {
+            Frame shown = back;
+            back = front;
+            front = shown;
+        }
+        back.count = 0;
+        postInvalidate();
+    }
+
+    /**
+     * 清除所有框
+     */
+    public void clear() {
+        back.count = 0;
+        commit();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        synchronized (lock) {
+            matrixDirty = true;
+        }
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        synchronized (lock) {
+            Frame frame = front;
+            if (frame.count == 0 || sourceWidth == 0 || sourceHeight == 0) {
+                return;
+            }
+            if (matrixDirty) {
+                updateMatrix();
+            }
+            int width = getWidth();
+            for (int i = 0; i < frame.count; i++) {
+                int base = i * 4;
+                mapped.set(frame.boxes[base], frame.boxes[base + 1], frame.boxes[base + 2], frame.boxes[base + 3]);
+                // 镜像时 mapRect 会把左右交换回来
+                matrix.mapRect(mapped);
+                canvas.drawRect(mapped, boxPaint);
+
+                String label = frame.labels[i];
+                if (label != null) {
+                    float x = Math.max(0f, Math.min(mapped.left, width - frame.labelWidths[i]));
+                    // 框贴近顶部时标签画在框内
+                    float y = mapped.top - TEXT_OFFSET < TEXT_SIZE ? mapped.top + TEXT_SIZE : mapped.top - TEXT_OFFSET;
+                    canvas.drawText(label, x, y, textPaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * 模型坐标 -> 视图坐标：等比缩放铺满视图并居中（FILL_CENTER），需要时再水平镜像
+     */
+    private void updateMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        float scale = Math.max((float) width / sourceWidth, (float) height / sourceHeight);
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((width - sourceWidth * scale) / 2f, (height - sourceHeight * scale) / 2f);
+        if (mirror) {
+            matrix.postScale(-1f, 1f, width / 2f, 0f);
+        }
+        matrixDirty = false;
+    }
+
+    /**
+     * 一组框和标签
+     */
+    private static final class Frame {
+        float[] boxes = new float[INITIAL_CAPACITY * 4];
+        String[] labels = new String[INITIAL_CAPACITY];
+        float[] labelWidths = new float[INITIAL_CAPACITY];
+        int count;
+
+        void grow() {
+            int capacity = labels.length * 2;
+            float[] newBoxes = new float[capacity * 4];
+            System.arraycopy(boxes, 0, newBoxes, 0, boxes.length);
+            boxes = newBoxes;
+            String[] newLabels = new String[capacity];
+            System.arraycopy(labels, 0, newLabels, 0, labels.length);
+            labels = newLabels;
+            float[] newWidths = new float[capacity];
+            System.arraycopy(labelWidths, 0, newWidths, 0, labelWidths.length);
+            labelWidths = newWidths;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.cj.mobile.myapplication.util;
+
+import org.junit.Assume;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: Benchmarks
+ * @Description: 单元测试中的基准测试辅助方法
+ * <p>
+ * 基准测试默认跳过，设置环境变量 BENCHMARK 后运行，例如：
+ * BENCHMARK=1 ./gradlew :app:testDebugUnitTest --tests '*Test.benchmark*'
+ * 结果输出到标准输出（build/test-results 中的 XML 报告里可以看到）。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 22:10
+ */
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    /**
+     * 没有设置 BENCHMARK 时跳过当前测试
+     */
+    static void assumeEnabled() {
+        Assume.assumeTrue("set BENCHMARK to run", System.getenv("BENCHMARK") != null);
+    }
+
+    /**
+     * 先预热 warmup 次，再计时 iterations 次，返回每次的平均耗时（微秒）
+     */
+    static double microsPerRun(Runnable task, int warmup, int iterations) {
+        for (int i = 0; i < warmup; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / 1000.0 / iterations;
+    }
+
+    static void report(String name, String format, Object... args) {
+        System.out.println("[benchmark] " + name + ": " + String.format(format, args));
+    }
+}
@@ -0,0 +1,191 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.DetectionResult;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: BoxNmsTest
+ * @Description: BoxNms 与逐对象的参考 NMS 比较，以及 SSD 规模（1917 个候选框）的耗时
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 22:30
+ */
+public class BoxNmsTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private static final class Box {
+        final int index;
+        final float ymin;
+        final float xmin;
+        final float ymax;
+        final float xmax;
+        final float score;
+        final int classId;
+
+        Box(int index, float ymin, float xmin, float ymax, float xmax, float score, int classId) {
+            this.index = index;
+            this.ymin = ymin;
+            this.xmin = xmin;
+            this.ymax = ymax;
+            this.xmax = xmax;
+            this.score = score;
+            this.classId = classId;
+        }
+
+        float area() {
+            return Math.max(0f, ymax - ymin) * Math.max(0f, xmax - xmin);
+        }
+    }
+
+    private static List<Box> randomBoxes(Random random, int count, int classes) {
+        List<Box> boxes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // 集中在几个位置附近，保证有大量重叠
+            float cy = (random.nextInt(6) + 0.5f) / 6f + (float) random.nextGaussian() * 0.03f;
+            float cx = (random.nextInt(6) + 0.5f) / 6f + (float) random.nextGaussian() * 0.03f;
+            float h = 0.05f + random.nextFloat() * 0.2f;
+            float w = 0.05f + random.nextFloat() * 0.2f;
+            boxes.add(new Box(i, cy - h / 2, cx - w / 2, cy + h / 2, cx + w / 2, random.nextFloat(), random.nextInt(classes)));
+        }
+        return boxes;
+    }
+
+    /**
+     * 参考实现：按分数从高到低（同分时下标大的在前，与 BoxNms 的排序键一致），依次与已保留的框比较
+     */
+    private static List<Box> referenceNms(List<Box> boxes, float iouThreshold, boolean classAware, int maxResults) {
+        List<Box> sorted = new ArrayList<>(boxes);
+        Collections.sort(sorted, (a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : b.index - a.index);
+        List<Box> kept = new ArrayList<>();
+        for (Box box : sorted) {
+            if (kept.size() == maxResults) {
+                break;
+            }
+            boolean suppressed = false;
+            for (Box k : kept) {
+                if (classAware && k.classId != box.classId) {
+                    continue;
+                }
+                float h = Math.min(k.ymax, box.ymax) - Math.max(k.ymin, box.ymin);
+                float w = Math.min(k.xmax, box.xmax) - Math.max(k.xmin, box.xmin);
+                if (h <= 0 || w <= 0) {
+                    continue;
+                }
+                float intersection = h * w;
+                if (intersection > iouThreshold * (k.area() + box.area() - intersection)) {
+                    suppressed = true;
+                    break;
+                }
+            }
+            if (!suppressed) {
+                kept.add(box);
+            }
+        }
+        return kept;
+    }
+
+    private static void fill(BoxNms nms, List<Box> boxes) {
+        nms.clear();
+        for (Box box : boxes) {
+            assertTrue(nms.add(box.ymin, box.xmin, box.ymax, box.xmax, box.score, box.classId));
+        }
+    }
+
+    private static void assertSameResult(List<Box> expected, DetectionResult actual) {
+        assertEquals("kept", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Box box = expected.get(i);
+            assertEquals("score " + i, box.score, actual.getScore(i), 0f);
+            assertEquals("class " + i, box.classId, actual.getClassId(i));
+            assertEquals("left " + i, box.xmin * WIDTH, actual.getLeft(i), 1e-3f);
+            assertEquals("top " + i, box.ymin * HEIGHT, actual.getTop(i), 1e-3f);
+            assertEquals("right " + i, box.xmax * WIDTH, actual.getRight(i), 1e-3f);
+            assertEquals("bottom " + i, box.ymax * HEIGHT, actual.getBottom(i), 1e-3f);
+        }
+    }
+
+    @Test
+    public void select_matchesReferenceNms() {
+        Random random = new Random(1);
+        BoxNms nms = new BoxNms(2000);
+        DetectionResult out = new DetectionResult(100);
+        for (int trial = 0; trial < 300; trial++) {
+            List<Box> boxes = randomBoxes(random, 1 + random.nextInt(2000), 1 + random.nextInt(10));
+            float iouThreshold = 0.3f + random.nextFloat() * 0.4f;
+            boolean classAware = trial % 2 == 0;
+            fill(nms, boxes);
+            nms.select(iouThreshold, classAware, WIDTH, HEIGHT, out);
+            assertSameResult(referenceNms(boxes, iouThreshold, classAware, out.capacity()), out);
+        }
+    }
+
+    @Test
+    public void select_tiedScoresAndEmptyBoxes() {
+        Random random = new Random(2);
+        List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            float y = random.nextInt(4) * 0.2f;
+            float x = random.nextInt(4) * 0.2f;
+            // 分数只有 3 种取值；每 10 个中有一个面积为 0 的框
+            float size = i % 10 == 0 ? 0f : 0.15f;
+            boxes.add(new Box(i, y, x, y + size, x + size, (i % 3) / 3f, 0));
+        }
+        BoxNms nms = new BoxNms(200);
+        DetectionResult out = new DetectionResult(50);
+        fill(nms, boxes);
+        nms.select(0.5f, true, WIDTH, HEIGHT, out);
+        assertSameResult(referenceNms(boxes, 0.5f, true, out.capacity()), out);
+    }
+
+    @Test
+    public void select_limitedByResultCapacity() {
+        BoxNms nms = new BoxNms(10);
+        for (int i = 0; i < 10; i++) {
+            // 互不重叠
+            nms.add(0f, i * 0.1f, 0.05f, i * 0.1f + 0.05f, i / 10f, 0);
+        }
+        DetectionResult out = new DetectionResult(3);
+        nms.select(0.5f, false, WIDTH, HEIGHT, out);
+        assertEquals(3, out.size());
+        assertEquals(0.9f, out.getScore(0), 0f);
+        assertEquals(0.8f, out.getScore(1), 0f);
+        assertEquals(0.7f, out.getScore(2), 0f);
+    }
+
+    @Test
+    public void add_rejectsWhenFull() {
+        BoxNms nms = new BoxNms(2);
+        assertTrue(nms.add(0f, 0f, 1f, 1f, 0.5f, 0));
+        assertTrue(nms.add(0f, 0f, 1f, 1f, 0.5f, 0));
+        assertFalse(nms.add(0f, 0f, 1f, 1f, 0.5f, 0));
+        assertEquals(2, nms.size());
+        nms.clear();
+        assertEquals(0, nms.size());
+    }
+
+    @Test
+    public void benchmark_ssdCandidates() {
+        Benchmarks.assumeEnabled();
+        Random random = new Random(3);
+        List<Box> boxes = randomBoxes(random, 1917, 90);
+        BoxNms nms = new BoxNms(1917);
+        DetectionResult out = new DetectionResult(10);
+        double primitive = Benchmarks.microsPerRun(() -> {
+            fill(nms, boxes);
+            nms.select(0.5f, true, WIDTH, HEIGHT, out);
+        }, 500, 2000);
+        double objects = Benchmarks.microsPerRun(() -> referenceNms(boxes, 0.5f, true, 10), 500, 2000);
+        Benchmarks.report("BoxNms", "1917 candidates, class-aware: primitive arrays %.1fus, object list %.1fus",
+                primitive, objects);
+    }
+}
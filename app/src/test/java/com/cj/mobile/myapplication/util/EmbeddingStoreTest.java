@@ -0,0 +1,127 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.cj.mobile.myapplication.util.EmbeddingTestData.DIMENSION;
+import static org.junit.Assert.*;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: EmbeddingStoreTest
+ * @Description: EmbeddingStore 的前 2 个结果与暴力检索一致（提前放弃不影响结果），以及与 HashMap 线性扫描的耗时对比
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 22:40
+ */
+public class EmbeddingStoreTest {
+    private final EmbeddingMatch match = new EmbeddingMatch();
+
+    @Test
+    public void findNearest_matchesBruteForceTop2() {
+        float[][] gallery = EmbeddingTestData.structured(2000, 1);
+        EmbeddingStore store = new EmbeddingStore(DIMENSION);
+        store.addAll(EmbeddingTestData.names(gallery.length), gallery, gallery.length);
+        Random random = new Random(2);
+        for (int q = 0; q < 300; q++) {
+            float[] query = EmbeddingTestData.noisyCopy(gallery[random.nextInt(gallery.length)], 0.5f, random);
+            int[] expected = EmbeddingTestData.bruteForceTop2(gallery, gallery.length, query);
+            store.findNearest(query, match);
+            assertEquals(2, match.size());
+            assertEquals(EmbeddingTestData.name(expected[0]), match.getName(0));
+            assertEquals(EmbeddingTestData.name(expected[1]), match.getName(1));
+            assertEquals(EmbeddingTestData.cosine(gallery[expected[0]], query), match.getSimilarity(0), 1e-4);
+            assertEquals(EmbeddingTestData.cosine(gallery[expected[1]], query), match.getSimilarity(1), 1e-4);
+        }
+    }
+
+    @Test
+    public void findNearest_emptyAndSingleEntry() {
+        EmbeddingStore store = new EmbeddingStore(DIMENSION);
+        float[] vector = EmbeddingTestData.gaussian(1, 3)[0];
+        store.findNearest(vector, match);
+        assertEquals(0, match.size());
+
+        store.add("only", vector);
+        store.findNearest(vector, match);
+        assertEquals(1, match.size());
+        assertEquals("only", match.getName(0));
+        assertEquals(1f, match.getSimilarity(0), 1e-5f);
+        assertEquals(0f, match.getDistance(0), 1e-2f);
+
+        // 零向量没有方向，不返回结果
+        store.findNearest(new float[DIMENSION], match);
+        assertEquals(0, match.size());
+    }
+
+    @Test
+    public void add_replacesSameName() {
+        float[][] vectors = EmbeddingTestData.gaussian(3, 4);
+        EmbeddingStore store = new EmbeddingStore(DIMENSION);
+        assertFalse(store.add("a", vectors[0]));
+        assertFalse(store.add("b", vectors[1]));
+        assertTrue(store.add("a", vectors[2]));
+        assertEquals(2, store.size());
+
+        store.findNearest(vectors[2], match);
+        assertEquals("a", match.getName(0));
+        assertEquals(1f, match.getSimilarity(0), 1e-5f);
+    }
+
+    @Test
+    public void remove_keepsOtherEntries() {
+        float[][] gallery = EmbeddingTestData.gaussian(50, 5);
+        EmbeddingStore store = new EmbeddingStore(DIMENSION);
+        store.addAll(EmbeddingTestData.names(gallery.length), gallery, gallery.length);
+        for (int i = 0; i < 50; i += 2) {
+            assertTrue(store.remove(EmbeddingTestData.name(i)));
+        }
+        assertFalse(store.remove(EmbeddingTestData.name(0)));
+        assertEquals(25, store.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i % 2 == 1, store.contains(EmbeddingTestData.name(i)));
+            if (i % 2 == 1) {
+                store.findNearest(gallery[i], match);
+                assertEquals(EmbeddingTestData.name(i), match.getName(0));
+            }
+        }
+    }
+
+    @Test
+    public void benchmark_versusHashMapScan() {
+        Benchmarks.assumeEnabled();
+        for (int count : new int[]{1000, 10000}) {
+            float[][] gallery = EmbeddingTestData.structured(count, 6);
+            EmbeddingStore store = new EmbeddingStore(DIMENSION);
+            store.addAll(EmbeddingTestData.names(count), gallery, count);
+            Map<String, float[]> map = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                map.put(EmbeddingTestData.name(i), gallery[i]);
+            }
+            float[] query = EmbeddingTestData.noisyCopy(gallery[count / 2], 0.5f, new Random(7));
+            double contiguous = Benchmarks.microsPerRun(() -> store.findNearest(query, match), 200, 1000);
+            double hashMap = Benchmarks.microsPerRun(() -> {
+                // 旧做法：遍历 HashMap，逐个计算未归一化向量的欧氏距离
+                float best = Float.MAX_VALUE;
+                for (Map.Entry<String, float[]> entry : map.entrySet()) {
+                    float[] vector = entry.getValue();
+                    float distance = 0f;
+                    for (int d = 0; d < DIMENSION; d++) {
+                        float diff = query[d] - vector[d];
+                        distance += diff * diff;
+                    }
+                    best = Math.min(best, (float) Math.sqrt(distance));
+                }
+                if (best < 0f) {
+                    throw new AssertionError();
+                }
+            }, 200, 1000);
+            Benchmarks.report("EmbeddingStore", "%d faces: contiguous %.1fus, HashMap scan %.1fus", count, contiguous, hashMap);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.cj.mobile.myapplication.util;
+
+import java.util.Random;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: EmbeddingTestData
+ * @Description: 人脸库测试用的合成嵌入和暴力检索的参考结果
+ * <p>
+ * structured：24 维潜变量经固定的随机投影到 192 维再加少量噪声，与真实人脸嵌入一样集中在低维子空间；
+ * gaussian：各维独立的高斯分布，是近似检索最难的情况。查询为已注册向量加噪声。
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 22:40
+ */
+final class EmbeddingTestData {
+    static final int DIMENSION = 192;
+    private static final int LATENT = 24;
+
+    private EmbeddingTestData() {
+    }
+
+    static float[][] structured(int count, long seed) {
+        Random random = new Random(seed);
+        float[][] projection = new float[LATENT][DIMENSION];
+        for (float[] row : projection) {
+            for (int d = 0; d < DIMENSION; d++) {
+                row[d] = (float) random.nextGaussian();
+            }
+        }
+        float[][] vectors = new float[count][DIMENSION];
+        float[] latent = new float[LATENT];
+        for (float[] vector : vectors) {
+            for (int k = 0; k < LATENT; k++) {
+                latent[k] = (float) random.nextGaussian();
+            }
+            for (int d = 0; d < DIMENSION; d++) {
+                float sum = 0f;
+                for (int k = 0; k < LATENT; k++) {
+                    sum += latent[k] * projection[k][d];
+                }
+                vector[d] = sum + 0.3f * (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    static float[][] gaussian(int count, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][DIMENSION];
+        for (float[] vector : vectors) {
+            for (int d = 0; d < DIMENSION; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * 已注册向量加上与其长度成比例的噪声，模拟同一个人的另一帧
+     */
+    static float[] noisyCopy(float[] vector, float relativeNoise, Random random) {
+        double norm = Math.sqrt(dot(vector, vector));
+        float sigma = (float) (relativeNoise * norm / Math.sqrt(vector.length));
+        float[] copy = new float[vector.length];
+        for (int d = 0; d < vector.length; d++) {
+            copy[d] = vector[d] + sigma * (float) random.nextGaussian();
+        }
+        return copy;
+    }
+
+    static String name(int index) {
+        return "face" + index;
+    }
+
+    static String[] names(int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = name(i);
+        }
+        return names;
+    }
+
+    static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int d = 0; d < a.length; d++) {
+            sum += (double) a[d] * b[d];
+        }
+        return sum;
+    }
+
+    static double cosine(float[] a, float[] b) {
+        return dot(a, b) / Math.sqrt(dot(a, a) * dot(b, b));
+    }
+
+    /**
+     * 暴力检索，返回余弦相似度最高的两个下标（只有一个向量时第二个为 -1）
+     */
+    static int[] bruteForceTop2(float[][] gallery, int count, float[] query) {
+        int best = -1;
+        int second = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        double secondScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double score = cosine(gallery[i], query);
+            if (score > bestScore) {
+                second = best;
+                secondScore = bestScore;
+                best = i;
+                bestScore = score;
+            } else if (score > secondScore) {
+                second = i;
+                secondScore = score;
+            }
+        }
+        return new int[]{best, second};
+    }
+}
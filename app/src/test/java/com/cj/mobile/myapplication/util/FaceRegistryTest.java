@@ -0,0 +1,266 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.cj.mobile.myapplication.util.EmbeddingTestData.DIMENSION;
+import static org.junit.Assert.*;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: FaceRegistryTest
+ * @Description: FaceRegistry 重新打开后数据不变、替换与删除、扩容与压缩、forEach、按行号计算相似度，以及打开耗时和映射扫描的耗时
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 23:10
+ */
+public class FaceRegistryTest {
+    private final EmbeddingMatch match = new EmbeddingMatch();
+    private File file;
+    private FaceRegistry registry;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("faces", ".reg");
+        // open 在文件不存在时创建
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        if (registry != null) {
+            registry.close();
+        }
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private FaceRegistry reopen() throws IOException {
+        if (registry != null) {
+            registry.close();
+        }
+        registry = FaceRegistry.open(file, DIMENSION);
+        return registry;
+    }
+
+    private void enrollAll(float[][] gallery) throws IOException {
+        for (int i = 0; i < gallery.length; i++) {
+            registry.enroll(EmbeddingTestData.name(i), gallery[i]);
+        }
+    }
+
+    private void assertMatchesBruteForce(float[][] gallery, int queries, long seed) {
+        Random random = new Random(seed);
+        for (int q = 0; q < queries; q++) {
+            float[] query = EmbeddingTestData.noisyCopy(gallery[random.nextInt(gallery.length)], 0.5f, random);
+            int[] expected = EmbeddingTestData.bruteForceTop2(gallery, gallery.length, query);
+            registry.findNearest(query, match);
+            assertEquals(2, match.size());
+            assertEquals(EmbeddingTestData.name(expected[0]), match.getName(0));
+            assertEquals(EmbeddingTestData.name(expected[1]), match.getName(1));
+            assertEquals(EmbeddingTestData.cosine(gallery[expected[0]], query), match.getSimilarity(0), 1e-4);
+        }
+    }
+
+    @Test
+    public void reopen_keepsEnrolledFaces() throws IOException {
+        float[][] gallery = EmbeddingTestData.structured(500, 1);
+        reopen();
+        enrollAll(gallery);
+        assertEquals(500, registry.size());
+        assertMatchesBruteForce(gallery, 100, 2);
+
+        reopen();
+        assertEquals(500, registry.size());
+        assertMatchesBruteForce(gallery, 100, 3);
+    }
+
+    @Test
+    public void enroll_replacesSameNameAcrossReopen() throws IOException {
+        float[][] gallery = EmbeddingTestData.gaussian(20, 4);
+        reopen();
+        enrollAll(gallery);
+        float[] replacement = EmbeddingTestData.gaussian(1, 5)[0];
+        registry.enroll(EmbeddingTestData.name(3), replacement);
+        assertEquals(20, registry.size());
+
+        reopen();
+        assertEquals(20, registry.size());
+        registry.findNearest(replacement, match);
+        assertEquals(EmbeddingTestData.name(3), match.getName(0));
+        assertEquals(1f, match.getSimilarity(0), 1e-5f);
+        // 旧的向量不再匹配到这个名字
+        registry.findNearest(gallery[3], match);
+        assertNotEquals(EmbeddingTestData.name(3), match.getName(0));
+
+        int[] visits = new int[1];
+        registry.forEach((row, name, vector) -> {
+            if (name.equals(EmbeddingTestData.name(3))) {
+                visits[0]++;
+            }
+            return true;
+        });
+        assertEquals(1, visits[0]);
+    }
+
+    @Test
+    public void enroll_growsPastInitialCapacityAndStringTable() throws IOException {
+        reopen();
+        float[][] gallery = EmbeddingTestData.gaussian(300, 6);
+        Map<String, Integer> names = new HashMap<>();
+        for (int i = 0; i < gallery.length; i++) {
+            // 长名字（含多字节字符）撑满字符串表
+            StringBuilder name = new StringBuilder("人脸-" + i + "-");
+            for (int k = 0; k < i % 50; k++) {
+                name.append('x');
+            }
+            names.put(name.toString(), i);
+            registry.enroll(name.toString(), gallery[i]);
+        }
+        reopen();
+        assertEquals(300, registry.size());
+        for (Map.Entry<String, Integer> entry : names.entrySet()) {
+            registry.findNearest(gallery[entry.getValue()], match);
+            assertEquals(entry.getKey(), match.getName(0));
+        }
+    }
+
+    @Test
+    public void remove_compactsAndSurvivesReopen() throws IOException {
+        float[][] gallery = EmbeddingTestData.structured(400, 7);
+        reopen();
+        enrollAll(gallery);
+        long before = file.length();
+        for (int i = 0; i < 300; i++) {
+            assertTrue(registry.remove(EmbeddingTestData.name(i)));
+        }
+        assertFalse(registry.remove(EmbeddingTestData.name(0)));
+        assertEquals(100, registry.size());
+        assertTrue("file should shrink after compaction", file.length() < before);
+
+        reopen();
+        assertEquals(100, registry.size());
+        float[][] remaining = new float[100][];
+        System.arraycopy(gallery, 300, remaining, 0, 100);
+        Random random = new Random(8);
+        for (int q = 0; q < 50; q++) {
+            int index = random.nextInt(100);
+            registry.findNearest(remaining[index], match);
+            assertEquals(EmbeddingTestData.name(300 + index), match.getName(0));
+        }
+    }
+
+    @Test
+    public void forEach_visitsLiveNormalizedVectorsAndStops() throws IOException {
+        float[][] gallery = EmbeddingTestData.gaussian(30, 9);
+        reopen();
+        enrollAll(gallery);
+        registry.remove(EmbeddingTestData.name(10));
+        Map<String, float[]> visited = new HashMap<>();
+        assertTrue(registry.forEach((row, name, vector) -> {
+            visited.put(name, vector.clone());
+            return true;
+        }));
+        assertEquals(29, visited.size());
+        assertFalse(visited.containsKey(EmbeddingTestData.name(10)));
+        for (Map.Entry<String, float[]> entry : visited.entrySet()) {
+            float[] original = gallery[Integer.parseInt(entry.getKey().substring(4))];
+            assertEquals(1.0, EmbeddingTestData.dot(entry.getValue(), entry.getValue()), 1e-4);
+            assertEquals(1.0, EmbeddingTestData.cosine(entry.getValue(), original), 1e-5);
+        }
+
+        int[] count = new int[1];
+        assertFalse(registry.forEach((row, name, vector) -> ++count[0] < 5));
+        assertEquals(5, count[0]);
+    }
+
+    @Test
+    public void similarity_readsRowAndRejectsStaleRows() throws IOException {
+        float[][] gallery = EmbeddingTestData.gaussian(200, 14);
+        reopen();
+        int[] rows = new int[gallery.length];
+        for (int i = 0; i < gallery.length; i++) {
+            rows[i] = registry.enroll(EmbeddingTestData.name(i), gallery[i]);
+        }
+        float[] query = gallery[20].clone();
+        double norm = Math.sqrt(EmbeddingTestData.dot(query, query));
+        for (int d = 0; d < DIMENSION; d++) {
+            query[d] /= norm;
+        }
+        assertEquals(1f, registry.similarity(rows[20], EmbeddingTestData.name(20), query), 1e-5f);
+        assertEquals(EmbeddingTestData.cosine(gallery[30], query),
+                registry.similarity(rows[30], EmbeddingTestData.name(30), query), 1e-5);
+        assertTrue(Float.isNaN(registry.similarity(rows[30], EmbeddingTestData.name(31), query)));
+        assertTrue(Float.isNaN(registry.similarity(-1, EmbeddingTestData.name(0), query)));
+        assertTrue(Float.isNaN(registry.similarity(gallery.length, EmbeddingTestData.name(0), query)));
+
+        // 删除过半后压缩，旧的行号不再指向原来的人，enroll 返回压缩之后的行号
+        for (int i = 0; i < 150; i++) {
+            registry.remove(EmbeddingTestData.name(i));
+        }
+        assertTrue(Float.isNaN(registry.similarity(rows[160], EmbeddingTestData.name(160), query)));
+        int row = registry.enroll(EmbeddingTestData.name(20), gallery[20]);
+        assertEquals(1f, registry.similarity(row, EmbeddingTestData.name(20), query), 1e-5f);
+    }
+
+    @Test
+    public void emptyRegistry_returnsNoMatch() throws IOException {
+        reopen();
+        assertEquals(0, registry.size());
+        registry.findNearest(EmbeddingTestData.gaussian(1, 10)[0], match);
+        assertEquals(0, match.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsDimensionMismatch() throws IOException {
+        reopen();
+        registry.close();
+        registry = null;
+        FaceRegistry.open(file, DIMENSION / 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsForeignFile() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[1024]);
+        }
+        FaceRegistry.open(file, DIMENSION);
+    }
+
+    @Test
+    public void benchmark_openAndMappedScan() throws IOException {
+        Benchmarks.assumeEnabled();
+        for (int count : new int[]{1000, 20000}) {
+            float[][] gallery = EmbeddingTestData.structured(count, 11);
+            file.delete();
+            reopen();
+            long start = System.nanoTime();
+            enrollAll(gallery);
+            double enrollMicros = (System.nanoTime() - start) / 1000.0 / count;
+            registry.close();
+            registry = null;
+
+            start = System.nanoTime();
+            reopen();
+            double openMillis = (System.nanoTime() - start) / 1e6;
+
+            EmbeddingStore heap = new EmbeddingStore(DIMENSION);
+            heap.addAll(EmbeddingTestData.names(count), gallery, count);
+            float[] query = EmbeddingTestData.noisyCopy(gallery[count / 2], 0.5f, new Random(12));
+            double mapped = Benchmarks.microsPerRun(() -> registry.findNearest(query, match), 50, 300);
+            double onHeap = Benchmarks.microsPerRun(() -> heap.findNearest(query, match), 50, 300);
+            Benchmarks.report("FaceRegistry", "%d faces: open %.2fms, enroll %.0fus/face (forced), mapped scan %.0fus, heap scan %.0fus",
+                    count, openMillis, enrollMicros, mapped, onHeap);
+        }
+    }
+}
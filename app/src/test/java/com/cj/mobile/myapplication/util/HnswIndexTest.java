@@ -0,0 +1,182 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static com.cj.mobile.myapplication.util.EmbeddingTestData.DIMENSION;
+import static org.junit.Assert.*;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: HnswIndexTest
+ * @Description: HnswIndex 相对暴力检索的 recall@1、删除与压缩、保存与加载，以及不同规模下的查询耗时
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 22:50
+ */
+public class HnswIndexTest {
+    private final EmbeddingMatch match = new EmbeddingMatch();
+
+    private static HnswIndex build(float[][] gallery, int efSearch) {
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 100, efSearch);
+        for (int i = 0; i < gallery.length; i++) {
+            index.add(EmbeddingTestData.name(i), gallery[i]);
+        }
+        return index;
+    }
+
+    /**
+     * 加噪声的查询中，HNSW 的第一个结果与暴力检索一致的比例
+     */
+    private double recallAt1(HnswIndex index, float[][] gallery, boolean[] removed, int queries, long seed) {
+        Random random = new Random(seed);
+        float[][] live = gallery;
+        int[] liveIds = null;
+        if (removed != null) {
+            int count = 0;
+            for (boolean r : removed) {
+                count += r ? 0 : 1;
+            }
+            live = new float[count][];
+            liveIds = new int[count];
+            for (int i = 0, j = 0; i < gallery.length; i++) {
+                if (!removed[i]) {
+                    live[j] = gallery[i];
+                    liveIds[j++] = i;
+                }
+            }
+        }
+        int hits = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = EmbeddingTestData.noisyCopy(live[random.nextInt(live.length)], 0.5f, random);
+            int expected = EmbeddingTestData.bruteForceTop2(live, live.length, query)[0];
+            if (liveIds != null) {
+                expected = liveIds[expected];
+            }
+            index.findNearest(query, match);
+            if (match.size() > 0 && EmbeddingTestData.name(expected).equals(match.getName(0))) {
+                hits++;
+            }
+        }
+        return hits / (double) queries;
+    }
+
+    @Test
+    public void findNearest_recallOnStructuredGallery() {
+        float[][] gallery = EmbeddingTestData.structured(3000, 1);
+        HnswIndex index = build(gallery, 32);
+        assertEquals(3000, index.size());
+        assertTrue(recallAt1(index, gallery, null, 300, 2) >= 0.98);
+    }
+
+    @Test
+    public void findNearest_largerEfSearchRecoversGaussianRecall() {
+        float[][] gallery = EmbeddingTestData.gaussian(2000, 3);
+        HnswIndex index = build(gallery, 16);
+        double low = recallAt1(index, gallery, null, 300, 4);
+        index.setEfSearch(200);
+        double high = recallAt1(index, gallery, null, 300, 4);
+        assertTrue("ef=16 " + low + " ef=200 " + high, high >= low);
+        assertTrue("ef=200 recall " + high, high >= 0.99);
+    }
+
+    @Test
+    public void findNearest_smallIndexIsExact() {
+        float[][] gallery = EmbeddingTestData.gaussian(10, 5);
+        HnswIndex index = build(gallery, 32);
+        assertEquals(1.0, recallAt1(index, gallery, null, 100, 6), 0.0);
+
+        HnswIndex empty = new HnswIndex(DIMENSION, 16, 100, 32);
+        empty.findNearest(gallery[0], match);
+        assertEquals(0, match.size());
+    }
+
+    @Test
+    public void remove_neverReturnsDeletedAndCompactKeepsRecall() {
+        float[][] gallery = EmbeddingTestData.structured(2000, 7);
+        HnswIndex index = build(gallery, 32);
+        boolean[] removed = new boolean[gallery.length];
+        for (int i = 0; i < gallery.length; i += 2) {
+            assertTrue(index.remove(EmbeddingTestData.name(i)));
+            removed[i] = true;
+        }
+        assertFalse(index.remove(EmbeddingTestData.name(0)));
+        assertEquals(1000, index.size());
+
+        // 查询被删除的向量本身，结果也不能是它
+        for (int i = 0; i < gallery.length; i += 20) {
+            index.findNearest(gallery[i], match);
+            assertNotEquals(EmbeddingTestData.name(i), match.getName(0));
+            assertNotEquals(EmbeddingTestData.name(i), match.getName(1));
+        }
+        assertTrue(recallAt1(index, gallery, removed, 300, 8) >= 0.98);
+
+        index.compact();
+        assertEquals(1000, index.size());
+        assertTrue(recallAt1(index, gallery, removed, 300, 9) >= 0.98);
+    }
+
+    @Test
+    public void add_replacesSameName() {
+        float[][] gallery = EmbeddingTestData.gaussian(100, 10);
+        HnswIndex index = build(gallery, 32);
+        index.add(EmbeddingTestData.name(3), gallery[50]);
+        assertEquals(100, index.size());
+        index.findNearest(gallery[3], match);
+        assertNotEquals(EmbeddingTestData.name(3), match.getName(0));
+    }
+
+    @Test
+    public void saveAndLoad_returnSameResults() throws IOException {
+        float[][] gallery = EmbeddingTestData.structured(1000, 11);
+        HnswIndex index = build(gallery, 32);
+        index.remove(EmbeddingTestData.name(7));
+        File file = File.createTempFile("hnsw", ".idx");
+        try {
+            index.save(file);
+            HnswIndex loaded = HnswIndex.load(file);
+            assertEquals(index.size(), loaded.size());
+            assertEquals(index.getEfSearch(), loaded.getEfSearch());
+            assertFalse(loaded.contains(EmbeddingTestData.name(7)));
+
+            EmbeddingMatch loadedMatch = new EmbeddingMatch();
+            Random random = new Random(12);
+            for (int q = 0; q < 100; q++) {
+                float[] query = EmbeddingTestData.noisyCopy(gallery[random.nextInt(gallery.length)], 0.5f, random);
+                index.findNearest(query, match);
+                loaded.findNearest(query, loadedMatch);
+                assertEquals(match.getName(0), loadedMatch.getName(0));
+                assertEquals(match.getSimilarity(0), loadedMatch.getSimilarity(0), 0f);
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void benchmark_recallAndLatencyVersusBruteForce() {
+        Benchmarks.assumeEnabled();
+        for (int count : new int[]{1000, 10000, 100000}) {
+            float[][] gallery = EmbeddingTestData.structured(count, 13);
+            long start = System.nanoTime();
+            HnswIndex index = build(gallery, 32);
+            double buildMillis = (System.nanoTime() - start) / 1e6;
+            EmbeddingStore store = new EmbeddingStore(DIMENSION);
+            store.addAll(EmbeddingTestData.names(count), gallery, count);
+            float[] query = EmbeddingTestData.noisyCopy(gallery[count / 3], 0.5f, new Random(14));
+            double brute = Benchmarks.microsPerRun(() -> store.findNearest(query, match), 100, 500);
+            for (int ef : new int[]{16, 32, 64}) {
+                index.setEfSearch(ef);
+                double recall = recallAt1(index, gallery, null, 200, 15);
+                double micros = Benchmarks.microsPerRun(() -> index.findNearest(query, match), 100, 500);
+                Benchmarks.report("HnswIndex", "%d faces (build %.0fms): brute %.0fus, ef=%d recall@1 %.3f at %.0fus",
+                        count, buildMillis, brute, ef, recall, micros);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.EmbeddingMatch;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static com.cj.mobile.myapplication.util.EmbeddingTestData.DIMENSION;
+import static org.junit.Assert.*;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: QuantizedEmbeddingStoreTest
+ * @Description: int8 / PQ 存储相对暴力检索的 recall@1、精确重排（含从映射的人脸库重排）、每人的占用，以及与 float 存储的耗时对比
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 23:00
+ */
+public class QuantizedEmbeddingStoreTest {
+    private static final int GALLERY = 3000;
+
+    private final EmbeddingMatch match = new EmbeddingMatch();
+
+    private static float[] normalizedFlat(float[][] vectors) {
+        float[] flat = new float[vectors.length * DIMENSION];
+        for (int i = 0; i < vectors.length; i++) {
+            double norm = Math.sqrt(EmbeddingTestData.dot(vectors[i], vectors[i]));
+            for (int d = 0; d < DIMENSION; d++) {
+                flat[i * DIMENSION + d] = (float) (vectors[i][d] / norm);
+            }
+        }
+        return flat;
+    }
+
+    private static ProductQuantizer trainPq(float[][] gallery, int subspaces) {
+        return ProductQuantizer.train(normalizedFlat(gallery), gallery.length, DIMENSION, subspaces, 10, 1);
+    }
+
+    private static QuantizedEmbeddingStore fill(QuantizedEmbeddingStore store, float[][] gallery) {
+        store.addAll(EmbeddingTestData.names(gallery.length), gallery, gallery.length);
+        return store;
+    }
+
+    /**
+     * 第一个结果与暴力检索一致的比例；exactScores 为 true 时同时检查（重排后的）相似度是精确值
+     */
+    private double recallAt1(QuantizedEmbeddingStore store, float[][] gallery, int queries, long seed, boolean exactScores) {
+        Random random = new Random(seed);
+        int hits = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = EmbeddingTestData.noisyCopy(gallery[random.nextInt(gallery.length)], 0.5f, random);
+            int expected = EmbeddingTestData.bruteForceTop2(gallery, gallery.length, query)[0];
+            store.findNearest(query, match);
+            assertEquals(2, match.size());
+            if (EmbeddingTestData.name(expected).equals(match.getName(0))) {
+                hits++;
+            }
+            if (exactScores) {
+                int index = Integer.parseInt(match.getName(0).substring(4));
+                assertEquals(EmbeddingTestData.cosine(gallery[index], query), match.getSimilarity(0), 1e-5);
+            }
+        }
+        return hits / (double) queries;
+    }
+
+    @Test
+    public void bytesPerEntry_withAndWithoutRerank() {
+        assertEquals(DIMENSION + 8, new QuantizedEmbeddingStore(DIMENSION, 0).getBytesPerEntry());
+        // 重排要另外保存 float 向量，int8 时总占用超过 float 存储的 768 字节
+        assertEquals(DIMENSION + 8 + DIMENSION * 4, new QuantizedEmbeddingStore(DIMENSION, 16).getBytesPerEntry());
+        // 从 VectorSource 重排只多保存 4 字节的引用
+        assertEquals(DIMENSION + 12, new QuantizedEmbeddingStore(DIMENSION, 16,
+                (ref, name, query) -> Float.NaN).getBytesPerEntry());
+        ProductQuantizer quantizer = trainPq(EmbeddingTestData.structured(300, 2), 48);
+        assertEquals(48, new QuantizedEmbeddingStore(quantizer, 0).getBytesPerEntry());
+        assertEquals(48 + DIMENSION * 4, new QuantizedEmbeddingStore(quantizer, 32).getBytesPerEntry());
+    }
+
+    @Test
+    public void int8WithoutRerank_highRecall() {
+        float[][] gallery = EmbeddingTestData.structured(GALLERY, 3);
+        QuantizedEmbeddingStore store = fill(new QuantizedEmbeddingStore(DIMENSION, 0), gallery);
+        assertEquals(QuantizedEmbeddingStore.MODE_INT8, store.getMode());
+        assertTrue(recallAt1(store, gallery, 300, 4, false) >= 0.99);
+    }
+
+    @Test
+    public void int8WithRerank_matchesBruteForceExactly() {
+        float[][] gallery = EmbeddingTestData.structured(GALLERY, 5);
+        QuantizedEmbeddingStore store = fill(new QuantizedEmbeddingStore(DIMENSION, 16), gallery);
+        assertEquals(1.0, recallAt1(store, gallery, 300, 6, true), 0.0);
+    }
+
+    @Test
+    public void int8WithRegistryRerank_matchesBruteForceExactly() throws IOException {
+        float[][] gallery = EmbeddingTestData.structured(GALLERY, 12);
+        File file = File.createTempFile("faces", ".reg");
+        assertTrue(file.delete());
+        try (FaceRegistry registry = FaceRegistry.open(file, DIMENSION)) {
+            for (int i = 0; i < gallery.length; i++) {
+                registry.enroll(EmbeddingTestData.name(i), gallery[i]);
+            }
+            QuantizedEmbeddingStore store = new QuantizedEmbeddingStore(DIMENSION, 16, registry::similarity);
+            assertTrue(registry.forEach((row, name, vector) -> {
+                store.add(name, vector, row);
+                return true;
+            }));
+            assertEquals(1.0, recallAt1(store, gallery, 300, 13, true), 0.0);
+
+            // 引用失效时保留量化域的分数，结果仍然正确
+            QuantizedEmbeddingStore stale = new QuantizedEmbeddingStore(DIMENSION, 16, registry::similarity);
+            stale.addAll(EmbeddingTestData.names(gallery.length), gallery, gallery.length);
+            stale.findNearest(gallery[7], match);
+            assertEquals(EmbeddingTestData.name(7), match.getName(0));
+            assertEquals(1f, match.getSimilarity(0), 0.01f);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void pqRerank_recoversRecall() {
+        float[][] gallery = EmbeddingTestData.structured(GALLERY, 7);
+        ProductQuantizer quantizer = trainPq(gallery, 24);
+        QuantizedEmbeddingStore approximate = fill(new QuantizedEmbeddingStore(quantizer, 0), gallery);
+        QuantizedEmbeddingStore reranked = fill(new QuantizedEmbeddingStore(quantizer, 64), gallery);
+        assertEquals(QuantizedEmbeddingStore.MODE_PQ, reranked.getMode());
+        double before = recallAt1(approximate, gallery, 300, 8, false);
+        double after = recallAt1(reranked, gallery, 300, 8, true);
+        assertTrue("pq24 " + before + " reranked " + after, after >= before);
+        assertTrue("reranked recall " + after, after >= 0.99);
+    }
+
+    @Test
+    public void productQuantizer_scoreApproximatesDot() {
+        float[][] gallery = EmbeddingTestData.structured(2000, 9);
+        float[] flat = normalizedFlat(gallery);
+        ProductQuantizer quantizer = ProductQuantizer.train(flat, gallery.length, DIMENSION, 48, 10, 1);
+        byte[] codes = new byte[48];
+        float[] table = new float[48 * ProductQuantizer.CENTROIDS];
+        Random random = new Random(10);
+        double error = 0;
+        int samples = 500;
+        for (int t = 0; t < samples; t++) {
+            int i = random.nextInt(gallery.length);
+            int j = random.nextInt(gallery.length);
+            quantizer.encode(flat, i * DIMENSION, codes, 0);
+            float[] query = new float[DIMENSION];
+            System.arraycopy(flat, j * DIMENSION, query, 0, DIMENSION);
+            quantizer.computeTable(query, table);
+            double exact = 0;
+            for (int d = 0; d < DIMENSION; d++) {
+                exact += flat[i * DIMENSION + d] * query[d];
+            }
+            error += Math.abs(quantizer.score(table, codes, 0) - exact);
+        }
+        assertTrue("mean |error| " + error / samples, error / samples < 0.05);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void productQuantizer_rejectsIndivisibleDimension() {
+        ProductQuantizer.train(new float[DIMENSION], 1, DIMENSION, 50, 1, 1);
+    }
+
+    @Test
+    public void addAndRemove_keepNamesConsistent() {
+        float[][] gallery = EmbeddingTestData.gaussian(100, 11);
+        QuantizedEmbeddingStore store = fill(new QuantizedEmbeddingStore(DIMENSION, 8), gallery);
+        store.add(EmbeddingTestData.name(5), gallery[60]);
+        assertEquals(100, store.size());
+        for (int i = 0; i < 50; i++) {
+            assertTrue(store.remove(EmbeddingTestData.name(i)));
+        }
+        assertFalse(store.remove(EmbeddingTestData.name(0)));
+        assertEquals(50, store.size());
+        for (int i = 50; i < 100; i++) {
+            store.findNearest(gallery[i], match);
+            assertEquals(EmbeddingTestData.name(i), match.getName(0));
+            assertEquals(1f, match.getSimilarity(0), 1e-5f);
+        }
+        store.clear();
+        store.findNearest(gallery[0], match);
+        assertEquals(0, match.size());
+    }
+
+    @Test
+    public void benchmark_memoryLatencyRecall() {
+        Benchmarks.assumeEnabled();
+        int count = 10000;
+        float[][] gallery = EmbeddingTestData.structured(count, 12);
+        float[] query = EmbeddingTestData.noisyCopy(gallery[count / 2], 0.5f, new Random(13));
+        EmbeddingStore floats = new EmbeddingStore(DIMENSION);
+        floats.addAll(EmbeddingTestData.names(count), gallery, count);
+        double floatMicros = Benchmarks.microsPerRun(() -> floats.findNearest(query, match), 100, 500);
+        Benchmarks.report("QuantizedEmbeddingStore", "%d faces float: %d B/face, %.0fus", count, DIMENSION * 4, floatMicros);
+
+        ProductQuantizer pq48 = trainPq(gallery, 48);
+        ProductQuantizer pq24 = trainPq(gallery, 24);
+        Object[][] configurations = {
+                {"int8", new QuantizedEmbeddingStore(DIMENSION, 0)},
+                {"int8+rerank16", new QuantizedEmbeddingStore(DIMENSION, 16)},
+                {"pq48", new QuantizedEmbeddingStore(pq48, 0)},
+                {"pq48+rerank32", new QuantizedEmbeddingStore(pq48, 32)},
+                {"pq24", new QuantizedEmbeddingStore(pq24, 0)},
+                {"pq24+rerank64", new QuantizedEmbeddingStore(pq24, 64)},
+        };
+        for (Object[] configuration : configurations) {
+            QuantizedEmbeddingStore store = fill((QuantizedEmbeddingStore) configuration[1], gallery);
+            double recall = recallAt1(store, gallery, 300, 14, false);
+            double micros = Benchmarks.microsPerRun(() -> store.findNearest(query, match), 100, 500);
+            Benchmarks.report("QuantizedEmbeddingStore", "%d faces %s: %d B/face, recall@1 %.3f, %.0fus",
+                    count, configuration[0], store.getBytesPerEntry(), recall, micros);
+        }
+    }
+}
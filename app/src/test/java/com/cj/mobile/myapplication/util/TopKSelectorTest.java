@@ -0,0 +1,217 @@
+package com.cj.mobile.myapplication.util;
+
+import com.cj.mobile.myapplication.model.ClassificationResult;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: TopKSelectorTest
+ * @Description: TopKSelector 与“反量化 + softmax + 过滤 + 全排序”的参考实现比较，以及与装箱排序的耗时对比
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 22:20
+ */
+public class TopKSelectorTest {
+    private static final int CLASSES = 1001;
+    private static final int K = 5;
+
+    private final TopKSelector selector = new TopKSelector();
+    private final ClassificationResult result = new ClassificationResult(K);
+
+    /**
+     * 参考实现：分数不低于 threshold 的类别按分数从高到低的前 k 个分数
+     */
+    private static float[] referenceTopScores(double[] scores, float threshold, int k) {
+        List<Float> kept = new ArrayList<>();
+        for (double score : scores) {
+            if ((float) score >= threshold) {
+                kept.add((float) score);
+            }
+        }
+        Collections.sort(kept, Collections.reverseOrder());
+        float[] top = new float[Math.min(k, kept.size())];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = kept.get(i);
+        }
+        return top;
+    }
+
+    private static double[] softmax(double[] logits) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double logit : logits) {
+            max = Math.max(max, logit);
+        }
+        double sum = 0;
+        for (double logit : logits) {
+            sum += Math.exp(logit - max);
+        }
+        double[] probabilities = new double[logits.length];
+        for (int i = 0; i < logits.length; i++) {
+            probabilities[i] = Math.exp(logits[i] - max) / sum;
+        }
+        return probabilities;
+    }
+
+    /**
+     * 结果的分数与参考一致，且每个下标的分数就是该类别的分数
+     */
+    private void assertResult(float[] expected, double[] scores, float delta) {
+        assertEquals("size", expected.length, result.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("score " + i, expected[i], result.getScore(i), delta);
+            assertEquals("id " + result.getId(i), scores[result.getId(i)], result.getScore(i), delta);
+        }
+    }
+
+    @Test
+    public void selectFloat_matchesSortedReference() {
+        Random random = new Random(1);
+        float[] values = new float[CLASSES];
+        double[] scores = new double[CLASSES];
+        for (int trial = 0; trial < 200; trial++) {
+            for (int i = 0; i < CLASSES; i++) {
+                values[i] = random.nextFloat();
+                scores[i] = values[i];
+            }
+            float threshold = random.nextFloat();
+            selector.select(values, CLASSES, false, threshold, result);
+            assertResult(referenceTopScores(scores, threshold, K), scores, 0f);
+        }
+    }
+
+    @Test
+    public void selectFloat_softmaxMatchesReference() {
+        Random random = new Random(2);
+        float[] logits = new float[CLASSES];
+        double[] doubles = new double[CLASSES];
+        for (int trial = 0; trial < 100; trial++) {
+            for (int i = 0; i < CLASSES; i++) {
+                logits[i] = (float) (random.nextGaussian() * 4);
+                doubles[i] = logits[i];
+            }
+            double[] probabilities = softmax(doubles);
+            float threshold = trial % 2 == 0 ? 0f : 0.01f;
+            selector.select(logits, CLASSES, true, threshold, result);
+            assertResult(referenceTopScores(probabilities, threshold, K), probabilities, 1e-6f);
+        }
+    }
+
+    @Test
+    public void selectFloat_fewerCandidatesThanK() {
+        float[] values = {0.1f, 0.9f, 0.5f, 0.2f};
+        selector.select(values, values.length, false, 0.3f, result);
+        assertEquals(2, result.size());
+        assertEquals(1, result.getId(0));
+        assertEquals(2, result.getId(1));
+    }
+
+    private void checkQuantized(boolean unsigned, long seed) {
+        Random random = new Random(seed);
+        byte[] values = new byte[CLASSES];
+        double[] scores = new double[CLASSES];
+        for (int trial = 0; trial < 200; trial++) {
+            float scale = 1f / (2 + random.nextInt(254));
+            int zeroPoint = unsigned ? random.nextInt(256) : random.nextInt(256) - 128;
+            random.nextBytes(values);
+            for (int i = 0; i < CLASSES; i++) {
+                int q = unsigned ? values[i] & 0xFF : values[i];
+                // 与 TopKSelector 相同的反量化表达式
+                scores[i] = (q - zeroPoint) * scale;
+            }
+            float threshold = (random.nextFloat() * 2 - 1) * 128 * scale;
+            selector.select(values, CLASSES, unsigned, scale, zeroPoint, false, threshold, result);
+            assertResult(referenceTopScores(scores, threshold, K), scores, 0f);
+        }
+    }
+
+    @Test
+    public void selectUint8_matchesSortedReference() {
+        checkQuantized(true, 3);
+    }
+
+    @Test
+    public void selectInt8_matchesSortedReference() {
+        checkQuantized(false, 4);
+    }
+
+    /**
+     * 阈值正好等于某个量化值反量化后的分数时，该类别要保留（threshold / scale 向上取整可能多进一位）
+     */
+    @Test
+    public void selectQuantized_keepsScoresEqualToThreshold() {
+        byte[] values = new byte[256];
+        for (int q = 0; q < 256; q++) {
+            values[q] = (byte) q;
+        }
+        for (int denominator = 3; denominator < 256; denominator++) {
+            float scale = 1f / denominator;
+            for (int zeroPoint = 0; zeroPoint < 256; zeroPoint += 7) {
+                for (int q = zeroPoint; q < 256; q += 13) {
+                    float threshold = (q - zeroPoint) * scale;
+                    ClassificationResult all = new ClassificationResult(256);
+                    selector.select(values, 256, true, scale, zeroPoint, false, threshold, all);
+                    int expected = 0;
+                    for (int v = 0; v < 256; v++) {
+                        if ((v - zeroPoint) * scale >= threshold) {
+                            expected++;
+                        }
+                    }
+                    assertEquals("scale=1/" + denominator + " zeroPoint=" + zeroPoint + " q=" + q,
+                            expected, all.size());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void selectQuantized_softmaxMatchesReference() {
+        Random random = new Random(5);
+        byte[] values = new byte[CLASSES];
+        double[] logits = new double[CLASSES];
+        float scale = 0.1f;
+        int zeroPoint = 128;
+        for (int trial = 0; trial < 50; trial++) {
+            random.nextBytes(values);
+            for (int i = 0; i < CLASSES; i++) {
+                logits[i] = ((values[i] & 0xFF) - zeroPoint) * (double) scale;
+            }
+            double[] probabilities = softmax(logits);
+            selector.select(values, CLASSES, true, scale, zeroPoint, true, 0.001f, result);
+            assertResult(referenceTopScores(probabilities, 0.001f, K), probabilities, 1e-5f);
+        }
+    }
+
+    @Test
+    public void benchmark_topKVersusBoxedSort() {
+        Benchmarks.assumeEnabled();
+        Random random = new Random(6);
+        float[] logits = new float[CLASSES];
+        byte[] quantized = new byte[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            logits[i] = (float) (random.nextGaussian() * 4);
+        }
+        random.nextBytes(quantized);
+
+        double boxed = Benchmarks.microsPerRun(() -> {
+            // 旧做法：每个类别一个对象，全部排序
+            List<float[]> all = new ArrayList<>(CLASSES);
+            for (int i = 0; i < CLASSES; i++) {
+                all.add(new float[]{i, logits[i]});
+            }
+            Collections.sort(all, (a, b) -> Float.compare(b[1], a[1]));
+        }, 2000, 5000);
+        double topK = Benchmarks.microsPerRun(() -> selector.select(logits, CLASSES, true, 0f, result), 2000, 5000);
+        double topKQuantized = Benchmarks.microsPerRun(
+                () -> selector.select(quantized, CLASSES, true, 0.1f, 128, true, 0f, result), 2000, 5000);
+        Benchmarks.report("TopKSelector", "%d classes: boxed sort %.1fus, float+softmax %.1fus, uint8+softmax %.1fus",
+                CLASSES, boxed, topK, topKQuantized);
+    }
+}
@@ -0,0 +1,247 @@
+package com.cj.mobile.myapplication.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: YuvTensorPreprocessorTest
+ * @Description: YuvTensorPreprocessor 的旋转、镜像、双线性缩放和归一化，与不经过 Bitmap 的逐像素参考比较，以及预处理耗时
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 23:20
+ */
+public class YuvTensorPreprocessorTest {
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    /**
+     * 合成一帧半平面（U/V 交错）的 YUV_420_888，smooth 为 true 时是平滑的渐变，否则是随机噪声
+     */
+    private static YuvFrame syntheticFrame(int width, int height, boolean smooth, long seed) {
+        Random random = new Random(seed);
+        int rowStride = width + 8;
+        byte[] y = new byte[rowStride * height];
+        byte[] uv = new byte[rowStride * (height / 2)];
+        if (smooth) {
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    y[row * rowStride + col] = (byte) (32 + col * 160 / width + row * 48 / height);
+                }
+            }
+            for (int row = 0; row < height / 2; row++) {
+                for (int col = 0; col < width / 2; col++) {
+                    uv[row * rowStride + col * 2] = (byte) (96 + col * 64 / width);
+                    uv[row * rowStride + col * 2 + 1] = (byte) (160 - row * 64 / height);
+                }
+            }
+        } else {
+            random.nextBytes(y);
+            random.nextBytes(uv);
+        }
+        return new YuvFrame().set(width, height, ByteBuffer.wrap(y), rowStride, 1,
+                ByteBuffer.wrap(uv), rowStride, 2, ByteBuffer.wrap(uv, 1, uv.length - 1).slice(), rowStride, 2);
+    }
+
+    /**
+     * 正向图像 (ux, uy) 对应的传感器坐标
+     */
+    private static float[] toSensor(float ux, float uy, int rotation, int width, int height) {
+        switch (rotation) {
+            case 90:
+                return new float[]{uy, height - 1 - ux};
+            case 180:
+                return new float[]{width - 1 - ux, height - 1 - uy};
+            case 270:
+                return new float[]{width - 1 - uy, ux};
+            default:
+                return new float[]{ux, uy};
+        }
+    }
+
+    /**
+     * 参考实现：逐像素按浮点坐标计算，亮度双线性插值，色度取最近的采样点
+     */
+    private static int referenceArgb(YuvFrame frame, int ox, int oy, int outWidth, int outHeight,
+                                     int rotation, boolean mirror) {
+        boolean swap = rotation % 180 != 0;
+        int uprightWidth = swap ? frame.getHeight() : frame.getWidth();
+        int uprightHeight = swap ? frame.getWidth() : frame.getHeight();
+        float ux = (ox + 0.5f) * uprightWidth / outWidth - 0.5f;
+        float uy = (oy + 0.5f) * uprightHeight / outHeight - 0.5f;
+        if (mirror) {
+            ux = uprightWidth - 1 - ux;
+        }
+        ux = Math.max(0f, Math.min(uprightWidth - 1, ux));
+        uy = Math.max(0f, Math.min(uprightHeight - 1, uy));
+        float[] sensor = toSensor(ux, uy, rotation, frame.getWidth(), frame.getHeight());
+        float sx = sensor[0];
+        float sy = sensor[1];
+        int x0 = (int) sx;
+        int y0 = (int) sy;
+        int x1 = Math.min(frame.getWidth() - 1, x0 + 1);
+        int y1 = Math.min(frame.getHeight() - 1, y0 + 1);
+        float fx = sx - x0;
+        float fy = sy - y0;
+        float luma = (frame.luma(x0, y0) * (1 - fx) + frame.luma(x1, y0) * fx) * (1 - fy)
+                + (frame.luma(x0, y1) * (1 - fx) + frame.luma(x1, y1) * fx) * fy;
+        int nearestX = fx < 0.5f ? x0 : x1;
+        int nearestY = fy < 0.5f ? y0 : y1;
+        int cx = nearestX >> 1;
+        int cy = nearestY >> 1;
+        int u = frame.getUBuffer().get(cy * frame.getURowStride() + cx * frame.getUPixelStride()) & 0xFF;
+        int v = frame.getVBuffer().get(cy * frame.getVRowStride() + cx * frame.getVPixelStride()) & 0xFF;
+        return YuvToArgbEngine.yuvToArgb(Math.round(luma), u, v);
+    }
+
+    private static int channel(int argb, int c) {
+        return (argb >> (16 - 8 * c)) & 0xFF;
+    }
+
+    /**
+     * 读取 UINT8 输出中 (ox, oy) 的 RGB，打包成 ARGB
+     */
+    private static int outputArgb(ByteBuffer tensor, int ox, int oy, int outWidth) {
+        int index = (oy * outWidth + ox) * 3;
+        return 0xFF000000 | (tensor.get(index) & 0xFF) << 16 | (tensor.get(index + 1) & 0xFF) << 8 | (tensor.get(index + 2) & 0xFF);
+    }
+
+    /**
+     * 输出与正向图像同尺寸时没有插值：每个输出像素就是某个源像素，旋转和镜像必须完全一致
+     */
+    @Test
+    public void process_rotationAndMirrorAreExactWithoutScaling() {
+        YuvFrame frame = syntheticFrame(24, 16, false, 1);
+        for (int rotation : ROTATIONS) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                boolean swap = rotation % 180 != 0;
+                int outWidth = swap ? 16 : 24;
+                int outHeight = swap ? 24 : 16;
+                YuvTensorPreprocessor preprocessor = new YuvTensorPreprocessor(outWidth, outHeight,
+                        YuvTensorPreprocessor.OUTPUT_UINT8, 0f, 1f);
+                ByteBuffer tensor = preprocessor.process(frame, rotation, mirror);
+                for (int oy = 0; oy < outHeight; oy++) {
+                    for (int ox = 0; ox < outWidth; ox++) {
+                        int ux = mirror ? outWidth - 1 - ox : ox;
+                        float[] sensor = toSensor(ux, oy, rotation, 24, 16);
+                        int expected = frame.argb((int) sensor[0], (int) sensor[1]);
+                        int actual = outputArgb(tensor, ox, oy, outWidth);
+                        if (expected != actual) {
+                            fail("rotation=" + rotation + " mirror=" + mirror + " (" + ox + ", " + oy + ") expected "
+                                    + Integer.toHexString(expected) + " but was " + Integer.toHexString(actual));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 缩放时与浮点参考比较：定点权重只有 8 位，允许很小的误差
+     */
+    @Test
+    public void process_bilinearResizeMatchesReference() {
+        YuvFrame frame = syntheticFrame(64, 48, true, 2);
+        for (int rotation : ROTATIONS) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                YuvTensorPreprocessor preprocessor = new YuvTensorPreprocessor(37, 29,
+                        YuvTensorPreprocessor.OUTPUT_UINT8, 0f, 1f);
+                ByteBuffer tensor = preprocessor.process(frame, rotation, mirror);
+                for (int oy = 0; oy < 29; oy++) {
+                    for (int ox = 0; ox < 37; ox++) {
+                        int expected = referenceArgb(frame, ox, oy, 37, 29, rotation, mirror);
+                        int actual = outputArgb(tensor, ox, oy, 37);
+                        for (int c = 0; c < 3; c++) {
+                            assertEquals("rotation=" + rotation + " mirror=" + mirror + " (" + ox + ", " + oy + ")",
+                                    channel(expected, c), channel(actual, c), 3);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 缩放后的亮度在相邻源像素之间：放大 2 倍时每个输出都位于两个源像素之间
+     */
+    @Test
+    public void process_upscaleInterpolatesBetweenNeighbours() {
+        YuvFrame frame = syntheticFrame(16, 8, true, 3);
+        YuvTensorPreprocessor preprocessor = new YuvTensorPreprocessor(32, 16, YuvTensorPreprocessor.OUTPUT_UINT8, 0f, 1f);
+        ByteBuffer tensor = preprocessor.process(frame, 0, false);
+        for (int ox = 1; ox < 31; ox++) {
+            int left = channel(frame.argb((ox - 1) / 2, 4), 1);
+            int right = channel(frame.argb((ox + 1) / 2, 4), 1);
+            int actual = channel(outputArgb(tensor, ox, 8, 32), 1);
+            assertTrue("x=" + ox, actual >= Math.min(left, right) - 2 && actual <= Math.max(left, right) + 2);
+        }
+    }
+
+    @Test
+    public void process_normalizesFloatAndShiftsInt8() {
+        YuvFrame frame = syntheticFrame(20, 12, false, 4);
+        YuvTensorPreprocessor floats = new YuvTensorPreprocessor(20, 12, YuvTensorPreprocessor.OUTPUT_FLOAT32, 127.5f, 127.5f);
+        YuvTensorPreprocessor int8 = new YuvTensorPreprocessor(20, 12, YuvTensorPreprocessor.OUTPUT_INT8, 0f, 1f);
+        assertEquals(20 * 12 * 3 * 4, floats.getTensorBytes());
+        assertEquals(20 * 12 * 3, int8.getTensorBytes());
+        ByteBuffer floatTensor = floats.process(frame, 0, false);
+        ByteBuffer int8Tensor = int8.process(frame, 0, false);
+        for (int y = 0; y < 12; y++) {
+            for (int x = 0; x < 20; x++) {
+                int argb = frame.argb(x, y);
+                for (int c = 0; c < 3; c++) {
+                    int index = (y * 20 + x) * 3 + c;
+                    assertEquals((channel(argb, c) - 127.5f) / 127.5f, floatTensor.getFloat(index * 4), 1e-6f);
+                    assertEquals(channel(argb, c) - 128, int8Tensor.get(index));
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入调用方缓冲区的指定偏移，前面的内容和 position 不变；几何参数变化后查找表重建
+     */
+    @Test
+    public void process_writesAtOffsetAndRebuildsOnGeometryChange() {
+        YuvFrame frame = syntheticFrame(24, 16, false, 5);
+        YuvTensorPreprocessor preprocessor = new YuvTensorPreprocessor(24, 16, YuvTensorPreprocessor.OUTPUT_UINT8, 0f, 1f);
+        int bytes = preprocessor.getTensorBytes();
+        ByteBuffer out = ByteBuffer.allocateDirect(7 + bytes).order(ByteOrder.nativeOrder());
+        out.put(0, (byte) 42);
+        preprocessor.process(frame, 0, false, out, 7);
+        assertEquals(0, out.position());
+        assertEquals(42, out.get(0));
+        ByteBuffer expected = new YuvTensorPreprocessor(24, 16, YuvTensorPreprocessor.OUTPUT_UINT8, 0f, 1f)
+                .process(frame, 0, false);
+        for (int i = 0; i < bytes; i++) {
+            assertEquals(expected.get(i), out.get(7 + i));
+        }
+
+        ByteBuffer mirrored = preprocessor.process(frame, 0, true);
+        assertEquals(frame.argb(23, 0), outputArgb(mirrored, 0, 0, 24));
+        ByteBuffer rotated = preprocessor.process(frame, 180, false);
+        assertEquals(frame.argb(23, 15), outputArgb(rotated, 0, 0, 24));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void process_rejectsNonRightAngleRotation() {
+        new YuvTensorPreprocessor(8, 8, YuvTensorPreprocessor.OUTPUT_UINT8, 0f, 1f)
+                .process(syntheticFrame(16, 16, false, 6), 45, false);
+    }
+
+    @Test
+    public void benchmark_640x480To224() {
+        Benchmarks.assumeEnabled();
+        YuvFrame frame = syntheticFrame(640, 480, false, 7);
+        for (int type : new int[]{YuvTensorPreprocessor.OUTPUT_FLOAT32, YuvTensorPreprocessor.OUTPUT_UINT8}) {
+            YuvTensorPreprocessor preprocessor = new YuvTensorPreprocessor(224, 224, type, 0f, 255f);
+            double micros = Benchmarks.microsPerRun(() -> preprocessor.process(frame, 90, false), 50, 300);
+            Benchmarks.report("YuvTensorPreprocessor", "640x480 -> 224x224 %s %.0fus/frame",
+                    type == YuvTensorPreprocessor.OUTPUT_FLOAT32 ? "float32" : "uint8", micros);
+        }
+    }
+}
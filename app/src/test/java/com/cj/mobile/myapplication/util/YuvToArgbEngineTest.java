@@ -0,0 +1,232 @@
+package com.cj.mobile.myapplication.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @ProjectName: TensorFlowAndroid
+ * @Package: com.cj.mobile.myapplication.util
+ * @ClassName: YuvToArgbEngineTest
+ * @Description: YuvToArgbEngine 的正确性（与逐像素的参考转换比较）、关闭时的行为以及与原 NV21 做法对比的转换耗时
+ * @Author: WLY
+ * @CreateDate: 2026/10/18 22:10
+ */
+public class YuvToArgbEngineTest {
+    private YuvToArgbEngine engine;
+
+    @After
+    public void tearDown() {
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    /**
+     * 合成一帧半平面（U/V 交错，pixelStride = 2）的 YUV_420_888，行末带填充
+     */
+    private static YuvFrame syntheticFrame(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int yRowStride = width + 16;
+        int chromaRowStride = width + 16;
+        byte[] y = new byte[yRowStride * height];
+        byte[] uv = new byte[chromaRowStride * (height / 2)];
+        random.nextBytes(y);
+        random.nextBytes(uv);
+        ByteBuffer yBuffer = ByteBuffer.wrap(y);
+        ByteBuffer uBuffer = ByteBuffer.wrap(uv);
+        ByteBuffer vBuffer = ByteBuffer.wrap(uv, 1, uv.length - 1).slice();
+        return new YuvFrame().set(width, height, yBuffer, yRowStride, 1,
+                uBuffer, chromaRowStride, 2, vBuffer, chromaRowStride, 2);
+    }
+
+    private static void assertMatchesReference(YuvFrame frame, int[] out, int offset) {
+        for (int row = 0; row < frame.getHeight(); row++) {
+            for (int col = 0; col < frame.getWidth(); col++) {
+                int expected = frame.argb(col, row);
+                int actual = out[offset + row * frame.getWidth() + col];
+                if (expected != actual) {
+                    fail("Pixel (" + col + ", " + row + ") expected " + Integer.toHexString(expected)
+                            + " but was " + Integer.toHexString(actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void convert_matchesPerPixelReference() {
+        engine = new YuvToArgbEngine(4);
+        YuvFrame frame = syntheticFrame(64, 48, 1);
+        int[] out = new int[64 * 48];
+        engine.convert(frame, out);
+        assertMatchesReference(frame, out, 0);
+    }
+
+    @Test
+    public void convert_oddCropAndOddSize() {
+        engine = new YuvToArgbEngine(3);
+        YuvFrame frame = syntheticFrame(64, 48, 2).setCrop(3, 5, 37, 29);
+        int[] out = new int[37 * 29];
+        engine.convert(frame, out);
+        assertMatchesReference(frame, out, 0);
+    }
+
+    @Test
+    public void convert_directIntBufferFromPosition() {
+        engine = new YuvToArgbEngine(2);
+        YuvFrame frame = syntheticFrame(32, 16, 3);
+        IntBuffer buffer = ByteBuffer.allocateDirect((8 + 32 * 16) * 4).asIntBuffer();
+        buffer.position(8);
+        engine.convert(frame, buffer);
+        assertEquals(8, buffer.position());
+        int[] out = new int[8 + 32 * 16];
+        buffer.position(0);
+        buffer.get(out);
+        assertMatchesReference(frame, out, 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void convert_rejectsSmallOutput() {
+        engine = new YuvToArgbEngine(1);
+        engine.convert(syntheticFrame(32, 16, 4), new int[32 * 16 - 1]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void convert_afterCloseThrows() {
+        engine = new YuvToArgbEngine(2);
+        engine.close();
+        engine.convert(syntheticFrame(32, 16, 5), new int[32 * 16]);
+    }
+
+    /**
+     * 转换进行中关闭：close 等当前帧完成，转换线程不会一直等在工作线程上
+     */
+    @Test
+    public void close_duringConvertDoesNotHang() throws InterruptedException {
+        engine = new YuvToArgbEngine(4);
+        YuvFrame frame = syntheticFrame(640, 480, 6);
+        int[] out = new int[640 * 480];
+        Thread converter = new Thread(() -> {
+            try {
+                while (true) {
+                    engine.convert(frame, out);
+                }
+            } catch (IllegalStateException expected) {
+                // 关闭后退出
+            }
+        });
+        converter.start();
+        Thread.sleep(50);
+        engine.close();
+        converter.join(5000);
+        assertFalse("convert() still blocked after close()", converter.isAlive());
+    }
+
+    /**
+     * 工作线程的条带出错：异常交回 convert 的调用方，工作线程继续可用，下一帧不会卡住
+     */
+    @Test
+    public void convert_rethrowsWorkerFailureAndKeepsWorking() throws InterruptedException {
+        engine = new YuvToArgbEngine(2);
+        YuvFrame valid = syntheticFrame(32, 64, 8);
+        // Y 平面只有前 32 行：第二条带（工作线程）越界，第一条带（调用线程）正常
+        ByteBuffer truncated = ByteBuffer.wrap(new byte[valid.getYRowStride() * 32]);
+        YuvFrame broken = new YuvFrame().set(32, 64, truncated, valid.getYRowStride(), 1,
+                valid.getUBuffer(), valid.getURowStride(), 2, valid.getVBuffer(), valid.getVRowStride(), 2);
+        int[] out = new int[32 * 64];
+        try {
+            engine.convert(broken, out);
+            fail("worker failure was not reported");
+        } catch (IndexOutOfBoundsException expected) {
+            // 工作线程的异常
+        }
+
+        Thread converter = new Thread(() -> engine.convert(valid, out));
+        converter.start();
+        converter.join(5000);
+        assertFalse("convert() blocked after a worker failure", converter.isAlive());
+        assertMatchesReference(valid, out, 0);
+    }
+
+    /**
+     * 替换前的做法在 JVM 上的近似：按行拷贝三个平面拼成 NV21（与原 YuvToRgbConverter.imageToByteBuffer 相同），
+     * 再逐像素转换（代替 ScriptIntrinsicYuvToRGB）
+     */
+    private static void nv21Baseline(YuvFrame frame, byte[] nv21, int[] out) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int pixelCount = width * height;
+        ByteBuffer[] buffers = {frame.getYBuffer().duplicate(), frame.getUBuffer().duplicate(), frame.getVBuffer().duplicate()};
+        int[] rowStrides = {frame.getYRowStride(), frame.getURowStride(), frame.getVRowStride()};
+        int[] pixelStrides = {frame.getYPixelStride(), frame.getUPixelStride(), frame.getVPixelStride()};
+        for (int plane = 0; plane < 3; plane++) {
+            int outputStride = plane == 0 ? 1 : 2;
+            // NV21 的色度为 V U 交错
+            int outputOffset = plane == 0 ? 0 : (plane == 1 ? pixelCount + 1 : pixelCount);
+            int planeWidth = plane == 0 ? width : width / 2;
+            int planeHeight = plane == 0 ? height : height / 2;
+            int pixelStride = pixelStrides[plane];
+            byte[] rowBuffer = new byte[rowStrides[plane]];
+            int rowLength = pixelStride == 1 && outputStride == 1 ? planeWidth : (planeWidth - 1) * pixelStride + 1;
+            for (int row = 0; row < planeHeight; row++) {
+                buffers[plane].position(row * rowStrides[plane]);
+                if (pixelStride == 1 && outputStride == 1) {
+                    buffers[plane].get(nv21, outputOffset, rowLength);
+                    outputOffset += rowLength;
+                } else {
+                    buffers[plane].get(rowBuffer, 0, rowLength);
+                    for (int col = 0; col < planeWidth; col++) {
+                        nv21[outputOffset] = rowBuffer[col * pixelStride];
+                        outputOffset += outputStride;
+                    }
+                }
+            }
+        }
+        for (int row = 0; row < height; row++) {
+            int chroma = pixelCount + (row >> 1) * width;
+            for (int col = 0; col < width; col++) {
+                int uv = chroma + (col & ~1);
+                out[row * width + col] = YuvToArgbEngine.yuvToArgb(nv21[row * width + col] & 0xFF,
+                        nv21[uv + 1] & 0xFF, nv21[uv] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void nv21Baseline_matchesEngine() {
+        engine = new YuvToArgbEngine(2);
+        YuvFrame frame = syntheticFrame(64, 48, 9);
+        int[] expected = new int[64 * 48];
+        int[] actual = new int[64 * 48];
+        engine.convert(frame, expected);
+        nv21Baseline(frame, new byte[64 * 48 * 3 / 2], actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void benchmark_versusNv21Baseline() {
+        Benchmarks.assumeEnabled();
+        for (int[] size : new int[][]{{640, 480}, {1280, 720}}) {
+            int width = size[0];
+            int height = size[1];
+            YuvFrame frame = syntheticFrame(width, height, 7);
+            int[] out = new int[width * height];
+            byte[] nv21 = new byte[width * height * 3 / 2];
+            double baseline = Benchmarks.microsPerRun(() -> nv21Baseline(frame, nv21, out), 20, 100);
+            Benchmarks.report("YuvToArgbEngine", "%dx%d NV21 repack + per-pixel %.2fms/frame",
+                    width, height, baseline / 1000);
+            for (int threads : new int[]{1, 2, YuvToArgbEngine.defaultThreadCount()}) {
+                YuvToArgbEngine tested = new YuvToArgbEngine(threads);
+                double micros = Benchmarks.microsPerRun(() -> tested.convert(frame, out), 50, 200);
+                tested.close();
+                Benchmarks.report("YuvToArgbEngine", "%dx%d threads=%d %.2fms/frame (%.1fx)",
+                        width, height, threads, micros / 1000, baseline / micros);
+            }
+        }
+    }
+}